@@ -0,0 +1,117 @@
+package org.schabi.newpipe.local.history
+
+import android.util.Log
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.schabi.newpipe.database.AppDatabase
+import org.schabi.newpipe.database.stream.model.StreamStateEntity
+import org.schabi.newpipe.extractor.InfoItem
+import org.schabi.newpipe.extractor.stream.StreamInfoItem
+import org.schabi.newpipe.testUtil.TestDatabase
+import org.schabi.newpipe.testUtil.TrampolineSchedulerRule
+
+/**
+ * Measures the latency of loading the states of a list page, 100 and 1000 items, from a database
+ * with [STREAMS] streams, half of them with a state. The batch queries are compared with the
+ * previous implementation, two queries per item.
+ *
+ * Skipped unless the `newpipeBenchmark` instrumentation argument is set, run it with
+ * `./gradlew connectedDebugAndroidTest
+ * -Pandroid.testInstrumentationRunnerArguments.newpipeBenchmark=1
+ * -Pandroid.testInstrumentationRunnerArguments.class=org.schabi.newpipe.local.history.HistoryRecordManagerBenchmark`
+ */
+class HistoryRecordManagerBenchmark {
+
+    private lateinit var manager: HistoryRecordManager
+    private lateinit var database: AppDatabase
+    private lateinit var items: List<InfoItem>
+
+    @get:Rule
+    val trampolineScheduler = TrampolineSchedulerRule()
+
+    @Before
+    fun setup() {
+        assumeTrue(InstrumentationRegistry.getArguments().getString("newpipeBenchmark") != null)
+
+        database = TestDatabase.createReplacingNewPipeDatabase()
+        manager = HistoryRecordManager(ApplicationProvider.getApplicationContext())
+
+        val streams = (0 until STREAMS).map {
+            HistoryRecordManagerTest.stream(it % 3, "https://example.com/watch?v=$it")
+        }
+        val ids = database.streamDAO().upsertAll(streams)
+        database.streamStateDAO().insertAll(
+            ids.filterIndexed { i, _ -> i % 2 == 0 }.map { StreamStateEntity(it, 60_000) }
+        )
+
+        // spread over the whole table, like a page of the history
+        items = streams.shuffled().map {
+            StreamInfoItem(it.serviceId, it.url, it.title, it.streamType)
+        }
+    }
+
+    @After
+    fun cleanUp() {
+        if (::database.isInitialized) {
+            database.close()
+        }
+    }
+
+    /**
+     * The previous implementation of [HistoryRecordManager.loadStreamStateBatch].
+     */
+    private fun loadPerItem(infos: List<InfoItem>): List<StreamStateEntity?> {
+        return infos.map { info ->
+            val entities = database.streamDAO()
+                .getStream(info.serviceId.toLong(), info.url).blockingFirst()
+            if (entities.isEmpty()) {
+                null
+            } else {
+                database.streamStateDAO().getState(entities[0].uid).blockingFirst().firstOrNull()
+            }
+        }
+    }
+
+    private fun measure(name: String, size: Int, load: (List<InfoItem>) -> List<*>) {
+        val page = items.subList(0, size)
+
+        repeat(WARMUP_ROUNDS) { load(page) }
+
+        val times = LongArray(ROUNDS)
+        for (round in 0 until ROUNDS) {
+            val start = System.nanoTime()
+            load(page)
+            times[round] = System.nanoTime() - start
+        }
+        times.sort()
+
+        Log.i(
+            TAG,
+            String.format(
+                "%-9s %5d items: median %8.2f ms, min %8.2f ms",
+                name, size, times[ROUNDS / 2] / 1e6, times[0] / 1e6
+            )
+        )
+    }
+
+    @Test
+    fun loadStreamStateBatch() {
+        for (size in SIZES) {
+            measure("per item", size, ::loadPerItem)
+            measure("batch", size) { manager.loadStreamStateBatch(it).blockingGet() }
+        }
+    }
+
+    companion object {
+        private const val TAG = "HistoryBenchmark"
+        private const val STREAMS = 20_000
+        private val SIZES = intArrayOf(100, 1000)
+        private const val WARMUP_ROUNDS = 3
+        private const val ROUNDS = 9
+    }
+}
@@ -9,6 +9,12 @@ import org.junit.Rule
 import org.junit.Test
 import org.schabi.newpipe.database.AppDatabase
 import org.schabi.newpipe.database.history.model.SearchHistoryEntry
+import org.schabi.newpipe.database.playlist.model.PlaylistStreamEntity
+import org.schabi.newpipe.database.stream.model.StreamEntity
+import org.schabi.newpipe.database.stream.model.StreamStateEntity
+import org.schabi.newpipe.extractor.InfoItem
+import org.schabi.newpipe.extractor.stream.StreamInfoItem
+import org.schabi.newpipe.extractor.stream.StreamType
 import org.schabi.newpipe.testUtil.TestDatabase
 import org.schabi.newpipe.testUtil.TrampolineSchedulerRule
 import java.time.LocalDateTime
@@ -162,7 +168,53 @@ class HistoryRecordManagerTest {
         assertThat(searches).isEqualTo(searches2)
     }
 
+    @Test
+    fun loadStreamStateBatch() {
+        // more streams than the arguments of one query, from two services
+        val count = HistoryRecordManager.BATCH_QUERY_SIZE + 10
+        val streams = (0 until count).map { stream(it % 2, "https://example.com/$it") }
+        val ids = database.streamDAO().upsertAll(streams)
+
+        // every third stream has a state
+        database.streamStateDAO().insertAll(
+            ids.filterIndexed { i, _ -> i % 3 == 0 }.map { StreamStateEntity(it, it * 1000) }
+        )
+
+        val items = ArrayList<InfoItem>()
+        streams.mapTo(items) { StreamInfoItem(it.serviceId, it.url, it.title, it.streamType) }
+        // not in the database, on another service, and repeated
+        items.add(StreamInfoItem(0, "https://example.com/unknown", "", StreamType.VIDEO_STREAM))
+        items.add(StreamInfoItem(1, streams[0].url, "", StreamType.VIDEO_STREAM))
+        items.add(items[3])
+
+        val states = manager.loadStreamStateBatch(items).blockingGet()
+        assertThat(states).hasSize(items.size)
+        for (i in 0 until count) {
+            if (i % 3 == 0) {
+                assertThat(states[i]!!.streamUid).isEqualTo(ids[i])
+                assertThat(states[i]!!.progressMillis).isEqualTo(ids[i] * 1000)
+            } else {
+                assertThat(states[i]).isNull()
+            }
+        }
+        assertThat(states[count]).isNull()
+        assertThat(states[count + 1]).isNull()
+        assertThat(states[count + 2]!!.streamUid).isEqualTo(ids[3])
+
+        val entries = ids.mapIndexed { i, id -> PlaylistStreamEntity(1, id, i) }
+        val localStates = manager.loadLocalStreamStateBatch(entries).blockingGet()
+        assertThat(localStates).hasSize(count)
+        for (i in 0 until count) {
+            assertThat(localStates[i]?.streamUid).isEqualTo(if (i % 3 == 0) ids[i] else null)
+        }
+    }
+
     companion object {
+        fun stream(serviceId: Int, url: String) = StreamEntity(
+            serviceId = serviceId, url = url, title = "title",
+            streamType = StreamType.VIDEO_STREAM, duration = 600, uploader = "uploader"
+        )
+
         private val time = OffsetDateTime.of(LocalDateTime.of(2000, 1, 1, 1, 1), ZoneOffset.UTC)
 
         private val RELATED_SEARCHES_ENTRIES = listOf(
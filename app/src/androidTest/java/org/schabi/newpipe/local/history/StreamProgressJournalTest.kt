@@ -0,0 +1,99 @@
+package org.schabi.newpipe.local.history
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.schabi.newpipe.database.AppDatabase
+import org.schabi.newpipe.extractor.stream.StreamInfo
+import org.schabi.newpipe.extractor.stream.StreamType
+import org.schabi.newpipe.testUtil.TestDatabase
+import org.schabi.newpipe.testUtil.TrampolineSchedulerRule
+
+class StreamProgressJournalTest {
+
+    private lateinit var journal: StreamProgressJournal
+    private lateinit var database: AppDatabase
+
+    @get:Rule
+    val trampolineScheduler = TrampolineSchedulerRule()
+
+    @Before
+    fun setup() {
+        database = TestDatabase.createReplacingNewPipeDatabase()
+        // no timer, written only when flushed or when another stream is recorded
+        journal = StreamProgressJournal(database, 0)
+    }
+
+    @After
+    fun cleanUp() {
+        database.close()
+    }
+
+    private fun progressOf(info: StreamInfo): Long? {
+        val streams = database.streamDAO().getStream(info.serviceId.toLong(), info.url)
+            .blockingFirst()
+        if (streams.isEmpty()) {
+            return null
+        }
+        return database.streamStateDAO().getState(streams[0].uid).blockingFirst()
+            .firstOrNull()?.progressMillis
+    }
+
+    @Test
+    fun writesOnlyTheLatestProgress() {
+        for (progress in 10_000L..60_000L step 1000) {
+            journal.record(FIRST, progress)
+        }
+        assertThat(progressOf(FIRST)).isNull()
+
+        journal.flush().test().await().assertComplete()
+        assertThat(progressOf(FIRST)).isEqualTo(60_000L)
+
+        journal.record(FIRST, 70_000)
+        journal.flush().test().await().assertComplete()
+        assertThat(progressOf(FIRST)).isEqualTo(70_000L)
+    }
+
+    @Test
+    fun writesWhenAnotherStreamIsRecorded() {
+        journal.record(FIRST, 30_000)
+        journal.record(SECOND, 10_000)
+        assertThat(progressOf(FIRST)).isEqualTo(30_000L)
+        assertThat(progressOf(SECOND)).isEqualTo(10_000L)
+    }
+
+    @Test
+    fun skipsInvalidProgress() {
+        journal.record(FIRST, 1000)
+        journal.flush().test().await().assertComplete()
+        assertThat(progressOf(FIRST)).isNull()
+    }
+
+    @Test
+    fun storesTheStreamAgainIfRemoved() {
+        journal.record(FIRST, 30_000)
+        journal.flush().test().await().assertComplete()
+
+        // e.g. the watch history was cleared
+        database.streamDAO().deleteAll()
+        assertThat(progressOf(FIRST)).isNull()
+
+        journal.record(FIRST, 40_000)
+        journal.flush().test().await().assertComplete()
+        assertThat(progressOf(FIRST)).isEqualTo(40_000L)
+    }
+
+    companion object {
+        private val FIRST = stream("https://example.com/watch?v=1")
+        private val SECOND = stream("https://example.com/watch?v=2")
+
+        private fun stream(url: String): StreamInfo {
+            val info = StreamInfo(0, url, url, StreamType.VIDEO_STREAM, url, "title", 0)
+            info.duration = 600
+            info.uploaderName = "uploader"
+            return info
+        }
+    }
+}
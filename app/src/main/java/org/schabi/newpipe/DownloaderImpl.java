@@ -81,6 +81,16 @@ public final class DownloaderImpl extends Downloader {
         return instance;
     }
 
+    /**
+     * Get the underlying client, other components can derive their own client from it through
+     * {@link OkHttpClient#newBuilder()} to share its dispatcher and TLS configuration.
+     *
+     * @return the {@link OkHttpClient} used by this downloader
+     */
+    public OkHttpClient getClient() {
+        return client;
+    }
+
     /**
      * Enable TLS 1.2 and 1.1 on Android Kitkat. This function is mostly taken
      * from the documentation of OkHttpClient.Builder.sslSocketFactory(_,_).
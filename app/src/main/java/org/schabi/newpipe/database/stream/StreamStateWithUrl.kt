@@ -0,0 +1,18 @@
+package org.schabi.newpipe.database.stream
+
+import androidx.room.ColumnInfo
+import androidx.room.Embedded
+import org.schabi.newpipe.database.stream.model.StreamEntity
+import org.schabi.newpipe.database.stream.model.StreamStateEntity
+
+/**
+ * A stream state together with the url of its stream, used to match the states loaded in batch
+ * with the items they belong to.
+ */
+data class StreamStateWithUrl(
+    @ColumnInfo(name = StreamEntity.STREAM_URL)
+    val url: String,
+
+    @Embedded
+    val state: StreamStateEntity
+)
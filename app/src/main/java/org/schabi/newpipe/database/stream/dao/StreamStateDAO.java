@@ -7,12 +7,18 @@ import androidx.room.Query;
 import androidx.room.Transaction;
 
 import org.schabi.newpipe.database.BasicDAO;
+import org.schabi.newpipe.database.stream.StreamStateWithUrl;
 import org.schabi.newpipe.database.stream.model.StreamStateEntity;
 
+import java.util.Collection;
 import java.util.List;
 
 import io.reactivex.rxjava3.core.Flowable;
 
+import static org.schabi.newpipe.database.stream.model.StreamEntity.STREAM_ID;
+import static org.schabi.newpipe.database.stream.model.StreamEntity.STREAM_SERVICE_ID;
+import static org.schabi.newpipe.database.stream.model.StreamEntity.STREAM_TABLE;
+import static org.schabi.newpipe.database.stream.model.StreamEntity.STREAM_URL;
 import static org.schabi.newpipe.database.stream.model.StreamStateEntity.JOIN_STREAM_ID;
 import static org.schabi.newpipe.database.stream.model.StreamStateEntity.STREAM_STATE_TABLE;
 
@@ -34,6 +40,36 @@ public interface StreamStateDAO extends BasicDAO<StreamStateEntity> {
     @Query("SELECT * FROM " + STREAM_STATE_TABLE + " WHERE " + JOIN_STREAM_ID + " = :streamId")
     Flowable<List<StreamStateEntity>> getState(long streamId);
 
+    /**
+     * Loads the states of many streams at once. Every id is a query variable, the amount of ids
+     * must be kept under the SQLite limit (999 in old versions).
+     *
+     * @param streamIds the ids of the streams
+     * @return the states found, in no particular order, streams without state are left out
+     */
+    @Query("SELECT * FROM " + STREAM_STATE_TABLE
+            + " WHERE " + JOIN_STREAM_ID + " IN (:streamIds)")
+    List<StreamStateEntity> getStates(Collection<Long> streamIds);
+
+    /**
+     * Loads the states of many streams of a service at once, by the url of the streams. Every
+     * url is a query variable, the amount of urls must be kept under the SQLite limit (999 in
+     * old versions).
+     *
+     * @param serviceId the service of the streams
+     * @param urls      the urls of the streams
+     * @return the states found with the url of their stream, in no particular order, streams
+     * without state or not in the database are left out
+     */
+    @Query("SELECT " + STREAM_TABLE + "." + STREAM_URL + ", " + STREAM_STATE_TABLE + ".*"
+            + " FROM " + STREAM_TABLE
+            + " INNER JOIN " + STREAM_STATE_TABLE
+            + " ON " + STREAM_TABLE + "." + STREAM_ID + " = "
+            + STREAM_STATE_TABLE + "." + JOIN_STREAM_ID
+            + " WHERE " + STREAM_TABLE + "." + STREAM_SERVICE_ID + " = :serviceId"
+            + " AND " + STREAM_TABLE + "." + STREAM_URL + " IN (:urls)")
+    List<StreamStateWithUrl> getStates(int serviceId, Collection<String> urls);
+
     @Query("DELETE FROM " + STREAM_STATE_TABLE + " WHERE " + JOIN_STREAM_ID + " = :streamId")
     int deleteState(long streamId);
 
@@ -940,6 +940,22 @@ public class DownloadDialog extends DialogFragment
         askDialog.create().show();
     }
 
+    /**
+     * @param stream the stream to download
+     * @return the urls of the other streams serving the same file, see
+     * {@link StreamSizeWrapper#getMirrors(Stream)}
+     */
+    private String[] getMirrors(@NonNull final Stream stream) {
+        if (stream instanceof VideoStream) {
+            return wrappedVideoStreams.getMirrors(stream);
+        } else if (stream instanceof AudioStream) {
+            return wrappedAudioStreams.getMirrors(stream);
+        } else if (stream instanceof SubtitlesStream) {
+            return wrappedSubtitleStreams.getMirrors(stream);
+        }
+        return new String[0];
+    }
+
     private void continueSelectedDownload(@NonNull final StoredFileHelper storage) {
         if (!storage.canWrite()) {
             showFailedDialog(R.string.permission_denied);
@@ -962,6 +978,7 @@ public class DownloadDialog extends DialogFragment
         final char kind;
         int threads = dialogBinding.threads.getProgress() + 1;
         final String[] urls;
+        final String[][] mirrors;
         final MissionRecoveryInfo[] recoveryInfo;
         String psName = null;
         String[] psArgs = null;
@@ -1028,6 +1045,9 @@ public class DownloadDialog extends DialogFragment
             urls = new String[]{
                     selectedStream.getUrl()
             };
+            mirrors = new String[][]{
+                    getMirrors(selectedStream)
+            };
             recoveryInfo = new MissionRecoveryInfo[]{
                     new MissionRecoveryInfo(selectedStream)
             };
@@ -1035,11 +1055,14 @@ public class DownloadDialog extends DialogFragment
             urls = new String[]{
                     selectedStream.getUrl(), secondaryStream.getUrl()
             };
+            mirrors = new String[][]{
+                    getMirrors(selectedStream), getMirrors(secondaryStream)
+            };
             recoveryInfo = new MissionRecoveryInfo[]{new MissionRecoveryInfo(selectedStream),
                     new MissionRecoveryInfo(secondaryStream)};
         }
 
-        DownloadManagerService.startMission(context, urls, storage, kind, threads,
+        DownloadManagerService.startMission(context, urls, mirrors, storage, kind, threads,
                 currentInfo.getUrl(), psName, psArgs, nearLength, recoveryInfo);
 
         Toast.makeText(context, getString(R.string.download_has_started),
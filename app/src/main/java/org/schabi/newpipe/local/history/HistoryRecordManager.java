@@ -36,6 +36,7 @@ import org.schabi.newpipe.database.history.model.StreamHistoryEntity;
 import org.schabi.newpipe.database.history.model.StreamHistoryEntry;
 import org.schabi.newpipe.database.playlist.PlaylistStreamEntry;
 import org.schabi.newpipe.database.playlist.model.PlaylistStreamEntity;
+import org.schabi.newpipe.database.stream.StreamStateWithUrl;
 import org.schabi.newpipe.database.stream.StreamStatisticsEntry;
 import org.schabi.newpipe.database.stream.dao.StreamDAO;
 import org.schabi.newpipe.database.stream.dao.StreamStateDAO;
@@ -52,7 +53,11 @@ import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import io.reactivex.rxjava3.core.Completable;
 import io.reactivex.rxjava3.core.Flowable;
@@ -61,6 +66,12 @@ import io.reactivex.rxjava3.core.Single;
 import io.reactivex.rxjava3.schedulers.Schedulers;
 
 public class HistoryRecordManager {
+    /**
+     * Maximum amount of arguments of a batch query. Every argument is a query variable and old
+     * SQLite versions allow up to 999 variables per query.
+     */
+    static final int BATCH_QUERY_SIZE = 900;
+
     private final AppDatabase database;
     private final StreamDAO streamTable;
     private final StreamHistoryDAO streamHistoryTable;
@@ -312,56 +323,95 @@ public class HistoryRecordManager {
         }).subscribeOn(Schedulers.io());
     }
 
+    /**
+     * Loads the states of the given items with one query per service, instead of two queries
+     * per item.
+     *
+     * @param infos the items
+     * @return the states, aligned with the items, {@code null} for the items without state
+     */
     public Single<List<StreamStateEntity>> loadStreamStateBatch(final List<InfoItem> infos) {
         return Single.fromCallable(() -> {
-            final List<StreamStateEntity> result = new ArrayList<>(infos.size());
+            // the urls are grouped by service, so every query uses the (service_id, url) index
+            final Map<Integer, Set<String>> urlsByService = new HashMap<>();
             for (final InfoItem info : infos) {
-                final List<StreamEntity> entities = streamTable
-                        .getStream(info.getServiceId(), info.getUrl()).blockingFirst();
-                if (entities.isEmpty()) {
-                    result.add(null);
-                    continue;
-                }
-                final List<StreamStateEntity> states = streamStateTable
-                        .getState(entities.get(0).getUid()).blockingFirst();
-                if (states.isEmpty()) {
-                    result.add(null);
-                } else {
-                    result.add(states.get(0));
+                urlsByService.computeIfAbsent(info.getServiceId(), id -> new HashSet<>())
+                        .add(info.getUrl());
+            }
+
+            final Map<Integer, Map<String, StreamStateEntity>> statesByService = new HashMap<>();
+            for (final Map.Entry<Integer, Set<String>> entry : urlsByService.entrySet()) {
+                final Map<String, StreamStateEntity> states = new HashMap<>();
+                for (final List<String> urls : chunk(new ArrayList<>(entry.getValue()))) {
+                    for (final StreamStateWithUrl row
+                            : streamStateTable.getStates(entry.getKey(), urls)) {
+                        states.put(row.getUrl(), row.getState());
+                    }
                 }
+                statesByService.put(entry.getKey(), states);
+            }
+
+            final List<StreamStateEntity> result = new ArrayList<>(infos.size());
+            for (final InfoItem info : infos) {
+                result.add(statesByService.get(info.getServiceId()).get(info.getUrl()));
             }
             return result;
         }).subscribeOn(Schedulers.io());
     }
 
+    /**
+     * Loads the states of the given items with one query, instead of one query per item.
+     *
+     * @param items the items
+     * @return the states, aligned with the items, {@code null} for the items without state or
+     * not being streams
+     */
     public Single<List<StreamStateEntity>> loadLocalStreamStateBatch(
             final List<? extends LocalItem> items) {
         return Single.fromCallable(() -> {
-            final List<StreamStateEntity> result = new ArrayList<>(items.size());
+            final Set<Long> streamIds = new HashSet<>();
             for (final LocalItem item : items) {
-                final long streamId;
-                if (item instanceof StreamStatisticsEntry) {
-                    streamId = ((StreamStatisticsEntry) item).getStreamId();
-                } else if (item instanceof PlaylistStreamEntity) {
-                    streamId = ((PlaylistStreamEntity) item).getStreamUid();
-                } else if (item instanceof PlaylistStreamEntry) {
-                    streamId = ((PlaylistStreamEntry) item).getStreamId();
-                } else {
-                    result.add(null);
-                    continue;
+                final long streamId = getStreamId(item);
+                if (streamId != -1) {
+                    streamIds.add(streamId);
                 }
-                final List<StreamStateEntity> states = streamStateTable.getState(streamId)
-                        .blockingFirst();
-                if (states.isEmpty()) {
-                    result.add(null);
-                } else {
-                    result.add(states.get(0));
+            }
+
+            final Map<Long, StreamStateEntity> states = new HashMap<>();
+            for (final List<Long> ids : chunk(new ArrayList<>(streamIds))) {
+                for (final StreamStateEntity state : streamStateTable.getStates(ids)) {
+                    states.put(state.getStreamUid(), state);
                 }
             }
+
+            final List<StreamStateEntity> result = new ArrayList<>(items.size());
+            for (final LocalItem item : items) {
+                result.add(states.get(getStreamId(item)));
+            }
             return result;
         }).subscribeOn(Schedulers.io());
     }
 
+    private static long getStreamId(final LocalItem item) {
+        if (item instanceof StreamStatisticsEntry) {
+            return ((StreamStatisticsEntry) item).getStreamId();
+        } else if (item instanceof PlaylistStreamEntity) {
+            return ((PlaylistStreamEntity) item).getStreamUid();
+        } else if (item instanceof PlaylistStreamEntry) {
+            return ((PlaylistStreamEntry) item).getStreamId();
+        } else {
+            return -1;
+        }
+    }
+
+    private static <T> List<List<T>> chunk(final List<T> list) {
+        final List<List<T>> chunks = new ArrayList<>();
+        for (int i = 0; i < list.size(); i += BATCH_QUERY_SIZE) {
+            chunks.add(list.subList(i, Math.min(i + BATCH_QUERY_SIZE, list.size())));
+        }
+        return chunks;
+    }
+
     ///////////////////////////////////////////////////////
     // Utility
     ///////////////////////////////////////////////////////
@@ -0,0 +1,205 @@
+package org.schabi.newpipe.local.history;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteConstraintException;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.schabi.newpipe.MainActivity;
+import org.schabi.newpipe.NewPipeDatabase;
+import org.schabi.newpipe.database.AppDatabase;
+import org.schabi.newpipe.database.stream.dao.StreamDAO;
+import org.schabi.newpipe.database.stream.dao.StreamStateDAO;
+import org.schabi.newpipe.database.stream.model.StreamEntity;
+import org.schabi.newpipe.database.stream.model.StreamStateEntity;
+import org.schabi.newpipe.extractor.stream.StreamInfo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.disposables.SerialDisposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+
+/**
+ * Write-behind journal of the playback progress. The player records the progress on many events
+ * (seek, pause, stream change, error...), storing the whole stream and its state every time is
+ * wasteful, so only the latest progress of every stream is kept in memory and written later.
+ * <p>
+ * The journal is flushed {@link #FLUSH_DELAY_MILLIS} after the first progress recorded, as soon
+ * as the progress of another stream is recorded, and when {@link #flush()} is called (e.g. on
+ * pause or before reading a state). The stream is stored only the first time its progress is
+ * written, then its uid is reused and only the state row is updated.
+ */
+public class StreamProgressJournal {
+    private static final String TAG = StreamProgressJournal.class.getSimpleName();
+    private static final boolean DEBUG = MainActivity.DEBUG;
+
+    static final long FLUSH_DELAY_MILLIS = 10_000;
+
+    private static final class PendingState {
+        final StreamInfo info;
+        final long progressMillis;
+
+        PendingState(final StreamInfo info, final long progressMillis) {
+            this.info = info;
+            this.progressMillis = progressMillis;
+        }
+    }
+
+    private final StreamDAO streamTable;
+    private final StreamStateDAO streamStateTable;
+    private final long flushDelayMillis;
+
+    /**
+     * The latest progress of the streams not written yet, by {@link #getKey(StreamInfo)}.
+     */
+    private final Map<String, PendingState> pending = new LinkedHashMap<>();
+    @Nullable private String lastKey = null;
+    private boolean flushScheduled = false;
+
+    /**
+     * The uids of the streams already stored, only accessed while writing.
+     */
+    private final Map<String, Long> streamIds = new HashMap<>();
+    private final Object writeLock = new Object();
+
+    private final SerialDisposable scheduledFlush = new SerialDisposable();
+
+    public StreamProgressJournal(final Context context) {
+        this(NewPipeDatabase.getInstance(context), FLUSH_DELAY_MILLIS);
+    }
+
+    /**
+     * @param database         the database
+     * @param flushDelayMillis time to wait before writing the progress recorded, 0 to write it
+     *                         only when {@link #flush()} is called or another stream is recorded
+     */
+    StreamProgressJournal(final AppDatabase database, final long flushDelayMillis) {
+        this.streamTable = database.streamDAO();
+        this.streamStateTable = database.streamStateDAO();
+        this.flushDelayMillis = flushDelayMillis;
+    }
+
+    private static String getKey(@NonNull final StreamInfo info) {
+        return info.getServiceId() + ":" + info.getUrl();
+    }
+
+    /**
+     * Records the progress of a stream, replacing the one recorded before if not written yet.
+     *
+     * @param info           the stream
+     * @param progressMillis the playback position
+     */
+    public void record(@NonNull final StreamInfo info, final long progressMillis) {
+        final String key = getKey(info);
+        final boolean streamChanged;
+        final boolean scheduleFlush;
+
+        synchronized (pending) {
+            pending.put(key, new PendingState(info, progressMillis));
+            streamChanged = lastKey != null && !lastKey.equals(key);
+            lastKey = key;
+
+            scheduleFlush = !flushScheduled && flushDelayMillis > 0;
+            flushScheduled |= scheduleFlush;
+        }
+
+        if (streamChanged) {
+            // the previous stream is probably shown in some list right now
+            flushInBackground();
+        } else if (scheduleFlush) {
+            scheduledFlush.set(Completable.timer(flushDelayMillis, TimeUnit.MILLISECONDS)
+                    .subscribe(this::flushInBackground));
+        }
+    }
+
+    /**
+     * Writes the progress recorded so far.
+     *
+     * @return a {@link Completable} running on the io scheduler
+     */
+    public Completable flush() {
+        return Completable.fromAction(this::write).subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * Writes the progress recorded so far, without waiting for it.
+     */
+    public void flushInBackground() {
+        flush().subscribe(() -> { }, e -> Log.e(TAG, "Failed to save the stream progress", e));
+    }
+
+    /**
+     * Cancels the scheduled flush and writes the progress recorded so far in background.
+     */
+    public void dispose() {
+        scheduledFlush.dispose();
+        flushInBackground();
+    }
+
+    private void write() {
+        synchronized (writeLock) {
+            final List<PendingState> states;
+            synchronized (pending) {
+                flushScheduled = false;
+                if (pending.isEmpty()) {
+                    return;
+                }
+                states = new ArrayList<>(pending.values());
+                pending.clear();
+            }
+
+            if (DEBUG) {
+                Log.d(TAG, "write() called, writing " + states.size() + " states");
+            }
+
+            for (int i = 0; i < states.size(); i++) {
+                try {
+                    write(states.get(i));
+                } catch (final RuntimeException e) {
+                    // keep the states not written, unless recorded again meanwhile
+                    synchronized (pending) {
+                        for (final PendingState state : states.subList(i, states.size())) {
+                            final String key = getKey(state.info);
+                            if (!pending.containsKey(key)) {
+                                pending.put(key, state);
+                            }
+                        }
+                    }
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void write(@NonNull final PendingState pendingState) {
+        final StreamInfo info = pendingState.info;
+        if (!new StreamStateEntity(0, pendingState.progressMillis).isValid(info.getDuration())) {
+            return;
+        }
+
+        final String key = getKey(info);
+        final Long streamId = streamIds.get(key);
+        if (streamId != null) {
+            try {
+                streamStateTable.upsert(new StreamStateEntity(streamId,
+                        pendingState.progressMillis));
+                return;
+            } catch (final SQLiteConstraintException e) {
+                // the stream was removed meanwhile (e.g. the history was cleared), store it again
+                streamIds.remove(key);
+            }
+        }
+
+        final long newStreamId = streamTable.upsert(new StreamEntity(info));
+        streamIds.put(key, newStreamId);
+        streamStateTable.upsert(new StreamStateEntity(newStreamId, pendingState.progressMillis));
+    }
+}
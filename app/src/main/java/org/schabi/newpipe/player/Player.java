@@ -153,6 +153,7 @@ import org.schabi.newpipe.fragments.detail.VideoDetailFragment;
 import org.schabi.newpipe.info_list.StreamSegmentAdapter;
 import org.schabi.newpipe.ktx.AnimationType;
 import org.schabi.newpipe.local.history.HistoryRecordManager;
+import org.schabi.newpipe.local.history.StreamProgressJournal;
 import org.schabi.newpipe.player.MainPlayer.PlayerType;
 import org.schabi.newpipe.player.event.DisplayPortion;
 import org.schabi.newpipe.player.event.PlayerEventListener;
@@ -162,6 +163,8 @@ import org.schabi.newpipe.player.helper.AudioReactor;
 import org.schabi.newpipe.player.helper.LoadController;
 import org.schabi.newpipe.player.helper.MediaSessionManager;
 import org.schabi.newpipe.player.helper.PlaybackParameterDialog;
+import org.schabi.newpipe.player.helper.MediaCache;
+import org.schabi.newpipe.player.helper.MediaPrefetcher;
 import org.schabi.newpipe.player.helper.PlayerDataSource;
 import org.schabi.newpipe.player.helper.PlayerHelper;
 import org.schabi.newpipe.player.playback.CustomTrackSelector;
@@ -176,6 +179,7 @@ import org.schabi.newpipe.player.playqueue.PlayQueueItemBuilder;
 import org.schabi.newpipe.player.playqueue.PlayQueueItemHolder;
 import org.schabi.newpipe.player.playqueue.PlayQueueItemTouchCallback;
 import org.schabi.newpipe.player.resolver.AudioPlaybackResolver;
+import org.schabi.newpipe.player.resolver.PlaybackResolver;
 import org.schabi.newpipe.player.resolver.MediaSourceTag;
 import org.schabi.newpipe.player.resolver.VideoPlaybackResolver;
 import org.schabi.newpipe.player.resolver.VideoPlaybackResolver.SourceType;
@@ -291,6 +295,7 @@ public final class Player implements
 
     @NonNull private final VideoPlaybackResolver videoResolver;
     @NonNull private final AudioPlaybackResolver audioResolver;
+    @NonNull private final MediaPrefetcher prefetcher;
 
     private final MainPlayer service; //TODO try to remove and replace everything with context
 
@@ -392,6 +397,7 @@ public final class Player implements
     @NonNull private final Context context;
     @NonNull private final SharedPreferences prefs;
     @NonNull private final HistoryRecordManager recordManager;
+    @NonNull private final StreamProgressJournal progressJournal;
 
     @NonNull private final SeekbarPreviewThumbnailHolder seekbarPreviewThumbnailHolder =
             new SeekbarPreviewThumbnailHolder();
@@ -407,6 +413,7 @@ public final class Player implements
         context = service;
         prefs = PreferenceManager.getDefaultSharedPreferences(context);
         recordManager = new HistoryRecordManager(context);
+        progressJournal = new StreamProgressJournal(context);
 
         setupBroadcastReceiver();
 
@@ -418,6 +425,7 @@ public final class Player implements
 
         videoResolver = new VideoPlaybackResolver(context, dataSource, getQualityResolver());
         audioResolver = new AudioPlaybackResolver(context, dataSource);
+        prefetcher = new MediaPrefetcher(context, dataSource);
 
         windowManager = ContextCompat.getSystemService(context, WindowManager.class);
     }
@@ -759,7 +767,9 @@ public final class Player implements
                 && !newQueue.isEmpty()
                 && newQueue.getItem() != null
                 && newQueue.getItem().getRecoveryPosition() == PlayQueueItem.RECOVERY_UNSET) {
-            databaseUpdateDisposable.add(recordManager.loadStreamState(newQueue.getItem())
+            // the progress of the previous queue might not be written yet
+            databaseUpdateDisposable.add(progressJournal.flush()
+                    .andThen(recordManager.loadStreamState(newQueue.getItem()))
                     .observeOn(AndroidSchedulers.mainThread())
                     // Do not place initPlayback() in doFinally() because
                     // it restarts playback after destroy()
@@ -917,11 +927,13 @@ public final class Player implements
 
     public void destroy() {
         if (DEBUG) {
-            Log.d(TAG, "destroy() called");
+            Log.d(TAG, "destroy() called, media cache: "
+                    + MediaCache.getInstance(context).getMetrics());
         }
         destroyPlayer();
         unregisterBroadcastReceiver();
 
+        progressJournal.dispose();
         databaseUpdateDisposable.clear();
         progressUpdateDisposable.set(null);
         PicassoHelper.cancelTag(PicassoHelper.PLAYER_THUMBNAIL_TAG); // cancel thumbnail loading
@@ -963,7 +975,7 @@ public final class Player implements
         }
 
         if (playQueue != null) {
-            playQueueManager = new MediaSourceManager(this, playQueue);
+            playQueueManager = new MediaSourceManager(this, playQueue, prefetcher);
         }
     }
 
@@ -2825,6 +2837,7 @@ public final class Player implements
         audioReactor.abandonAudioFocus();
         simpleExoPlayer.pause();
         saveStreamProgressState();
+        progressJournal.flushInBackground();
     }
 
     public void playPause() {
@@ -2917,16 +2930,7 @@ public final class Player implements
                     + ", currentMetadata=[" + currentMetadata.getMetadata().getName() + "]");
         }
 
-        databaseUpdateDisposable
-                .add(recordManager.saveStreamState(currentMetadata.getMetadata(), progressMillis)
-                .observeOn(AndroidSchedulers.mainThread())
-                .doOnError(e -> {
-                    if (DEBUG) {
-                        e.printStackTrace();
-                    }
-                })
-                .onErrorComplete()
-                .subscribe());
+        progressJournal.record(currentMetadata.getMetadata(), progressMillis);
     }
 
     public void saveStreamProgressState() {
@@ -3298,8 +3302,20 @@ public final class Player implements
     @Override // own playback listener
     @Nullable
     public MediaSource sourceOf(final PlayQueueItem item, final StreamInfo info) {
+        return getPlaybackResolver().resolve(info);
+    }
+
+    @Override // own playback listener
+    @NonNull
+    public List<MediaPrefetcher.Target> prefetchTargetsOf(final PlayQueueItem item,
+                                                          final StreamInfo info) {
+        return getPlaybackResolver().getPrefetchTargets(info);
+    }
+
+    @NonNull
+    private PlaybackResolver getPlaybackResolver() {
         if (audioPlayerSelected()) {
-            return audioResolver.resolve(info);
+            return audioResolver;
         }
 
         if (isAudioOnly && videoResolver.getStreamSourceType().orElse(
@@ -3308,7 +3324,7 @@ public final class Player implements
             // If the current info has only video streams with audio and if the stream is played as
             // audio, we need to use the audio resolver, otherwise the video stream will be played
             // in background.
-            return audioResolver.resolve(info);
+            return audioResolver;
         }
 
         // Even if the stream is played in background, we need to use the video resolver if the
@@ -3318,7 +3334,7 @@ public final class Player implements
         // Note that the video is not fetched when the app is in background because the video
         // renderer is fully disabled (see useVideoSource method), except for HLS streams
         // (see https://github.com/google/ExoPlayer/issues/9282).
-        return videoResolver.resolve(info);
+        return videoResolver;
     }
 
     public void disablePreloadingOfCurrentTrack() {
@@ -5,7 +5,6 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 
-import com.google.android.exoplayer2.database.ExoDatabaseProvider;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DefaultDataSource;
 import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
@@ -13,7 +12,6 @@ import com.google.android.exoplayer2.upstream.FileDataSource;
 import com.google.android.exoplayer2.upstream.TransferListener;
 import com.google.android.exoplayer2.upstream.cache.CacheDataSink;
 import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
-import com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor;
 import com.google.android.exoplayer2.upstream.cache.SimpleCache;
 
 import java.io.File;
@@ -21,60 +19,58 @@ import java.io.File;
 /* package-private */ class CacheFactory implements DataSource.Factory {
     private static final String TAG = "CacheFactory";
 
-    private static final String CACHE_FOLDER_NAME = "exoplayer";
     private static final int CACHE_FLAGS = CacheDataSource.FLAG_BLOCK_ON_CACHE
             | CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR;
 
     private final DefaultDataSourceFactory dataSourceFactory;
-    private final File cacheDir;
+    private final MediaCache mediaCache;
     private final long maxFileSize;
 
-    // Creating cache on every instance may cause problems with multiple players when
-    // sources are not ExtractorMediaSource
-    // see: https://stackoverflow.com/questions/28700391/using-cache-in-exoplayer
-    // todo: make this a singleton?
-    private static SimpleCache cache;
-
     CacheFactory(@NonNull final Context context,
                  @NonNull final String userAgent,
                  @NonNull final TransferListener transferListener) {
-        this(context, userAgent, transferListener, PlayerHelper.getPreferredCacheSize(),
-                PlayerHelper.getPreferredFileSize());
+        this(context, userAgent, transferListener, PlayerHelper.getPreferredFileSize());
     }
 
     private CacheFactory(@NonNull final Context context,
                          @NonNull final String userAgent,
                          @NonNull final TransferListener transferListener,
-                         final long maxCacheSize,
                          final long maxFileSize) {
         this.maxFileSize = maxFileSize;
 
         dataSourceFactory = new DefaultDataSourceFactory(context, userAgent, transferListener);
-        cacheDir = new File(context.getExternalCacheDir(), CACHE_FOLDER_NAME);
-        if (!cacheDir.exists()) {
-            //noinspection ResultOfMethodCallIgnored
-            cacheDir.mkdir();
-        }
-
-        if (cache == null) {
-            final LeastRecentlyUsedCacheEvictor evictor
-                    = new LeastRecentlyUsedCacheEvictor(maxCacheSize);
-            cache = new SimpleCache(cacheDir, evictor, new ExoDatabaseProvider(context));
-        }
+        // a single cache for every player, see MediaCache
+        mediaCache = MediaCache.getInstance(context);
     }
 
     @Override
-    public DataSource createDataSource() {
-        Log.d(TAG, "initExoPlayerCache: cacheDir = " + cacheDir.getAbsolutePath());
+    public CacheDataSource createDataSource() {
+        return createDataSource(true);
+    }
+
+    /**
+     * @param countMetrics whether the reads are counted by the {@link MediaCacheMetrics}, i.e.
+     *                     whether they are reads of the player and not prefetches
+     * @return a new data source reading from the cache first
+     */
+    CacheDataSource createDataSource(final boolean countMetrics) {
+        Log.d(TAG, "initExoPlayerCache: cacheDir = "
+                + mediaCache.getDirectory().getAbsolutePath());
 
+        final SimpleCache cache = mediaCache.getCache();
         final DefaultDataSource dataSource = dataSourceFactory.createDataSource();
         final FileDataSource fileSource = new FileDataSource();
+        if (countMetrics) {
+            dataSource.addTransferListener(mediaCache.getMetrics());
+            fileSource.addTransferListener(mediaCache.getMetrics());
+        }
         final CacheDataSink dataSink = new CacheDataSink(cache, maxFileSize);
 
         return new CacheDataSource(cache, dataSource, fileSource, dataSink, CACHE_FLAGS, null);
     }
 
     public void tryDeleteCacheFiles() {
+        final File cacheDir = mediaCache.getDirectory();
         if (!cacheDir.exists() || !cacheDir.isDirectory()) {
             return;
         }
@@ -0,0 +1,77 @@
+package org.schabi.newpipe.player.helper;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import us.shandian.giga.get.FinishedMission;
+import us.shandian.giga.get.sqlite.FinishedMissionStore;
+
+/**
+ * Finds the finished downloads of the streams played, so they are played from the downloaded
+ * file: no network is needed to start the playback or to seek. One for the whole process, like
+ * the {@link MediaCache}.
+ * <p>
+ * The downloads are found by the url of the stream, which also identifies its service.
+ * </p>
+ */
+public final class DownloadIndex {
+    private static final String TAG = "DownloadIndex";
+
+    public static final char KIND_VIDEO = 'v';
+    public static final char KIND_AUDIO = 'a';
+
+    private static volatile DownloadIndex instance;
+
+    @NonNull
+    private final FinishedMissionStore store;
+
+    private DownloadIndex(@NonNull final Context context) {
+        store = new FinishedMissionStore(context);
+    }
+
+    @NonNull
+    public static DownloadIndex getInstance(@NonNull final Context context) {
+        DownloadIndex result = instance;
+        if (result == null) {
+            synchronized (DownloadIndex.class) {
+                result = instance;
+                if (result == null) {
+                    instance = new DownloadIndex(context.getApplicationContext());
+                    result = instance;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find the newest finished download of a stream whose file still exists. Reads the database
+     * and the storage, so it must not be called on the main thread.
+     *
+     * @param url     the url of the stream
+     * @param kind    {@link #KIND_VIDEO} for a video with audio, {@link #KIND_AUDIO} for an audio
+     * @param quality the quality of the stream (see {@link FinishedMission#quality}), or
+     *                {@code null} to accept any quality
+     * @return the download, or {@code null} if there is none
+     */
+    @Nullable
+    public FinishedMission find(@NonNull final String url, final char kind,
+                                @Nullable final String quality) {
+        try {
+            for (final FinishedMission mission : store.findFinishedMissions(url)) {
+                if (mission.kind == kind && !mission.videoOnly
+                        && (quality == null || quality.equals(mission.quality))
+                        && !mission.storage.isInvalid() && mission.storage.existsAsFile()) {
+                    return mission;
+                }
+            }
+        } catch (final Exception e) {
+            // the stream is played from the network then
+            Log.e(TAG, "Failed to find the downloads of " + url, e);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,147 @@
+package org.schabi.newpipe.player.helper;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.exoplayer2.database.ExoDatabaseProvider;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+
+import org.schabi.newpipe.MainActivity;
+import org.schabi.newpipe.NewPipeDatabase;
+import org.schabi.newpipe.extractor.stream.AudioStream;
+import org.schabi.newpipe.extractor.stream.StreamInfo;
+import org.schabi.newpipe.extractor.stream.VideoStream;
+
+import java.io.File;
+import java.util.HashSet;
+
+import io.reactivex.rxjava3.schedulers.Schedulers;
+
+/**
+ * The media cache of the players, one for the whole process. Creating a {@link SimpleCache} per
+ * player is not possible, only one instance can use a folder.
+ * <p>
+ * The cache keys identify the stream and the variant played (resolution, format...), not the
+ * url of the media, which is signed again every time the stream info is extracted, so the cache
+ * is used when a stream is played again.
+ * </p>
+ *
+ * @see MediaCacheEvictor
+ * @see MediaCacheMetrics
+ */
+public final class MediaCache {
+    private static final String TAG = "MediaCache";
+    private static final boolean DEBUG = MainActivity.DEBUG;
+
+    private static final String CACHE_FOLDER_NAME = "exoplayer";
+
+    private static volatile MediaCache instance;
+
+    @NonNull
+    private final File directory;
+    @NonNull
+    private final SimpleCache cache;
+    @NonNull
+    private final MediaCacheMetrics metrics = new MediaCacheMetrics();
+
+    private MediaCache(@NonNull final Context context) {
+        directory = new File(context.getExternalCacheDir(), CACHE_FOLDER_NAME);
+        if (!directory.exists()) {
+            //noinspection ResultOfMethodCallIgnored
+            directory.mkdir();
+        }
+
+        final MediaCacheEvictor evictor =
+                new MediaCacheEvictor(PlayerHelper.getPreferredCacheSize());
+        cache = new SimpleCache(directory, evictor, new ExoDatabaseProvider(context));
+
+        // the streams in a local playlist are likely to be played again
+        //noinspection ResultOfMethodCallIgnored
+        NewPipeDatabase.getInstance(context).playlistStreamDAO().getStreamKeys()
+                .subscribeOn(Schedulers.io())
+                .subscribe(keys -> evictor.setReplayKeys(new HashSet<>(keys)),
+                        error -> Log.e(TAG, "Failed to load the local playlist streams", error));
+    }
+
+    @NonNull
+    public static MediaCache getInstance(@NonNull final Context context) {
+        MediaCache result = instance;
+        if (result == null) {
+            synchronized (MediaCache.class) {
+                result = instance;
+                if (result == null) {
+                    if (DEBUG) {
+                        Log.d(TAG, "Creating the media cache");
+                    }
+                    instance = new MediaCache(context.getApplicationContext());
+                    result = instance;
+                }
+            }
+        }
+        return result;
+    }
+
+    @NonNull
+    public File getDirectory() {
+        return directory;
+    }
+
+    @NonNull
+    /* package-private */ SimpleCache getCache() {
+        return cache;
+    }
+
+    @NonNull
+    public MediaCacheMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the bytes used by the cached media
+     */
+    public long getCacheSpace() {
+        return cache.getCacheSpace();
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Cache keys
+    //////////////////////////////////////////////////////////////////////////*/
+
+    /**
+     * @param serviceId the service of the stream
+     * @param url       the url of the stream, not of the media
+     * @return the key of the stream, the part of the cache keys shared by all its variants
+     */
+    @NonNull
+    public static String streamKeyOf(final int serviceId, @NonNull final String url) {
+        return serviceId + ":" + url;
+    }
+
+    @NonNull
+    public static String cacheKeyOf(@NonNull final StreamInfo info,
+                                    @NonNull final VideoStream video) {
+        return streamKeyOf(info.getServiceId(), info.getUrl()) + "#video "
+                + video.getResolution() + " " + video.getFormat().getName()
+                + (video.isVideoOnly ? " video-only" : "");
+    }
+
+    @NonNull
+    public static String cacheKeyOf(@NonNull final StreamInfo info,
+                                    @NonNull final AudioStream audio) {
+        return streamKeyOf(info.getServiceId(), info.getUrl()) + "#audio "
+                + audio.getAverageBitrate() + " " + audio.getFormat().getName();
+    }
+
+    /**
+     * @param cacheKey a cache key
+     * @return the key of the stream of the cache key, or the cache key itself if not created by
+     * {@link #cacheKeyOf(StreamInfo, VideoStream)} or {@link #cacheKeyOf(StreamInfo, AudioStream)}
+     */
+    @NonNull
+    public static String getStreamKey(@NonNull final String cacheKey) {
+        final int variant = cacheKey.lastIndexOf('#');
+        return variant < 0 ? cacheKey : cacheKey.substring(0, variant);
+    }
+}
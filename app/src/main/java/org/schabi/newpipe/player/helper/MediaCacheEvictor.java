@@ -0,0 +1,170 @@
+package org.schabi.newpipe.player.helper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.CacheSpan;
+import com.google.android.exoplayer2.upstream.cache.ContentMetadata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evicts the cached media with the highest weight once the cache is full. The weight is the time
+ * since the media was last used, like the {@code LeastRecentlyUsedCacheEvictor}, adjusted by:
+ * <ul>
+ *     <li>the completeness of the stream: partially cached streams have to be downloaded anyway
+ *     when played, they age up to twice as fast as fully cached streams</li>
+ *     <li>the chance of being played again: the streams in a local playlist age
+ *     {@link #REPLAY_FACTOR} times slower</li>
+ * </ul>
+ */
+/* package-private */ class MediaCacheEvictor implements CacheEvictor {
+    static final int REPLAY_FACTOR = 4;
+
+    private final long maxBytes;
+    private final Set<CacheSpan> spans = new HashSet<>();
+    private long currentSize;
+
+    /**
+     * The stream keys (see {@link MediaCache#getStreamKey(String)}) likely to be played again.
+     */
+    @NonNull
+    private volatile Set<String> replayKeys = Collections.emptySet();
+
+    MediaCacheEvictor(final long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    void setReplayKeys(@NonNull final Set<String> replayKeys) {
+        this.replayKeys = replayKeys;
+    }
+
+    /**
+     * @param age          milliseconds since the span was last used
+     * @param completeness fraction of the stream cached, 0 if unknown
+     * @param replay       whether the stream is likely to be played again
+     * @return the weight, the span with the highest weight is evicted first
+     */
+    static double getWeight(final long age, final float completeness, final boolean replay) {
+        final double weight = (Math.max(age, 0) + 1) * (2 - completeness);
+        return replay ? weight / REPLAY_FACTOR : weight;
+    }
+
+    @Override
+    public boolean requiresCacheSpanTouches() {
+        return true;
+    }
+
+    @Override
+    public void onCacheInitialized() {
+        // nothing to do
+    }
+
+    @Override
+    public void onStartFile(@NonNull final Cache cache, @NonNull final String key,
+                            final long position, final long length) {
+        if (length != C.LENGTH_UNSET) {
+            evict(cache, length);
+        }
+    }
+
+    @Override
+    public void onSpanAdded(@NonNull final Cache cache, @NonNull final CacheSpan span) {
+        spans.add(span);
+        currentSize += span.length;
+        evict(cache, 0);
+    }
+
+    @Override
+    public void onSpanRemoved(@NonNull final Cache cache, @NonNull final CacheSpan span) {
+        if (spans.remove(span)) {
+            currentSize -= span.length;
+        }
+    }
+
+    @Override
+    public void onSpanTouched(@NonNull final Cache cache, @NonNull final CacheSpan oldSpan,
+                              @NonNull final CacheSpan newSpan) {
+        onSpanRemoved(cache, oldSpan);
+        onSpanAdded(cache, newSpan);
+    }
+
+    private void evict(@NonNull final Cache cache, final long requiredSpace) {
+        if (currentSize + requiredSpace <= maxBytes) {
+            return;
+        }
+
+        // the weights are computed once, the completeness of the streams is not updated while
+        // their spans are evicted
+        for (final Candidate candidate : getCandidates(cache)) {
+            if (currentSize + requiredSpace <= maxBytes) {
+                return;
+            }
+
+            cache.removeSpan(candidate.span);
+            // not called back by every cache implementation
+            onSpanRemoved(cache, candidate.span);
+        }
+    }
+
+    /**
+     * @param cache the cache
+     * @return every span with its weight, the heaviest first
+     */
+    @NonNull
+    private List<Candidate> getCandidates(@NonNull final Cache cache) {
+        // cached bytes of every stream, to know how complete it is
+        final Map<String, Long> cachedBytes = new HashMap<>();
+        for (final CacheSpan span : spans) {
+            final Long bytes = cachedBytes.get(span.key);
+            cachedBytes.put(span.key, (bytes == null ? 0 : bytes) + span.length);
+        }
+
+        final Map<String, Float> completeness = new HashMap<>();
+        for (final Map.Entry<String, Long> entry : cachedBytes.entrySet()) {
+            completeness.put(entry.getKey(),
+                    getCompleteness(cache, entry.getKey(), entry.getValue()));
+        }
+
+        final Set<String> replay = replayKeys;
+        final long now = System.currentTimeMillis();
+        final List<Candidate> candidates = new ArrayList<>(spans.size());
+        for (final CacheSpan span : spans) {
+            candidates.add(new Candidate(span, getWeight(now - span.lastTouchTimestamp,
+                    completeness.get(span.key),
+                    replay.contains(MediaCache.getStreamKey(span.key)))));
+        }
+
+        Collections.sort(candidates, (a, b) -> Double.compare(b.weight, a.weight));
+        return candidates;
+    }
+
+    private static final class Candidate {
+        @NonNull
+        final CacheSpan span;
+        final double weight;
+
+        Candidate(@NonNull final CacheSpan span, final double weight) {
+            this.span = span;
+            this.weight = weight;
+        }
+    }
+
+    private static float getCompleteness(@NonNull final Cache cache, @NonNull final String key,
+                                         @Nullable final Long cachedBytes) {
+        final long length = ContentMetadata.getContentLength(cache.getContentMetadata(key));
+        if (length <= 0 || cachedBytes == null) {
+            return 0;
+        }
+        return Math.min(1, (float) cachedBytes / length);
+    }
+}
@@ -0,0 +1,96 @@
+package org.schabi.newpipe.player.helper;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the reads served by the media cache and by the network. Added to both the cache read
+ * source (not a network source) and the upstream source of every cache data source, a read of
+ * the cache is a hit and a read of the network is a miss.
+ */
+public final class MediaCacheMetrics implements TransferListener {
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong cacheBytes = new AtomicLong();
+    private final AtomicLong networkBytes = new AtomicLong();
+
+    @Override
+    public void onTransferInitializing(@NonNull final DataSource source,
+                                       @NonNull final DataSpec dataSpec,
+                                       final boolean isNetwork) {
+        // counted once started
+    }
+
+    @Override
+    public void onTransferStart(@NonNull final DataSource source,
+                                @NonNull final DataSpec dataSpec,
+                                final boolean isNetwork) {
+        (isNetwork ? misses : hits).incrementAndGet();
+    }
+
+    @Override
+    public void onBytesTransferred(@NonNull final DataSource source,
+                                   @NonNull final DataSpec dataSpec,
+                                   final boolean isNetwork,
+                                   final int bytesTransferred) {
+        (isNetwork ? networkBytes : cacheBytes).addAndGet(bytesTransferred);
+    }
+
+    @Override
+    public void onTransferEnd(@NonNull final DataSource source,
+                              @NonNull final DataSpec dataSpec,
+                              final boolean isNetwork) {
+        // nothing to count
+    }
+
+    /**
+     * @return the amount of reads served by the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the amount of reads served by the network
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the bytes served by the cache
+     */
+    public long getCacheBytes() {
+        return cacheBytes.get();
+    }
+
+    /**
+     * @return the bytes served by the network
+     */
+    public long getNetworkBytes() {
+        return networkBytes.get();
+    }
+
+    /**
+     * @return the fraction of the bytes served by the cache, 0 if nothing was served yet
+     */
+    public float getByteHitRatio() {
+        final long fromCache = cacheBytes.get();
+        final long total = fromCache + networkBytes.get();
+        return total == 0 ? 0 : (float) fromCache / total;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "hits=%d misses=%d cacheBytes=%d networkBytes=%d byteHitRatio=%.3f",
+                getHits(), getMisses(), getCacheBytes(), getNetworkBytes(), getByteHitRatio());
+    }
+}
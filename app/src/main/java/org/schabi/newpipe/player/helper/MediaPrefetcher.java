@@ -0,0 +1,212 @@
+package org.schabi.newpipe.player.helper;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.cache.CacheWriter;
+
+import org.schabi.newpipe.MainActivity;
+import org.schabi.newpipe.extractor.stream.StreamInfo;
+import org.schabi.newpipe.player.playback.PlaybackListener;
+import org.schabi.newpipe.player.playqueue.PlayQueueItem;
+import org.schabi.newpipe.util.ListHelper;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.disposables.Disposable;
+
+/**
+ * Prefetches the next items of the play queue, so the transition to them starts instantly even
+ * on slow networks.
+ * <p>
+ * The {@link StreamInfo} of the items is extracted in advance, and kept in the
+ * {@link org.schabi.newpipe.util.InfoCache}. On unmetered networks, the first
+ * {@link #PREFETCH_SECONDS} of the streams selected for playback are also written to the player
+ * cache, with the same cache keys used by the player.
+ * </p>
+ */
+public class MediaPrefetcher {
+    private static final String TAG = "MediaPrefetcher";
+    private static final boolean DEBUG = MainActivity.DEBUG;
+
+    /**
+     * Seconds of every stream written to the cache, if the bitrate of the stream is known.
+     */
+    static final int PREFETCH_SECONDS = 10;
+
+    /**
+     * A stream selected for playback, see
+     * {@link PlaybackListener#prefetchTargetsOf(PlayQueueItem, StreamInfo)}.
+     */
+    public static final class Target {
+        @NonNull
+        private final String url;
+        @NonNull
+        private final String cacheKey;
+        private final long bitrate;
+
+        /**
+         * @param url      the url of the stream, must be a progressive stream (not a manifest)
+         * @param cacheKey the cache key used when playing the stream
+         * @param bitrate  the bitrate in bits per second, or -1 if unknown
+         */
+        public Target(@NonNull final String url, @NonNull final String cacheKey,
+                      final long bitrate) {
+            this.url = url;
+            this.cacheKey = cacheKey;
+            this.bitrate = bitrate;
+        }
+
+        long getPrefetchLength(final long maximum) {
+            if (bitrate <= 0) {
+                return maximum;
+            }
+            return Math.min(maximum, bitrate / 8 * PREFETCH_SECONDS);
+        }
+    }
+
+    private static final class Prefetch {
+        final boolean media;
+        @NonNull
+        final Disposable disposable;
+
+        Prefetch(final boolean media, @NonNull final Disposable disposable) {
+            this.media = media;
+            this.disposable = disposable;
+        }
+    }
+
+    @NonNull
+    private final Context context;
+    @NonNull
+    private final CacheFactory cacheFactory;
+
+    /**
+     * Maximum bytes written for every stream, one cache file.
+     */
+    private final long maximumLength = PlayerHelper.getPreferredFileSize();
+
+    /**
+     * The items being prefetched, only accessed from the main thread.
+     */
+    private final Map<PlayQueueItem, Prefetch> prefetches = new HashMap<>();
+
+    public MediaPrefetcher(@NonNull final Context context,
+                           @NonNull final PlayerDataSource dataSource) {
+        this.context = context;
+        this.cacheFactory = dataSource.getCacheDataSourceFactory();
+    }
+
+    /**
+     * @return the amount of items after the current one to prefetch, chosen by the user
+     */
+    public int getItemCount() {
+        return PlayerHelper.getPrefetchItemCount(context);
+    }
+
+    /**
+     * Prefetches the given items and cancels the prefetch of any other item, e.g. the item being
+     * played now.
+     *
+     * @param items    the next items of the play queue
+     * @param media    whether to write the first seconds of the streams to the cache too, ignored
+     *                 on metered networks
+     * @param listener the listener choosing the streams to play
+     */
+    public void prefetch(@NonNull final List<PlayQueueItem> items, final boolean media,
+                         @NonNull final PlaybackListener listener) {
+        final Iterator<Map.Entry<PlayQueueItem, Prefetch>> iterator =
+                prefetches.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<PlayQueueItem, Prefetch> entry = iterator.next();
+            if (!items.contains(entry.getKey())) {
+                entry.getValue().disposable.dispose();
+                iterator.remove();
+            }
+        }
+
+        final boolean prefetchMedia = media && !ListHelper.isMeteredNetwork(context);
+        for (final PlayQueueItem item : items) {
+            final Prefetch prefetch = prefetches.get(item);
+            if (prefetch != null && (prefetch.media || !prefetchMedia)) {
+                continue;
+            }
+            if (prefetch != null) {
+                // the stream info is extracted again, but from the cache
+                prefetch.disposable.dispose();
+            }
+
+            if (DEBUG) {
+                Log.d(TAG, "prefetch() called for [" + item.getTitle() + "], media = "
+                        + prefetchMedia);
+            }
+            prefetches.put(item, new Prefetch(prefetchMedia, prefetchMedia
+                    ? prefetchMedia(item, listener) : prefetchInfo(item)));
+        }
+    }
+
+    /**
+     * Cancels every prefetch.
+     */
+    public void dispose() {
+        for (final Prefetch prefetch : prefetches.values()) {
+            prefetch.disposable.dispose();
+        }
+        prefetches.clear();
+    }
+
+    private Disposable prefetchInfo(@NonNull final PlayQueueItem item) {
+        return item.getStream().subscribe(info -> { }, this::onError);
+    }
+
+    private Disposable prefetchMedia(@NonNull final PlayQueueItem item,
+                                     @NonNull final PlaybackListener listener) {
+        // the targets are found on the io thread of the extraction, like the sources, since the
+        // downloads of the stream are read
+        return item.getStream()
+                .map(info -> listener.prefetchTargetsOf(item, info))
+                .flatMapCompletable(targets -> Observable.fromIterable(targets)
+                        .concatMapCompletable(this::write))
+                .subscribe(() -> { }, this::onError);
+    }
+
+    private Completable write(@NonNull final Target target) {
+        return Completable.create(emitter -> {
+            final DataSpec dataSpec = new DataSpec.Builder()
+                    .setUri(Uri.parse(target.url))
+                    .setLength(target.getPrefetchLength(maximumLength))
+                    .setKey(target.cacheKey)
+                    .build();
+            final CacheWriter writer = new CacheWriter(cacheFactory.createDataSource(false),
+                    dataSpec, null, null);
+            emitter.setCancellable(writer::cancel);
+
+            try {
+                writer.cache();
+                emitter.onComplete();
+            } catch (final IOException e) {
+                emitter.tryOnError(e);
+            }
+        }).onErrorComplete(e -> {
+            // the stream is loaded by the player anyway, try the next one
+            onError(e);
+            return true;
+        });
+    }
+
+    private void onError(@NonNull final Throwable error) {
+        if (DEBUG) {
+            Log.w(TAG, "Failed to prefetch", error);
+        }
+    }
+}
@@ -32,7 +32,7 @@ public class PlayerDataSource {
     private static final int EXTRACTOR_MINIMUM_RETRY = Integer.MAX_VALUE;
 
     private final int continueLoadingCheckIntervalBytes;
-    private final DataSource.Factory cacheDataSourceFactory;
+    private final CacheFactory cacheDataSourceFactory;
     private final DataSource.Factory cachelessDataSourceFactory;
 
     public PlayerDataSource(@NonNull final Context context, @NonNull final String userAgent,
@@ -43,6 +43,10 @@ public class PlayerDataSource {
                 = new DefaultDataSourceFactory(context, userAgent, transferListener);
     }
 
+    /* package-private */ CacheFactory getCacheDataSourceFactory() {
+        return cacheDataSourceFactory;
+    }
+
     public SsMediaSource.Factory getLiveSsMediaSourceFactory() {
         return new SsMediaSource.Factory(
                 new DefaultSsChunkSource.Factory(cachelessDataSourceFactory),
@@ -98,6 +102,14 @@ public class PlayerDataSource {
                         new DefaultLoadErrorHandlingPolicy(EXTRACTOR_MINIMUM_RETRY));
     }
 
+    /**
+     * @return the factory of the sources playing a downloaded file, which is neither cached nor
+     * retried
+     */
+    public ProgressiveMediaSource.Factory getDownloadMediaSourceFactory() {
+        return new ProgressiveMediaSource.Factory(cachelessDataSourceFactory);
+    }
+
     public SingleSampleMediaSource.Factory getSampleMediaSourceFactory() {
         return new SingleSampleMediaSource.Factory(cacheDataSourceFactory);
     }
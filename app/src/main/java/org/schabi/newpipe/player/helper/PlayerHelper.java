@@ -45,11 +45,9 @@ import com.google.android.exoplayer2.util.MimeTypes;
 import org.schabi.newpipe.R;
 import org.schabi.newpipe.extractor.InfoItem;
 import org.schabi.newpipe.extractor.MediaFormat;
-import org.schabi.newpipe.extractor.stream.AudioStream;
 import org.schabi.newpipe.extractor.stream.StreamInfo;
 import org.schabi.newpipe.extractor.stream.StreamInfoItem;
 import org.schabi.newpipe.extractor.stream.SubtitlesStream;
-import org.schabi.newpipe.extractor.stream.VideoStream;
 import org.schabi.newpipe.extractor.utils.Utils;
 import org.schabi.newpipe.player.MainPlayer;
 import org.schabi.newpipe.player.Player;
@@ -161,18 +159,6 @@ public final class PlayerHelper {
         }
     }
 
-    @NonNull
-    public static String cacheKeyOf(@NonNull final StreamInfo info,
-                                    @NonNull final VideoStream video) {
-        return info.getUrl() + video.getResolution() + video.getFormat().getName();
-    }
-
-    @NonNull
-    public static String cacheKeyOf(@NonNull final StreamInfo info,
-                                    @NonNull final AudioStream audio) {
-        return info.getUrl() + audio.getAverageBitrate() + audio.getFormat().getName();
-    }
-
     /**
      * Given a {@link StreamInfo} and the existing queue items,
      * provide the {@link SinglePlayQueue} consisting of the next video for auto queueing.
@@ -392,6 +378,17 @@ public final class PlayerHelper {
                 context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 0) == 0;
     }
 
+    /**
+     * @param context the context to get the preferences from
+     * @return the amount of play queue items after the current one to prefetch
+     * @see MediaPrefetcher
+     */
+    public static int getPrefetchItemCount(@NonNull final Context context) {
+        return Integer.parseInt(getPreferences(context).getString(
+                context.getString(R.string.prefetch_item_count_key),
+                context.getString(R.string.prefetch_item_count_default_value)));
+    }
+
     public static int getProgressiveLoadIntervalBytes(@NonNull final Context context) {
         final String preferredIntervalBytes = getPreferences(context).getString(
                 context.getString(R.string.progressive_load_interval_key),
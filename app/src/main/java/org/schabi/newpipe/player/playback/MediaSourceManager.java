@@ -11,6 +11,8 @@ import com.google.android.exoplayer2.source.MediaSource;
 
 import org.reactivestreams.Subscriber;
 import org.reactivestreams.Subscription;
+import org.schabi.newpipe.extractor.stream.StreamInfo;
+import org.schabi.newpipe.player.helper.MediaPrefetcher;
 import org.schabi.newpipe.player.mediasource.FailedMediaSource;
 import org.schabi.newpipe.player.mediasource.LoadedMediaSource;
 import org.schabi.newpipe.player.mediasource.ManagedMediaSource;
@@ -24,8 +26,10 @@ import org.schabi.newpipe.player.playqueue.events.RemoveEvent;
 import org.schabi.newpipe.player.playqueue.events.ReorderEvent;
 import org.schabi.newpipe.util.ServiceHelper;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -74,6 +78,15 @@ public class MediaSourceManager {
     @NonNull
     private final PlayQueue playQueue;
 
+    /**
+     * Prefetches the items after the {@link #WINDOW_SIZE window}, and the first seconds of the
+     * next items once the playback is near its end.
+     *
+     * @see #maybePrefetch()
+     */
+    @NonNull
+    private final MediaPrefetcher prefetcher;
+
     /**
      * Determines the gap time between the playback position and the playback duration which
      * the {@link #getEdgeIntervalSignal()} begins to request loading.
@@ -126,14 +139,16 @@ public class MediaSourceManager {
     private final Handler removeMediaSourceHandler = new Handler();
 
     public MediaSourceManager(@NonNull final PlaybackListener listener,
-                              @NonNull final PlayQueue playQueue) {
-        this(listener, playQueue, 400L,
+                              @NonNull final PlayQueue playQueue,
+                              @NonNull final MediaPrefetcher prefetcher) {
+        this(listener, playQueue, prefetcher, 400L,
                 /*playbackNearEndGapMillis=*/TimeUnit.MILLISECONDS.convert(30, TimeUnit.SECONDS),
                 /*progressUpdateIntervalMillis*/TimeUnit.MILLISECONDS.convert(2, TimeUnit.SECONDS));
     }
 
     private MediaSourceManager(@NonNull final PlaybackListener listener,
                                @NonNull final PlayQueue playQueue,
+                               @NonNull final MediaPrefetcher prefetcher,
                                final long loadDebounceMillis,
                                final long playbackNearEndGapMillis,
                                final long progressUpdateIntervalMillis) {
@@ -148,6 +163,7 @@ public class MediaSourceManager {
 
         this.playbackListener = listener;
         this.playQueue = playQueue;
+        this.prefetcher = prefetcher;
 
         this.playbackNearEndGapMillis = playbackNearEndGapMillis;
         this.progressUpdateIntervalMillis = progressUpdateIntervalMillis;
@@ -188,6 +204,7 @@ public class MediaSourceManager {
 
         playQueueReactor.cancel();
         loaderReactor.dispose();
+        prefetcher.dispose();
     }
 
     /*//////////////////////////////////////////////////////////////////////////
@@ -389,6 +406,27 @@ public class MediaSourceManager {
         for (final PlayQueueItem item : itemsToLoad.neighbors) {
             maybeLoadItem(item);
         }
+
+        maybePrefetch();
+    }
+
+    /**
+     * Prefetches the stream info of the next items chosen by the user, and their first seconds
+     * once the playback is near its end ({@link #playbackNearEndGapMillis}), when this is called
+     * repeatedly by the {@link #nearEndIntervalSignal}.
+     */
+    private void maybePrefetch() {
+        final int index = playQueue.getIndex();
+        final int end = Math.min(playQueue.size(), index + 1 + prefetcher.getItemCount());
+
+        final List<PlayQueueItem> items = new ArrayList<>();
+        for (int i = index + 1; i < end; i++) {
+            items.add(playQueue.getItem(i));
+        }
+
+        prefetcher.prefetch(items,
+                playbackListener.isApproachingPlaybackEdge(playbackNearEndGapMillis),
+                playbackListener);
     }
 
     private void maybeLoadItem(@NonNull final PlayQueueItem item) {
@@ -429,8 +467,33 @@ public class MediaSourceManager {
             final long expiration = System.currentTimeMillis()
                     + ServiceHelper.getCacheExpirationMillis(streamInfo.getServiceId());
             return new LoadedMediaSource(source, stream, expiration);
-        }).onErrorReturn(throwable -> new FailedMediaSource(stream,
-                new StreamInfoLoadException(throwable)));
+        }).onErrorReturn(throwable -> {
+            // The stream can still be played if downloaded, e.g. when offline
+            final MediaSource source = playbackListener.sourceOf(stream, offlineInfoOf(stream));
+            if (source == null) {
+                return new FailedMediaSource(stream, new StreamInfoLoadException(throwable));
+            }
+
+            final long expiration = System.currentTimeMillis()
+                    + ServiceHelper.getCacheExpirationMillis(stream.getServiceId());
+            return new LoadedMediaSource(source, stream, expiration);
+        });
+    }
+
+    /**
+     * @param item the item whose stream info could not be extracted
+     * @return a stream info with the metadata of the item and without any stream, so only a
+     * download of the stream can be played
+     */
+    @NonNull
+    private static StreamInfo offlineInfoOf(@NonNull final PlayQueueItem item) {
+        final StreamInfo info = new StreamInfo(item.getServiceId(), item.getUrl(), item.getUrl(),
+                item.getStreamType(), item.getUrl(), item.getTitle(), 0);
+        info.setDuration(item.getDuration());
+        info.setThumbnailUrl(item.getThumbnailUrl());
+        info.setUploaderName(item.getUploader());
+        info.setUploaderUrl(item.getUploaderUrl());
+        return info;
     }
 
     private void onMediaSourceReceived(@NonNull final PlayQueueItem item,
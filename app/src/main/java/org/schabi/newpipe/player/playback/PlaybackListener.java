@@ -6,8 +6,11 @@ import androidx.annotation.Nullable;
 import com.google.android.exoplayer2.source.MediaSource;
 
 import org.schabi.newpipe.extractor.stream.StreamInfo;
+import org.schabi.newpipe.player.helper.MediaPrefetcher;
 import org.schabi.newpipe.player.playqueue.PlayQueueItem;
 
+import java.util.List;
+
 public interface PlaybackListener {
     /**
      * Called to check if the currently playing stream is approaching the end of its playback.
@@ -68,6 +71,19 @@ public interface PlaybackListener {
     @Nullable
     MediaSource sourceOf(PlayQueueItem item, StreamInfo info);
 
+    /**
+     * Requests the listener to find the streams {@link #sourceOf(PlayQueueItem, StreamInfo)}
+     * would play, so their first bytes can be prefetched.
+     * <p>
+     * May be called at any time.
+     * </p>
+     * @param item
+     * @param info
+     * @return the streams to prefetch, can be empty
+     */
+    @NonNull
+    List<MediaPrefetcher.Target> prefetchTargetsOf(PlayQueueItem item, StreamInfo info);
+
     /**
      * Called when the play queue can no longer be played or used.
      * Currently, this means the play queue is empty and complete.
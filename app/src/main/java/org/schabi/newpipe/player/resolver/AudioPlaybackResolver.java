@@ -10,20 +10,32 @@ import com.google.android.exoplayer2.source.MediaSource;
 import org.schabi.newpipe.extractor.MediaFormat;
 import org.schabi.newpipe.extractor.stream.AudioStream;
 import org.schabi.newpipe.extractor.stream.StreamInfo;
+import org.schabi.newpipe.player.helper.DownloadIndex;
+import org.schabi.newpipe.player.helper.MediaCache;
+import org.schabi.newpipe.player.helper.MediaPrefetcher;
 import org.schabi.newpipe.player.helper.PlayerDataSource;
-import org.schabi.newpipe.player.helper.PlayerHelper;
 import org.schabi.newpipe.util.ListHelper;
+import org.schabi.newpipe.util.StreamTypeUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import us.shandian.giga.get.FinishedMission;
 
 public class AudioPlaybackResolver implements PlaybackResolver {
     @NonNull
     private final Context context;
     @NonNull
     private final PlayerDataSource dataSource;
+    @NonNull
+    private final DownloadIndex downloadIndex;
 
     public AudioPlaybackResolver(@NonNull final Context context,
                                  @NonNull final PlayerDataSource dataSource) {
         this.context = context;
         this.dataSource = dataSource;
+        this.downloadIndex = DownloadIndex.getInstance(context);
     }
 
     @Override
@@ -34,14 +46,48 @@ public class AudioPlaybackResolver implements PlaybackResolver {
             return liveSource;
         }
 
-        final int index = ListHelper.getDefaultAudioFormat(context, info.getAudioStreams());
-        if (index < 0 || index >= info.getAudioStreams().size()) {
+        final MediaSourceTag tag = new MediaSourceTag(info);
+
+        // Play the download of the stream instead, no network is needed to start and seek. The
+        // audio quality can't be chosen in the player, any download is played
+        @Nullable final FinishedMission download =
+                downloadIndex.find(info.getUrl(), DownloadIndex.KIND_AUDIO, null);
+        if (download != null) {
+            return buildDownloadMediaSource(dataSource, download, tag);
+        }
+
+        final AudioStream audio = getAudioStream(info);
+        if (audio == null) {
             return null;
         }
 
-        final AudioStream audio = info.getAudioStreams().get(index);
-        final MediaSourceTag tag = new MediaSourceTag(info);
-        return buildMediaSource(dataSource, audio.getUrl(), PlayerHelper.cacheKeyOf(info, audio),
+        return buildMediaSource(dataSource, audio.getUrl(), MediaCache.cacheKeyOf(info, audio),
                 MediaFormat.getSuffixById(audio.getFormatId()), tag);
     }
+
+    @NonNull
+    @Override
+    public List<MediaPrefetcher.Target> getPrefetchTargets(@NonNull final StreamInfo info) {
+        final AudioStream audio = getAudioStream(info);
+        if (StreamTypeUtil.isLiveStream(info.getStreamType()) || audio == null
+                // played from the downloaded file
+                || downloadIndex.find(info.getUrl(), DownloadIndex.KIND_AUDIO, null) != null) {
+            return Collections.emptyList();
+        }
+
+        final List<MediaPrefetcher.Target> targets = new ArrayList<>(1);
+        addPrefetchTarget(targets, audio.getUrl(), MediaCache.cacheKeyOf(info, audio),
+                MediaFormat.getSuffixById(audio.getFormatId()),
+                audio.getAverageBitrate() * 1000L);
+        return targets;
+    }
+
+    @Nullable
+    private AudioStream getAudioStream(@NonNull final StreamInfo info) {
+        final int index = ListHelper.getDefaultAudioFormat(context, info.getAudioStreams());
+        if (index < 0 || index >= info.getAudioStreams().size()) {
+            return null;
+        }
+        return info.getAudioStreams().get(index);
+    }
 }
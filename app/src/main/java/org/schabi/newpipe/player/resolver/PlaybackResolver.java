@@ -14,9 +14,15 @@ import com.google.android.exoplayer2.util.Util;
 
 import org.schabi.newpipe.extractor.stream.StreamInfo;
 import org.schabi.newpipe.extractor.stream.StreamType;
+import org.schabi.newpipe.player.helper.MediaPrefetcher;
 import org.schabi.newpipe.player.helper.PlayerDataSource;
 import org.schabi.newpipe.util.StreamTypeUtil;
 
+import java.util.Collections;
+import java.util.List;
+
+import us.shandian.giga.get.FinishedMission;
+
 public interface PlaybackResolver extends Resolver<StreamInfo, MediaSource> {
 
     @Nullable
@@ -73,8 +79,7 @@ public interface PlaybackResolver extends Resolver<StreamInfo, MediaSource> {
                                          @NonNull final String overrideExtension,
                                          @NonNull final MediaSourceTag metadata) {
         final Uri uri = Uri.parse(sourceUrl);
-        @C.ContentType final int type = TextUtils.isEmpty(overrideExtension)
-                ? Util.inferContentType(uri) : Util.inferContentType("." + overrideExtension);
+        @C.ContentType final int type = inferContentType(uri, overrideExtension);
 
         final MediaSourceFactory factory;
         switch (type) {
@@ -102,4 +107,56 @@ public interface PlaybackResolver extends Resolver<StreamInfo, MediaSource> {
                     .build()
         );
     }
+
+    @NonNull
+    default MediaSource buildDownloadMediaSource(@NonNull final PlayerDataSource dataSource,
+                                                 @NonNull final FinishedMission download,
+                                                 @NonNull final MediaSourceTag metadata) {
+        return dataSource.getDownloadMediaSourceFactory().createMediaSource(
+                new MediaItem.Builder()
+                    .setTag(metadata)
+                    .setUri(download.storage.getUri())
+                    .build()
+        );
+    }
+
+    @C.ContentType
+    default int inferContentType(@NonNull final Uri uri, @NonNull final String overrideExtension) {
+        return TextUtils.isEmpty(overrideExtension)
+                ? Util.inferContentType(uri) : Util.inferContentType("." + overrideExtension);
+    }
+
+    /**
+     * Get the streams {@link #resolve(StreamInfo)} would play, to write their first bytes to the
+     * cache in advance.
+     *
+     * @param info the stream info
+     * @return the streams, empty for live streams and streams played from a download
+     */
+    @NonNull
+    default List<MediaPrefetcher.Target> getPrefetchTargets(@NonNull final StreamInfo info) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Add a stream to the prefetch targets, unless it is a manifest (only progressive streams
+     * are prefetched).
+     *
+     * @param targets           the targets
+     * @param sourceUrl         the url of the stream
+     * @param cacheKey          the cache key of the stream, as in
+     *                          {@link #buildMediaSource(PlayerDataSource, String, String, String,
+     *                          MediaSourceTag)}
+     * @param overrideExtension the extension of the stream format
+     * @param bitrate           the bitrate of the stream in bits per second, or -1 if unknown
+     */
+    default void addPrefetchTarget(@NonNull final List<MediaPrefetcher.Target> targets,
+                                   @NonNull final String sourceUrl,
+                                   @NonNull final String cacheKey,
+                                   @NonNull final String overrideExtension,
+                                   final long bitrate) {
+        if (inferContentType(Uri.parse(sourceUrl), overrideExtension) == C.TYPE_OTHER) {
+            targets.add(new MediaPrefetcher.Target(sourceUrl, cacheKey, bitrate));
+        }
+    }
 }
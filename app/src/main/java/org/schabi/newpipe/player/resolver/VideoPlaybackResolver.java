@@ -15,14 +15,21 @@ import org.schabi.newpipe.extractor.stream.AudioStream;
 import org.schabi.newpipe.extractor.stream.StreamInfo;
 import org.schabi.newpipe.extractor.stream.SubtitlesStream;
 import org.schabi.newpipe.extractor.stream.VideoStream;
+import org.schabi.newpipe.player.helper.DownloadIndex;
+import org.schabi.newpipe.player.helper.MediaCache;
+import org.schabi.newpipe.player.helper.MediaPrefetcher;
 import org.schabi.newpipe.player.helper.PlayerDataSource;
 import org.schabi.newpipe.player.helper.PlayerHelper;
 import org.schabi.newpipe.util.ListHelper;
+import org.schabi.newpipe.util.StreamTypeUtil;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
+import us.shandian.giga.get.FinishedMission;
+
 import static com.google.android.exoplayer2.C.TIME_UNSET;
 
 public class VideoPlaybackResolver implements PlaybackResolver {
@@ -32,6 +39,8 @@ public class VideoPlaybackResolver implements PlaybackResolver {
     private final PlayerDataSource dataSource;
     @NonNull
     private final QualityResolver qualityResolver;
+    @NonNull
+    private final DownloadIndex downloadIndex;
     private SourceType streamSourceType;
 
     @Nullable
@@ -49,6 +58,7 @@ public class VideoPlaybackResolver implements PlaybackResolver {
         this.context = context;
         this.dataSource = dataSource;
         this.qualityResolver = qualityResolver;
+        this.downloadIndex = DownloadIndex.getInstance(context);
     }
 
     @Override
@@ -63,35 +73,26 @@ public class VideoPlaybackResolver implements PlaybackResolver {
         final List<MediaSource> mediaSources = new ArrayList<>();
 
         // Create video stream source
-        final List<VideoStream> videos = ListHelper.getSortedStreamVideosList(context,
-                info.getVideoStreams(), info.getVideoOnlyStreams(), false, true);
-        final int index;
-        if (videos.isEmpty()) {
-            index = -1;
-        } else if (playbackQuality == null) {
-            index = qualityResolver.getDefaultResolutionIndex(videos);
-        } else {
-            index = qualityResolver.getOverrideResolutionIndex(videos, getPlaybackQuality());
-        }
-        final MediaSourceTag tag = new MediaSourceTag(info, videos, index);
+        final List<VideoStream> videos = getSortedVideoStreams(info);
+        final MediaSourceTag tag = new MediaSourceTag(info, videos, getVideoIndex(videos));
         @Nullable final VideoStream video = tag.getSelectedVideoStream();
 
-        if (video != null) {
+        // Play the download of the stream instead, no network is needed to start and seek
+        @Nullable final FinishedMission download = findDownload(info, video);
+        if (download != null) {
+            mediaSources.add(buildDownloadMediaSource(dataSource, download, tag));
+        } else if (video != null) {
             final MediaSource streamSource = buildMediaSource(dataSource, video.getUrl(),
-                    PlayerHelper.cacheKeyOf(info, video),
+                    MediaCache.cacheKeyOf(info, video),
                     MediaFormat.getSuffixById(video.getFormatId()), tag);
             mediaSources.add(streamSource);
         }
 
         // Create optional audio stream source
-        final List<AudioStream> audioStreams = info.getAudioStreams();
-        final AudioStream audio = audioStreams.isEmpty() ? null : audioStreams.get(
-                ListHelper.getDefaultAudioFormat(context, audioStreams));
-        // Use the audio stream if there is no video stream, or
-        // Merge with audio stream in case if video does not contain audio
-        if (audio != null && (video == null || video.isVideoOnly)) {
+        final AudioStream audio = download == null ? getAudioStream(info, video) : null;
+        if (audio != null) {
             final MediaSource audioSource = buildMediaSource(dataSource, audio.getUrl(),
-                    PlayerHelper.cacheKeyOf(info, audio),
+                    MediaCache.cacheKeyOf(info, audio),
                     MediaFormat.getSuffixById(audio.getFormatId()), tag);
             mediaSources.add(audioSource);
             streamSourceType = SourceType.VIDEO_WITH_SEPARATED_AUDIO;
@@ -130,6 +131,93 @@ public class VideoPlaybackResolver implements PlaybackResolver {
         }
     }
 
+    @NonNull
+    @Override
+    public List<MediaPrefetcher.Target> getPrefetchTargets(@NonNull final StreamInfo info) {
+        if (StreamTypeUtil.isLiveStream(info.getStreamType())) {
+            return Collections.emptyList();
+        }
+
+        final List<MediaPrefetcher.Target> targets = new ArrayList<>(2);
+        final List<VideoStream> videos = getSortedVideoStreams(info);
+        @Nullable final VideoStream video = new MediaSourceTag(info, videos, getVideoIndex(videos))
+                .getSelectedVideoStream();
+        if (findDownload(info, video) != null) {
+            // played from the downloaded file
+            return Collections.emptyList();
+        }
+
+        if (video != null) {
+            addPrefetchTarget(targets, video.getUrl(), MediaCache.cacheKeyOf(info, video),
+                    MediaFormat.getSuffixById(video.getFormatId()), -1);
+        }
+
+        final AudioStream audio = getAudioStream(info, video);
+        if (audio != null) {
+            addPrefetchTarget(targets, audio.getUrl(), MediaCache.cacheKeyOf(info, audio),
+                    MediaFormat.getSuffixById(audio.getFormatId()),
+                    audio.getAverageBitrate() * 1000L);
+        }
+        return targets;
+    }
+
+    @NonNull
+    private List<VideoStream> getSortedVideoStreams(@NonNull final StreamInfo info) {
+        return ListHelper.getSortedStreamVideosList(context,
+                info.getVideoStreams(), info.getVideoOnlyStreams(), false, true);
+    }
+
+    private int getVideoIndex(@NonNull final List<VideoStream> videos) {
+        if (videos.isEmpty()) {
+            return -1;
+        } else if (playbackQuality == null) {
+            return qualityResolver.getDefaultResolutionIndex(videos);
+        } else {
+            return qualityResolver.getOverrideResolutionIndex(videos, getPlaybackQuality());
+        }
+    }
+
+    /**
+     * Find the download to play instead of the streams: a video with audio of the selected
+     * resolution, or an audio if there is no video stream. If no stream is known, e.g. the stream
+     * was extracted offline, any download is played.
+     *
+     * @param info  the stream info
+     * @param video the selected video stream
+     * @return the download to play, {@code null} if the streams have to be played
+     */
+    @Nullable
+    private FinishedMission findDownload(@NonNull final StreamInfo info,
+                                         @Nullable final VideoStream video) {
+        if (video != null) {
+            return downloadIndex.find(info.getUrl(), DownloadIndex.KIND_VIDEO,
+                    video.getResolution());
+        }
+
+        final FinishedMission download = info.getAudioStreams().isEmpty()
+                ? downloadIndex.find(info.getUrl(), DownloadIndex.KIND_VIDEO, null) : null;
+        return download != null
+                ? download : downloadIndex.find(info.getUrl(), DownloadIndex.KIND_AUDIO, null);
+    }
+
+    /**
+     * Use the audio stream if there is no video stream, or merge with audio stream in case if
+     * video does not contain audio.
+     *
+     * @param info  the stream info
+     * @param video the selected video stream
+     * @return the audio stream to play, {@code null} if none is needed
+     */
+    @Nullable
+    private AudioStream getAudioStream(@NonNull final StreamInfo info,
+                                       @Nullable final VideoStream video) {
+        final List<AudioStream> audioStreams = info.getAudioStreams();
+        if (audioStreams.isEmpty() || (video != null && !video.isVideoOnly)) {
+            return null;
+        }
+        return audioStreams.get(ListHelper.getDefaultAudioFormat(context, audioStreams));
+    }
+
     /**
      * Returns the last resolved {@link StreamInfo}'s {@link SourceType source type}.
      *
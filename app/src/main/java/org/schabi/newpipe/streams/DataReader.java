@@ -85,7 +85,7 @@ public class DataReader {
         final long high
                 = primitive[0] << 24 | primitive[1] << 16 | primitive[2] << 8 | primitive[3];
         final long low = primitive[4] << 24 | primitive[5] << 16 | primitive[6] << 8 | primitive[7];
-        return high << 32 | low;
+        return high << 32 | (low & 0xFFFFFFFFL);
     }
 
     public int read(final byte[] buffer) throws IOException {
@@ -229,19 +229,32 @@ public class DataReader {
     }
 
     private final short[] primitive = new short[LONG_SIZE];
+    private final byte[] primitiveBuffer = new byte[LONG_SIZE];
 
     private void primitiveRead(final int amount) throws IOException {
-        final byte[] buffer = new byte[amount];
-        final int read = read(buffer, 0, amount);
-
-        if (read != amount) {
-            throw new EOFException("Truncated stream, missing "
-                    + (amount - read) + " bytes");
+        final byte[] buffer;
+        final int offset;
+
+        if (readCount >= amount) {
+            // fast path, the bytes are already buffered
+            buffer = readBuffer;
+            offset = readOffset;
+            readOffset += amount;
+            readCount -= amount;
+            position += amount;
+        } else {
+            final int read = read(primitiveBuffer, 0, amount);
+            if (read != amount) {
+                throw new EOFException("Truncated stream, missing "
+                        + (amount - read) + " bytes");
+            }
+            buffer = primitiveBuffer;
+            offset = 0;
         }
 
         for (int i = 0; i < amount; i++) {
             // the "byte" data type in java is signed and is very annoying
-            primitive[i] = (short) (buffer[i] & 0xFF);
+            primitive[i] = (short) (buffer[offset + i] & 0xFF);
         }
     }
 
@@ -456,8 +456,9 @@ public class Mp4DashReader {
 
         stream.read(obj.bEntries);
 
+        final TrunEntry entry = new TrunEntry();
         for (int i = 0; i < obj.entryCount; i++) {
-            final TrunEntry entry = obj.getEntry(i);
+            obj.getEntry(i, entry);
             if (hasFlag(obj.bFlags, 0x0100)) {
                 obj.chunkDuration += entry.sampleDuration;
             }
@@ -792,20 +793,39 @@ public class Mp4DashReader {
         int entriesRowSize;
 
         public TrunEntry getEntry(final int i) {
-            final ByteBuffer buffer = ByteBuffer.wrap(bEntries, i * entriesRowSize, entriesRowSize);
-            final TrunEntry entry = new TrunEntry();
+            return getEntry(i, new TrunEntry());
+        }
+
+        /**
+         * Same as {@link #getEntry(int)} but fills the given entry instead of allocating one,
+         * useful when iterating all samples.
+         *
+         * @param i     sample index
+         * @param entry the entry to fill, all fields are overwritten
+         * @return {@code entry}
+         */
+        TrunEntry getEntry(final int i, final TrunEntry entry) {
+            int offset = i * entriesRowSize;
+
+            entry.sampleDuration = 0;
+            entry.sampleSize = 0;
+            entry.sampleFlags = 0;
+            entry.sampleCompositionTimeOffset = 0;
 
             if (hasFlag(bFlags, 0x0100)) {
-                entry.sampleDuration = buffer.getInt();
+                entry.sampleDuration = readInt(bEntries, offset);
+                offset += 4;
             }
             if (hasFlag(bFlags, 0x0200)) {
-                entry.sampleSize = buffer.getInt();
+                entry.sampleSize = readInt(bEntries, offset);
+                offset += 4;
             }
             if (hasFlag(bFlags, 0x0400)) {
-                entry.sampleFlags = buffer.getInt();
+                entry.sampleFlags = readInt(bEntries, offset);
+                offset += 4;
             }
             if (hasFlag(bFlags, 0x0800)) {
-                entry.sampleCompositionTimeOffset = buffer.getInt();
+                entry.sampleCompositionTimeOffset = readInt(bEntries, offset);
             }
 
             entry.hasCompositionTimeOffset = hasFlag(bFlags, 0x0800);
@@ -815,7 +835,11 @@ public class Mp4DashReader {
         }
 
         public TrunEntry getAbsoluteEntry(final int i, final Tfhd header) {
-            final TrunEntry entry = getEntry(i);
+            return getAbsoluteEntry(i, header, new TrunEntry());
+        }
+
+        TrunEntry getAbsoluteEntry(final int i, final Tfhd header, final TrunEntry entry) {
+            getEntry(i, entry);
 
             if (!hasFlag(bFlags, 0x0100) && hasFlag(header.bFlags, 0x20)) {
                 entry.sampleFlags = header.defaultSampleFlags;
@@ -835,6 +859,11 @@ public class Mp4DashReader {
 
             return entry;
         }
+
+        private static int readInt(final byte[] buffer, final int offset) {
+            return buffer[offset] << 24 | (buffer[offset + 1] & 0xFF) << 16
+                    | (buffer[offset + 2] & 0xFF) << 8 | (buffer[offset + 3] & 0xFF);
+        }
     }
 
     public static class Tkhd {
@@ -910,10 +939,20 @@ public class Mp4DashReader {
         private int i = 0;
 
         public TrunEntry getNextSampleInfo() {
+            return getNextSampleInfo(new TrunEntry());
+        }
+
+        /**
+         * Reads the next sample info into an existing object.
+         *
+         * @param info the object to fill
+         * @return {@code info} or {@code null} if there are no more samples in the chunk
+         */
+        TrunEntry getNextSampleInfo(final TrunEntry info) {
             if (i >= moof.traf.trun.entryCount) {
                 return null;
             }
-            return moof.traf.trun.getAbsoluteEntry(i++, moof.traf.tfhd);
+            return moof.traf.trun.getAbsoluteEntry(i++, moof.traf.tfhd, info);
         }
 
         public Mp4DashSample getNextSample() throws IOException {
@@ -934,6 +973,41 @@ public class Mp4DashReader {
 
             return sample;
         }
+
+        /**
+         * Reads the next sample into an existing object, the info and the data buffer are reused
+         * and the buffer only grows if the sample does not fit. Only the first
+         * {@code sample.info.sampleSize} bytes of {@code sample.data} belong to the sample.
+         *
+         * @param sample the sample to fill
+         * @return {@code false} if there are no more samples in the chunk
+         * @throws IOException if the chunk data is truncated
+         */
+        public boolean getNextSample(final Mp4DashSample sample) throws IOException {
+            if (data == null) {
+                throw new IllegalStateException("This chunk has info only");
+            }
+            if (i >= moof.traf.trun.entryCount) {
+                return false;
+            }
+
+            if (sample.info == null) {
+                sample.info = new TrunEntry();
+            }
+            moof.traf.trun.getAbsoluteEntry(i++, moof.traf.tfhd, sample.info);
+
+            final int size = sample.info.sampleSize;
+            if (sample.data == null || sample.data.length < size) {
+                // some headroom, the keyframes are usually a bit larger than the previous one
+                sample.data = new byte[size + (size >> 3)];
+            }
+
+            if (data.read(sample.data, 0, size) != size) {
+                throw new EOFException("EOF reached while reading a sample");
+            }
+
+            return true;
+        }
     }
 
     public static class Mp4DashSample {
@@ -12,6 +12,7 @@ import org.schabi.newpipe.streams.io.SharpStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * @author kapodamy
@@ -36,6 +37,7 @@ public class Mp4FromDashWriter {
     private long writeOffset;
 
     private boolean moovSimulation = true;
+    private boolean moovAtEnd = false;
 
     private boolean done = false;
     private boolean parsed = false;
@@ -45,6 +47,10 @@ public class Mp4FromDashWriter {
 
     private Mp4DashReader[] readers;
     private Mp4DashChunk[] readersChunks;
+    private Mp4DashSample[] readersSamples;
+
+    private int[] trackDuration;
+    private int[] trackMediaTime;
 
     private int overrideMainBrand = 0x00;
 
@@ -60,6 +66,10 @@ public class Mp4FromDashWriter {
         sourceTracks = sources;
         readers = new Mp4DashReader[sourceTracks.length];
         readersChunks = new Mp4DashChunk[readers.length];
+        readersSamples = new Mp4DashSample[readers.length];
+        for (int i = 0; i < readersSamples.length; i++) {
+            readersSamples[i] = new Mp4DashSample();
+        }
         time = (System.currentTimeMillis() / 1000L) + EPOCH_OFFSET;
 
         compatibleBrands.add(0x6D703431); // mp41
@@ -116,6 +126,17 @@ public class Mp4FromDashWriter {
         overrideMainBrand = brand;
     }
 
+    /**
+     * Places the moov box after the samples. The output is written in a single forward pass over
+     * the sources, which allows muxing sources that are still being written. Otherwise, the
+     * sources are read twice, the first pass only counts the samples.
+     *
+     * @param value {@code true} to place the moov box at the end of the output
+     */
+    public void setMoovAtEnd(final boolean value) {
+        moovAtEnd = value;
+    }
+
     public boolean isDone() {
         return done;
     }
@@ -137,6 +158,7 @@ public class Mp4FromDashWriter {
 
         readers = null;
         readersChunks = null;
+        readersSamples = null;
 
         auxBuffer = null;
         outStream = null;
@@ -155,6 +177,11 @@ public class Mp4FromDashWriter {
         //          not allowed for very short tracks (less than 0.5 seconds)
         //
         outStream = output;
+        if (moovAtEnd) {
+            buildMoovAtEnd();
+            return;
+        }
+
         long read = 8; // mdat box header size
         long totalSampleSize = 0;
         final int[] sampleExtra = new int[readers.length];
@@ -167,14 +194,8 @@ public class Mp4FromDashWriter {
             tablesInfo[i] = new TablesInfo();
         }
 
-        final int singleSampleBuffer;
-        if (tracks.length == 1 && tracks[0].kind == TrackKind.Audio) {
-            // near 1 second of audio data per chunk, avoid split the audio stream in large chunks
-            singleSampleBuffer = tracks[0].trak.mdia.mdhdTimeScale / 1000;
-        } else {
-            singleSampleBuffer = -1;
-        }
-
+        final int singleSampleBuffer = getSingleSampleBuffer();
+        final TrunEntry info = new TrunEntry();
 
         for (int i = 0; i < readers.length; i++) {
             int samplesSize = 0;
@@ -191,8 +212,7 @@ public class Mp4FromDashWriter {
                 read += chunk.moof.traf.trun.chunkSize;
                 sampleExtra[i] += chunk.moof.traf.trun.chunkDuration; // calculate track duration
 
-                TrunEntry info;
-                while ((info = chunk.getNextSampleInfo()) != null) {
+                while (chunk.getNextSampleInfo(info) != null) {
                     if (info.isKeyframe) {
                         tablesInfo[i].stss++;
                     }
@@ -334,7 +354,7 @@ public class Mp4FromDashWriter {
 
                     if (sample == null) {
                         if (tablesInfo[i].ctts > 0 && sampleExtra[i] >= 0) {
-                            writeEntryArray(tablesInfo[i].ctts, 1, sampleCount[i],
+                            writeEntryArray(tablesInfo[i].ctts, 2, sampleCount[i],
                                     sampleExtra[i]); // flush last entries
                             outRestore();
                         }
@@ -362,17 +382,17 @@ public class Mp4FromDashWriter {
                         sync[syncCount++] = sampleIndex[i];
                     }
 
-                    if (tablesInfo[i].stsz > 0) {
-                        sizes[j] = sample.data.length;
+                    if (tablesInfo[i].stszDefault == 0) {
+                        sizes[j] = sample.info.sampleSize;
                     }
 
-                    outWrite(sample.data, sample.data.length);
+                    outWrite(sample.data, sample.info.sampleSize);
                 }
 
                 if (j > 0) {
                     written++;
 
-                    if (tablesInfo[i].stsz > 0) {
+                    if (tablesInfo[i].stszDefault == 0) {
                         tablesInfo[i].stsz = writeEntryArray(tablesInfo[i].stsz, j, sizes);
                     }
 
@@ -402,20 +422,226 @@ public class Mp4FromDashWriter {
         }
     }
 
+    private void buildMoovAtEnd() throws IOException {
+        final TrackEntries[] entries = new TrackEntries[readers.length];
+        final TablesInfo[] tablesInfo = new TablesInfo[tracks.length];
+        for (int i = 0; i < tablesInfo.length; i++) {
+            tablesInfo[i] = new TablesInfo();
+            entries[i] = new TrackEntries();
+        }
+
+        trackDuration = new int[readers.length];
+        trackMediaTime = new int[readers.length];
+
+        final int singleSampleBuffer = getSingleSampleBuffer();
+
+        moovSimulation = false;
+        writeOffset = 0;
+
+        makeFtyp();
+
+        // the mdat size is unknown, the header is patched once all samples are written
+        final long mdatOffset = writeOffset;
+        outWrite(makeMdat(0, true));
+
+        writeSamples(entries, singleSampleBuffer);
+
+        final long mdatEnd = writeOffset;
+        final boolean is64 = mdatEnd > THRESHOLD_FOR_CO64;
+
+        for (int i = 0; i < readers.length; i++) {
+            final TrackEntries track = entries[i];
+            final int sampleCount = track.sizes.count;
+
+            tablesInfo[i].stsz = sampleCount;
+            if (singleSampleBuffer > 0) {
+                initChunkTables(tablesInfo[i], singleSampleBuffer, singleSampleBuffer);
+            } else {
+                initChunkTables(tablesInfo[i], SAMPLES_PER_CHUNK_INIT, SAMPLES_PER_CHUNK);
+            }
+            tablesInfo[i].stco = track.chunkOffsets.count / 2;
+
+            if (track.sizes.isUniform()) {
+                tablesInfo[i].stsz = 0;
+                tablesInfo[i].stszDefault = sampleCount > 0 ? track.sizes.values[0] : 0;
+            } else {
+                tablesInfo[i].stszDefault = 0;
+            }
+
+            tablesInfo[i].stss = track.sync.count;
+            if (tablesInfo[i].stss == sampleCount) {
+                tablesInfo[i].stss = -1; // for audio tracks (all samples are keyframes)
+            }
+
+            if (track.hasCompositionOffsets) {
+                tablesInfo[i].ctts = track.compositionOffsets.count / 2;
+            }
+
+            if (trackMediaTime[i] < 1) {
+                trackMediaTime[i] = track.sampleDuration;
+            }
+
+            // ensure track duration
+            if (tracks[i].trak.tkhd.duration < 1) {
+                tracks[i].trak.tkhd.duration = trackDuration[i]; // this never should happen
+            }
+        }
+
+        // calculate the moov size
+        moovSimulation = true;
+        writeOffset = 0;
+        final int auxSize = makeMoov(trackMediaTime, tablesInfo, is64);
+
+        // make the moov in the memory, the table offsets are relative to the buffer
+        moovSimulation = false;
+        writeOffset = mdatEnd;
+        auxBuffer = ByteBuffer.allocate(auxSize);
+
+        makeMoov(trackMediaTime, tablesInfo, is64);
+
+        for (int i = 0; i < readers.length; i++) {
+            writeTables(tablesInfo[i], entries[i], is64);
+        }
+
+        // dump moov
+        outWrite(auxBuffer.array(), auxBuffer.capacity());
+        auxBuffer = null;
+
+        // patch the mdat size
+        outSeek(mdatOffset + 8);
+        outWrite(ByteBuffer.allocate(8).putLong(mdatEnd - mdatOffset).array());
+
+        trackDuration = null;
+        trackMediaTime = null;
+    }
+
+    private void writeSamples(final TrackEntries[] entries, final int singleSampleBuffer)
+            throws IOException {
+        final int[] sampleIndex = new int[readers.length];
+
+        int written = readers.length;
+        while (written > 0) {
+            written = 0;
+
+            for (int i = 0; i < readers.length; i++) {
+                if (sampleIndex[i] < 0) {
+                    continue; // track is done
+                }
+
+                final TrackEntries track = entries[i];
+                final long chunkOffset = writeOffset;
+                final int limit;
+                if (singleSampleBuffer > 0) {
+                    limit = singleSampleBuffer;
+                } else {
+                    limit = sampleIndex[i] == 0 ? SAMPLES_PER_CHUNK_INIT : SAMPLES_PER_CHUNK;
+                }
+
+                int j = 0;
+                for (; j < limit; j++) {
+                    final Mp4DashSample sample = getNextSample(i);
+
+                    if (sample == null) {
+                        sampleIndex[i] = -1;
+                        break;
+                    }
+
+                    sampleIndex[i]++;
+
+                    if (sample.info.sampleDuration > track.sampleDuration) {
+                        track.sampleDuration = sample.info.sampleDuration;
+                    }
+                    if (sample.info.hasCompositionTimeOffset) {
+                        track.hasCompositionOffsets = true;
+                    }
+                    if (sample.info.isKeyframe) {
+                        track.sync.add(sampleIndex[i]);
+                    }
+
+                    track.sizes.add(sample.info.sampleSize);
+                    track.compositionOffsets.addRun(sample.info.sampleCompositionTimeOffset);
+
+                    outWrite(sample.data, sample.info.sampleSize);
+                }
+
+                if (j > 0) {
+                    written++;
+                    track.chunkOffsets.add((int) (chunkOffset >>> 32));
+                    track.chunkOffsets.add((int) chunkOffset);
+                }
+            }
+        }
+    }
+
+    private void writeTables(final TablesInfo tables, final TrackEntries track,
+                             final boolean is64) throws IOException {
+        final int sampleCount = track.sizes.count;
+
+        writeEntryArray(tables.stts, 2, sampleCount, track.sampleDuration);
+        writeEntryArray(tables.stsc, tables.stscBEntries.length, tables.stscBEntries);
+        tables.stscBEntries = null;
+
+        if (tables.stss > 0) {
+            writeEntryArray(tables.stss, track.sync.count, track.sync.values);
+        }
+        if (tables.ctts > 0) {
+            writeEntryArray(tables.ctts, track.compositionOffsets.count,
+                    track.compositionOffsets.values);
+        }
+        if (tables.stszDefault == 0) {
+            // after makeMoov() the stsz field holds the table offset, even if the table is empty
+            writeEntryArray(tables.stsz, sampleCount, track.sizes.values);
+        }
+        if (tables.sbgp > 0) {
+            writeEntryArray(tables.sbgp, 1, sampleCount);
+        }
+
+        final EntryList offsets = track.chunkOffsets;
+        if (is64) {
+            // every chunk offset is stored as two integers (high and low)
+            writeEntryArray(tables.stco, offsets.count, offsets.values);
+        } else {
+            final int[] low = new int[offsets.count / 2];
+            for (int i = 0; i < low.length; i++) {
+                low[i] = offsets.values[(i * 2) + 1];
+            }
+            writeEntryArray(tables.stco, low.length, low);
+        }
+    }
+
+    private int getSingleSampleBuffer() {
+        if (tracks.length == 1 && tracks[0].kind == TrackKind.Audio) {
+            // near 1 second of audio data per chunk, avoid split the audio stream in large chunks
+            return tracks[0].trak.mdia.mdhdTimeScale / 1000;
+        } else {
+            return -1;
+        }
+    }
+
     private Mp4DashSample getNextSample(final int track) throws IOException {
         if (readersChunks[track] == null) {
             readersChunks[track] = readers[track].getNextChunk(false);
             if (readersChunks[track] == null) {
                 return null; // EOF reached
             }
+
+            if (trackDuration != null) {
+                final Mp4DashChunk chunk = readersChunks[track];
+                trackDuration[track] += chunk.moof.traf.trun.chunkDuration;
+
+                if (trackMediaTime[track] < 1 && chunk.moof.traf.tfhd.defaultSampleDuration > 0) {
+                    trackMediaTime[track] = chunk.moof.traf.tfhd.defaultSampleDuration;
+                }
+            }
         }
 
-        final Mp4DashSample sample = readersChunks[track].getNextSample();
-        if (sample == null) {
+        // the sample and its buffer are reused, only the first "sampleSize" bytes are valid
+        final Mp4DashSample sample = readersSamples[track];
+        if (readersChunks[track].getNextSample(sample)) {
+            return sample;
+        } else {
             readersChunks[track] = null;
             return getNextSample(track);
-        } else {
-            return sample;
         }
     }
 
@@ -897,6 +1123,56 @@ public class Mp4FromDashWriter {
         return buffer.array();
     }
 
+    /**
+     * Table entries collected while writing the samples.
+     */
+    private static final class EntryList {
+        int[] values = new int[256];
+        int count;
+
+        void add(final int value) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[count++] = value;
+        }
+
+        /**
+         * Adds a value to a run-length table of [sample_count, value] entries.
+         *
+         * @param value the value of the sample
+         */
+        void addRun(final int value) {
+            if (count > 0 && values[count - 1] == value) {
+                values[count - 2]++;
+            } else {
+                add(1);
+                add(value);
+            }
+        }
+
+        boolean isUniform() {
+            for (int i = 1; i < count; i++) {
+                if (values[i] != values[0]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Samples of a track collected while writing the mdat box.
+     */
+    private static final class TrackEntries {
+        final EntryList sizes = new EntryList();
+        final EntryList sync = new EntryList();
+        final EntryList compositionOffsets = new EntryList();
+        final EntryList chunkOffsets = new EntryList();
+        int sampleDuration;
+        boolean hasCompositionOffsets;
+    }
+
     static class TablesInfo {
         int stts;
         int stsc;
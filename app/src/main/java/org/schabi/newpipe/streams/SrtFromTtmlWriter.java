@@ -1,18 +1,11 @@
 package org.schabi.newpipe.streams;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.nodes.Node;
-import org.jsoup.nodes.TextNode;
-import org.jsoup.parser.Parser;
-import org.jsoup.select.Elements;
 import org.schabi.newpipe.streams.io.SharpStream;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 
 /**
  * @author kapodamy
@@ -31,10 +24,41 @@ public class SrtFromTtmlWriter {
         this.ignoreEmptyFrames = ignoreEmptyFrames;
     }
 
-    private static String getTimestamp(final Element frame, final String attr) {
-        return frame
-                .attr(attr)
-                .replace('.', ','); // SRT subtitles uses comma as decimal separator
+    private static String getTimestamp(final XmlPullReader reader, final String attr) {
+        final String value = reader.getAttribute(attr);
+        if (value == null) {
+            return "";
+        }
+        return value.replace('.', ','); // SRT subtitles uses comma as decimal separator
+    }
+
+    // collapses the whitespace runs into a single space, like the text nodes of Jsoup
+    private static void appendNormalized(final StringBuilder builder, final String text) {
+        boolean lastWasWhite = false;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r' || c == 160) {
+                if (!lastWasWhite) {
+                    builder.append(' ');
+                    lastWasWhite = true;
+                }
+            } else {
+                builder.append(c);
+                lastWasWhite = false;
+            }
+        }
+    }
+
+    /**
+     * @param path the element names from the root to the parent, inclusive
+     * @param name the element name
+     * @return {@code true} if the element is matched by the {@code body > div > p} selector
+     */
+    private static boolean isParagraph(final ArrayList<String> path, final String name) {
+        final int size = path.size();
+        return name.equalsIgnoreCase("p") && size >= 2
+                && path.get(size - 1).equalsIgnoreCase("div")
+                && path.get(size - 2).equalsIgnoreCase("body");
     }
 
     private void writeFrame(final String begin, final String end, final StringBuilder text)
@@ -64,40 +88,68 @@ public class SrtFromTtmlWriter {
          * Language parsing is not supported
          */
 
-        // parse XML
-        final byte[] buffer = new byte[(int) ttml.available()];
-        ttml.read(buffer);
-        final Document doc = Jsoup.parse(new ByteArrayInputStream(buffer), "UTF-8", "",
-                Parser.xmlParser());
-
+        // the XML is parsed while is read, every frame is written once its paragraph ends
+        final XmlPullReader reader = new XmlPullReader(ttml);
+        final ArrayList<String> path = new ArrayList<>(8);
         final StringBuilder text = new StringBuilder(128);
-        final Elements paragraphList = doc.select("body > div > p");
 
-        // check if has frames
-        if (paragraphList.size() < 1) {
-            return;
-        }
-
-        for (final Element paragraph : paragraphList) {
-            text.setLength(0);
-
-            for (final Node children : paragraph.childNodes()) {
-                if (children instanceof TextNode) {
-                    text.append(((TextNode) children).text());
-                } else if (children instanceof Element
-                        && ((Element) children).tagName().equalsIgnoreCase("br")) {
-                    text.append(NEW_LINE);
-                }
-            }
-
-            if (ignoreEmptyFrames && text.length() < 1) {
-                continue;
+        int paragraphDepth = -1;
+        String begin = null;
+        String end = null;
+
+        int event;
+        while ((event = reader.next()) != XmlPullReader.END_DOCUMENT) {
+            switch (event) {
+                case XmlPullReader.START_TAG:
+                    final String name = reader.getName();
+
+                    if (paragraphDepth < 0 && isParagraph(path, name)) {
+                        paragraphDepth = path.size();
+                        begin = getTimestamp(reader, "begin");
+                        end = getTimestamp(reader, "end");
+                        text.setLength(0);
+                    } else if (paragraphDepth >= 0 && path.size() == paragraphDepth + 1
+                            && name.equalsIgnoreCase("br")) {
+                        text.append(NEW_LINE);
+                    }
+
+                    path.add(name);
+                    break;
+                case XmlPullReader.END_TAG:
+                    // close the element and any unclosed children
+                    for (int i = path.size() - 1; i >= 0; i--) {
+                        if (path.get(i).equalsIgnoreCase(reader.getName())) {
+                            while (path.size() > i) {
+                                path.remove(path.size() - 1);
+                            }
+                            break;
+                        }
+                    }
+
+                    if (paragraphDepth >= 0 && path.size() <= paragraphDepth) {
+                        paragraphDepth = -1;
+                        writeParagraph(begin, end, text);
+                    }
+                    break;
+                case XmlPullReader.TEXT:
+                    // only the text of the paragraph, the text of its children is ignored
+                    if (paragraphDepth >= 0 && path.size() == paragraphDepth + 1) {
+                        appendNormalized(text, reader.getText());
+                    }
+                    break;
             }
+        }
 
-            final String begin = getTimestamp(paragraph, "begin");
-            final String end = getTimestamp(paragraph, "end");
+        if (paragraphDepth >= 0) {
+            writeParagraph(begin, end, text); // truncated document
+        }
+    }
 
-            writeFrame(begin, end, text);
+    private void writeParagraph(final String begin, final String end, final StringBuilder text)
+            throws IOException {
+        if (ignoreEmptyFrames && text.length() < 1) {
+            return;
         }
+        writeFrame(begin, end, text);
     }
 }
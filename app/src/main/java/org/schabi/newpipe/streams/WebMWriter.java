@@ -11,9 +11,14 @@ import org.schabi.newpipe.streams.io.SharpStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 
 /**
  * @author kapodamy
@@ -26,6 +31,9 @@ public class WebMWriter implements Closeable {
     private static final byte CLUSTER_HEADER_SIZE = 8;
     private static final int CUE_RESERVE_SIZE = 65535;
     private static final byte MINIMUM_EBML_VOID_SIZE = 4;
+    private static final int PREFETCH_BLOCKS = 64;
+    private static final int PREFETCH_BATCH_SIZE = 256 * 1024; // 256 KiB
+    private static final int PREFETCH_BYTES = 1024 * 1024; // 1 MiB per track
 
     private WebMReader.WebMTrack[] infoTracks;
     private SharpStream[] sourceTracks;
@@ -34,11 +42,13 @@ public class WebMWriter implements Closeable {
 
     private boolean done = false;
     private boolean parsed = false;
+    private boolean prefetch = false;
 
     private long written = 0;
 
     private Segment[] readersSegment;
     private Cluster[] readersCluster;
+    private Prefetcher[] prefetchers;
 
     private ArrayList<ClusterInfo> clustersOffsetsSizes;
 
@@ -102,11 +112,23 @@ public class WebMWriter implements Closeable {
         return done;
     }
 
+    /**
+     * Reads every source in its own thread while the output is written. Disabled by default, the
+     * sources are usually read faster in the calling thread and the copied blocks use more memory.
+     *
+     * @param value {@code false} to read the sources in the calling thread
+     */
+    public void setPrefetch(final boolean value) {
+        prefetch = value;
+    }
+
     @Override
     public void close() {
         done = true;
         parsed = true;
 
+        stopPrefetch();
+
         for (final SharpStream src : sourceTracks) {
             src.close();
         }
@@ -126,6 +148,33 @@ public class WebMWriter implements Closeable {
             throw new IOException("The output stream must be allow seek");
         }
 
+        if (prefetch) {
+            prefetchers = new Prefetcher[readers.length];
+            for (int i = 0; i < readers.length; i++) {
+                prefetchers[i] = new Prefetcher(i);
+                prefetchers[i].start();
+            }
+        }
+
+        try {
+            writeFile(out);
+        } finally {
+            stopPrefetch();
+        }
+    }
+
+    private void stopPrefetch() {
+        if (prefetchers == null) {
+            return;
+        }
+
+        for (final Prefetcher prefetcher : prefetchers) {
+            prefetcher.stop();
+        }
+        prefetchers = null;
+    }
+
+    private void writeFile(final SharpStream out) throws IOException {
         makeEBML(out);
 
         final long offsetSegmentSizeSet = written + 5;
@@ -219,7 +268,7 @@ public class WebMWriter implements Closeable {
                     continue;
                 }
 
-                if (bloq.data == null) {
+                if (bloq.isClusterEnd()) {
                     blockWritten = 1; // fake block
                     newClusterByTrackId = i;
                     i++;
@@ -329,6 +378,13 @@ public class WebMWriter implements Closeable {
     }
 
     private Block getNextBlockFrom(final int internalTrackId) throws IOException {
+        if (prefetchers != null) {
+            return prefetchers[internalTrackId].take();
+        }
+        return readBlockFrom(internalTrackId);
+    }
+
+    private Block readBlockFrom(final int internalTrackId) throws IOException {
         if (readersSegment[internalTrackId] == null) {
             readersSegment[internalTrackId] = readers[internalTrackId].getNextSegment();
             if (readersSegment[internalTrackId] == null) {
@@ -340,7 +396,7 @@ public class WebMWriter implements Closeable {
             readersCluster[internalTrackId] = readersSegment[internalTrackId].getNextCluster();
             if (readersCluster[internalTrackId] == null) {
                 readersSegment[internalTrackId] = null;
-                return getNextBlockFrom(internalTrackId);
+                return readBlockFrom(internalTrackId);
             }
         }
 
@@ -406,6 +462,12 @@ public class WebMWriter implements Closeable {
 
         dump(listBuffer, stream);
 
+        if (bloq.buffer != null) {
+            dump(bloq.buffer, bloq.dataSize, stream);
+            prefetchers[bloq.trackNumber].recycle(bloq.buffer);
+            return;
+        }
+
         int read;
         while ((read = bloq.data.read(outBuffer)) > 0) {
             dump(outBuffer, read, stream);
@@ -736,6 +798,7 @@ public class WebMWriter implements Closeable {
 
     static class Block {
         InputStream data;
+        byte[] buffer; // the data, if was prefetched
         int trackNumber;
         byte flags;
         int dataSize;
@@ -745,6 +808,10 @@ public class WebMWriter implements Closeable {
             return (flags & 0x80) == 0x80;
         }
 
+        boolean isClusterEnd() {
+            return data == null && buffer == null;
+        }
+
         @NonNull
         @Override
         public String toString() {
@@ -757,4 +824,166 @@ public class WebMWriter implements Closeable {
         long offset;
         int size;
     }
+
+    static class Batch {
+        final ArrayList<Block> blocks;
+        final int permits; // bytes taken from the budget of the prefetcher
+
+        Batch(final ArrayList<Block> blocks, final int permits) {
+            this.blocks = blocks;
+            this.permits = permits;
+        }
+    }
+
+    /**
+     * Reads the blocks of a source in a background thread, so the reads of every source and the
+     * output writes overlap. The block data is copied, because the reader can not be used by
+     * two threads. The blocks are handed over in batches, waking up the writer for every block
+     * is slower than reading in the same thread. The amount of bytes read ahead is bounded and
+     * the buffers are recycled.
+     */
+    private final class Prefetcher implements Runnable {
+        private final Batch end = new Batch(new ArrayList<>(0), 0);
+
+        private final int internalTrackId;
+        private final BlockingQueue<Batch> queue = new LinkedBlockingQueue<>();
+        private final Semaphore budget = new Semaphore(PREFETCH_BYTES);
+        private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(PREFETCH_BLOCKS);
+        private final Thread thread;
+
+        private volatile Exception failure;
+        private Batch batch = null;
+        private int batchIndex = 0;
+
+        Prefetcher(final int internalTrackId) {
+            this.internalTrackId = internalTrackId;
+            this.thread = new Thread(this, "WebMWriter prefetch " + internalTrackId);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                ArrayList<Block> blocks = new ArrayList<>(PREFETCH_BLOCKS);
+                int size = 0;
+                Block bloq;
+
+                while ((bloq = readBlockFrom(internalTrackId)) != null) {
+                    if (bloq.data != null) {
+                        read(bloq);
+                        size += bloq.dataSize;
+                    }
+                    blocks.add(bloq);
+
+                    if (size >= PREFETCH_BATCH_SIZE || blocks.size() >= PREFETCH_BLOCKS) {
+                        put(blocks, size);
+                        blocks = new ArrayList<>(PREFETCH_BLOCKS);
+                        size = 0;
+                    }
+                }
+
+                if (!blocks.isEmpty()) {
+                    put(blocks, size);
+                }
+            } catch (final InterruptedException e) {
+                return; // stopped
+            } catch (final Exception e) {
+                failure = e;
+            }
+
+            try {
+                queue.put(end);
+            } catch (final InterruptedException e) {
+                // stopped
+            }
+        }
+
+        private void put(final ArrayList<Block> blocks, final int size)
+                throws InterruptedException {
+            // a batch larger than the budget waits until every other batch is written
+            final int permits = Math.min(size, PREFETCH_BYTES);
+            budget.acquire(permits);
+            queue.put(new Batch(blocks, permits));
+        }
+
+        private void read(final Block bloq) throws IOException {
+            byte[] buffer = free.poll();
+            if (buffer == null || buffer.length < bloq.dataSize) {
+                // some headroom, the keyframes are usually a bit larger than the previous one
+                buffer = new byte[bloq.dataSize + (bloq.dataSize >> 3)];
+            }
+
+            int offset = 0;
+            while (offset < bloq.dataSize) {
+                final int read = bloq.data.read(buffer, offset, bloq.dataSize - offset);
+                if (read < 1) {
+                    throw new IOException("Unexpected end of the SimpleBlock data");
+                }
+                offset += read;
+            }
+
+            bloq.buffer = buffer;
+            bloq.data = null;
+        }
+
+        /**
+         * @return the next block, a cluster end block or {@code null} if there are no more blocks
+         * @throws IOException if the source can not be read
+         */
+        Block take() throws IOException {
+            if (batch == end) {
+                return null;
+            }
+
+            if (batch == null || batchIndex >= batch.blocks.size()) {
+                if (batch != null) {
+                    budget.release(batch.permits);
+                }
+
+                try {
+                    batch = queue.take();
+                } catch (final InterruptedException e) {
+                    throw new InterruptedIOException("interrupted while waiting for the source");
+                }
+                batchIndex = 0;
+
+                if (batch == end) {
+                    final Exception error = failure;
+                    if (error instanceof IOException) {
+                        throw (IOException) error;
+                    } else if (error instanceof RuntimeException) {
+                        throw (RuntimeException) error;
+                    } else if (error != null) {
+                        throw new IOException(error);
+                    }
+                    return null;
+                }
+            }
+
+            return batch.blocks.get(batchIndex++);
+        }
+
+        void recycle(final byte[] buffer) {
+            free.offer(buffer);
+        }
+
+        void stop() {
+            thread.interrupt();
+
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 }
@@ -0,0 +1,429 @@
+package org.schabi.newpipe.streams;
+
+import org.schabi.newpipe.streams.io.SharpStream;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Minimal and lenient XML pull parser, reads the document in small pieces so the memory used does
+ * not depend on the document size. Supports elements, attributes, text, CDATA sections, the XML
+ * entities and numeric character references. Comments, processing instructions and the doctype
+ * are skipped, namespaces are not resolved (names keep their prefix).
+ * <p>
+ * Works like {@code org.xmlpull.v1.XmlPullParser}, an empty element tag produces a
+ * {@link #START_TAG} event followed by an {@link #END_TAG} event.
+ */
+final class XmlPullReader {
+    static final int END_DOCUMENT = 1;
+    static final int START_TAG = 2;
+    static final int END_TAG = 3;
+    static final int TEXT = 4;
+
+    private static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    private final SharpStream source;
+    private final byte[] buffer;
+    private int bufferOffset = 0;
+    private int bufferCount = 0;
+    private boolean eof = false;
+
+    // current token, UTF-8 encoded
+    private byte[] token = new byte[256];
+    private int tokenLength = 0;
+
+    private String name;
+    private String text;
+    private boolean pendingEndTag = false;
+    private final ArrayList<String> attributes = new ArrayList<>(8); // name, value, ...
+
+    XmlPullReader(final SharpStream source) {
+        this(source, DEFAULT_BUFFER_SIZE);
+    }
+
+    XmlPullReader(final SharpStream source, final int bufferSize) {
+        this.source = source;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * @return the name of the current start or end tag
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return the content of the current text event, the entities are already decoded
+     */
+    String getText() {
+        return text;
+    }
+
+    /**
+     * @param attributeName the attribute name, case-sensitive
+     * @return the attribute value of the current start tag, or {@code null} if not present
+     */
+    String getAttribute(final String attributeName) {
+        for (int i = 0; i < attributes.size(); i += 2) {
+            if (attributes.get(i).equals(attributeName)) {
+                return attributes.get(i + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the next event.
+     *
+     * @return {@link #START_TAG}, {@link #END_TAG}, {@link #TEXT} or {@link #END_DOCUMENT}
+     * @throws IOException if the source can not be read
+     */
+    int next() throws IOException {
+        text = null;
+
+        if (pendingEndTag) {
+            pendingEndTag = false;
+            attributes.clear();
+            return END_TAG;
+        }
+
+        while (true) {
+            int c = peek();
+            if (c < 0) {
+                name = null;
+                return END_DOCUMENT;
+            }
+
+            if (c != '<') {
+                readText(false);
+                return TEXT;
+            }
+
+            read(); // '<'
+            c = peek();
+
+            if (isWhitespace(c)) {
+                readText(true); // not a tag, malformed text
+                return TEXT;
+            } else if (c == '/') {
+                read();
+                name = readName();
+                skipUntil('>');
+                attributes.clear();
+                return END_TAG;
+            } else if (c == '?') {
+                skipUntil("?>");
+            } else if (c == '!') {
+                read();
+                if (consume("--")) {
+                    skipUntil("-->");
+                } else if (consume("[CDATA[")) {
+                    readCData();
+                    return TEXT;
+                } else {
+                    skipUntil('>'); // doctype, the internal subset is not supported
+                }
+            } else if (c < 0) {
+                name = null;
+                return END_DOCUMENT;
+            } else {
+                readStartTag();
+                return START_TAG;
+            }
+        }
+    }
+
+    private void readStartTag() throws IOException {
+        name = readName();
+        attributes.clear();
+
+        while (true) {
+            skipWhitespace();
+            final int c = peek();
+
+            if (c < 0) {
+                return;
+            } else if (c == '>') {
+                read();
+                return;
+            } else if (c == '/') {
+                read();
+                if (peek() == '>') {
+                    read();
+                    pendingEndTag = true;
+                    return;
+                }
+                continue;
+            }
+
+            final String attributeName = readName();
+            if (attributeName.isEmpty()) {
+                read(); // garbage, skip it
+                continue;
+            }
+
+            skipWhitespace();
+            String value = "";
+            if (peek() == '=') {
+                read();
+                skipWhitespace();
+                value = readAttributeValue();
+            }
+
+            attributes.add(attributeName);
+            attributes.add(value);
+        }
+    }
+
+    private String readAttributeValue() throws IOException {
+        tokenLength = 0;
+        final int quote = peek();
+
+        if (quote == '"' || quote == '\'') {
+            read();
+            int c;
+            while ((c = read()) >= 0 && c != quote) {
+                if (c == '&') {
+                    readEntity();
+                } else {
+                    append(c);
+                }
+            }
+        } else {
+            int c;
+            while ((c = peek()) >= 0 && c != '>' && !isWhitespace(c)) {
+                read();
+                if (c == '&') {
+                    readEntity();
+                } else {
+                    append(c);
+                }
+            }
+        }
+
+        return tokenString();
+    }
+
+    private String readName() throws IOException {
+        tokenLength = 0;
+        int c;
+        while ((c = peek()) >= 0 && c != '>' && c != '/' && c != '=' && !isWhitespace(c)) {
+            append(read());
+        }
+        return tokenString();
+    }
+
+    private void readText(final boolean lessThan) throws IOException {
+        tokenLength = 0;
+        if (lessThan) {
+            append('<');
+        }
+
+        int c;
+        while ((c = peek()) >= 0 && c != '<') {
+            read();
+            if (c == '&') {
+                readEntity();
+            } else {
+                append(c);
+            }
+        }
+        text = tokenString();
+    }
+
+    private void readCData() throws IOException {
+        tokenLength = 0;
+        int c;
+        while ((c = read()) >= 0) {
+            append(c);
+            if (c == '>' && tokenLength >= 3 && token[tokenLength - 2] == ']'
+                    && token[tokenLength - 3] == ']') {
+                tokenLength -= 3;
+                break;
+            }
+        }
+        text = tokenString();
+    }
+
+    /**
+     * Decodes an entity, the '&amp;' is already read. Like HTML parsers, the entities without the
+     * trailing semicolon are also decoded. Unknown entities are kept as they are.
+     */
+    private void readEntity() throws IOException {
+        final int start = tokenLength;
+        append('&');
+
+        int c;
+        while ((c = peek()) >= 0 && c < 0x80 && (Character.isLetterOrDigit(c) || c == '#')
+                && tokenLength - start < 12) {
+            append(read());
+        }
+        final boolean terminated = c == ';';
+        if (terminated) {
+            read();
+        }
+
+        final String entity = new String(token, start + 1, tokenLength - start - 1,
+                StandardCharsets.US_ASCII);
+        final int codePoint;
+
+        if (entity.startsWith("#x") || entity.startsWith("#X")) {
+            codePoint = parseCodePoint(entity.substring(2), 16);
+        } else if (entity.startsWith("#")) {
+            codePoint = parseCodePoint(entity.substring(1), 10);
+        } else {
+            switch (entity) {
+                case "lt":
+                    codePoint = '<';
+                    break;
+                case "gt":
+                    codePoint = '>';
+                    break;
+                case "amp":
+                    codePoint = '&';
+                    break;
+                case "quot":
+                    codePoint = '"';
+                    break;
+                case "apos":
+                    codePoint = '\'';
+                    break;
+                case "nbsp":
+                    codePoint = 0xA0;
+                    break;
+                default:
+                    codePoint = -1;
+                    break;
+            }
+        }
+
+        if (codePoint < 0) {
+            if (terminated) {
+                append(';'); // unknown, keep it
+            }
+            return;
+        }
+
+        tokenLength = start;
+        appendCodePoint(codePoint);
+    }
+
+    private static int parseCodePoint(final String number, final int radix) {
+        try {
+            final int codePoint = Integer.parseInt(number, radix);
+            return Character.isValidCodePoint(codePoint) ? codePoint : -1;
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void appendCodePoint(final int codePoint) {
+        if (codePoint < 0x80) {
+            append(codePoint);
+        } else if (codePoint < 0x800) {
+            append(0xC0 | (codePoint >> 6));
+            append(0x80 | (codePoint & 0x3F));
+        } else if (codePoint < 0x10000) {
+            append(0xE0 | (codePoint >> 12));
+            append(0x80 | ((codePoint >> 6) & 0x3F));
+            append(0x80 | (codePoint & 0x3F));
+        } else {
+            append(0xF0 | (codePoint >> 18));
+            append(0x80 | ((codePoint >> 12) & 0x3F));
+            append(0x80 | ((codePoint >> 6) & 0x3F));
+            append(0x80 | (codePoint & 0x3F));
+        }
+    }
+
+    private void append(final int value) {
+        if (tokenLength >= token.length) {
+            final byte[] grown = new byte[token.length * 2];
+            System.arraycopy(token, 0, grown, 0, tokenLength);
+            token = grown;
+        }
+        token[tokenLength++] = (byte) value;
+    }
+
+    private String tokenString() {
+        return new String(token, 0, tokenLength, StandardCharsets.UTF_8);
+    }
+
+    private void skipWhitespace() throws IOException {
+        while (isWhitespace(peek())) {
+            read();
+        }
+    }
+
+    private void skipUntil(final char end) throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c >= 0 && c != end);
+    }
+
+    private void skipUntil(final String end) throws IOException {
+        int matched = 0;
+        int c;
+        while (matched < end.length() && (c = read()) >= 0) {
+            if (c == end.charAt(matched)) {
+                matched++;
+            } else {
+                matched = c == end.charAt(0) ? 1 : 0;
+            }
+        }
+    }
+
+    /**
+     * Consumes the given ASCII string if the input continues with it. The bytes read are not
+     * restored on mismatch, only used after "&lt;!" where the alternatives are skipped anyway.
+     *
+     * @param expected the string
+     * @return {@code true} if the whole string was consumed
+     */
+    private boolean consume(final String expected) throws IOException {
+        for (int i = 0; i < expected.length(); i++) {
+            if (peek() != expected.charAt(i)) {
+                return false;
+            }
+            read();
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(final int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private int peek() throws IOException {
+        if (bufferOffset >= bufferCount && !fill()) {
+            return -1;
+        }
+        return buffer[bufferOffset] & 0xFF;
+    }
+
+    private int read() throws IOException {
+        if (bufferOffset >= bufferCount && !fill()) {
+            return -1;
+        }
+        return buffer[bufferOffset++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+
+        // some streams (like ChunkFileInputStream) return zero at the end
+        final int read = source.read(buffer, 0, buffer.length);
+        if (read < 1) {
+            eof = true;
+            return false;
+        }
+
+        bufferOffset = 0;
+        bufferCount = read;
+        return true;
+    }
+}
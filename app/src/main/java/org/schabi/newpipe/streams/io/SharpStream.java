@@ -3,6 +3,10 @@ package org.schabi.newpipe.streams.io;
 import java.io.Closeable;
 import java.io.Flushable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Based on C#'s Stream class. SharpStream is a wrapper around the 2 different APIs for SAF
@@ -46,6 +50,26 @@ public abstract class SharpStream implements Closeable, Flushable {
         return false;
     }
 
+    /**
+     * Indicates if the stream can reserve its storage space, see {@link #allocate(long)}.
+     *
+     * @return {@code true} if the disk blocks can be allocated before writing them
+     */
+    public boolean canAllocate() {
+        return false;
+    }
+
+    /**
+     * Indicates if the stream can read and write at absolute offsets without using (or changing)
+     * the stream position, see {@link #read(ByteBuffer, long)} and
+     * {@link #write(ByteBuffer, long)}. Such stream can be shared by concurrent writers.
+     *
+     * @return {@code true} if positional I/O and channel transfers are supported
+     */
+    public boolean canPositionalIo() {
+        return false;
+    }
+
     public abstract void write(byte value) throws IOException;
 
     public abstract void write(byte[] buffer) throws IOException;
@@ -64,7 +88,88 @@ public abstract class SharpStream implements Closeable, Flushable {
         throw new IOException("Not implemented");
     }
 
+    /**
+     * Reserves the storage space of the stream up to the given length, the stream is extended if
+     * shorter but never truncated. Unlike extending the stream with {@link #setLength(long)}, the
+     * disk blocks are allocated (not sparse), which reduces the fragmentation when the stream is
+     * written at arbitrary offsets and makes the writes fail early if there is not enough space.
+     *
+     * @param length the length to reserve, in bytes
+     * @throws IOException if an I/O error occurs, the filesystem does not support it or
+     *                     {@link #canAllocate()} is {@code false}
+     */
+    public void allocate(final long length) throws IOException {
+        throw new IOException("Not implemented");
+    }
+
     public long length() throws IOException {
         throw new UnsupportedOperationException("Unsupported operation");
     }
+
+    /**
+     * Reads bytes at the given offset, the stream position is not changed.
+     *
+     * @param buffer   the buffer where the bytes are stored, preferably a direct buffer
+     * @param position offset in the stream where the read starts
+     * @return the number of bytes read or {@code -1} if the position is past the end
+     * @throws IOException if an I/O error occurs or {@link #canPositionalIo()} is {@code false}
+     */
+    public int read(final ByteBuffer buffer, final long position) throws IOException {
+        throw new IOException("Not implemented");
+    }
+
+    /**
+     * Writes bytes at the given offset, the stream position is not changed. Concurrent calls
+     * writing different regions of the stream are allowed.
+     *
+     * @param buffer   the bytes to write, preferably a direct buffer
+     * @param position offset in the stream where the write starts
+     * @return the number of bytes written, possibly less than {@code buffer.remaining()}
+     * @throws IOException if an I/O error occurs or {@link #canPositionalIo()} is {@code false}
+     */
+    public int write(final ByteBuffer buffer, final long position) throws IOException {
+        throw new IOException("Not implemented");
+    }
+
+    /**
+     * Copies bytes from this stream into a channel, without using intermediate buffers if the
+     * platform allows it. The position of this stream is not changed.
+     *
+     * @param position offset in this stream where the copy starts
+     * @param count    maximum number of bytes to copy
+     * @param target   the destination
+     * @return the number of bytes copied, possibly less than {@code count}
+     * @throws IOException if an I/O error occurs or {@link #canPositionalIo()} is {@code false}
+     * @see FileChannel#transferTo(long, long, WritableByteChannel)
+     */
+    public long transferTo(final long position, final long count,
+                           final WritableByteChannel target) throws IOException {
+        throw new IOException("Not implemented");
+    }
+
+    /**
+     * Copies bytes from a channel into this stream, without using intermediate buffers if the
+     * platform allows it. The position of this stream is not changed.
+     *
+     * @param source   the origin, read from its current position
+     * @param position offset in this stream where the copy starts
+     * @param count    maximum number of bytes to copy
+     * @return the number of bytes copied, possibly less than {@code count}
+     * @throws IOException if an I/O error occurs or {@link #canPositionalIo()} is {@code false}
+     * @see FileChannel#transferFrom(ReadableByteChannel, long, long)
+     */
+    public long transferFrom(final ReadableByteChannel source, final long position,
+                             final long count) throws IOException {
+        throw new IOException("Not implemented");
+    }
+
+    /**
+     * Gets the channel backing this stream, its position is the stream position.
+     *
+     * @return the channel
+     * @throws IOException if {@link #canPositionalIo()} is {@code false}
+     */
+    public FileChannel getChannel() throws IOException {
+        throw new IOException("Not implemented");
+    }
 }
@@ -19,6 +19,7 @@ import org.schabi.newpipe.extractor.stream.SubtitlesStream;
 import org.schabi.newpipe.extractor.stream.VideoStream;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -259,5 +260,33 @@ public class StreamItemAdapter<T extends Stream, U extends Stream> extends BaseA
         public void setSize(final T stream, final long sizeInBytes) {
             streamSizes[streamsList.indexOf(stream)] = sizeInBytes;
         }
+
+        /**
+         * Finds the mirrors of a stream: other streams of the same format and the same known
+         * size, but served from another url. The downloader verifies them again while
+         * downloading.
+         *
+         * @param stream a stream of this wrapper
+         * @return the urls of the mirrors, can be empty
+         */
+        public String[] getMirrors(final Stream stream) {
+            final int index = streamsList.indexOf(stream);
+            if (index < 0 || streamSizes[index] < 1) {
+                return new String[0];
+            }
+
+            final List<String> mirrors = new ArrayList<>();
+            for (int i = 0; i < streamsList.size(); i++) {
+                final T other = streamsList.get(i);
+                if (i != index && streamSizes[i] == streamSizes[index]
+                        && other.getFormat() == stream.getFormat()
+                        && !other.getUrl().equals(stream.getUrl())
+                        && !mirrors.contains(other.getUrl())) {
+                    mirrors.add(other.getUrl());
+                }
+            }
+
+            return mirrors.toArray(new String[0]);
+        }
     }
 }
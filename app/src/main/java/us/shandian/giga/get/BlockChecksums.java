@@ -0,0 +1,176 @@
+package us.shandian.giga.get;
+
+import java.io.Serializable;
+
+/**
+ * CRC32 of every download block, computed by the download threads while writing.
+ * <p>
+ * Unlike MD5 or SHA-1, the CRC32 of two contiguous ranges can be combined into the CRC32 of both
+ * without reading the data again. So a block split between two threads, or resumed after a pause,
+ * is checksummed in pieces, and the checksum of any range of blocks (or the whole resource) is
+ * obtained from a tree of combined checksums, in {@code O(log n)} combinations.
+ * <p>
+ * Every entry holds the CRC32 of the downloaded bytes of the block, so the partially downloaded
+ * blocks can be verified too, see {@link DownloadMission#blocks}.
+ */
+class BlockChecksums implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int CRC32_POLYNOMIAL = 0xEDB88320;
+
+    private final int[] values;
+    private final long length;
+    private final int blockSize;
+
+    /**
+     * Checksums of the blocks combined by pairs, {@code tree[1]} is the root and the leaves
+     * start at {@code tree[size]}. Built on the first query
+     */
+    private transient int[] tree;
+    private transient long[] treeLengths;
+    private transient int size;
+
+    /**
+     * @param count     amount of blocks
+     * @param length    length of the resource
+     * @param blockSize the size of every block, except the last one
+     */
+    BlockChecksums(int count, long length, int blockSize) {
+        this.values = new int[count];
+        this.length = length;
+        this.blockSize = blockSize;
+    }
+
+    int getCount() {
+        return values.length;
+    }
+
+    synchronized int get(int block) {
+        return values[block];
+    }
+
+    /**
+     * @param block index of the block
+     * @param value CRC32 of the downloaded bytes of the block
+     */
+    synchronized void set(int block, int value) {
+        values[block] = value;
+        if (tree == null) return;
+
+        int node = size + block;
+        tree[node] = value;
+
+        for (node >>= 1; node > 0; node >>= 1) {
+            tree[node] = combine(tree[node * 2], tree[node * 2 + 1], treeLengths[node * 2 + 1]);
+        }
+    }
+
+    /**
+     * Combines the checksums of the given blocks, all of them must be fully downloaded
+     *
+     * @param from index of the first block
+     * @param to   index of the last block (exclusive)
+     * @return the CRC32 of the range
+     */
+    synchronized int getChecksum(int from, int to) {
+        if (from < 0 || to > values.length || from > to)
+            throw new IndexOutOfBoundsException("from=" + from + " to=" + to);
+
+        if (tree == null) buildTree();
+
+        int left = 0, right = 0;
+        long rightLength = 0;
+
+        // the combination is not commutative, keep the left and right parts apart
+        for (int l = from + size, r = to + size; l < r; l >>= 1, r >>= 1) {
+            if ((l & 1) == 1) {
+                left = combine(left, tree[l], treeLengths[l]);
+                l++;
+            }
+            if ((r & 1) == 1) {
+                r--;
+                right = combine(tree[r], right, rightLength);
+                rightLength += treeLengths[r];
+            }
+        }
+
+        return combine(left, right, rightLength);
+    }
+
+    /**
+     * @param block index of the block
+     * @return the length of the block, the last one can be shorter
+     */
+    int getBlockLength(int block) {
+        return (int) Math.max(0, Math.min(blockSize, length - (long) block * blockSize));
+    }
+
+    private void buildTree() {
+        size = Integer.highestOneBit(Math.max(1, values.length));
+        if (size < values.length) size <<= 1;
+
+        // the padding leaves are empty, combining with them has no effect
+        tree = new int[size * 2];
+        treeLengths = new long[size * 2];
+
+        for (int i = 0; i < values.length; i++) {
+            tree[size + i] = values[i];
+            treeLengths[size + i] = getBlockLength(i);
+        }
+
+        for (int i = size - 1; i > 0; i--) {
+            tree[i] = combine(tree[i * 2], tree[i * 2 + 1], treeLengths[i * 2 + 1]);
+            treeLengths[i] = treeLengths[i * 2] + treeLengths[i * 2 + 1];
+        }
+    }
+
+    /**
+     * Computes the CRC32 of two contiguous ranges, from the CRC32 of each one. Same algorithm
+     * as {@code crc32_combine()} of zlib
+     *
+     * @param crc1    CRC32 of the first range
+     * @param crc2    CRC32 of the second range
+     * @param length2 length of the second range
+     * @return the CRC32 of both ranges
+     */
+    static int combine(int crc1, int crc2, long length2) {
+        if (length2 <= 0) return crc1;
+
+        int[] even = new int[32];// operator for an even amount of zero bits
+        int[] odd = new int[32];// operator for an odd amount of zero bits
+
+        // operator for one zero bit
+        odd[0] = CRC32_POLYNOMIAL;
+        for (int n = 1, row = 1; n < 32; n++, row <<= 1) odd[n] = row;
+
+        square(even, odd);// two zero bits
+        square(odd, even);// four zero bits
+
+        // apply length2 zero bytes to crc1, the first square gives the operator for one byte
+        do {
+            square(even, odd);
+            if ((length2 & 1) != 0) crc1 = times(even, crc1);
+            length2 >>= 1;
+
+            if (length2 == 0) break;
+
+            square(odd, even);
+            if ((length2 & 1) != 0) crc1 = times(odd, crc1);
+            length2 >>= 1;
+        } while (length2 != 0);
+
+        return crc1 ^ crc2;
+    }
+
+    private static int times(int[] matrix, int vector) {
+        int sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) sum ^= matrix[i];
+        }
+        return sum;
+    }
+
+    private static void square(int[] square, int[] matrix) {
+        for (int n = 0; n < 32; n++) square[n] = times(matrix, matrix[n]);
+    }
+}
@@ -0,0 +1,458 @@
+package us.shandian.giga.get;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.CRC32;
+
+/**
+ * Distributes the blocks of a {@link DownloadMission} between the download threads.
+ * <p>
+ * Every thread owns a contiguous range of blocks and takes them in order, without touching a
+ * mission-wide lock. When a thread runs out of blocks, it steals the upper half of the range with
+ * more pending blocks. At the tail of the download, when there is nothing left to steal, the block
+ * with more pending bytes is split and the idle thread downloads the second half of it.
+ * <p>
+ * If there are {@link BlockChecksums}, the checksum of every part is saved when released, the
+ * checksums of both parts of a split block are combined.
+ * <p>
+ * A released block whose data is not valid can be queued again, the queued blocks are acquired
+ * before the blocks of the own range.
+ */
+class BlockScheduler {
+    /**
+     * Minimum amount of pending bytes required to split a block which is being downloaded
+     */
+    static final int MIN_SPLIT_LENGTH = 2 * DownloadMission.BUFFER_SIZE;
+
+    private final int[] blocks;
+    @Nullable
+    private final BlockChecksums checksums;
+    private final long length;
+    private final int blockSize;
+    private final Range[] ranges;
+    private final AtomicReferenceArray<Block> inflight;
+    private final ArrayDeque<Integer> requeued = new ArrayDeque<>();
+
+    BlockScheduler(@NonNull int[] blocks, long length, int blockSize, int workers) {
+        this(blocks, null, length, blockSize, workers, workers);
+    }
+
+    /**
+     * @param blocks    the mission blocks, see {@link DownloadMission#blocks}
+     * @param checksums the checksums of the blocks, {@code null} if they are not computed
+     * @param length    length of the resource to download
+     * @param blockSize the size of every block, except the last one
+     * @param workers   amount of download threads, the blocks are distributed between them
+     * @param capacity  maximum amount of download threads, the threads started later begin
+     *                  stealing blocks from the others
+     */
+    BlockScheduler(@NonNull int[] blocks, @Nullable BlockChecksums checksums, long length,
+                   int blockSize, int workers, int capacity) {
+        if (workers < 1) throw new IllegalArgumentException("workers < 1");
+        if (capacity < workers) throw new IllegalArgumentException("capacity < workers");
+
+        this.blocks = blocks;
+        this.checksums = checksums;
+        this.length = length;
+        this.blockSize = blockSize;
+        this.ranges = new Range[capacity];
+        this.inflight = new AtomicReferenceArray<>(capacity);
+
+        for (int i = 0; i < capacity; i++) {
+            if (i >= workers) {
+                ranges[i] = new Range(blocks.length, blocks.length);
+                continue;
+            }
+
+            ranges[i] = new Range(
+                    (int) ((long) blocks.length * i / workers),
+                    (int) ((long) blocks.length * (i + 1) / workers)
+            );
+        }
+    }
+
+    /**
+     * @return maximum amount of download threads
+     */
+    int getCapacity() {
+        return ranges.length;
+    }
+
+    /**
+     * Counts the blocks not acquired yet plus the blocks being downloaded. Some blocks not
+     * acquired may be already downloaded, so the value is an approximation.
+     *
+     * @return the amount of blocks
+     */
+    int getPendingBlocks() {
+        int count = 0;
+        for (Range range : ranges) count += range.pending();
+        for (int i = 0; i < inflight.length(); i++) if (inflight.get(i) != null) count++;
+        synchronized (requeued) {
+            count += requeued.size();
+        }
+        return count;
+    }
+
+    /**
+     * Acquire a block, or part of a block, to download
+     *
+     * @param worker index of the calling thread
+     * @return the block or {@code null} if no more blocks left
+     */
+    @Nullable
+    Block acquire(int worker) {
+        Range own = ranges[worker];
+        int position;
+
+        synchronized (requeued) {
+            Integer next = requeued.poll();
+            position = next == null ? own.next(blocks) : next;
+        }
+
+        if (position < 0) position = steal(own);
+
+        Block block;
+        if (position < 0) {
+            block = split();
+            if (block == null) return null;
+        } else {
+            block = new Block();
+            block.position = position;
+            block.start = 0;
+            block.done = blocks[position];
+            block.claimed = block.done;
+            block.end = (int) Math.min(blockSize, length - (long) position * blockSize);
+            block.checksum = checksums == null ? 0 : checksums.get(position);
+            block.digestStart = block.done;
+        }
+
+        inflight.set(worker, block);
+        return block;
+    }
+
+    /**
+     * Counts the blocks, following the given one, which are the next in the range of the thread
+     * and were not downloaded at all. Used to request multiple blocks at once, note that another
+     * thread can steal some of them before being acquired.
+     *
+     * @param worker   index of the calling thread
+     * @param position index of the block acquired by the calling thread
+     * @param maximum  maximum amount of blocks to count
+     * @return amount of contiguous blocks, including the given one
+     */
+    int getContiguousBlocks(int worker, int position, int maximum) {
+        return ranges[worker].contiguous(blocks, position, maximum);
+    }
+
+    /**
+     * Release a block acquired by {@link #acquire(int)}
+     *
+     * @param worker index of the calling thread
+     * @param block  the block to release
+     * @return amount of bytes downloaded that were discarded because cannot be resumed
+     */
+    long release(int worker, @NonNull Block block) {
+        inflight.compareAndSet(worker, block, null);
+
+        Block owner = block.owner == null ? block : block.owner;
+
+        synchronized (owner) {
+            block.released = true;
+
+            Block thief = owner.thief;
+            if (thief == null) {
+                if (checksums != null) checksums.set(block.position, block.getChecksum());
+                blocks[block.position] = block.done >= block.end ? -1 : block.done;
+                return owner.requeue ? reset(owner) : 0;
+            }
+
+            // wait until both parts are released
+            if (!owner.released || !thief.released) return 0;
+
+            long discarded = 0;
+
+            if (owner.done < owner.end) {
+                // the progress of the second part is lost, there is a gap between both parts
+                if (checksums != null) checksums.set(owner.position, owner.getChecksum());
+                blocks[owner.position] = owner.done;
+                discarded = thief.done - thief.start;
+            } else {
+                if (checksums != null) {
+                    checksums.set(owner.position, BlockChecksums.combine(
+                            owner.getChecksum(), thief.getChecksum(), thief.done - thief.start));
+                }
+                blocks[owner.position] = thief.done >= thief.end ? -1 : thief.done;
+            }
+
+            return owner.requeue ? discarded + reset(owner) : discarded;
+        }
+    }
+
+    /**
+     * Queues again a released block, the downloaded data is not valid. If the block was split and
+     * the other part is still being downloaded, the block is queued once both parts are released
+     *
+     * @param block the block, or any part of it
+     * @return amount of bytes downloaded that were discarded
+     */
+    long requeue(@NonNull Block block) {
+        Block owner = block.owner == null ? block : block.owner;
+
+        synchronized (owner) {
+            owner.requeue = true;
+
+            Block thief = owner.thief;
+            if (!owner.released || (thief != null && !thief.released)) return 0;
+
+            return reset(owner);
+        }
+    }
+
+    /**
+     * Forgets the progress of a released block and queues it again, only once per block
+     */
+    private long reset(Block owner) {
+        if (owner.requeued) return 0;
+        owner.requeued = true;
+
+        int position = owner.position;
+        int done = blocks[position];
+        long discarded = done < 0 ? Math.min(blockSize, length - (long) position * blockSize) : done;
+
+        blocks[position] = 0;
+        if (checksums != null) checksums.set(position, 0);
+
+        synchronized (requeued) {
+            requeued.add(position);
+        }
+
+        return discarded;
+    }
+
+    private int steal(Range own) {
+        while (true) {
+            Range victim = null;
+            int max = 0;
+
+            for (Range range : ranges) {
+                if (range == own) continue;
+
+                int pending = range.pending();
+                if (pending > max) {
+                    max = pending;
+                    victim = range;
+                }
+            }
+
+            if (victim == null) return -1;
+
+            if (victim.giveHalfTo(own)) {
+                int position = own.next(blocks);
+                if (position >= 0) return position;
+            }
+        }
+    }
+
+    @Nullable
+    private Block split() {
+        while (true) {
+            Block victim = null;
+            int max = MIN_SPLIT_LENGTH - 1;
+
+            for (int i = 0; i < inflight.length(); i++) {
+                Block block = inflight.get(i);
+                if (block == null || block.owner != null || block.thief != null) continue;
+
+                int pending = block.pending();
+                if (pending > max) {
+                    max = pending;
+                    victim = block;
+                }
+            }
+
+            if (victim == null) return null;
+
+            synchronized (victim) {
+                int pending = victim.end - victim.claimed;
+                if (victim.released || victim.thief != null || pending < MIN_SPLIT_LENGTH) continue;
+
+                Block thief = new Block();
+                thief.position = victim.position;
+                thief.start = victim.claimed + pending / 2;
+                thief.done = thief.start;
+                thief.claimed = thief.start;
+                thief.digestStart = thief.start;
+                thief.end = victim.end;
+                thief.owner = victim;
+
+                victim.end = thief.start;
+                victim.thief = thief;
+
+                return thief;
+            }
+        }
+    }
+
+    /**
+     * A block, or the second part of a split block, acquired by a download thread
+     */
+    static class Block {
+        /**
+         * index of the block
+         */
+        int position;
+
+        /**
+         * offset, relative to the block start, where this part begins
+         */
+        int start;
+
+        /**
+         * offset, relative to the block start, of the next byte to download
+         */
+        int done;
+
+        /**
+         * offset, relative to the block start, where this part ends (exclusive). This value
+         * can be reduced by another thread if the block is split.
+         */
+        volatile int end;
+
+        /**
+         * CRC32 of the downloaded bytes written after {@link #digestStart}, must be updated by
+         * the download thread after writing them
+         */
+        final CRC32 digest = new CRC32();
+
+        /**
+         * CRC32 of the bytes between {@link #start} and {@link #digestStart}
+         */
+        private int checksum;
+        private int digestStart;
+
+        private int claimed;
+        private boolean released;
+        private Block owner;
+        private Block thief;
+        private boolean requeue;
+        private boolean requeued;
+
+        private Object lock() {
+            return owner == null ? this : owner;
+        }
+
+        private int pending() {
+            synchronized (lock()) {
+                return end - claimed;
+            }
+        }
+
+        /**
+         * Reserves the next bytes of this part before writing them
+         *
+         * @param amount amount of bytes available to write
+         * @return amount of bytes that can be written, less than 1 if this part is completed
+         */
+        int claim(int amount) {
+            synchronized (lock()) {
+                int count = Math.min(amount, end - claimed);
+                if (count > 0) claimed += count;
+                return count;
+            }
+        }
+
+        /**
+         * Forgets the bytes claimed but not written, used before retrying the download of this part
+         */
+        void resume() {
+            synchronized (lock()) {
+                claimed = done;
+            }
+        }
+
+        /**
+         * Discards the progress of this part, used when the server refuses to resume the download
+         *
+         * @return amount of bytes discarded
+         */
+        int rewind() {
+            synchronized (lock()) {
+                int discarded = done - start;
+                done = start;
+                claimed = start;
+                checksum = 0;
+                digestStart = start;
+                digest.reset();
+                return discarded;
+            }
+        }
+
+        /**
+         * @return the CRC32 of the bytes downloaded in this part
+         */
+        int getChecksum() {
+            return BlockChecksums.combine(checksum, (int) digest.getValue(), done - digestStart);
+        }
+
+        /**
+         * @return {@code true} if all bytes of this part were downloaded
+         */
+        boolean isCompleted() {
+            return done >= end;
+        }
+    }
+
+    private static class Range {
+        private int next;
+        private int end;
+
+        Range(int start, int end) {
+            this.next = start;
+            this.end = end;
+        }
+
+        synchronized int next(int[] blocks) {
+            while (next < end) {
+                int position = next++;
+                if (blocks[position] >= 0) return position;
+            }
+            return -1;
+        }
+
+        synchronized int contiguous(int[] blocks, int position, int maximum) {
+            int count = 1;
+            if (next != position + 1) return count;
+
+            for (int i = next; i < end && count < maximum && blocks[i] == 0; i++) count++;
+            return count;
+        }
+
+        synchronized int pending() {
+            return end - next;
+        }
+
+        boolean giveHalfTo(Range thief) {
+            int from, to;
+
+            synchronized (this) {
+                int pending = end - next;
+                if (pending < 1) return false;
+
+                to = end;
+                from = end - (pending + 1) / 2;
+                end = from;
+            }
+
+            synchronized (thief) {
+                thief.next = from;
+                thief.end = to;
+            }
+
+            return true;
+        }
+    }
+}
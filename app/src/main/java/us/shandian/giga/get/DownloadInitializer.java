@@ -1,5 +1,8 @@
 package us.shandian.giga.get;
 
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.OsConstants;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -12,6 +15,7 @@ import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.nio.channels.ClosedByInterruptException;
 
+import us.shandian.giga.service.MissionMetrics;
 import us.shandian.giga.util.Utility;
 
 import static org.schabi.newpipe.BuildConfig.DEBUG;
@@ -41,6 +45,8 @@ public class DownloadInitializer extends Thread {
 
     @Override
     public void run() {
+        long started = System.nanoTime();
+
         if (mMission.current > 0) mMission.resetState(false, true, DownloadMission.ERROR_NOTHING);
 
         int retryCount = 0;
@@ -124,6 +130,7 @@ public class DownloadInitializer extends Thread {
                                 if ((count * DownloadMission.BLOCK_SIZE) < mMission.length) count++;
 
                                 mMission.blocks = new int[count];
+                                mMission.checksums = new BlockChecksums(count, mMission.length, DownloadMission.BLOCK_SIZE);
                             } else {
                                 // if one thread is required don't calculate blocks, is useless
                                 mMission.blocks = new int[0];
@@ -148,7 +155,7 @@ public class DownloadInitializer extends Thread {
                 }
 
                 try (SharpStream fs = mMission.storage.getStream()) {
-                    fs.setLength(mMission.offsets[mMission.current] + mMission.length);
+                    allocate(fs, mMission.offsets[mMission.current] + mMission.length);
                     fs.seek(mMission.offsets[mMission.current]);
                 }
 
@@ -187,6 +194,11 @@ public class DownloadInitializer extends Thread {
                     return;
                 }
 
+                if (e instanceof IOException && isNoSpace((IOException) e)) {
+                    mMission.notifyError(DownloadMission.ERROR_INSUFFICIENT_STORAGE, null);
+                    return;
+                }
+
                 if (retryCount++ > mMission.maxRetry) {
                     Log.e(TAG, "initializer failed", e);
                     mMission.notifyError(e);
@@ -197,9 +209,62 @@ public class DownloadInitializer extends Thread {
             }
         }
 
+        MissionMetrics metrics = mMission.metrics;
+        if (metrics != null) metrics.onPhase("initialization", System.nanoTime() - started);
+
         mMission.start();
     }
 
+    /**
+     * Sizes the file before downloading. The blocks are written at arbitrary offsets by several
+     * threads, growing the file on every write fragments it and, on SAF providers, each implicit
+     * extend is expensive.
+     * <p>
+     * The disk space is reserved if the filesystem allows it, otherwise, the file is extended
+     * without allocating (sparse file). If the stream cannot be resized, the file grows while
+     * downloading.
+     *
+     * @param fs     the stream of the file
+     * @param length the final length of the file
+     */
+    private void allocate(SharpStream fs, long length) throws IOException {
+        long start = System.nanoTime();
+        String strategy;
+
+        if (fs.canSetLength()) {
+            // also drops the bytes of a previous (longer) file
+            fs.setLength(length);
+            strategy = "sparse";
+        } else {
+            strategy = "lazy";
+        }
+
+        if (!mMission.unknownLength && fs.canAllocate()) {
+            try {
+                fs.allocate(length);
+                strategy = "allocated";
+            } catch (IOException e) {
+                // fail now instead of in the middle of the download
+                if (isNoSpace(e)) throw e;
+
+                // not supported by the filesystem (FAT, FUSE, some SAF providers)
+                if (DEBUG) Log.d(TAG, "cannot allocate the file, falling back to " + strategy, e);
+            }
+        }
+
+        if (DEBUG) {
+            long elapsed = (System.nanoTime() - start) / 1000000L;
+            Log.d(TAG, "file of " + length + " bytes sized in " + elapsed + "ms (" + strategy + ")");
+        }
+    }
+
+    private static boolean isNoSpace(IOException e) {
+        // the allocation keeps the ErrnoException as the cause, see FileStream.allocate()
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                && e.getCause() instanceof ErrnoException
+                && ((ErrnoException) e.getCause()).errno == OsConstants.ENOSPC;
+    }
+
     @Override
     public void interrupt() {
         super.interrupt();
@@ -19,17 +19,22 @@ import java.io.Serializable;
 import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
-import java.net.URL;
 import java.net.UnknownHostException;
 import java.nio.channels.ClosedByInterruptException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
 
 import javax.net.ssl.SSLException;
 
+import org.schabi.newpipe.streams.io.SharpStream;
 import org.schabi.newpipe.streams.io.StoredFileHelper;
+import us.shandian.giga.get.BlockScheduler.Block;
 import us.shandian.giga.postprocessing.Postprocessing;
 import us.shandian.giga.service.DownloadManagerService;
-import us.shandian.giga.util.Utility;
+import us.shandian.giga.service.MissionMetrics;
 
 import static org.schabi.newpipe.BuildConfig.DEBUG;
 
@@ -38,6 +43,7 @@ public class DownloadMission extends Mission {
 
     static final int BUFFER_SIZE = 64 * 1024;
     static final int BLOCK_SIZE = 512 * 1024;
+    static final int COALESCE_BLOCKS = 16;// up to 8 MiB per request
 
     private static final String TAG = "DownloadMission";
 
@@ -65,7 +71,14 @@ public class DownloadMission extends Mission {
     public String[] urls;
 
     /**
-     * Number of bytes downloaded and written
+     * Urls of other servers serving the same resources, one array per url in {@link #urls}.
+     * Can be {@code null}, like any of its entries
+     */
+    public String[][] mirrors;
+
+    /**
+     * Number of bytes downloaded and written. While downloading in multiple threads this value is
+     * only updated when the state is saved, use {@link #getDone()} instead
      */
     public volatile long done;
 
@@ -120,11 +133,28 @@ public class DownloadMission extends Mission {
      */
     int[] blocks;
 
+    /**
+     * CRC32 of the downloaded bytes of every block, {@code null} if the download started in an
+     * older version
+     */
+    BlockChecksums checksums;
+
     /**
      * Download/File resume offset in fallback mode (if applicable) {@link DownloadRunnableFallback}
      */
     volatile long fallbackResumeOffset;
 
+    /**
+     * CRC32 of the bytes before {@link #fallbackResumeOffset}
+     */
+    volatile int fallbackChecksum;
+
+    /**
+     * CRC32 of every downloaded resource, -1 if unknown. {@code null} if the mission was created
+     * in an older version
+     */
+    long[] resourceChecksums;
+
     /**
      * Maximum of download threads running, chosen by the user
      */
@@ -143,11 +173,40 @@ public class DownloadMission extends Mission {
     public Exception errObject = null;
 
     public transient Handler mHandler;
-    private transient boolean[] blockAcquired;
 
+    /**
+     * Shares the connections and the bandwidth with the other missions, can be {@code null}
+     */
+    public transient DownloadScheduler downloadScheduler;
+
+    /**
+     * Records the connection timings, block throughput, retries and phase timings, can be
+     * {@code null}
+     */
+    public transient MissionMetrics metrics;
+    private transient BlockScheduler scheduler;
+    private transient ThroughputController controller;
+    private transient MirrorSelector selector;
+    private transient Thread[] workers;
+    private transient volatile RecoveryCoordinator recovery;
+    private transient volatile AtomicLong progress;
+    private transient long progressBase;
+
+    private transient SharpStream sharedStream;
+    private transient int sharedStreamUsers;
+
+    private transient volatile StreamingPostprocessing psStream;
+
+    private transient MissionJournal journal;
     private transient long writingToFileNext;
     private transient volatile boolean writingToFile;
 
+    /**
+     * Indicates if the downloaded blocks must be verified before resuming, the app was killed
+     * while downloading and the last writes may be lost
+     */
+    transient boolean verifyPending;
+
     final Object LOCK = new Lock();
 
     @NonNull
@@ -160,11 +219,14 @@ public class DownloadMission extends Mission {
         this.urls = urls;
         this.kind = kind;
         this.offsets = new long[urls.length];
+        this.resourceChecksums = new long[urls.length];
         this.enqueued = true;
         this.maxRetry = 3;
         this.storage = storage;
         this.psAlgorithm = psInstance;
 
+        Arrays.fill(resourceChecksums, -1);
+
         if (DEBUG && psInstance == null && urls.length > 1) {
             Log.w(TAG, "mission created with multiple urls ¿missing post-processing algorithm?");
         }
@@ -173,37 +235,182 @@ public class DownloadMission extends Mission {
     /**
      * Acquire a block
      *
+     * @param worker index of the calling thread
      * @return the block or {@code null} if no more blocks left
      */
     @Nullable
-    Block acquireBlock() {
+    Block acquireBlock(int worker) {
+        return scheduler.acquire(worker);
+    }
+
+    /**
+     * Release an block
+     *
+     * @param worker  index of the calling thread
+     * @param block   the block acquired by the calling thread
+     * @param mirrors the mirrors, other than the url of the resource, which wrote the block
+     */
+    void releaseBlock(int worker, Block block, List<MirrorSelector.Mirror> mirrors) {
+        BlockScheduler scheduler = this.scheduler;
+        if (scheduler == null) return;// the state was reset while recovering
+
+        long discarded = scheduler.release(worker, block);
+
+        MirrorSelector selector = this.selector;
+        if (selector != null && !mirrors.isEmpty() && !selector.record(mirrors, block)) {
+            // written by a mirror serving another file
+            discarded += requeueBlock(scheduler, block);
+        }
+
+        if (discarded > 0) notifyProgress(worker, -discarded);
+
+        StreamingPostprocessing psStream = this.psStream;
+        if (psStream != null) psStream.update();
+
+        // the state is saved at most once per block, not on every write
+        notifyProgressSaved(getDone(), discarded > 0);
+    }
+
+    /**
+     * Opens the stream where a download thread writes the downloaded data. If the storage supports
+     * positional writes, all download threads share the same file descriptor, otherwise, every
+     * thread gets its own stream
+     *
+     * @return the stream, must be released with {@link #closeStream(SharpStream)}
+     * @throws IOException if the stream cannot be opened
+     */
+    SharpStream openStream() throws IOException {
         synchronized (LOCK) {
-            for (int i = 0; i < blockAcquired.length; i++) {
-                if (!blockAcquired[i] && blocks[i] >= 0) {
-                    Block block = new Block();
-                    block.position = i;
-                    block.done = blocks[i];
-
-                    blockAcquired[i] = true;
-                    return block;
-                }
+            if (sharedStream != null && !sharedStream.isClosed()) {
+                sharedStreamUsers++;
+                return sharedStream;
+            }
+
+            SharpStream stream = storage.getStream();
+            if (stream.canPositionalIo()) {
+                sharedStream = stream;
+                sharedStreamUsers = 1;
             }
-        }
 
-        return null;
+            return stream;
+        }
     }
 
     /**
-     * Release an block
+     * Releases a stream opened by {@link #openStream()}, the shared stream is closed once the last
+     * download thread releases it
      *
-     * @param position the index of the block
-     * @param done     amount of bytes downloaded
+     * @param stream the stream
      */
-    void releaseBlock(int position, int done) {
+    void closeStream(SharpStream stream) {
         synchronized (LOCK) {
-            blockAcquired[position] = false;
-            blocks[position] = done;
+            if (stream == sharedStream) {
+                if (--sharedStreamUsers > 0) return;
+                sharedStream = null;
+            }
+        }
+
+        stream.close();
+    }
+
+    /**
+     * Counts how many blocks, starting with the given one, can be downloaded with a single request
+     *
+     * @param worker index of the calling thread
+     * @param block  the block acquired by the calling thread
+     * @return amount of contiguous blocks, at least 1
+     */
+    int getContiguousBlocks(int worker, Block block) {
+        if (block.start != 0 || block.done != 0 || block.end != BLOCK_SIZE) return 1;
+        return scheduler.getContiguousBlocks(worker, block.position, COALESCE_BLOCKS);
+    }
+
+    /**
+     * Samples the download throughput (if needed) and adds a new download thread or chooses a
+     * thread to retire, see {@link ThroughputController}
+     *
+     * @param worker index of the calling thread
+     * @return {@code true} if the calling thread must exit
+     */
+    boolean adjustWorkers(int worker) {
+        ThroughputController controller = this.controller;
+        BlockScheduler scheduler = this.scheduler;
+        if (controller == null || scheduler == null) return false;
+
+        long now = System.currentTimeMillis();
+        if (controller.isSampleDue(now)) {
+            // the share of this mission changes when other missions start or stop
+            DownloadScheduler downloadScheduler = this.downloadScheduler;
+            int connections = downloadScheduler == null ? -1 : downloadScheduler.getConnections(this);
+            if (connections > 0) controller.setMaximum(connections);
+
+            ThroughputController.Decision decision = controller.sample(now, scheduler.getPendingBlocks());
+
+            if (DEBUG && decision != ThroughputController.Decision.NONE) {
+                Log.d(TAG, "throughput=" + controller.getLastThroughput() + "B/s  workers=" +
+                        controller.getActiveWorkers() + "  decision=" + decision);
+            }
+
+            if (decision == ThroughputController.Decision.ADD) addWorker();
         }
+
+        return controller.isRetiring(worker);
+    }
+
+    /**
+     * Notifies that a download thread exited from the main download loop
+     *
+     * @param worker index of the thread
+     */
+    void notifyWorkerExited(int worker) {
+        ThroughputController controller = this.controller;
+        if (controller != null) controller.onWorkerExited(worker);
+    }
+
+    private synchronized void addWorker() {
+        if (!running || controller == null) return;
+
+        for (int i = 0; i < workers.length; i++) {
+            if (workers[i] != null && workers[i].isAlive()) continue;
+
+            controller.onWorkerStarted(i, System.currentTimeMillis());
+            workers[i] = runAsync(i + 1, new DownloadRunnable(this, i));
+
+            Thread[] list = new Thread[threads.length + 1];
+            System.arraycopy(threads, 0, list, 0, threads.length);
+            list[threads.length] = workers[i];
+            threads = list;
+            return;
+        }
+    }
+
+    /**
+     * Accounts the bytes downloaded, waits if the mission exceeds its bandwidth share
+     *
+     * @param bytes amount of bytes downloaded
+     * @throws InterruptedIOException if the download thread was interrupted while waiting
+     */
+    void throttle(int bytes) throws InterruptedIOException {
+        DownloadScheduler downloadScheduler = this.downloadScheduler;
+        if (downloadScheduler != null) downloadScheduler.throttle(this, bytes);
+    }
+
+    /**
+     * Gives the connections and the bandwidth used by this mission to the other missions
+     */
+    private void releaseShare() {
+        DownloadScheduler downloadScheduler = this.downloadScheduler;
+        if (downloadScheduler != null) downloadScheduler.unregister(this);
+    }
+
+    /**
+     * Gets the controller which adjusts the amount of download threads
+     *
+     * @return the controller, or {@code null} if the mission is not downloading in multiple threads
+     */
+    @Nullable
+    public ThroughputController getThroughputController() {
+        return controller;
     }
 
     /**
@@ -219,8 +426,31 @@ public class DownloadMission extends Mission {
         return openConnection(urls[current], headRequest, rangeStart, rangeEnd);
     }
 
+    /**
+     * Opens a connection to a mirror of the current resource
+     *
+     * @param mirror     the mirror, see {@link #getMirrorSelector()}
+     * @param rangeStart range start
+     * @param rangeEnd   range end
+     * @return a {@link java.net.URLConnection URLConnection} linking to the URL.
+     * @throws IOException if an I/O exception occurs.
+     */
+    HttpURLConnection openConnection(MirrorSelector.Mirror mirror, long rangeStart, long rangeEnd) throws IOException {
+        return openConnection(mirror.isPrimary() ? urls[current] : mirror.url, false, rangeStart, rangeEnd);
+    }
+
+    /**
+     * Gets the mirrors of the current resource, the download threads choose one for every request
+     *
+     * @return the selector, or {@code null} if the mission is not downloading in multiple threads
+     */
+    @Nullable
+    MirrorSelector getMirrorSelector() {
+        return selector;
+    }
+
     HttpURLConnection openConnection(String url, boolean headRequest, long rangeStart, long rangeEnd) throws IOException {
-        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        HttpURLConnection conn = PooledURLConnection.open(url);
         conn.setInstanceFollowRedirects(true);
         conn.setRequestProperty("User-Agent", DownloaderImpl.USER_AGENT);
         conn.setRequestProperty("Accept", "*/*");
@@ -278,6 +508,25 @@ public class DownloadMission extends Mission {
         mHandler.obtainMessage(what, this).sendToTarget();
     }
 
+    /**
+     * Accounts bytes downloaded by a download thread, this does not lock the mission
+     *
+     * @param worker   index of the calling thread
+     * @param deltaLen amount of bytes written, negative if the bytes were discarded
+     */
+    void notifyProgress(int worker, long deltaLen) {
+        AtomicLong progress = this.progress;
+        if (progress == null) {
+            notifyProgress(deltaLen);
+            return;
+        }
+
+        progress.addAndGet(deltaLen);
+
+        ThroughputController controller = this.controller;
+        if (controller != null) controller.record(worker, deltaLen);
+    }
+
     synchronized void notifyProgress(long deltaLen) {
         if (unknownLength) {
             length += deltaLen;// Update length before proceeding
@@ -285,15 +534,78 @@ public class DownloadMission extends Mission {
 
         done += deltaLen;
 
+        notifyProgressSaved(done, deltaLen < 0);
+    }
+
+    /**
+     * Saves the state if enough bytes were downloaded since the last time
+     *
+     * @param done     number of bytes downloaded
+     * @param rollback {@code true} if downloaded bytes were discarded
+     */
+    private synchronized void notifyProgressSaved(long done, boolean rollback) {
         if (metadata == null) return;
 
-        if (!writingToFile && (done > writingToFileNext || deltaLen < 0)) {
+        if (!writingToFile && (done > writingToFileNext || rollback)) {
             writingToFile = true;
             writingToFileNext = done + BLOCK_SIZE;
-            writeThisToFileAsync();
+            writeThisToFileAsync(true);
+        }
+    }
+
+    /**
+     * Stops using a mirror serving another file, the blocks written from it are downloaded again
+     *
+     * @param worker index of the calling thread
+     * @param mirror the mirror
+     */
+    void rejectMirror(int worker, MirrorSelector.Mirror mirror) {
+        BlockScheduler scheduler = this.scheduler;
+        MirrorSelector selector = this.selector;
+        if (scheduler == null || selector == null) return;
+
+        long discarded = 0;
+        for (Block block : selector.reject(mirror)) discarded += requeueBlock(scheduler, block);
+
+        if (discarded > 0) {
+            notifyProgress(worker, -discarded);
+            notifyProgressSaved(getDone(), true);
         }
     }
 
+    private long requeueBlock(BlockScheduler scheduler, Block block) {
+        long discarded = scheduler.requeue(block);
+
+        // the post-processing may have read the block already
+        if (discarded > 0) cancelStreamingPostprocessing();
+
+        return discarded;
+    }
+
+    /**
+     * Gets the {@code ETag} or {@code Last-Modified} header of the current resource, saved by the
+     * {@link DownloadInitializer}
+     */
+    @Nullable
+    private String getValidator() {
+        if (recoveryInfo == null || current >= recoveryInfo.length) return null;
+
+        String validator = recoveryInfo[current].getValidateCondition();
+        return validator == null || validator.isEmpty() ? null : validator;
+    }
+
+    /**
+     * Moves the bytes accounted by the download threads to {@link #done}. Must be called once all
+     * download threads are stopped
+     */
+    private void flushProgress() {
+        AtomicLong progress = this.progress;
+        if (progress == null) return;
+
+        done = progressBase + progress.get();
+        this.progress = null;
+    }
+
     synchronized void notifyError(Exception err) {
         Log.e(TAG, "notifyError()", err);
 
@@ -367,10 +679,14 @@ public class DownloadMission extends Mission {
         if (current < urls.length) {
             if (++finishCount < threads.length) return;
 
+            flushProgress();
+
             if (DEBUG) {
                 Log.d(TAG, "onFinish: downloaded " + (current + 1) + "/" + urls.length);
             }
 
+            if (resourceChecksums != null) resourceChecksums[current] = getResourceChecksum();
+
             current++;
             if (current < urls.length) {
                 // prepare next sub-mission
@@ -380,6 +696,9 @@ public class DownloadMission extends Mission {
             }
         }
 
+        // nothing left to download
+        releaseShare();
+
         if (psAlgorithm != null && psState == 0) {
             threads = new Thread[]{
                     runAsync(1, this::doPostprocessing)
@@ -438,6 +757,10 @@ public class DownloadMission extends Mission {
         running = true;
         errCode = ERROR_NOTHING;
 
+        // the initialization and the recovery use a connection too
+        DownloadScheduler downloadScheduler = this.downloadScheduler;
+        int connections = downloadScheduler == null ? threadCount : downloadScheduler.register(this);
+
         if (hasInvalidStorage()) {
             notifyError(ERROR_FILE_CREATION, null);
             return;
@@ -460,9 +783,13 @@ public class DownloadMission extends Mission {
             return;
         }
 
+        if (verifyPending && psState == 0 && checksums != null && checksums.getCount() == blocks.length) {
+            init = runAsync(DownloadInitializer.mId, this::verifyBlocksAndStart);
+            return;
+        }
+
         init = null;
         finishCount = 0;
-        blockAcquired = new boolean[blocks.length];
 
         if (blocks.length < 1) {
             threads = new Thread[]{runAsync(1, new DownloadRunnableFallback(this))};
@@ -475,14 +802,79 @@ public class DownloadMission extends Mission {
                 return;
             }
 
-            threads = new Thread[Math.min(threadCount, remainingBlocks)];
+            threads = new Thread[Math.min(Math.min(threadCount, connections), remainingBlocks)];
+
+            int capacity = Math.max(threads.length, Math.min(ThroughputController.MAXIMUM_WORKERS, remainingBlocks));
+            long now = System.currentTimeMillis();
+
+            flushProgress();
+            progressBase = done;
+            progress = new AtomicLong();
+
+            BlockChecksums checksums = this.checksums;
+            if (checksums != null && checksums.getCount() != blocks.length) checksums = null;
+
+            scheduler = new BlockScheduler(blocks, checksums, length, BLOCK_SIZE, threads.length, capacity);
+            selector = new MirrorSelector(mirrors == null || current >= mirrors.length ? null : mirrors[current], length, getValidator());
+            controller = new ThroughputController(capacity, capacity);
+            if (downloadScheduler != null) controller.setMaximum(connections);
+            recovery = new RecoveryCoordinator(this);
+            workers = new Thread[capacity];
 
             for (int i = 0; i < threads.length; i++) {
-                threads[i] = runAsync(i + 1, new DownloadRunnable(this, i));
+                controller.onWorkerStarted(i, now);
+                threads[i] = workers[i] = runAsync(i + 1, new DownloadRunnable(this, i));
             }
+
+            if (psStream == null)
+                startStreamingPostprocessing();
+            else
+                psStream.update();
         }
     }
 
+    /**
+     * Starts the post-processing while the last resource is downloaded, so the muxing overlaps
+     * with the download instead of running after it. The algorithm writes to a temporal file, the
+     * downloaded resources are not modified until the download finishes, so the mission can be
+     * paused, fail or be killed as usual
+     */
+    private void startStreamingPostprocessing() {
+        if (psAlgorithm == null || psState != 0 || !psAlgorithm.canStream()) return;
+        if (urls.length < 2 || current != urls.length - 1 || unknownLength) return;
+        if (blocks == null || blocks.length < 1) return;
+
+        Log.d(TAG, "Streaming postprocessing on " + storage.getName());
+
+        psStream = new StreamingPostprocessing(this);
+        psStream.start();
+        psStream.update();
+    }
+
+    /**
+     * Notifies that the post-processing failed before the download finished, the post-processing
+     * runs again once the download finishes
+     *
+     * @param err the failure
+     */
+    synchronized void notifyStreamingFailed(Exception err) {
+        Log.w(TAG, "Streaming postprocessing failed, running it after the download", err);
+        psStream = null;
+    }
+
+    /**
+     * Stops the post-processing running while the last resource is downloaded, the
+     * post-processing runs once the download finishes
+     */
+    private void cancelStreamingPostprocessing() {
+        StreamingPostprocessing psStream = this.psStream;
+        if (psStream == null) return;
+
+        this.psStream = null;
+        psStream.cancel();
+        psAlgorithm.cleanupStreamingOutputs(this);
+    }
+
     /**
      * Pause the mission
      */
@@ -502,9 +894,12 @@ public class DownloadMission extends Mission {
         if (init != null && init.isAlive()) {
             // NOTE: if start() method is running ¡will no have effect!
             init.interrupt();
-            synchronized (LOCK) {
-                resetState(false, true, ERROR_NOTHING);
+            if (init instanceof DownloadInitializer) {
+                synchronized (LOCK) {
+                    resetState(false, true, ERROR_NOTHING);
+                }
             }
+            releaseShare();
             return;
         }
 
@@ -518,7 +913,9 @@ public class DownloadMission extends Mission {
 
     private void pauseThreads() {
         running = false;
+        releaseShare();
         joinForThreads(-1);
+        flushProgress();
         writeThisToFile();
     }
 
@@ -527,6 +924,7 @@ public class DownloadMission extends Mission {
      */
     @Override
     public boolean delete() {
+        cancelStreamingPostprocessing();
         if (psAlgorithm != null) psAlgorithm.cleanupTemporalDir();
 
         notify(DownloadManagerService.MESSAGE_DELETED);
@@ -551,8 +949,17 @@ public class DownloadMission extends Mission {
         unknownLength = false;
         threads = new Thread[0];
         fallbackResumeOffset = 0;
+        fallbackChecksum = 0;
         blocks = null;
-        blockAcquired = null;
+        checksums = null;
+        scheduler = null;
+        controller = null;
+        selector = null;
+        workers = null;
+        flushProgress();
+
+        // everything is downloaded again
+        if (rollback) cancelStreamingPostprocessing();
 
         if (rollback) current = 0;
         if (persistChanges) writeThisToFile();
@@ -562,22 +969,144 @@ public class DownloadMission extends Mission {
         init = runAsync(DownloadInitializer.mId, new DownloadInitializer(this));
     }
 
-    private void writeThisToFileAsync() {
-        runAsync(-2, this::writeThisToFile);
+    private void writeThisToFileAsync(boolean progressOnly) {
+        runAsync(-2, () -> writeThisToFile(progressOnly));
+    }
+
+    /**
+     * Write this {@link DownloadMission} to the meta file
+     */
+    public void writeThisToFile() {
+        writeThisToFile(false);
     }
 
     /**
-     * Write this {@link DownloadMission} to the meta file asynchronously
-     * if no thread is already running.
+     * Write this {@link DownloadMission} to the meta file
+     *
+     * @param progressOnly {@code true} if only the download progress has changed, the progress
+     *                     is appended to the meta file instead of rewriting the whole mission
      */
-    void writeThisToFile() {
+    private void writeThisToFile(boolean progressOnly) {
         synchronized (LOCK) {
             if (metadata == null) return;
-            Utility.writeToFile(metadata, this);
+
+            // take a snapshot of the progress, the download threads are not stopped
+            AtomicLong progress = this.progress;
+            if (progress != null) done = progressBase + progress.get();
+
+            if (journal == null || !journal.getFile().equals(metadata)) {
+                journal = new MissionJournal(metadata);
+            }
+
+            try {
+                journal.write(this, progressOnly);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to save the mission state", e);
+                journal = null;// rewrite the whole mission the next time
+            }
+
             writingToFile = false;
         }
     }
 
+    /**
+     * Gets the CRC32 of the downloaded file, computed while downloading. Not available if the
+     * file was post-processed, because the downloaded bytes are not the final file
+     *
+     * @return the CRC32, or -1 if unknown
+     */
+    public long getCrc32() {
+        if (!isFinished() || psAlgorithm != null || resourceChecksums == null || offsets[0] != 0)
+            return -1;
+
+        return resourceChecksums[0];
+    }
+
+    /**
+     * Combines the checksums of the current resource, must be fully downloaded
+     *
+     * @return the CRC32 of the resource, or -1 if unknown
+     */
+    private long getResourceChecksum() {
+        if (blocks == null) return -1;
+        if (blocks.length < 1) return fallbackChecksum & 0xFFFFFFFFL;
+        if (checksums == null || checksums.getCount() != blocks.length) return -1;
+
+        return checksums.getChecksum(0, blocks.length) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Reads the downloaded blocks of the current resource and compares them with their checksums.
+     * The corrupt blocks are marked as not downloaded, so only these are downloaded again
+     *
+     * @return amount of corrupt blocks
+     * @throws IOException if the file cannot be read
+     */
+    int verifyBlocks() throws IOException {
+        int[] blocks = this.blocks;
+        BlockChecksums checksums = this.checksums;
+        if (blocks == null || checksums == null || checksums.getCount() != blocks.length) return 0;
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        CRC32 crc = new CRC32();
+        int corrupt = 0;
+        long discarded = 0;
+
+        try (SharpStream stream = storage.getStream()) {
+            for (int i = 0; i < blocks.length; i++) {
+                int size = blocks[i] < 0 ? checksums.getBlockLength(i) : blocks[i];
+                if (size < 1) continue;
+
+                if (Thread.interrupted()) throw new InterruptedIOException();
+
+                stream.seek(offsets[current] + (long) i * BLOCK_SIZE);
+                crc.reset();
+
+                int remaining = size;
+                while (remaining > 0) {
+                    int read = stream.read(buffer, 0, Math.min(buffer.length, remaining));
+                    if (read < 1) break;
+
+                    crc.update(buffer, 0, read);
+                    remaining -= read;
+                }
+
+                if (remaining == 0 && (int) crc.getValue() == checksums.get(i)) continue;
+
+                checksums.set(i, 0);
+                blocks[i] = 0;
+                discarded += size;
+                corrupt++;
+            }
+        }
+
+        done -= discarded;
+        return corrupt;
+    }
+
+    private void verifyBlocksAndStart() {
+        try {
+            int corrupt = verifyBlocks();
+
+            if (corrupt > 0) {
+                Log.w(TAG, corrupt + " corrupt blocks found in " + storage.getName() + ", downloading them again");
+                writeThisToFile();
+            }
+        } catch (IOException e) {
+            // if paused, the blocks are verified again the next time
+            if (!running || e instanceof InterruptedIOException || e instanceof ClosedByInterruptException)
+                return;
+
+            Log.e(TAG, "Failed to verify the downloaded blocks", e);
+        }
+
+        if (!running) return;
+
+        verifyPending = false;
+        running = false;
+        start();
+    }
+
     /**
      * Indicates if the download if fully finished
      *
@@ -620,6 +1149,17 @@ public class DownloadMission extends Mission {
         return blocks != null; // DownloadMissionInitializer was executed
     }
 
+    /**
+     * Gets the number of bytes downloaded, without locking the mission. The value is a snapshot,
+     * intended to be read periodically by the UI
+     *
+     * @return the number of bytes downloaded and written
+     */
+    public long getDone() {
+        AtomicLong progress = this.progress;
+        return progress == null ? done : progressBase + progress.get();
+    }
+
     /**
      * Gets the approximated final length of the file
      *
@@ -644,7 +1184,7 @@ public class DownloadMission extends Mission {
      */
     public void setEnqueued(boolean queue) {
         enqueued = queue;
-        writeThisToFileAsync();
+        writeThisToFileAsync(false);
     }
 
     /**
@@ -683,6 +1223,9 @@ public class DownloadMission extends Mission {
      * @return {@code true} if the mission is running a recovery procedure, otherwise, {@code false}
      */
     public boolean isRecovering() {
+        RecoveryCoordinator recovery = this.recovery;
+        if (recovery != null && recovery.isResolving()) return true;
+
         return threads.length > 0 && threads[0] instanceof DownloadMissionRecover && threads[0].isAlive();
     }
 
@@ -691,6 +1234,8 @@ public class DownloadMission extends Mission {
         errObject = null;
         Thread thread = Thread.currentThread();
 
+        if (psStream != null) psAlgorithm.resetProgress(this);
+
         notifyPostProcessing(1);
 
         if (DEBUG) {
@@ -700,7 +1245,31 @@ public class DownloadMission extends Mission {
         Exception exception = null;
 
         try {
-            psAlgorithm.run(this);
+            StreamingPostprocessing psStream = this.psStream;
+            boolean streamed = false;
+
+            if (psStream != null) {
+                // the algorithm is already running, wait until processes the rest of the file
+                long start = System.nanoTime();
+                try {
+                    psStream.finish();
+                    streamed = true;
+                } catch (Exception err) {
+                    if (thread.isInterrupted()) throw err;
+
+                    // the sources were not modified, run it again from the start
+                    Log.w(TAG, "Streaming postprocessing failed, running it again", err);
+                    psAlgorithm.cleanupStreamingOutputs(this);
+                }
+
+                MissionMetrics metrics = this.metrics;
+                if (metrics != null) metrics.onPhase("postprocessing.wait", System.nanoTime() - start);
+            }
+
+            if (streamed)
+                psAlgorithm.finishStreaming(this);
+            else
+                psAlgorithm.run(this);
         } catch (Exception err) {
             Log.e(TAG, "Post-processing failed. " + psAlgorithm.toString(), err);
 
@@ -713,6 +1282,7 @@ public class DownloadMission extends Mission {
 
             exception = err;
         } finally {
+            psStream = null;
             notifyPostProcessing(errCode == ERROR_NOTHING ? 2 : 0);
         }
 
@@ -746,6 +1316,47 @@ public class DownloadMission extends Mission {
         };
     }
 
+    /**
+     * Gets the generation of the download urls, read by the download threads before making a
+     * request, see {@link RecoveryCoordinator}
+     *
+     * @return the generation
+     */
+    int getUrlGeneration() {
+        RecoveryCoordinator recovery = this.recovery;
+        return recovery == null ? 0 : recovery.getGeneration();
+    }
+
+    /**
+     * Called by a download thread after a HTTP 403, the url has expired. The urls are resolved
+     * again once per mission while the download threads wait
+     *
+     * @param worker     index of the calling thread
+     * @param generation the generation of the url used in the failed request
+     * @return {@code true} to continue downloading the same block with the new url, otherwise,
+     * {@code false} to exit
+     */
+    boolean awaitRecovery(int worker, int generation) {
+        RecoveryCoordinator recovery = this.recovery;
+
+        if (recovery == null || recoveryInfo == null) {
+            synchronized (this) {
+                if (running && errCode == ERROR_NOTHING) doRecover(ERROR_HTTP_FORBIDDEN);
+            }
+            return false;
+        }
+
+        return running && recovery.await(worker, generation);
+    }
+
+    /**
+     * Stops the download threads and waits for them, used by the recovery procedure when the
+     * resource has changed
+     */
+    void stopThreads() {
+        joinForThreads(10000);
+    }
+
     private boolean deleteThisFromFile() {
         synchronized (LOCK) {
             boolean res = metadata.delete();
@@ -795,6 +1406,10 @@ public class DownloadMission extends Mission {
     private void joinForThreads(int millis) {
         final Thread currentThread = Thread.currentThread();
 
+        // wake up the threads waiting for new urls
+        RecoveryCoordinator recovery = this.recovery;
+        if (recovery != null) recovery.cancel();
+
         if (init != null && init != currentThread && init.isAlive()) {
             init.interrupt();
 
@@ -845,11 +1460,6 @@ public class DownloadMission extends Mission {
         }
     }
 
-    public static class Block {
-        public int position;
-        public int done;
-    }
-
     private static class Lock implements Serializable {
         // java.lang.Object cannot be used because is not serializable
     }
@@ -29,18 +29,38 @@ public class DownloadMissionRecover extends Thread {
 
     private final int mErrCode;
 
+    /**
+     * If not {@code null}, the download threads are waiting for the new urls instead of being
+     * stopped, see {@link RecoveryCoordinator}
+     */
+    private final RecoveryCoordinator mCoordinator;
+
     private HttpURLConnection mConn;
     private MissionRecoveryInfo mRecovery;
     private StreamExtractor mExtractor;
 
     DownloadMissionRecover(DownloadMission mission, int errCode) {
+        this(mission, errCode, null);
+    }
+
+    DownloadMissionRecover(DownloadMission mission, int errCode, RecoveryCoordinator coordinator) {
         mMission = mission;
         mNotInitialized = mission.blocks == null && mission.current == 0;
         mErrCode = errCode;
+        mCoordinator = coordinator;
     }
 
     @Override
     public void run() {
+        try {
+            runRecovery();
+        } finally {
+            // if not resolved, the waiting threads exit
+            if (mCoordinator != null) mCoordinator.notifyResolved(this, false);
+        }
+    }
+
+    private void runRecovery() {
         if (mMission.source == null) {
             mMission.notifyError(mErrCode, null);
             return;
@@ -83,11 +103,22 @@ public class DownloadMissionRecover extends Thread {
         if (!mNotInitialized) {
             // set the current download url to null in case if the recovery
             // process is canceled. Next time start() method is called the
-            // recovery will be executed, saving time
-            mMission.urls[mMission.current] = null;
+            // recovery will be executed, saving time. Not done if there are
+            // download threads waiting, they still use the current url
+            if (mCoordinator == null) mMission.urls[mMission.current] = null;
+
+            mRecovery = mMission.recoveryInfo[mMission.current];
+            String url = findUrl();
+
+            // the urls of the following resources expire too, refresh them with the same extraction
+            for (int i = mMission.current + 1; i < mMission.urls.length; i++) {
+                mRecovery = mMission.recoveryInfo[i];
+                String next = findUrl();
+                if (next != null) mMission.urls[i] = next;
+            }
 
             mRecovery = mMission.recoveryInfo[mMission.current];
-            resolveStream();
+            resolve(url);
             return;
         }
 
@@ -121,6 +152,10 @@ public class DownloadMissionRecover extends Thread {
     }
 
     private void resolveStream() throws IOException, ExtractionException, HttpError {
+        resolve(findUrl());
+    }
+
+    private String findUrl() throws IOException, ExtractionException {
         // FIXME: this getErrorMessage() always returns "video is unavailable"
         /*if (mExtractor.getErrorMessage() != null) {
             mMission.notifyError(mErrCode, new ExtractionException(mExtractor.getErrorMessage()));
@@ -164,7 +199,7 @@ public class DownloadMissionRecover extends Thread {
                 throw new RuntimeException("Unknown stream type");
         }
 
-        resolve(url);
+        return url;
     }
 
     private void resolve(String url) throws IOException, HttpError {
@@ -223,6 +258,18 @@ public class DownloadMissionRecover extends Thread {
 
         if (mNotInitialized) return;
 
+        if (stale && mCoordinator != null) {
+            // the resource changed, stop the waiting threads and download everything again
+            if (!mMission.running || super.isInterrupted()) return;
+
+            mMission.running = false;
+            mMission.stopThreads();
+            mMission.resetState(false, false, DownloadMission.ERROR_NOTHING);
+            mMission.writeThisToFile();
+            mMission.start();
+            return;
+        }
+
         if (stale) {
             mMission.resetState(false, false, DownloadMission.ERROR_NOTHING);
         }
@@ -231,6 +278,12 @@ public class DownloadMissionRecover extends Thread {
 
         if (!mMission.running || super.isInterrupted()) return;
 
+        if (mCoordinator != null) {
+            // the download threads continue with their blocks
+            mCoordinator.notifyResolved(this, true);
+            return;
+        }
+
         mMission.running = false;
         mMission.start();
     }
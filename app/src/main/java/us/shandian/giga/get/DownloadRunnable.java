@@ -1,17 +1,23 @@
 package us.shandian.giga.get;
 
+import android.os.Build;
 import android.util.Log;
 
 import org.schabi.newpipe.streams.io.SharpStream;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
 import java.util.Objects;
 
-import us.shandian.giga.get.DownloadMission.Block;
+import us.shandian.giga.get.BlockScheduler.Block;
 import us.shandian.giga.get.DownloadMission.HttpError;
+import us.shandian.giga.service.MissionMetrics;
+import us.shandian.giga.util.Utility;
 
 import static org.schabi.newpipe.BuildConfig.DEBUG;
 import static us.shandian.giga.get.DownloadMission.ERROR_HTTP_FORBIDDEN;
@@ -28,34 +34,88 @@ public class DownloadRunnable extends Thread {
     private final int mId;
 
     private HttpURLConnection mConn;
+    private ReadableByteChannel mSource;
+
+    /**
+     * Offset, in the resource, of the next byte to be read from {@link #mSource}
+     */
+    private long mPosition;
+
+    /**
+     * Offset, in the resource, of the last byte requested by {@link #mConn}
+     */
+    private long mRangeEnd;
+
+    /**
+     * Used to checksum a direct buffer on old Android versions, where {@code CRC32} cannot read it
+     */
+    private byte[] mDigestBuffer;
+
+    /**
+     * Time when the current request was made, {@code 0} once the first byte of the response
+     * was read
+     */
+    private long mRequestTime;
+
+    /**
+     * Mirror of the current request, rated with the bytes read from the response when released
+     */
+    private MirrorSelector.Mirror mMirror;
+    private MirrorSelector mSelector;
+
+    /**
+     * Mirrors, other than the url of the resource, which wrote the current block
+     */
+    private final ArrayList<MirrorSelector.Mirror> mBlockMirrors = new ArrayList<>(2);
+    private long mResponseStart;
+    private long mResponseTime;
 
     DownloadRunnable(DownloadMission mission, int id) {
         mMission = Objects.requireNonNull(mission);
         mId = id;
     }
 
-    private void releaseBlock(Block block, long remain) {
-        // set the block offset to -1 if it is completed
-        mMission.releaseBlock(block.position, remain < 0 ? -1 : block.done);
-    }
-
     @Override
     public void run() {
         boolean retry = false;
         Block block = null;
         int retryCount = 0;
+        int generation = 0;
+        long blockStart = 0;
+        int blockDone = 0;
+        boolean recoveryFailed = false;
+        MissionMetrics metrics = mMission.metrics;
+        mSelector = mMission.getMirrorSelector();
         SharpStream f;
 
         try {
-            f = mMission.storage.getStream();
+            f = mMission.openStream();
         } catch (IOException e) {
             mMission.notifyError(e);// this never should happen
+            mMission.notifyWorkerExited(mId);
             return;
         }
 
+        // with positional writes the bytes go from the network to the file without extra copies
+        boolean positional = f.canPositionalIo();
+        ByteBuffer buf = positional ?
+                ByteBuffer.allocateDirect(DownloadMission.BUFFER_SIZE) :
+                ByteBuffer.allocate(DownloadMission.BUFFER_SIZE);
+
         while (mMission.running && mMission.errCode == DownloadMission.ERROR_NOTHING) {
             if (!retry) {
-                block = mMission.acquireBlock();
+                if (mMission.adjustWorkers(mId)) {
+                    if (DEBUG) Log.d(TAG, mId + ":retired by the throughput controller, exiting");
+                    break;
+                }
+
+                block = mMission.acquireBlock(mId);
+                mBlockMirrors.clear();
+
+                if (block != null) {
+                    blockStart = System.nanoTime();
+                    blockDone = block.done;
+                }
             }
 
             if (block == null) {
@@ -67,78 +127,200 @@ public class DownloadRunnable extends Thread {
                 if (retry)
                     Log.d(TAG, mId + ":retry block at position=" + block.position + " from the start");
                 else
-                    Log.d(TAG, mId + ":acquired block at position=" + block.position + " done=" + block.done);
+                    Log.d(TAG, mId + ":acquired block at position=" + block.position + " done=" + block.done + " end=" + block.end);
             }
 
-            long start = (long)block.position * DownloadMission.BLOCK_SIZE;
-            long end = start + DownloadMission.BLOCK_SIZE - 1;
+            long start = (long) block.position * DownloadMission.BLOCK_SIZE;
+            long end = start + block.end - 1;
 
             start += block.done;
 
-            if (end >= mMission.length) {
-                end = mMission.length - 1;
-            }
-
             try {
-                mConn = mMission.openConnection(false, start, end);
-                mMission.establishConnection(mId, mConn);
-
-                // check if the download can be resumed
-                if (mConn.getResponseCode() == 416) {
-                    if (block.done > 0) {
-                        // try again from the start (of the block)
-                        mMission.notifyProgress(-block.done);
-                        block.done = 0;
+                if (mSource == null || mPosition != start || mRangeEnd < end) {
+                    // the previous request does not cover this block, make a new one
+                    disposeResponse();
+
+                    long rangeEnd = end;
+                    if (!retry) {
+                        // request the following blocks too, saves one round-trip per block
+                        int count = mMission.getContiguousBlocks(mId, block);
+                        rangeEnd = Math.min(end + (long) (count - 1) * DownloadMission.BLOCK_SIZE, mMission.length - 1);
+                    }
+
+                    generation = mMission.getUrlGeneration();
+                    mRequestTime = System.nanoTime();
+
+                    if (mSelector == null) {
+                        mConn = mMission.openConnection(false, start, rangeEnd);
+                    } else {
+                        mMirror = mSelector.acquire(System.currentTimeMillis());
+                        mResponseStart = start;
+                        mResponseTime = mRequestTime;
+                        mConn = mMission.openConnection(mMirror, start, rangeEnd);
+                    }
+
+                    mMission.establishConnection(mId, mConn);
+
+                    if (metrics != null)
+                        metrics.onConnectionEstablished(mId, System.nanoTime() - mRequestTime);
+
+                    // check if the download can be resumed
+                    if (mConn.getResponseCode() == 416) {
+                        if (block.done > block.start) {
+                            // try again from the start (of the block)
+                            mMission.notifyProgress(mId, -block.rewind());
+                            if (metrics != null) metrics.onRetry(mId);
+                            retry = true;
+                            disposeResponse();
+                            continue;
+                        }
+
+                        throw new DownloadMission.HttpError(416);
+                    }
+
+                    if (mMirror != null && !isSameResource()) {
+                        // the mirror serves another file, or ignores the range request
+                        if (DEBUG) Log.w(TAG, mId + ":rejecting the mirror " + mMirror.url);
+
+                        mMission.rejectMirror(mId, mMirror);
+                        mMirror = null;
                         retry = true;
-                        mConn.disconnect();
+                        disposeResponse();
                         continue;
                     }
 
-                    throw new DownloadMission.HttpError(416);
+                    // The server may be ignoring the range request
+                    if (mConn.getResponseCode() != 206) {
+                        if (DEBUG) {
+                            Log.e(TAG, mId + ":Unsupported " + mConn.getResponseCode());
+                        }
+                        retry = false;
+                        mMission.notifyError(new DownloadMission.HttpError(mConn.getResponseCode()));
+                        break;
+                    }
+
+                    if (mConn instanceof PooledURLConnection)
+                        mSource = ((PooledURLConnection) mConn).getChannel();
+                    else
+                        mSource = Channels.newChannel(mConn.getInputStream());
+
+                    mPosition = start;
+                    mRangeEnd = rangeEnd;
+                } else if (DEBUG) {
+                    Log.d(TAG, mId + ":reusing the response of the previous block");
                 }
 
                 retry = false;
 
-                // The server may be ignoring the range request
-                if (mConn.getResponseCode() != 206) {
-                    if (DEBUG) {
-                        Log.e(TAG, mId + ":Unsupported " + mConn.getResponseCode());
+                MirrorSelector.Mirror mirror = mMirror;
+                if (mirror != null && !mirror.isPrimary() && !mBlockMirrors.contains(mirror))
+                    mBlockMirrors.add(mirror);
+
+                long offset = mMission.offsets[mMission.current] + start;
+                if (!positional) f.seek(offset);
+
+                int len;
+
+                // check always if the block is completed before reading
+                // fixes a deadlock because in some videos, youtube is sending one byte alone
+                while (!block.isCompleted() && mMission.running) {
+                    // do not read past the block end, the rest belongs to the next block
+                    len = Math.min(buf.capacity(), block.end - block.done);
+                    if (len < 1) break;
+
+                    buf.clear();
+                    buf.limit(len);
+
+                    len = mSource.read(buf);
+                    if (len == -1) break;
+
+                    if (mRequestTime != 0) {
+                        if (metrics != null)
+                            metrics.onFirstByte(mId, System.nanoTime() - mRequestTime);
+                        mRequestTime = 0;
                     }
-                    mMission.notifyError(new DownloadMission.HttpError(mConn.getResponseCode()));
-                    break;
-                }
 
-                f.seek(mMission.offsets[mMission.current] + start);
+                    mPosition += len;
 
-                try (InputStream is = mConn.getInputStream()) {
-                    byte[] buf = new byte[DownloadMission.BUFFER_SIZE];
-                    int len;
+                    // the end of the block can be moved by another thread (block split)
+                    len = block.claim(len);
+                    if (len < 1) break;
 
-                    // use always start <= end
-                    // fixes a deadlock because in some videos, youtube is sending one byte alone
-                    while (start <= end && mMission.running && (len = is.read(buf, 0, buf.length)) != -1) {
-                        f.write(buf, 0, len);
-                        start += len;
-                        block.done += len;
-                        mMission.notifyProgress(len);
+                    if (positional) {
+                        buf.flip();
+                        buf.limit(len);
+                        while (buf.hasRemaining()) offset += f.write(buf, offset);
+                        digest(block, buf, len);
+                    } else {
+                        f.write(buf.array(), 0, len);
+                        block.digest.update(buf.array(), 0, len);
                     }
+
+                    block.done += len;
+                    mMission.notifyProgress(mId, len);
+                    mMission.throttle(len);
+                }
+
+                if (metrics != null && block.isCompleted())
+                    metrics.onBlockCompleted(mId, block.done - blockDone, System.nanoTime() - blockStart);
+
+                if (mPosition > mRangeEnd || !block.isCompleted()) {
+                    // the response was fully read or cannot be reused
+                    disposeResponse();
                 }
 
                 if (DEBUG && mMission.running) {
-                    Log.d(TAG, mId + ":position " + block.position + " stopped " + start + "/" + end);
+                    Log.d(TAG, mId + ":position " + block.position + " stopped " + block.done + "/" + block.end);
                 }
             } catch (Exception e) {
-                if (!mMission.running || e instanceof ClosedByInterruptException) break;
+                if (!mMission.running || e instanceof ClosedByInterruptException) {
+                    disposeResponse();
+                    break;
+                }
+
+                MirrorSelector.Mirror mirror = mMirror;
+                mMirror = null;// not rated
+                disposeResponse();
+
+                if (mirror != null && !mirror.isPrimary()) {
+                    boolean demoted;
+
+                    if (e instanceof HttpError && ((HttpError) e).statusCode == ERROR_HTTP_FORBIDDEN) {
+                        // the url of the mirror has expired, only the url of the resource is recovered
+                        mSelector.drop(mirror);
+                        demoted = true;
+                    } else {
+                        demoted = mSelector.fail(mirror, System.currentTimeMillis());
+                    }
+
+                    if (demoted) {
+                        // continue with another mirror, without counting the error
+                        if (DEBUG) Log.w(TAG, mId + ":mirror " + mirror.url + " failed, demoted", e);
+
+                        block.resume();
+                        retry = true;
+                        continue;
+                    }
+                } else if (mirror != null) {
+                    mSelector.drop(mirror);// the url of the resource is never dropped
+                }
 
                 if (e instanceof HttpError && ((HttpError) e).statusCode == ERROR_HTTP_FORBIDDEN) {
-                    // for youtube streams. The url has expired, recover
-                    f.close();
+                    // for youtube streams. The url has expired, wait until is resolved again
+                    // (only once for all threads) and continue with the same block
+                    if (retryCount++ < mMission.maxRetry && mMission.awaitRecovery(mId, generation)) {
+                        if (DEBUG) Log.d(TAG, mId + ":url recovered, continuing");
+                        if (metrics != null) metrics.onRecovery(mId);
 
-                    if (mId == 1) {
-                        // only the first thread will execute the recovery procedure
-                        mMission.doRecover(ERROR_HTTP_FORBIDDEN);
+                        block.resume();
+                        retry = true;
+                        continue;
                     }
-                    return;
+
+                    // the url could not be recovered, exit without notifying the mission finished
+                    recoveryFailed = true;
+                    retry = false;
+                    break;
                 }
 
                 if (retryCount++ >= mMission.maxRetry) {
@@ -146,19 +328,24 @@ public class DownloadRunnable extends Thread {
                     break;
                 }
 
+                if (metrics != null) metrics.onRetry(mId);
+
+                block.resume();
                 retry = true;
             } finally {
-                if (!retry) releaseBlock(block, end - start);
+                if (!retry) mMission.releaseBlock(mId, block, mBlockMirrors);
             }
         }
 
-        f.close();
+        mMission.closeStream(f);
+        disposeResponse();
+        mMission.notifyWorkerExited(mId);
 
         if (DEBUG) {
             Log.d(TAG, "thread " + mId + " exited from main download loop");
         }
 
-        if (mMission.errCode == DownloadMission.ERROR_NOTHING && mMission.running) {
+        if (!recoveryFailed && mMission.errCode == DownloadMission.ERROR_NOTHING && mMission.running) {
             if (DEBUG) {
                 Log.d(TAG, "no error has happened, notifying");
             }
@@ -170,6 +357,58 @@ public class DownloadRunnable extends Thread {
         }
     }
 
+    /**
+     * Checksums the bytes written from a direct buffer, done after writing them so the checksum
+     * only covers the bytes really written
+     */
+    private void digest(Block block, ByteBuffer buf, int len) {
+        buf.position(0);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            block.digest.update(buf);
+            return;
+        }
+
+        if (mDigestBuffer == null) mDigestBuffer = new byte[DownloadMission.BUFFER_SIZE];
+        buf.get(mDigestBuffer, 0, len);
+        block.digest.update(mDigestBuffer, 0, len);
+    }
+
+    /**
+     * Checks the response of a mirror, must be a part of the same file served by the url of the
+     * resource
+     */
+    private boolean isSameResource() throws IOException {
+        if (!mMirror.isPrimary() && mConn.getResponseCode() != 206) return false;
+        return mSelector.verify(mMirror, Utility.getTotalLength(mConn),
+                mConn.getHeaderField("ETag"), mConn.getHeaderField("Last-Modified"));
+    }
+
+    /**
+     * Releases the current request, if the response was fully read the connection is kept alive
+     */
+    private void disposeResponse() {
+        if (mMirror != null) {
+            // rate the mirror with the bytes read
+            long bytes = mSource == null ? 0 : mPosition - mResponseStart;
+            mSelector.release(mMirror, bytes, System.nanoTime() - mResponseTime, System.currentTimeMillis());
+            mMirror = null;
+        }
+
+        try {
+            if (mSource != null)
+                mSource.close();
+            else if (mConn != null)
+                mConn.disconnect();
+        } catch (Exception e) {
+            // nothing to do
+        }
+
+        mSource = null;
+        mConn = null;
+        mRequestTime = 0;
+    }
+
     @Override
     public void interrupt() {
         super.interrupt();
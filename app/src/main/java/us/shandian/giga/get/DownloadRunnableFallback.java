@@ -10,8 +10,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.nio.channels.ClosedByInterruptException;
+import java.util.zip.CRC32;
 
 import us.shandian.giga.get.DownloadMission.HttpError;
+import us.shandian.giga.service.MissionMetrics;
 import us.shandian.giga.util.Utility;
 
 import static org.schabi.newpipe.BuildConfig.DEBUG;
@@ -30,6 +32,14 @@ public class DownloadRunnableFallback extends Thread {
     private SharpStream mF;
     private HttpURLConnection mConn;
 
+    /**
+     * CRC32 of the bytes written by this thread, the checksum of the previous bytes is
+     * {@link #mChecksum}, see {@link DownloadMission#fallbackChecksum}
+     */
+    private final CRC32 mDigest = new CRC32();
+    private int mChecksum;
+    private long mDigestStart;
+
     DownloadRunnableFallback(@NonNull DownloadMission mission) {
         mMission = mission;
     }
@@ -53,6 +63,10 @@ public class DownloadRunnableFallback extends Thread {
         boolean done;
         long start = mMission.fallbackResumeOffset;
 
+        mChecksum = mMission.fallbackChecksum;
+        mDigestStart = start;
+        mDigest.reset();
+
         if (DEBUG && !mMission.unknownLength && start > 0) {
             Log.i(TAG, "Resuming a single-thread download at " + start);
         }
@@ -61,6 +75,7 @@ public class DownloadRunnableFallback extends Thread {
             long rangeStart = (mMission.unknownLength || start < 1) ? -1 : start;
 
             int mId = 1;
+            long requestTime = System.nanoTime();
             mConn = mMission.openConnection(false, rangeStart, -1);
 
             if (mRetryCount == 0 && rangeStart == -1) {
@@ -70,10 +85,15 @@ public class DownloadRunnableFallback extends Thread {
 
             mMission.establishConnection(mId, mConn);
 
+            MissionMetrics metrics = mMission.metrics;
+            if (metrics != null) metrics.onConnectionEstablished(mId, System.nanoTime() - requestTime);
+
             // check if the download can be resumed
             if (mConn.getResponseCode() == 416 && start > 0) {
                 mMission.notifyProgress(-start);
                 start = 0;
+                mChecksum = 0;
+                mDigestStart = 0;
                 mRetryCount--;
                 throw new DownloadMission.HttpError(416);
             }
@@ -85,6 +105,9 @@ public class DownloadRunnableFallback extends Thread {
             if (mMission.unknownLength || mConn.getResponseCode() == 200) {
                 // restart amount of bytes downloaded
                 mMission.done = mMission.offsets[mMission.current] - mMission.offsets[0];
+                start = 0;
+                mChecksum = 0;
+                mDigestStart = 0;
             }
 
             mF = mMission.storage.getStream();
@@ -96,9 +119,16 @@ public class DownloadRunnableFallback extends Thread {
             int len = 0;
 
             while (mMission.running && (len = mIs.read(buf, 0, buf.length)) != -1) {
+                if (requestTime != 0) {
+                    if (metrics != null) metrics.onFirstByte(mId, System.nanoTime() - requestTime);
+                    requestTime = 0;
+                }
+
                 mF.write(buf, 0, len);
+                mDigest.update(buf, 0, len);
                 start += len;
                 mMission.notifyProgress(len);
+                mMission.throttle(len);
             }
 
             dispose();
@@ -108,7 +138,7 @@ public class DownloadRunnableFallback extends Thread {
         } catch (Exception e) {
             dispose();
 
-            mMission.fallbackResumeOffset = start;
+            saveProgress(start);
 
             if (!mMission.running || e instanceof ClosedByInterruptException) return;
 
@@ -128,15 +158,21 @@ public class DownloadRunnableFallback extends Thread {
                 Log.e(TAG, "got exception, retrying...", e);
             }
 
+            MissionMetrics metrics = mMission.metrics;
+            if (metrics != null) metrics.onRetry(1);
+
             run();// try again
             return;
         }
 
-        if (done) {
-            mMission.notifyFinished();
-        } else {
-            mMission.fallbackResumeOffset = start;
-        }
+        saveProgress(start);
+
+        if (done) mMission.notifyFinished();
+    }
+
+    private void saveProgress(long start) {
+        mMission.fallbackChecksum = BlockChecksums.combine(mChecksum, (int) mDigest.getValue(), start - mDigestStart);
+        mMission.fallbackResumeOffset = start;
     }
 
     @Override
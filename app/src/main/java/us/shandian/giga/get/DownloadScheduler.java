@@ -0,0 +1,198 @@
+package us.shandian.giga.get;
+
+import java.io.InterruptedIOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Shares the connections and the bandwidth between all running missions.
+ * <p>
+ * Every mission gets a part of the connection budget and of the bandwidth limit (if any),
+ * proportional to its weight. The mission started by the user more recently has the highest
+ * weight, on metered networks the budget is halved and the other missions have the lowest weight.
+ * The amount of download threads of every mission is kept below its share by its
+ * {@link ThroughputController}, the bandwidth is limited with a token bucket per mission.
+ */
+public class DownloadScheduler {
+    /**
+     * Default maximum amount of connections, of all missions
+     */
+    public static final int DEFAULT_CONNECTIONS = 16;
+
+    static final int PRIORITY_WEIGHT = 4;
+    static final int NORMAL_WEIGHT = 2;
+    static final int METERED_WEIGHT = 1;
+
+    /**
+     * Maximum amount of bytes that a mission can download at once after being idle, as seconds
+     * of its bandwidth share
+     */
+    private static final float BURST_SECONDS = 0.25f;
+
+    private final Map<Object, Share> shares = new IdentityHashMap<>();
+
+    private int connections = DEFAULT_CONNECTIONS;
+    private long bandwidth;
+    private boolean metered;
+    private Object priority;
+
+    private static class Share {
+        int weight;
+        int connections;
+
+        /**
+         * Bytes per second, 0 is unlimited
+         */
+        long rate;
+        double tokens;
+        long lastRefill;
+    }
+
+    /**
+     * @param connections maximum amount of connections of all missions
+     */
+    public synchronized void setConnectionBudget(int connections) {
+        this.connections = Math.max(1, connections);
+        rebalance();
+    }
+
+    /**
+     * @param bandwidth maximum bytes per second of all missions, 0 is unlimited
+     */
+    public synchronized void setBandwidthLimit(long bandwidth) {
+        this.bandwidth = Math.max(0, bandwidth);
+        rebalance();
+    }
+
+    /**
+     * @param metered {@code true} if the current network is metered
+     */
+    public synchronized void setMetered(boolean metered) {
+        this.metered = metered;
+        rebalance();
+    }
+
+    /**
+     * Gives the highest weight to the given mission, the one started by the user
+     *
+     * @param mission the mission
+     */
+    public synchronized void setPriority(Object mission) {
+        priority = mission;
+        rebalance();
+    }
+
+    /**
+     * Adds a mission which is starting to download
+     *
+     * @param mission the mission
+     * @return the amount of connections that the mission can use
+     */
+    synchronized int register(Object mission) {
+        Share share = shares.get(mission);
+        if (share == null) {
+            share = new Share();
+            share.lastRefill = System.nanoTime();
+            shares.put(mission, share);
+            rebalance();
+        }
+        return share.connections;
+    }
+
+    /**
+     * Removes a mission which is not downloading anymore, its share is given to the others
+     *
+     * @param mission the mission
+     */
+    synchronized void unregister(Object mission) {
+        if (shares.remove(mission) != null) rebalance();
+    }
+
+    /**
+     * @param mission the mission
+     * @return the amount of connections that the mission can use, or {@code -1} if not registered
+     */
+    synchronized int getConnections(Object mission) {
+        Share share = shares.get(mission);
+        return share == null ? -1 : share.connections;
+    }
+
+    /**
+     * @param mission the mission
+     * @return the bytes per second that the mission can download, 0 if unlimited
+     */
+    synchronized long getRate(Object mission) {
+        Share share = shares.get(mission);
+        return share == null ? 0 : share.rate;
+    }
+
+    /**
+     * @return {@code true} if another mission can be started without exceeding the connection
+     * budget, every running mission uses at least one connection
+     */
+    public synchronized boolean hasFreeConnections() {
+        return shares.size() < getBudget();
+    }
+
+    /**
+     * Accounts the bytes downloaded by a mission, waits if the mission exceeds its bandwidth share
+     *
+     * @param mission the mission
+     * @param bytes   amount of bytes downloaded
+     * @throws InterruptedIOException if the calling thread was interrupted while waiting
+     */
+    void throttle(Object mission, int bytes) throws InterruptedIOException {
+        long wait;
+
+        synchronized (this) {
+            Share share = shares.get(mission);
+            if (share == null || share.rate < 1) return;
+
+            long now = System.nanoTime();
+            double burst = Math.max(share.rate * BURST_SECONDS, bytes);
+
+            share.tokens = Math.min(burst, share.tokens + (now - share.lastRefill) * share.rate / 1e9);
+            share.lastRefill = now;
+            share.tokens -= bytes;
+
+            if (share.tokens >= 0) return;
+
+            // the bytes are paid in order, the threads of this mission wait for the previous ones
+            wait = (long) (-share.tokens * 1000 / share.rate);
+        }
+
+        if (wait < 1) return;
+
+        try {
+            Thread.sleep(wait);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted while throttling");
+        }
+    }
+
+    private int getBudget() {
+        return metered ? Math.max(1, connections / 2) : connections;
+    }
+
+    private int getWeight(Object mission) {
+        if (mission == priority) return PRIORITY_WEIGHT;
+        return metered ? METERED_WEIGHT : NORMAL_WEIGHT;
+    }
+
+    private void rebalance() {
+        if (shares.isEmpty()) return;
+
+        int total = 0;
+        for (Map.Entry<Object, Share> entry : shares.entrySet()) {
+            entry.getValue().weight = getWeight(entry.getKey());
+            total += entry.getValue().weight;
+        }
+
+        int budget = getBudget();
+        for (Share share : shares.values()) {
+            share.connections = Math.max(1, budget * share.weight / total);
+            share.rate = bandwidth * share.weight / total;
+            if (bandwidth > 0 && share.rate < 1) share.rate = 1;
+        }
+    }
+}
@@ -4,6 +4,28 @@ import androidx.annotation.NonNull;
 
 public class FinishedMission extends Mission {
 
+    /**
+     * CRC32 of the file, computed while downloading. -1 if unknown
+     */
+    public long crc32 = -1;
+
+    /**
+     * Row id in the {@link us.shandian.giga.get.sqlite.FinishedMissionStore}, identifies the
+     * mission even if it is loaded again. -1 if not stored yet
+     */
+    public transient long id = -1;
+
+    /**
+     * Quality of the downloaded stream: the resolution of a video, the average bitrate of an
+     * audio. {@code null} if unknown
+     */
+    public String quality;
+
+    /**
+     * Whether the file is a video without audio
+     */
+    public boolean videoOnly;
+
     public FinishedMission() {
     }
 
@@ -13,6 +35,30 @@ public class FinishedMission extends Mission {
         timestamp = mission.timestamp;
         kind = mission.kind;
         storage = mission.storage;
+        crc32 = mission.getCrc32();
+
+        if (mission.recoveryInfo != null && mission.recoveryInfo.length > 0) {
+            MissionRecoveryInfo info = mission.recoveryInfo[0];
+            if (info.getKind() == 'v') {
+                quality = info.getDesired();
+                // a video-only stream is muxed with the second stream, an audio
+                videoOnly = info.isDesired2() && mission.recoveryInfo.length == 1;
+            } else if (info.getKind() == 'a') {
+                quality = String.valueOf(info.getDesiredBitrate());
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (id < 0 || !(obj instanceof FinishedMission)) return false;
+        return id == ((FinishedMission) obj).id;
+    }
+
+    @Override
+    public int hashCode() {
+        return id < 0 ? super.hashCode() : (int) (id ^ (id >>> 32));
     }
 
 }
@@ -0,0 +1,268 @@
+package us.shandian.giga.get;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import us.shandian.giga.get.BlockScheduler.Block;
+
+/**
+ * Spreads the requests of the download threads across the mirrors of the current resource, urls
+ * of other servers serving the same file.
+ * <p>
+ * Every mirror is rated by the throughput of the responses read from it. A mirror returning
+ * errors, or much slower than the best one, is demoted (not used for a while, longer every time
+ * it is demoted again), then probed again.
+ * <p>
+ * The mirrors are only used if the {@code ETag} or {@code Last-Modified} header of the url of the
+ * resource is known, every response of a mirror must match it. A mirror serving a different file
+ * (another length or validator) is rejected, and the blocks it wrote are downloaded again.
+ * <p>
+ * The first mirror is the url of the resource, {@code DownloadMission.urls[current]}, which can
+ * be replaced while recovering the mission. It is never dropped, if no other mirror can be used
+ * the mission continues with it
+ */
+class MirrorSelector {
+    /**
+     * A mirror is demoted if the best one is this times faster
+     */
+    static final int SLOW_FACTOR = 4;
+
+    /**
+     * Time, in milliseconds, a mirror is not used after being demoted the first time
+     */
+    static final long DEMOTION_TIME = 30000;
+    static final long MAXIMUM_DEMOTION_TIME = 5 * 60000;
+
+    /**
+     * Responses shorter are not rated, the time is dominated by the latency
+     */
+    static final long MINIMUM_SAMPLE = 256 * 1024;
+
+    private static final float SMOOTHING = 0.3f;
+
+    static class Mirror {
+        /**
+         * The url, {@code null} for the url of the resource
+         */
+        @Nullable
+        final String url;
+
+        int active;
+        float throughput = -1;// bytes per second, -1 if not rated yet
+        long demotedUntil;
+        long demotionTime;
+        boolean dropped;
+        boolean rejected;
+
+        /**
+         * The blocks released with bytes written from this mirror
+         */
+        final ArrayList<Block> written = new ArrayList<>();
+
+        Mirror(@Nullable String url) {
+            this.url = url;
+        }
+
+        boolean isPrimary() {
+            return url == null;
+        }
+    }
+
+    private final Mirror[] mirrors;
+    private final long length;
+
+    @Nullable
+    private final String validator;
+
+    /**
+     * @param mirrors   urls of other servers serving the resource, can be {@code null}
+     * @param length    length of the resource
+     * @param validator the {@code ETag} or {@code Last-Modified} header of the url of the resource,
+     *                  see {@link MissionRecoveryInfo#getValidateCondition()}. If {@code null}, the
+     *                  mirrors are not used
+     */
+    MirrorSelector(@Nullable String[] mirrors, long length, @Nullable String validator) {
+        int count = mirrors == null || validator == null ? 0 : mirrors.length;
+
+        this.length = length;
+        this.validator = validator;
+        this.mirrors = new Mirror[count + 1];
+        this.mirrors[0] = new Mirror(null);
+
+        for (int i = 0; i < count; i++) this.mirrors[i + 1] = new Mirror(mirrors[i]);
+    }
+
+    /**
+     * Chooses the mirror of the next request, the mirrors not rated yet are tried first, then the
+     * mirror with the best throughput per request in flight
+     *
+     * @param now current time in milliseconds
+     * @return the mirror, must be released with {@link #release(Mirror, long, long, long)},
+     * {@link #fail(Mirror, long)}, {@link #drop(Mirror)} or {@link #reject(Mirror)}
+     */
+    synchronized Mirror acquire(long now) {
+        Mirror best = null;
+        float bestScore = -1;
+
+        for (Mirror mirror : mirrors) {
+            if (mirror.dropped || mirror.demotedUntil > now) continue;
+
+            if (mirror.throughput < 0) {
+                // probe it, one request at a time
+                if (mirror.active > 0) continue;
+                best = mirror;
+                break;
+            }
+
+            float score = mirror.throughput / (mirror.active + 1);
+            if (score > bestScore) {
+                best = mirror;
+                bestScore = score;
+            }
+        }
+
+        if (best == null) best = mirrors[0];// all demoted
+
+        best.active++;
+        return best;
+    }
+
+    /**
+     * Rates the mirror after reading a response
+     *
+     * @param mirror the mirror of the request
+     * @param bytes  amount of bytes read from the response
+     * @param nanos  time since the request was made until the last byte was read
+     * @param now    current time in milliseconds
+     */
+    synchronized void release(Mirror mirror, long bytes, long nanos, long now) {
+        mirror.active--;
+
+        if (bytes < MINIMUM_SAMPLE || nanos < 1) return;
+
+        float sample = bytes / (nanos / 1e9f);
+        if (mirror.throughput < 0)
+            mirror.throughput = sample;
+        else
+            mirror.throughput += (sample - mirror.throughput) * SMOOTHING;
+
+        if (mirror.throughput * SLOW_FACTOR < getBestThroughput(now)) {
+            demote(mirror, now);
+        } else {
+            mirror.demotionTime = 0;
+        }
+    }
+
+    /**
+     * Demotes the mirror after a failed request, unless is the only one which can be used
+     *
+     * @param mirror the mirror of the request
+     * @param now    current time in milliseconds
+     * @return {@code true} if the mirror was demoted
+     */
+    synchronized boolean fail(Mirror mirror, long now) {
+        mirror.active--;
+
+        if (getUsableCount(now) < 2) return false;
+
+        demote(mirror, now);
+        return true;
+    }
+
+    /**
+     * Stops using a mirror, its url has expired. The url of the resource is never dropped
+     *
+     * @param mirror the mirror of the request
+     */
+    synchronized void drop(Mirror mirror) {
+        mirror.active--;
+        if (!mirror.isPrimary()) mirror.dropped = true;
+    }
+
+    /**
+     * Stops using a mirror serving another file, see {@link #verify(Mirror, long, String, String)}
+     *
+     * @param mirror the mirror of the request, not the url of the resource
+     * @return the blocks written from the mirror, must be downloaded again
+     */
+    @NonNull
+    synchronized List<Block> reject(Mirror mirror) {
+        mirror.active--;
+        mirror.dropped = true;
+        mirror.rejected = true;
+
+        List<Block> written = new ArrayList<>(mirror.written);
+        mirror.written.clear();
+        return written;
+    }
+
+    /**
+     * Remembers the mirrors which wrote a released block, in case any of them is rejected later
+     *
+     * @param mirrors the mirrors, other than the url of the resource, which wrote the block
+     * @param block   the block
+     * @return {@code false} if any mirror was already rejected and the block must be downloaded
+     * again
+     */
+    synchronized boolean record(List<Mirror> mirrors, Block block) {
+        for (Mirror mirror : mirrors) if (mirror.rejected) return false;
+        for (Mirror mirror : mirrors) mirror.written.add(block);
+        return true;
+    }
+
+    /**
+     * Checks if a response is part of the same file served by the url of the resource, the
+     * response must have the same length and the same {@code ETag} or {@code Last-Modified}
+     *
+     * @param mirror       the mirror of the request
+     * @param total        total length of the file, from the {@code Content-Range} header, or -1
+     * @param entityTag    the {@code ETag} header
+     * @param lastModified the {@code Last-Modified} header
+     * @return {@code true} if the file is the same, otherwise, {@code false} and the mirror must
+     * be rejected. Always {@code true} for the url of the resource
+     */
+    synchronized boolean verify(Mirror mirror, long total, @Nullable String entityTag,
+                                @Nullable String lastModified) {
+        if (mirror.isPrimary()) return true;
+
+        if (total >= 0 && total != length) return false;
+
+        // a mirror which cannot be matched is not trusted
+        return validator != null && (validator.equals(entityTag) || validator.equals(lastModified));
+    }
+
+    /**
+     * @return amount of mirrors not dropped, including the url of the resource
+     */
+    synchronized int getCount() {
+        int count = 0;
+        for (Mirror mirror : mirrors) if (!mirror.dropped) count++;
+        return count;
+    }
+
+    private int getUsableCount(long now) {
+        int count = 0;
+        for (Mirror mirror : mirrors) if (!mirror.dropped && mirror.demotedUntil <= now) count++;
+        return count;
+    }
+
+    private float getBestThroughput(long now) {
+        float best = -1;
+        for (Mirror mirror : mirrors) {
+            if (mirror.dropped || mirror.demotedUntil > now) continue;
+            best = Math.max(best, mirror.throughput);
+        }
+        return best;
+    }
+
+    private void demote(Mirror mirror, long now) {
+        mirror.demotionTime = mirror.demotionTime == 0 ? DEMOTION_TIME : Math.min(mirror.demotionTime * 2, MAXIMUM_DEMOTION_TIME);
+        mirror.demotedUntil = now + mirror.demotionTime;
+
+        // rated again when probed
+        mirror.throughput = -1;
+    }
+}
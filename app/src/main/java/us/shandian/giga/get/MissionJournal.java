@@ -0,0 +1,335 @@
+package us.shandian.giga.get;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.zip.CRC32;
+
+import us.shandian.giga.util.Utility;
+
+/**
+ * Append-only journal where the state of a pending {@link DownloadMission} is saved.
+ * <p>
+ * The journal starts with a snapshot of the whole mission, followed by progress records. A
+ * progress record holds only the download blocks changed since the previous record, so saving the
+ * progress is a small append instead of rewriting the whole mission. Once the progress records
+ * outgrow the snapshot, the journal is compacted into a new snapshot.
+ * <p>
+ * Layout: {@code MAGIC VERSION} followed by records {@code TYPE LENGTH PAYLOAD CRC32}. A truncated
+ * or corrupt record (the app was killed while appending) ends the journal, all previous records
+ * are still valid. Files written by older versions (plain Java serialization) are still readable.
+ * <p>
+ * If the journal ends with progress records, the app was killed while downloading. In that case
+ * the downloaded blocks are verified with their checksums before resuming, see
+ * {@link DownloadMission#verifyBlocks()}.
+ */
+public class MissionJournal {
+    private static final String TAG = "MissionJournal";
+
+    /**
+     * Suffix of the file written while compacting
+     */
+    public static final String TEMPORAL_SUFFIX = ".new";
+
+    static final int MAGIC = 0x4E504A4C;// "NPJL"
+    static final int VERSION = 2;// version 2 adds the checksums to the progress records
+
+    private static final byte RECORD_SNAPSHOT = 1;
+    private static final byte RECORD_PROGRESS = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_OVERHEAD = 9;
+
+    /**
+     * Minimum size of the progress records before compacting, avoids compacting too often when the
+     * snapshot is very small
+     */
+    private static final long MINIMUM_COMPACTION_SIZE = 16 * 1024;
+
+    private final File file;
+
+    /**
+     * Download blocks saved in the journal, {@code null} if the journal must be compacted
+     */
+    private int[] savedBlocks;
+    private int[] savedChecksums;
+    private int savedCurrent;
+    private long snapshotSize;
+    private long progressSize;
+
+    MissionJournal(@NonNull File file) {
+        this.file = file;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Saves the state of the mission
+     *
+     * @param mission      the mission to save
+     * @param progressOnly {@code true} if only the download progress has changed since the last
+     *                     time, a progress record is appended if possible
+     * @throws IOException if an I/O error occurs
+     */
+    void write(@NonNull DownloadMission mission, boolean progressOnly) throws IOException {
+        int[] blocks = mission.blocks;
+        BlockChecksums checksums = mission.checksums;
+
+        if (progressOnly && savedBlocks != null && blocks != null && blocks.length == savedBlocks.length
+                && (checksums == null ? savedChecksums == null : savedChecksums != null && checksums.getCount() == savedChecksums.length)
+                && mission.current == savedCurrent && progressSize < Math.max(snapshotSize, MINIMUM_COMPACTION_SIZE)) {
+            appendProgress(mission, blocks, checksums);
+        } else {
+            compact(mission, blocks, checksums);
+        }
+    }
+
+    /**
+     * Rewrites the journal with a snapshot of the whole mission
+     */
+    private void compact(DownloadMission mission, int[] blocks, BlockChecksums checksums) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+        DataOutputStream output = new DataOutputStream(buffer);
+
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+
+        int start = buffer.size();
+        output.writeByte(RECORD_SNAPSHOT);
+        output.writeInt(0);// reserve space for the payload length
+
+        try (ObjectOutputStream objectOutput = new ObjectOutputStream(buffer)) {
+            objectOutput.writeObject(mission);
+        }
+
+        byte[] journal = finishRecord(buffer, start);
+
+        // write in a new file and replace the journal, keeps the previous one if the app is killed
+        File temp = new File(file.getParentFile(), file.getName() + TEMPORAL_SUFFIX);
+        try (FileOutputStream stream = new FileOutputStream(temp)) {
+            stream.write(journal);
+            stream.getFD().sync();
+        }
+
+        if (!temp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw new IOException("cannot replace " + file.getName());
+        }
+
+        savedBlocks = blocks == null ? null : blocks.clone();
+        savedChecksums = null;
+        savedCurrent = mission.current;
+
+        if (checksums != null) {
+            savedChecksums = new int[checksums.getCount()];
+            for (int i = 0; i < savedChecksums.length; i++) savedChecksums[i] = checksums.get(i);
+        }
+        snapshotSize = journal.length;
+        progressSize = 0;
+    }
+
+    private void appendProgress(DownloadMission mission, int[] blocks, BlockChecksums checksums) throws IOException {
+        // read the checksums once, the download threads are not stopped
+        int[] sums = null;
+        if (checksums != null) {
+            sums = new int[checksums.getCount()];
+            for (int i = 0; i < sums.length; i++) sums[i] = checksums.get(i);
+        }
+
+        int changes = 0;
+        for (int i = 0; i < blocks.length; i++) {
+            if (blocks[i] != savedBlocks[i] || (sums != null && sums[i] != savedChecksums[i])) changes++;
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(RECORD_OVERHEAD + 45 + changes * 12);
+        DataOutputStream output = new DataOutputStream(buffer);
+
+        output.writeByte(RECORD_PROGRESS);
+        output.writeInt(0);// reserve space for the payload length
+        output.writeInt(mission.current);
+        output.writeLong(mission.length);
+        output.writeLong(mission.done);
+        output.writeLong(mission.fallbackResumeOffset);
+        output.writeInt(mission.fallbackChecksum);
+        output.writeLong(mission.offsets[mission.current]);
+        output.writeBoolean(sums != null);
+        output.writeInt(changes);
+
+        for (int i = 0; i < blocks.length; i++) {
+            int value = blocks[i];
+            if (value == savedBlocks[i] && (sums == null || sums[i] == savedChecksums[i])) continue;
+
+            output.writeInt(i);
+            output.writeInt(value);
+            savedBlocks[i] = value;
+
+            if (sums != null) {
+                output.writeInt(sums[i]);
+                savedChecksums[i] = sums[i];
+            }
+        }
+
+        byte[] record = finishRecord(buffer, 0);
+
+        try (FileOutputStream stream = new FileOutputStream(file, true)) {
+            stream.write(record);
+        }
+
+        progressSize += record.length;
+    }
+
+    /**
+     * Fills the payload length and appends the checksum of the record
+     *
+     * @param buffer the buffer holding the record, the checksum is not included
+     * @param start  offset of the record in the buffer
+     * @return the buffer contents, including the checksum
+     */
+    private static byte[] finishRecord(ByteArrayOutputStream buffer, int start) {
+        byte[] record = buffer.toByteArray();
+        int length = record.length - start - 5;
+
+        writeInt(record, start + 1, length);
+
+        CRC32 crc = new CRC32();
+        crc.update(record, start, record.length - start);
+
+        byte[] result = new byte[record.length + 4];
+        System.arraycopy(record, 0, result, 0, record.length);
+        writeInt(result, record.length, (int) crc.getValue());
+
+        return result;
+    }
+
+    /**
+     * Reads the mission saved in the journal
+     *
+     * @param file the journal
+     * @return the mission, or {@code null} if the file is not readable
+     */
+    @Nullable
+    public static DownloadMission read(@NonNull File file) {
+        byte[] journal;
+
+        try (FileInputStream stream = new FileInputStream(file)) {
+            journal = new byte[(int) stream.getChannel().size()];
+            int offset = 0;
+            while (offset < journal.length) {
+                int read = stream.read(journal, offset, journal.length - offset);
+                if (read == -1) throw new EOFException();
+                offset += read;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read " + file.getName(), e);
+            return null;
+        }
+
+        try {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(journal));
+
+            if (journal.length < HEADER_SIZE || input.readInt() != MAGIC) {
+                // saved by an older version
+                return Utility.readFromFile(file);
+            }
+
+            int version = input.readInt();
+            if (version > VERSION) {
+                Log.e(TAG, "Unsupported journal version " + version + " in " + file.getName());
+                return null;
+            }
+
+            DownloadMission mission = null;
+            boolean progress = false;
+            int offset = HEADER_SIZE;
+
+            while (offset + RECORD_OVERHEAD <= journal.length) {
+                byte type = journal[offset];
+                int length = readInt(journal, offset + 1);
+                int end = offset + 5 + length;
+
+                if (length < 0 || end + 4 > journal.length) break;// truncated record
+
+                CRC32 crc = new CRC32();
+                crc.update(journal, offset, end - offset);
+                if ((int) crc.getValue() != readInt(journal, end)) break;// corrupt record
+
+                if (type == RECORD_SNAPSHOT) {
+                    try (ObjectInputStream objectInput = new ObjectInputStream(
+                            new ByteArrayInputStream(journal, offset + 5, length))) {
+                        mission = (DownloadMission) objectInput.readObject();
+                    }
+                    progress = false;
+                } else if (type == RECORD_PROGRESS && mission != null) {
+                    applyProgress(mission, new DataInputStream(
+                            new ByteArrayInputStream(journal, offset + 5, length)), version);
+                    progress = true;
+                }
+
+                offset = end + 4;
+            }
+
+            if (mission != null) mission.verifyPending = progress;
+            return mission;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to read the mission in " + file.getName(), e);
+            return null;
+        }
+    }
+
+    private static void applyProgress(DownloadMission mission, DataInputStream input, int version) throws IOException {
+        int current = input.readInt();
+        if (current < 0 || current >= mission.offsets.length) throw new IOException("invalid progress record");
+
+        mission.current = current;
+        mission.length = input.readLong();
+        mission.done = input.readLong();
+        mission.fallbackResumeOffset = input.readLong();
+        if (version >= 2) mission.fallbackChecksum = input.readInt();
+        mission.offsets[current] = input.readLong();
+
+        boolean hasChecksums = version >= 2 && input.readBoolean();
+        int changes = input.readInt();
+        int[] blocks = mission.blocks;
+        BlockChecksums checksums = mission.checksums;
+
+        for (int i = 0; i < changes; i++) {
+            int index = input.readInt();
+            int value = input.readInt();
+
+            if (blocks == null || index < 0 || index >= blocks.length) throw new IOException("invalid block index");
+            blocks[index] = value;
+
+            if (!hasChecksums) continue;
+
+            int checksum = input.readInt();
+            if (checksums != null && checksums.getCount() == blocks.length) checksums.set(index, checksum);
+        }
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) << 24 | (buffer[offset + 1] & 0xFF) << 16
+                | (buffer[offset + 2] & 0xFF) << 8 | (buffer[offset + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,222 @@
+package us.shandian.giga.get;
+
+import androidx.annotation.NonNull;
+
+import org.schabi.newpipe.DownloaderImpl;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.Headers;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * {@link HttpURLConnection} backed by an {@link OkHttpClient} shared by all download missions.
+ * <p>
+ * The client is derived from the one used by {@link DownloaderImpl}, so the TLS setup is the same,
+ * but with a bigger pool of persistent connections, enough to keep alive the connections of every
+ * download thread. A connection is returned to the pool once the response body is fully read.
+ */
+class PooledURLConnection extends HttpURLConnection {
+    private static final int CONNECT_TIMEOUT = 30000;
+    private static final int READ_TIMEOUT = 30000;
+    private static final long KEEP_ALIVE = 5;// minutes
+
+    private static OkHttpClient client;
+
+    private Call call;
+    private Response response;
+
+    private PooledURLConnection(URL url) {
+        super(url);
+        setConnectTimeout(CONNECT_TIMEOUT);
+        setReadTimeout(READ_TIMEOUT);
+    }
+
+    static PooledURLConnection open(String url) throws IOException {
+        return new PooledURLConnection(new URL(url));
+    }
+
+    private static synchronized OkHttpClient getClient() {
+        if (client != null) return client;
+
+        DownloaderImpl downloader = DownloaderImpl.getInstance();
+        OkHttpClient.Builder builder = downloader == null ? new OkHttpClient.Builder() : downloader.getClient().newBuilder();
+
+        client = builder
+                .connectionPool(new ConnectionPool(ThroughputController.MAXIMUM_WORKERS, KEEP_ALIVE, TimeUnit.MINUTES))
+                .connectTimeout(CONNECT_TIMEOUT, TimeUnit.MILLISECONDS)
+                .readTimeout(READ_TIMEOUT, TimeUnit.MILLISECONDS)
+                .followRedirects(true)
+                .followSslRedirects(true)
+                .build();
+
+        return client;
+    }
+
+    @NonNull
+    private Response execute() throws IOException {
+        if (response != null) return response;
+
+        Request.Builder request = new Request.Builder()
+                .url(url)
+                .method(method, null);
+
+        for (Map.Entry<String, List<String>> header : getRequestProperties().entrySet()) {
+            if (header.getKey() == null) continue;
+            for (String value : header.getValue()) request.addHeader(header.getKey(), value);
+        }
+
+        OkHttpClient client = getClient();
+
+        if (getConnectTimeout() != CONNECT_TIMEOUT || getReadTimeout() != READ_TIMEOUT || !getInstanceFollowRedirects()) {
+            client = client.newBuilder()
+                    .connectTimeout(getConnectTimeout(), TimeUnit.MILLISECONDS)
+                    .readTimeout(getReadTimeout(), TimeUnit.MILLISECONDS)
+                    .followRedirects(getInstanceFollowRedirects())
+                    .build();
+        }
+
+        call = client.newCall(request.build());
+        response = call.execute();
+        connected = true;
+
+        return response;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        execute();
+    }
+
+    @Override
+    public void disconnect() {
+        if (call != null) call.cancel();
+        if (response != null) response.close();
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return false;
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        return execute().code();
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        return execute().message();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return getBody().byteStream();
+    }
+
+    /**
+     * Gets the response body as a channel, the bytes can be read directly into a
+     * {@link java.nio.ByteBuffer} without the intermediate array used by {@link #getInputStream()}
+     *
+     * @return the response body
+     * @throws IOException if the request fails or the server responded with an error
+     */
+    ReadableByteChannel getChannel() throws IOException {
+        return getBody().source();
+    }
+
+    @NonNull
+    private ResponseBody getBody() throws IOException {
+        Response response = execute();
+
+        if (response.code() >= 400) throw new FileNotFoundException(url.toString());
+
+        ResponseBody body = response.body();
+        if (body == null) throw new IOException("the response has no body");
+
+        return body;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        if (response == null || response.code() < 400 || response.body() == null) return null;
+        return response.body().byteStream();
+    }
+
+    @Override
+    public String getRequestProperty(String key) {
+        // the request properties can be read after connecting
+        if (response != null) return response.request().header(key);
+        return super.getRequestProperty(key);
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        try {
+            return execute().header(name);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        try {
+            Headers headers = execute().headers();
+            return n < headers.size() ? headers.value(n) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        try {
+            Headers headers = execute().headers();
+            return n < headers.size() ? headers.name(n) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        try {
+            return execute().headers().toMultimap();
+        } catch (IOException e) {
+            return Collections.emptyMap();
+        }
+    }
+
+    @Override
+    public int getContentLength() {
+        long length = getContentLengthLong();
+        return length > Integer.MAX_VALUE ? -1 : (int) length;
+    }
+
+    @Override
+    public long getContentLengthLong() {
+        String value = getHeaderField("Content-Length");
+        if (value == null) return -1;
+
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package us.shandian.giga.get;
+
+import android.util.Log;
+
+import static org.schabi.newpipe.BuildConfig.DEBUG;
+import static us.shandian.giga.get.DownloadMission.ERROR_HTTP_FORBIDDEN;
+
+/**
+ * Coordinates the recovery of expired urls while downloading in multiple threads.
+ * <p>
+ * The first download thread which gets a HTTP 403 starts a {@link DownloadMissionRecover}, the
+ * streams are extracted again once per mission (not once per thread), the other threads getting
+ * the same error wait meanwhile. Once the urls are resolved, every thread continues with the block
+ * it was downloading, instead of stopping all threads and starting the mission again.
+ * <p>
+ * The urls are versioned by generations, a thread which made the request with an url older than
+ * the current one retries immediately with the new url.
+ */
+class RecoveryCoordinator {
+    private static final String TAG = "RecoveryCoordinator";
+
+    private final DownloadMission mMission;
+
+    private int mGeneration;
+    private boolean mResumable;
+    private DownloadMissionRecover mResolver;
+
+    RecoveryCoordinator(DownloadMission mission) {
+        mMission = mission;
+    }
+
+    /**
+     * @return the current generation of the urls, must be read before making a request
+     */
+    synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Waits until the expired urls are resolved again
+     *
+     * @param worker     index of the calling thread
+     * @param generation the generation of the url used in the failed request
+     * @return {@code true} to continue with the same block, otherwise, {@code false} if the
+     * mission was stopped, failed or the resource changed (the mission is started again)
+     */
+    synchronized boolean await(int worker, int generation) {
+        if (generation == mGeneration && mResolver == null) {
+            if (DEBUG) Log.d(TAG, worker + ":url expired, resolving again");
+
+            mResolver = new DownloadMissionRecover(mMission, ERROR_HTTP_FORBIDDEN, this);
+            mResolver.start();
+        }
+
+        try {
+            while (generation == mGeneration) wait();
+        } catch (InterruptedException e) {
+            return false;
+        }
+
+        return mResumable;
+    }
+
+    /**
+     * Notifies the result of the recovery and wakes up the waiting threads
+     *
+     * @param resolver  the recovery procedure
+     * @param resumable {@code true} if the download threads can continue with the new urls
+     */
+    synchronized void notifyResolved(DownloadMissionRecover resolver, boolean resumable) {
+        if (resolver != mResolver) return;// already notified or canceled
+
+        mResolver = null;
+        mResumable = resumable;
+        mGeneration++;
+        notifyAll();
+    }
+
+    /**
+     * @return {@code true} if the urls are being resolved again
+     */
+    synchronized boolean isResolving() {
+        return mResolver != null && mResolver.isAlive();
+    }
+
+    /**
+     * Stops the recovery (if running), the waiting threads exit
+     */
+    void cancel() {
+        DownloadMissionRecover resolver;
+
+        synchronized (this) {
+            resolver = mResolver;
+            mResolver = null;
+            mResumable = false;
+            mGeneration++;
+            notifyAll();
+        }
+
+        if (resolver != null && resolver != Thread.currentThread()) resolver.interrupt();
+    }
+}
@@ -0,0 +1,158 @@
+package us.shandian.giga.get;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import us.shandian.giga.io.ChunkFileInputStream;
+
+import static org.schabi.newpipe.BuildConfig.DEBUG;
+
+/**
+ * Runs the post-processing of a mission while its last resource is still being downloaded.
+ * <p>
+ * The algorithm reads the file through {@link ChunkFileInputStream}, reads of bytes not
+ * downloaded yet are blocked until the download threads complete the blocks holding them. Only the
+ * contiguous downloaded prefix of the resource is readable, the blocks after a gap are not.
+ * <p>
+ * The output is written to a temporal file, the mission file is only overwritten once the
+ * download finishes. If cancelled or failed, the post-processing runs after the download.
+ */
+class StreamingPostprocessing implements ChunkFileInputStream.Availability {
+    private static final String TAG = "StreamingPostprocessing";
+
+    private final DownloadMission mission;
+    private final long start;
+    private final long end;
+
+    private int[] blocks;
+    private int cursor;
+    private long available;
+
+    private boolean complete;
+    private boolean cancelled;
+    private Exception failure;
+    private Thread thread;
+
+    /**
+     * @param mission the mission, must be downloading the last resource
+     */
+    StreamingPostprocessing(@NonNull DownloadMission mission) {
+        this.mission = mission;
+        this.start = mission.offsets[mission.current];
+        this.end = start + mission.length;
+        this.available = start;
+    }
+
+    /**
+     * Starts the post-processing thread
+     */
+    void start() {
+        thread = new Thread(this::run);
+        if (DEBUG) {
+            thread.setName("[" + TAG + "]  ps = " + mission.psAlgorithm + "  filename = " + mission.storage.getName());
+        }
+        thread.start();
+    }
+
+    private void run() {
+        Exception error = null;
+
+        try {
+            mission.psAlgorithm.run(mission, this);
+        } catch (Exception err) {
+            error = err;
+        }
+
+        boolean report;
+        synchronized (this) {
+            failure = error;
+            report = error != null && !complete && !cancelled;
+        }
+
+        // once the download finished, the failure is reported by finish()
+        if (report) {
+            Log.e(TAG, "Post-processing failed while downloading. " + mission.psAlgorithm, error);
+            mission.notifyStreamingFailed(error);
+        }
+    }
+
+    /**
+     * Wakes the post-processing thread if more bytes were downloaded, must be called after a
+     * download block is released
+     */
+    void update() {
+        int[] blocks = mission.blocks;
+        if (blocks == null) return;
+
+        synchronized (this) {
+            if (blocks != this.blocks) {
+                // the resource is being downloaded again, the already read bytes are the same
+                this.blocks = blocks;
+                cursor = 0;
+            }
+
+            int i = cursor;
+            while (i < blocks.length && blocks[i] == -1) i++;
+            if (i == cursor) return;
+
+            cursor = i;
+            available = Math.max(available, Math.min(start + (long) i * DownloadMission.BLOCK_SIZE, end));
+            notifyAll();
+        }
+    }
+
+    @Override
+    public synchronized void await(long end) throws IOException {
+        while (end > available && !complete) {
+            if (cancelled) break;
+
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("interrupted while waiting for the download");
+            }
+        }
+
+        if (cancelled) throw new InterruptedIOException("post-processing cancelled");
+    }
+
+    /**
+     * Notifies that the download is finished and waits for the post-processing
+     *
+     * @throws Exception the failure of the post-processing algorithm
+     */
+    void finish() throws Exception {
+        synchronized (this) {
+            complete = true;
+            notifyAll();
+        }
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the post-processing");
+        }
+
+        synchronized (this) {
+            if (failure != null) throw failure;
+        }
+    }
+
+    /**
+     * Stops the post-processing, the output written by the algorithm is discarded
+     */
+    void cancel() {
+        synchronized (this) {
+            cancelled = true;
+            notifyAll();
+        }
+
+        if (thread != null) thread.interrupt();
+    }
+}
@@ -0,0 +1,294 @@
+package us.shandian.giga.get;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Adjusts the amount of download threads of a {@link DownloadMission} while is running.
+ * <p>
+ * The throughput of every thread is sampled periodically. A new thread is added while the
+ * aggregate throughput keeps growing, once it stops growing (the server or the link is saturated)
+ * the slowest thread is retired. After reaching a plateau, a new thread is added from time to
+ * time to probe if the conditions have changed.
+ */
+public class ThroughputController {
+    /**
+     * Maximum amount of download threads, same as the maximum allowed in the download dialog
+     */
+    static final int MAXIMUM_WORKERS = 32;
+
+    /**
+     * Time between samples in milliseconds
+     */
+    static final long SAMPLE_INTERVAL = 2000;
+
+    /**
+     * Minimum throughput gain, after adding a thread, to keep adding threads
+     */
+    static final float GAIN_THRESHOLD = 0.08f;
+
+    /**
+     * Amount of samples to wait at the plateau before probing with a new thread
+     */
+    static final int PROBE_INTERVAL = 15;
+
+    public enum Decision {NONE, ADD, RETIRE}
+
+    private final AtomicLongArray bytes;
+    private final long[] lastBytes;
+    private final boolean[] active;
+    private volatile int maximum;
+
+    private volatile long nextSample;
+    private volatile int retiring = -1;
+    private long lastSample;
+    private int activeCount;
+
+    private Decision lastDecision = Decision.NONE;
+    private boolean plateau;
+    private int probeCountdown;
+    private long baseline;
+
+    private int added;
+    private int retired;
+    private long lastThroughput;
+    private long peakThroughput;
+    private int peakWorkers;
+
+    /**
+     * @param capacity maximum amount of threads which can be started during the download
+     * @param maximum  maximum amount of threads running at the same time
+     */
+    ThroughputController(int capacity, int maximum) {
+        this.bytes = new AtomicLongArray(capacity);
+        this.lastBytes = new long[capacity];
+        this.active = new boolean[capacity];
+        this.maximum = Math.min(maximum, capacity);
+    }
+
+    /**
+     * Accounts bytes downloaded by a thread
+     *
+     * @param worker index of the thread
+     * @param amount amount of bytes, negative if the bytes were discarded
+     */
+    void record(int worker, long amount) {
+        bytes.addAndGet(worker, amount);
+    }
+
+    /**
+     * Changes the maximum amount of threads, the share of the mission given by the
+     * {@link DownloadScheduler}. If the amount of running threads is greater, the slowest ones are
+     * retired, one per sample
+     *
+     * @param maximum maximum amount of threads running at the same time
+     */
+    void setMaximum(int maximum) {
+        this.maximum = Math.max(1, Math.min(maximum, lastBytes.length));
+    }
+
+    /**
+     * Registers a new download thread
+     *
+     * @param worker index of the thread
+     * @param now    current time in milliseconds
+     */
+    synchronized void onWorkerStarted(int worker, long now) {
+        if (active[worker]) return;
+
+        active[worker] = true;
+        activeCount++;
+
+        if (lastSample == 0) {
+            lastSample = now;
+            nextSample = now + SAMPLE_INTERVAL;
+        }
+    }
+
+    /**
+     * Unregisters a download thread, because was retired or there no more blocks left
+     *
+     * @param worker index of the thread
+     */
+    synchronized void onWorkerExited(int worker) {
+        if (!active[worker]) return;
+
+        active[worker] = false;
+        activeCount--;
+
+        if (retiring == worker) retiring = -1;
+    }
+
+    /**
+     * Indicates if the thread was chosen to be retired
+     *
+     * @param worker index of the thread
+     * @return {@code true} if the thread must exit after releasing the current block
+     */
+    boolean isRetiring(int worker) {
+        return retiring == worker;
+    }
+
+    /**
+     * @param now current time in milliseconds
+     * @return {@code true} if {@link #sample(long, int)} should be called
+     */
+    boolean isSampleDue(long now) {
+        return nextSample != 0 && now >= nextSample;
+    }
+
+    /**
+     * Takes a sample of the throughput and decides if the amount of threads should be changed.
+     * If the decision is {@link Decision#RETIRE}, the slowest thread will be flagged, see
+     * {@link #isRetiring(int)}.
+     *
+     * @param now   current time in milliseconds
+     * @param limit maximum amount of threads that can be useful, usually the amount of pending
+     *              blocks
+     * @return the decision
+     */
+    synchronized Decision sample(long now, int limit) {
+        if (!isSampleDue(now)) return Decision.NONE;
+
+        long elapsed = Math.max(now - lastSample, 1);
+        long total = 0;
+        long slowest = Long.MAX_VALUE;
+        int slowestWorker = -1;
+
+        for (int i = 0; i < lastBytes.length; i++) {
+            long current = bytes.get(i);
+            long delta = current - lastBytes[i];
+            lastBytes[i] = current;
+            total += delta;
+
+            if (active[i] && delta < slowest) {
+                slowest = delta;
+                slowestWorker = i;
+            }
+        }
+
+        lastSample = now;
+        nextSample = now + SAMPLE_INTERVAL;
+
+        long throughput = total * 1000 / elapsed;
+        lastThroughput = throughput;
+        if (throughput > peakThroughput) {
+            peakThroughput = throughput;
+            peakWorkers = activeCount;
+        }
+
+        if (retiring != -1) return Decision.NONE;// still waiting for the previous decision
+
+        int maximum = Math.min(this.maximum, limit);
+        Decision decision = Decision.NONE;
+
+        switch (lastDecision) {
+            case ADD:
+                if (throughput >= baseline + baseline * GAIN_THRESHOLD) {
+                    // the new thread was worth it, try again
+                    decision = Decision.ADD;
+                } else {
+                    // no gain (or worse), revert
+                    plateau = true;
+                    probeCountdown = PROBE_INTERVAL;
+                    decision = Decision.RETIRE;
+                }
+                break;
+            case RETIRE:
+                // let the remaining threads settle down
+                break;
+            default:
+                if (!plateau) {
+                    decision = Decision.ADD;
+                } else if (throughput < baseline - baseline * GAIN_THRESHOLD) {
+                    // the conditions have changed, look for a new plateau
+                    plateau = false;
+                    decision = Decision.ADD;
+                } else if (--probeCountdown <= 0) {
+                    probeCountdown = PROBE_INTERVAL;
+                    decision = Decision.ADD;
+                }
+                break;
+        }
+
+        if (activeCount > this.maximum) {
+            // over the share of the mission, see DownloadScheduler
+            decision = Decision.RETIRE;
+        } else if (decision == Decision.ADD && activeCount >= maximum) {
+            decision = activeCount > maximum ? Decision.RETIRE : Decision.NONE;
+        }
+        if (decision == Decision.RETIRE && activeCount < 2) {
+            decision = Decision.NONE;
+        }
+
+        switch (decision) {
+            case ADD:
+                added++;
+                break;
+            case RETIRE:
+                retired++;
+                retiring = slowestWorker;
+                break;
+        }
+
+        if (decision != Decision.NONE || lastDecision == Decision.RETIRE) baseline = throughput;
+        lastDecision = decision;
+
+        return decision;
+    }
+
+    /**
+     * @return amount of threads running
+     */
+    public synchronized int getActiveWorkers() {
+        return activeCount;
+    }
+
+    /**
+     * @return amount of threads added by this controller
+     */
+    public synchronized int getAddedWorkers() {
+        return added;
+    }
+
+    /**
+     * @return amount of threads retired by this controller
+     */
+    public synchronized int getRetiredWorkers() {
+        return retired;
+    }
+
+    /**
+     * @return the aggregate throughput, in bytes per second, of the last sample
+     */
+    public synchronized long getLastThroughput() {
+        return lastThroughput;
+    }
+
+    /**
+     * @return the highest aggregate throughput, in bytes per second, sampled
+     */
+    public synchronized long getPeakThroughput() {
+        return peakThroughput;
+    }
+
+    /**
+     * @return the amount of threads running when the highest throughput was sampled
+     */
+    public synchronized int getPeakWorkers() {
+        return peakWorkers;
+    }
+
+    /**
+     * @return {@code true} if adding more threads does not increase the throughput
+     */
+    public synchronized boolean isAtPlateau() {
+        return plateau;
+    }
+
+    /**
+     * @return the last decision taken
+     */
+    public synchronized Decision getLastDecision() {
+        return lastDecision;
+    }
+}
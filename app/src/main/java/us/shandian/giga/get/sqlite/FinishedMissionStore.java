@@ -6,12 +6,17 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.net.Uri;
+import android.provider.DocumentsContract;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 import us.shandian.giga.get.DownloadMission;
@@ -27,7 +32,7 @@ public class FinishedMissionStore extends SQLiteOpenHelper {
     // TODO: use NewPipeSQLiteHelper ('s constants) when playlist branch is merged (?)
     private static final String DATABASE_NAME = "downloads.db";
 
-    private static final int DATABASE_VERSION = 4;
+    private static final int DATABASE_VERSION = 7;
 
     /**
      * The table name of download missions (old)
@@ -56,6 +61,39 @@ public class FinishedMissionStore extends SQLiteOpenHelper {
 
     private static final String KEY_PATH = "path";
 
+    /**
+     * The key to the CRC32 of the file, {@code null} if unknown
+     */
+    private static final String KEY_CRC32 = "crc32";
+
+    /**
+     * The key to the quality of the downloaded stream, {@code null} if unknown
+     */
+    private static final String KEY_QUALITY = "quality";
+
+    private static final String KEY_VIDEO_ONLY = "video_only";
+
+    /**
+     * The key to the document id of the path, {@code null} if the path is not a document. The
+     * same document can be reached with different uris
+     */
+    private static final String KEY_DOCUMENT_ID = "document_id";
+
+    private static final String KEY_ROWID = "rowid";
+
+    private static final String[] ALL_COLUMNS = {KEY_ROWID, "*"};
+
+    /**
+     * Maximum amount of missions loaded at once by {@link #loadFinishedMissions(long[], int, int)}
+     */
+    public static final int MAXIMUM_PAGE_SIZE = 100;
+
+    /**
+     * The order of the finished missions, newest first. The index of the unique constraint
+     * covers it, the ids are sorted without reading the table
+     */
+    private static final String ORDER_BY = KEY_TIMESTAMP + " DESC, " + KEY_PATH + " DESC";
+
     /**
      * The statement to create the table
      */
@@ -66,8 +104,33 @@ public class FinishedMissionStore extends SQLiteOpenHelper {
                     KEY_DONE + " INTEGER NOT NULL, " +
                     KEY_TIMESTAMP + " INTEGER NOT NULL, " +
                     KEY_KIND + " TEXT NOT NULL, " +
+                    KEY_CRC32 + " INTEGER, " +
+                    KEY_QUALITY + " TEXT, " +
+                    KEY_VIDEO_ONLY + " INTEGER NOT NULL DEFAULT 0, " +
+                    KEY_DOCUMENT_ID + " TEXT, " +
                     " UNIQUE(" + KEY_TIMESTAMP + ", " + KEY_PATH + "));";
 
+    /**
+     * The statement to create the index used to find a mission by its path
+     */
+    private static final String MISSIONS_CREATE_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + FINISHED_TABLE_NAME + "_" + KEY_PATH + " ON " +
+                    FINISHED_TABLE_NAME + " (" + KEY_PATH + " COLLATE NOCASE);";
+
+    /**
+     * The statement to create the index used to find the missions of a stream, by its url
+     */
+    private static final String MISSIONS_CREATE_SOURCE_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + FINISHED_TABLE_NAME + "_" + KEY_SOURCE + " ON " +
+                    FINISHED_TABLE_NAME + " (" + KEY_SOURCE + ");";
+
+    /**
+     * The statement to create the index used to find a mission by the document id of its path
+     */
+    private static final String MISSIONS_CREATE_DOCUMENT_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + FINISHED_TABLE_NAME + "_" + KEY_DOCUMENT_ID + " ON " +
+                    FINISHED_TABLE_NAME + " (" + KEY_DOCUMENT_ID + " COLLATE NOCASE);";
+
 
     private final Context context;
 
@@ -79,6 +142,9 @@ public class FinishedMissionStore extends SQLiteOpenHelper {
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(MISSIONS_CREATE_TABLE);
+        db.execSQL(MISSIONS_CREATE_INDEX);
+        db.execSQL(MISSIONS_CREATE_SOURCE_INDEX);
+        db.execSQL(MISSIONS_CREATE_DOCUMENT_INDEX);
     }
 
     @Override
@@ -121,6 +187,45 @@ public class FinishedMissionStore extends SQLiteOpenHelper {
 
             cursor.close();
             db.execSQL("DROP TABLE " + MISSIONS_TABLE_NAME_v2);
+            db.execSQL(MISSIONS_CREATE_INDEX);
+            db.execSQL(MISSIONS_CREATE_SOURCE_INDEX);
+            db.execSQL(MISSIONS_CREATE_DOCUMENT_INDEX);
+            return;// the table was created with the latest schema
+        }
+
+        if (oldVersion == 4) {
+            db.execSQL("ALTER TABLE " + FINISHED_TABLE_NAME + " ADD COLUMN " + KEY_CRC32 + " INTEGER;");
+            oldVersion++;
+        }
+
+        if (oldVersion == 5) {
+            db.execSQL(MISSIONS_CREATE_INDEX);
+            oldVersion++;
+        }
+
+        if (oldVersion == 6) {
+            db.execSQL("ALTER TABLE " + FINISHED_TABLE_NAME + " ADD COLUMN " + KEY_QUALITY + " TEXT;");
+            db.execSQL("ALTER TABLE " + FINISHED_TABLE_NAME + " ADD COLUMN " + KEY_VIDEO_ONLY + " INTEGER NOT NULL DEFAULT 0;");
+            db.execSQL(MISSIONS_CREATE_SOURCE_INDEX);
+
+            db.execSQL("ALTER TABLE " + FINISHED_TABLE_NAME + " ADD COLUMN " + KEY_DOCUMENT_ID + " TEXT;");
+            db.beginTransaction();
+            try (Cursor cursor = db.query(FINISHED_TABLE_NAME, new String[]{KEY_ROWID, KEY_PATH},
+                    null, null, null, null, null)) {
+                while (cursor.moveToNext()) {
+                    String documentId = getDocumentId(cursor.getString(1));
+                    if (documentId == null) continue;
+
+                    ContentValues values = new ContentValues();
+                    values.put(KEY_DOCUMENT_ID, documentId);
+                    db.update(FINISHED_TABLE_NAME, values, KEY_ROWID + " = ?",
+                            new String[]{String.valueOf(cursor.getLong(0))});
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            db.execSQL(MISSIONS_CREATE_DOCUMENT_INDEX);
         }
     }
 
@@ -134,9 +239,25 @@ public class FinishedMissionStore extends SQLiteOpenHelper {
         ContentValues values = new ContentValues();
         values.put(KEY_SOURCE, downloadMission.source);
         values.put(KEY_PATH, downloadMission.storage.getUri().toString());
+        values.put(KEY_DOCUMENT_ID, getDocumentId(downloadMission.storage.getUri().toString()));
         values.put(KEY_DONE, downloadMission.length);
         values.put(KEY_TIMESTAMP, downloadMission.timestamp);
         values.put(KEY_KIND, String.valueOf(downloadMission.kind));
+
+        FinishedMission finished;
+        if (downloadMission instanceof DownloadMission)
+            finished = new FinishedMission((DownloadMission) downloadMission);
+        else
+            finished = (FinishedMission) downloadMission;
+
+        if (finished.crc32 < 0)
+            values.putNull(KEY_CRC32);
+        else
+            values.put(KEY_CRC32, finished.crc32);
+
+        values.put(KEY_QUALITY, finished.quality);
+        values.put(KEY_VIDEO_ONLY, finished.videoOnly);
+
         return values;
     }
 
@@ -148,11 +269,23 @@ public class FinishedMissionStore extends SQLiteOpenHelper {
 
         FinishedMission mission = new FinishedMission();
 
+        int rowid = cursor.getColumnIndex(KEY_ROWID);
+        if (rowid >= 0) mission.id = cursor.getLong(rowid);
+
         mission.source = cursor.getString(cursor.getColumnIndexOrThrow(KEY_SOURCE));
         mission.length = cursor.getLong(cursor.getColumnIndexOrThrow(KEY_DONE));
         mission.timestamp = cursor.getLong(cursor.getColumnIndexOrThrow(KEY_TIMESTAMP));
         mission.kind = kind.charAt(0);
 
+        int crc32 = cursor.getColumnIndex(KEY_CRC32);
+        if (crc32 >= 0 && !cursor.isNull(crc32)) mission.crc32 = cursor.getLong(crc32);
+
+        int quality = cursor.getColumnIndex(KEY_QUALITY);
+        if (quality >= 0) mission.quality = cursor.getString(quality);
+
+        int videoOnly = cursor.getColumnIndex(KEY_VIDEO_ONLY);
+        if (videoOnly >= 0) mission.videoOnly = cursor.getInt(videoOnly) != 0;
+
         try {
             mission.storage = new StoredFileHelper(context,null, Uri.parse(path), "");
         } catch (Exception e) {
@@ -168,26 +301,145 @@ public class FinishedMissionStore extends SQLiteOpenHelper {
     // Data source methods
     ///////////////////////////////////
 
-    public ArrayList<FinishedMission> loadFinishedMissions() {
+    /**
+     * Loads the ids of the finished missions, newest first. Only the index is read, the missions
+     * are loaded by pages with {@link #loadFinishedMissions(long[], int, int)}
+     *
+     * @return the ids
+     */
+    public long[] loadFinishedMissionIds() {
+        SQLiteDatabase database = getReadableDatabase();
+
+        try (Cursor cursor = database.query(FINISHED_TABLE_NAME, new String[]{KEY_ROWID}, null,
+                null, null, null, ORDER_BY)) {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; i < ids.length && cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * Loads a page of finished missions
+     *
+     * @param ids  the ids of the missions, see {@link #loadFinishedMissionIds()}
+     * @param from index of the first id
+     * @param to   index after the last id, up to {@link #MAXIMUM_PAGE_SIZE} ids
+     * @return the missions in the order of the ids, the missions not stored anymore are skipped
+     */
+    public List<FinishedMission> loadFinishedMissions(long[] ids, int from, int to) {
+        if (to - from > MAXIMUM_PAGE_SIZE) throw new IllegalArgumentException("page too big");
+
+        StringBuilder selection = new StringBuilder(KEY_ROWID).append(" IN (");
+        String[] args = new String[to - from];
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) selection.append(',');
+            selection.append('?');
+            args[i] = String.valueOf(ids[from + i]);
+        }
+        selection.append(')');
+
+        Map<Long, FinishedMission> missions = new HashMap<>(args.length);
         SQLiteDatabase database = getReadableDatabase();
-        Cursor cursor = database.query(FINISHED_TABLE_NAME, null, null,
-                null, null, null, KEY_TIMESTAMP + " DESC");
 
-        int count = cursor.getCount();
-        if (count == 0) return new ArrayList<>(1);
+        try (Cursor cursor = database.query(FINISHED_TABLE_NAME, ALL_COLUMNS, selection.toString(),
+                args, null, null, null)) {
+            while (cursor.moveToNext()) {
+                FinishedMission mission = getMissionFromCursor(cursor);
+                missions.put(mission.id, mission);
+            }
+        }
 
-        ArrayList<FinishedMission> result = new ArrayList<>(count);
-        while (cursor.moveToNext()) {
-            result.add(getMissionFromCursor(cursor));
+        ArrayList<FinishedMission> result = new ArrayList<>(args.length);
+        for (int i = from; i < to; i++) {
+            FinishedMission mission = missions.get(ids[i]);
+            if (mission != null) result.add(mission);
         }
 
         return result;
     }
 
-    public void addFinishedMission(DownloadMission downloadMission) {
+    /**
+     * Finds the finished mission stored in the given file
+     *
+     * @param storage the file
+     * @return the mission or {@code null} if there is no such mission
+     */
+    @Nullable
+    public FinishedMission findFinishedMission(@NonNull StoredFileHelper storage) {
+        if (storage.isInvalid()) return null;
+
+        SQLiteDatabase database = getReadableDatabase();
+
+        try (Cursor cursor = database.query(FINISHED_TABLE_NAME, ALL_COLUMNS,
+                KEY_PATH + " = ? COLLATE NOCASE", new String[]{storage.getUri().toString()},
+                null, null, ORDER_BY)) {
+            while (cursor.moveToNext()) {
+                FinishedMission mission = getMissionFromCursor(cursor);
+                if (mission.storage.equals(storage)) return mission;
+            }
+        }
+
+        if (storage.isDirect()) return null;
+
+        // the same document can be reached with different uris, compare the document ids
+        String documentId = getDocumentId(storage.getUri().toString());
+        if (documentId == null) return null;
+
+        try (Cursor cursor = database.query(FINISHED_TABLE_NAME, ALL_COLUMNS,
+                KEY_DOCUMENT_ID + " = ? COLLATE NOCASE", new String[]{documentId},
+                null, null, ORDER_BY)) {
+            while (cursor.moveToNext()) {
+                FinishedMission mission = getMissionFromCursor(cursor);
+                if (mission.storage.equals(storage)) return mission;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Finds the finished missions of a stream
+     *
+     * @param source the url of the stream, see {@link Mission#source}
+     * @return the missions, newest first
+     */
+    public List<FinishedMission> findFinishedMissions(@NonNull String source) {
+        SQLiteDatabase database = getReadableDatabase();
+        ArrayList<FinishedMission> missions = new ArrayList<>();
+
+        try (Cursor cursor = database.query(FINISHED_TABLE_NAME, ALL_COLUMNS,
+                KEY_SOURCE + " = ?", new String[]{source}, null, null, ORDER_BY)) {
+            while (cursor.moveToNext()) {
+                missions.add(getMissionFromCursor(cursor));
+            }
+        }
+
+        return missions;
+    }
+
+    @Nullable
+    private static String getDocumentId(String path) {
+        try {
+            return DocumentsContract.getDocumentId(Uri.parse(path));
+        } catch (Exception e) {
+            return null;// not a document
+        }
+    }
+
+    /**
+     * @param downloadMission the finished download
+     * @return the id of the stored mission, -1 if an error occurred
+     */
+    public long addFinishedMission(DownloadMission downloadMission) {
         ContentValues values = getValuesOfMission(Objects.requireNonNull(downloadMission));
         SQLiteDatabase database = getWritableDatabase();
-        database.insert(FINISHED_TABLE_NAME, null, values);
+        return database.insert(FINISHED_TABLE_NAME, null, values);
+    }
+
+    public void deleteAllMissions() {
+        getWritableDatabase().delete(FINISHED_TABLE_NAME, null, null);
     }
 
     public void deleteMission(Mission mission) {
@@ -196,7 +448,11 @@ public class FinishedMissionStore extends SQLiteOpenHelper {
         SQLiteDatabase database = getWritableDatabase();
 
         if (mission instanceof FinishedMission) {
-            if (mission.storage.isInvalid()) {
+            long id = ((FinishedMission) mission).id;
+
+            if (id >= 0) {
+                database.delete(FINISHED_TABLE_NAME, KEY_ROWID + " = ?", new String[]{String.valueOf(id)});
+            } else if (mission.storage.isInvalid()) {
                 database.delete(FINISHED_TABLE_NAME, KEY_TIMESTAMP + " = ?", new String[]{ts});
             } else {
                 database.delete(FINISHED_TABLE_NAME, KEY_TIMESTAMP + " = ? AND " + KEY_PATH + " = ?", new String[]{
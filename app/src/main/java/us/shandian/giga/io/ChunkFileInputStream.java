@@ -7,27 +7,44 @@ import java.io.IOException;
 public class ChunkFileInputStream extends SharpStream {
     private static final int REPORT_INTERVAL = 256 * 1024;
 
-    private SharpStream source;
+    // read by the writer (see CircularFileWriter.OffsetChecker) while other thread reads the chunk
+    private volatile SharpStream source;
     private final long offset;
     private final long length;
-    private long position;
+    private volatile long position;
 
     private long progressReport;
     private final ProgressReport onProgress;
+    private final Availability availability;
 
     public ChunkFileInputStream(SharpStream target, long start, long end, ProgressReport callback) throws IOException {
+        this(target, start, end, callback, null);
+    }
+
+    /**
+     * @param target       the file
+     * @param start        offset of the chunk in the file
+     * @param end          offset where the chunk ends
+     * @param callback     progress report callback
+     * @param availability if the chunk is still being written, blocks the reads until the bytes are
+     *                     available, otherwise, {@code null}
+     * @throws IOException if the chunk is invalid or the file is smaller than the chunk
+     */
+    public ChunkFileInputStream(SharpStream target, long start, long end, ProgressReport callback,
+                                Availability availability) throws IOException {
         source = target;
         offset = start;
         length = end - start;
         position = 0;
         onProgress = callback;
         progressReport = REPORT_INTERVAL;
+        this.availability = availability;
 
         if (length < 1) {
             source.close();
             throw new IOException("The chunk is empty or invalid");
         }
-        if (source.length() < end) {
+        if (availability == null && source.length() < end) {
             try {
                 throw new IOException(String.format("invalid file length. expected = %s  found = %s", end, source.length()));
             } finally {
@@ -52,6 +69,9 @@ public class ChunkFileInputStream extends SharpStream {
         if ((position + 1) > length) {
             return 0;
         }
+        if (availability != null) {
+            availability.await(offset + position + 1);
+        }
 
         int res = source.read();
         if (res >= 0) {
@@ -74,6 +94,9 @@ public class ChunkFileInputStream extends SharpStream {
         if (len == 0) {
             return 0;
         }
+        if (availability != null) {
+            availability.await(offset + position + len);
+        }
 
         int res = source.read(b, off, len);
         position += res;
@@ -152,4 +175,17 @@ public class ChunkFileInputStream extends SharpStream {
     public void write(byte[] buffer, int offset, int count) {
     }
 
+    /**
+     * Availability of a chunk that is still being written
+     */
+    public interface Availability {
+        /**
+         * Blocks until the file is written up to the given offset
+         *
+         * @param end absolute offset in the file, exclusive
+         * @throws IOException if the wait was interrupted or the file will not be written anymore
+         */
+        void await(long end) throws IOException;
+    }
+
 }
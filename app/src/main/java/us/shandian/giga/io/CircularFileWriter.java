@@ -5,16 +5,35 @@ import androidx.annotation.NonNull;
 import org.schabi.newpipe.streams.io.SharpStream;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Objects;
 
+/**
+ * Output of the post-processing algorithms which work on the same file where their sources are.
+ * The output is written over the bytes of the sources already read, the bytes that would
+ * overwrite unread bytes are kept in a spill region and moved to the output file once the sources
+ * are read.
+ * <p>
+ * The spill region is a ring buffer in a temporal file. The bytes are moved from its head as soon
+ * as there is enough room in the output file, the pending bytes are never moved within the
+ * temporal file (except when the ring grows), so the spill only holds the bytes ahead of the
+ * sources and the temporal file stays small. The ring is accessed with positional channel I/O,
+ * the bytes are moved to the output without passing through the java heap.
+ */
 public class CircularFileWriter extends SharpStream {
 
-    private final static int QUEUE_BUFFER_SIZE = 8 * 1024;// 8 KiB
-    private final static int COPY_BUFFER_SIZE = 128 * 1024; // 128 KiB
+    private final static int BUFFER_SIZE = 64 * 1024;// 64 KiB
     private final static int NOTIFY_BYTES_INTERVAL = 64 * 1024;// 64 KiB
-    private final static int THRESHOLD_AUX_LENGTH = 15 * 1024 * 1024;// 15 MiB
+    private final static int SPILL_INITIAL_CAPACITY = 1024 * 1024;// 1 MiB
+
+    /**
+     * Minimum amount of bytes moved from the spill when only a part of it fits in the output
+     * file, avoids moving the bytes in tiny pieces
+     */
+    private final static int MIN_DRAIN_LENGTH = 1024 * 1024;// 1 MiB
 
     private final OffsetChecker callback;
 
@@ -22,11 +41,38 @@ public class CircularFileWriter extends SharpStream {
     public WriteErrorHandle onWriteError;
 
     private long reportPosition;
-    private long maxLengthKnown = -1;
 
-    private BufferedFile out;
-    private BufferedFile aux;
+    private SharpStream out;
+    private Spill spill;
+    private final boolean positional;
+
+    /**
+     * Bytes written but not stored yet, they go before {@link #position}
+     */
+    private final ByteBuffer buffer;
+    private byte[] copyBuffer;
 
+    /**
+     * Position of the next byte to write
+     */
+    private long position;
+
+    /**
+     * Amount of bytes stored in the output file, the rest are in the spill
+     */
+    private long outLength;
+
+    /**
+     * Amount of bytes written to the output file and the spill, including the moved ones
+     */
+    private long bytesWritten;
+
+    /**
+     * @param target  the output file, where the sources are
+     * @param temp    the file where the spill region is stored
+     * @param checker reports where the unread bytes of the sources are
+     * @throws IOException if the temporal file cannot be created
+     */
     public CircularFileWriter(SharpStream target, File temp, OffsetChecker checker) throws IOException {
         Objects.requireNonNull(checker);
 
@@ -36,97 +82,166 @@ public class CircularFileWriter extends SharpStream {
             }
         }
 
-        aux = new BufferedFile(temp);
-        out = new BufferedFile(target);
+        out = target;
+        positional = target.canPositionalIo();
+        spill = new Spill(temp);
+        buffer = positional ? ByteBuffer.allocateDirect(BUFFER_SIZE) : ByteBuffer.allocate(BUFFER_SIZE);
 
         callback = checker;
 
         reportPosition = NOTIFY_BYTES_INTERVAL;
     }
 
-    private void flushAuxiliar(long amount) throws IOException {
-        if (aux.length < 1) {
-            return;
-        }
+    /**
+     * Stores the given bytes, directly in the output file if the sources were read, otherwise,
+     * in the spill
+     *
+     * @param data   the bytes
+     * @param offset position of the bytes in the output
+     */
+    private void store(ByteBuffer data, long offset) throws IOException {
+        while (data.hasRemaining()) {
+            int amount = data.remaining();
+
+            if (offset < outLength) {
+                // the bytes of the sources there were already read
+                amount = (int) Math.min(amount, outLength - offset);
+                writeOut(data, amount, offset);
+            } else {
+                // the bytes must follow the spilled ones
+                long room = spill.length > 0 ? 0 : getRoom();
 
-        out.flush();
-        aux.flush();
+                if (room > 0) {
+                    amount = (int) Math.min(amount, room);
+                    writeOut(data, amount, offset);
+                    outLength += amount;
+                } else {
+                    spill.write(data, offset - outLength);
+                }
+            }
 
-        boolean underflow = aux.offset < aux.length || out.offset < out.length;
-        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            offset += amount;
+        }
+    }
 
-        aux.target.seek(0);
-        out.target.seek(out.length);
+    /**
+     * @return amount of bytes that can be written after the end of the output file without
+     * overwriting the unread bytes of the sources
+     */
+    private long getRoom() throws IOException {
+        long end = callback.check();
 
-        long length = amount;
-        while (length > 0) {
-            int read = (int) Math.min(length, Integer.MAX_VALUE);
-            read = aux.target.read(buffer, 0, Math.min(read, buffer.length));
+        if (end == -1) return Long.MAX_VALUE;
+        if (end < outLength) throw new IOException("The reported offset is invalid: " + end + "<" + outLength);
 
-            if (read < 1) {
-                amount -= length;
-                break;
-            }
+        return end - outLength;
+    }
 
-            out.writeProof(buffer, read);
-            length -= read;
-        }
+    /**
+     * Moves bytes from the head of the spill to the end of the output file
+     *
+     * @param all {@code true} to move all bytes, the sources are not read anymore
+     */
+    private void drain(boolean all) throws IOException {
+        if (spill.length < 1) return;
 
-        if (underflow) {
-            if (out.offset >= out.length) {
-                // calculate the aux underflow pointer
-                if (aux.offset < amount) {
-                    out.offset += aux.offset;
-                    aux.offset = 0;
-                    out.target.seek(out.offset);
-                } else {
-                    aux.offset -= amount;
-                    out.offset = out.length + amount;
-                }
-            } else {
-                aux.offset = 0;
-            }
-        } else {
-            out.offset += amount;
-            aux.offset -= amount;
-        }
+        long amount = all ? spill.length : Math.min(spill.length, getRoom());
+        if (amount < 1 || (amount < spill.length && amount < MIN_DRAIN_LENGTH)) return;
 
-        out.length += amount;
+        spill.moveTo(amount, outLength);
+        outLength += amount;
+    }
 
-        if (out.length > maxLengthKnown) {
-            maxLengthKnown = out.length;
-        }
+    private void flushBuffer() throws IOException {
+        if (buffer.position() < 1) return;
 
-        if (amount < aux.length) {
-            // move the excess data to the beginning of the file
-            long readOffset = amount;
-            long writeOffset = 0;
+        buffer.flip();
+        store(buffer, position - buffer.remaining());
+        buffer.clear();
 
-            aux.length -= amount;
-            length = aux.length;
-            while (length > 0) {
-                int read = (int) Math.min(length, Integer.MAX_VALUE);
-                read = aux.target.read(buffer, 0, Math.min(read, buffer.length));
+        drain(false);
+    }
+
+    /**
+     * Writes bytes in the output file
+     *
+     * @param data   the bytes, the position is moved
+     * @param amount amount of bytes to write
+     * @param offset offset in the file
+     */
+    private void writeOut(ByteBuffer data, int amount, long offset) throws IOException {
+        int limit = data.limit();
+        data.limit(data.position() + amount);
 
-                aux.target.seek(writeOffset);
-                aux.writeProof(buffer, read);
+        try {
+            if (positional) {
+                while (data.hasRemaining()) offset += writeProof(out, data, offset);
+            } else {
+                seekProof(offset);
+                writeProof(data.array(), data.arrayOffset() + data.position(), amount);
+                data.position(data.limit());
+            }
+        } finally {
+            data.limit(limit);
+        }
 
-                writeOffset += read;
-                readOffset += read;
-                length -= read;
+        bytesWritten += amount;
+    }
 
-                aux.target.seek(readOffset);
+    private int writeProof(SharpStream target, ByteBuffer data, long offset) throws IOException {
+        while (true) {
+            try {
+                return target.write(data, offset);
+            } catch (Exception e) {
+                if (onWriteError == null || !onWriteError.handle(e)) {
+                    throw e;// give up
+                }
             }
+        }
+    }
 
-            aux.target.setLength(aux.length);
-            return;
+    private void writeProof(byte[] data, int offset, int length) throws IOException {
+        while (true) {
+            try {
+                out.write(data, offset, length);
+                return;
+            } catch (Exception e) {
+                if (onWriteError == null || !onWriteError.handle(e)) {
+                    throw e;// give up
+                }
+            }
         }
+    }
 
-        if (aux.length > THRESHOLD_AUX_LENGTH) {
-            aux.target.setLength(THRESHOLD_AUX_LENGTH);// or setLength(0);
+    private void seekProof(long offset) throws IOException {
+        while (true) {
+            try {
+                out.seek(offset);
+                return;
+            } catch (Exception e) {
+                if (onWriteError == null || !onWriteError.handle(e)) {
+                    throw e;// give up
+                }
+            }
         }
+    }
+
+    /**
+     * Gets the amount of bytes written to the output file and to the spill, including the bytes
+     * moved from the spill to the output file or moved within the spill. Divided by the final
+     * length, is the amount of copies done per byte written
+     *
+     * @return the amount of bytes
+     */
+    long getBytesWritten() {
+        return bytesWritten;
+    }
 
-        aux.reset();
+    /**
+     * @return the size of the temporal file used by the spill
+     */
+    long getSpillCapacity() {
+        return spill == null ? 0 : spill.capacity;
     }
 
     /**
@@ -137,14 +252,13 @@ public class CircularFileWriter extends SharpStream {
      * @throws IOException if an I/O error occurs
      */
     public long finalizeFile() throws IOException {
-        flushAuxiliar(aux.length);
-
-        out.flush();
+        flushBuffer();
+        drain(true);
 
         // change file length (if required)
-        long length = Math.max(maxLengthKnown, out.length);
-        if (length != out.target.length()) {
-            out.target.setLength(length);
+        long length = outLength;
+        if (length != out.length()) {
+            out.setLength(length);
         }
 
         close();
@@ -161,15 +275,19 @@ public class CircularFileWriter extends SharpStream {
             out.close();
             out = null;
         }
-        if (aux != null) {
-            aux.close();
-            aux = null;
+        if (spill != null) {
+            spill.close();
+            spill = null;
         }
     }
 
     @Override
     public void write(byte b) throws IOException {
-        write(new byte[]{b}, 0, 1);
+        buffer.put(b);
+        position++;
+
+        if (!buffer.hasRemaining()) flushBuffer();
+        reportProgress();
     }
 
     @Override
@@ -179,81 +297,35 @@ public class CircularFileWriter extends SharpStream {
 
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
-        if (len == 0) {
-            return;
-        }
+        while (len > 0) {
+            int count = Math.min(len, buffer.remaining());
+            buffer.put(b, off, count);
 
-        long available;
-        long offsetOut = out.getOffset();
-        long offsetAux = aux.getOffset();
-        long end = callback.check();
+            position += count;
+            off += count;
+            len -= count;
 
-        if (end == -1) {
-            available = Integer.MAX_VALUE;
-        } else if (end < offsetOut) {
-            throw new IOException("The reported offset is invalid: " + end + "<" + offsetOut);
-        } else {
-            available = end - offsetOut;
+            if (!buffer.hasRemaining()) flushBuffer();
         }
 
-        boolean usingAux = aux.length > 0 && offsetOut >= out.length;
-        boolean underflow = offsetAux < aux.length || offsetOut < out.length;
-
-        if (usingAux) {
-            // before continue calculate the final length of aux
-            long length = offsetAux + len;
-            if (underflow) {
-                if (aux.length > length) {
-                    length = aux.length;// the length is not changed
-                }
-            } else {
-                length = aux.length + len;
-            }
-
-            aux.write(b, off, len);
-
-            if (length >= THRESHOLD_AUX_LENGTH && length <= available) {
-                flushAuxiliar(available);
-            }
-        } else {
-            if (underflow) {
-                available = out.length - offsetOut;
-            }
-
-            int length = Math.min(len, (int) Math.min(Integer.MAX_VALUE, available));
-            out.write(b, off, length);
-
-            len -= length;
-            off += length;
+        reportProgress();
+    }
 
-            if (len > 0) {
-                aux.write(b, off, len);
-            }
-        }
-
-        if (onProgress != null) {
-            long absoluteOffset = out.getOffset() + aux.getOffset();
-            if (absoluteOffset > reportPosition) {
-                reportPosition = absoluteOffset + NOTIFY_BYTES_INTERVAL;
-                onProgress.report(absoluteOffset);
-            }
+    private void reportProgress() {
+        if (onProgress != null && position > reportPosition) {
+            reportPosition = position + NOTIFY_BYTES_INTERVAL;
+            onProgress.report(position);
         }
     }
 
     @Override
     public void flush() throws IOException {
-        aux.flush();
-        out.flush();
-
-        long total = out.length + aux.length;
-        if (total > maxLengthKnown) {
-            maxLengthKnown = total;// save the current file length in case the method {@code rewind()} is called
-        }
+        flushBuffer();
     }
 
     @Override
     public long skip(long amount) throws IOException {
-        seek(out.getOffset() + aux.getOffset() + amount);
+        seek(position + amount);
         return amount;
     }
 
@@ -270,30 +342,21 @@ public class CircularFileWriter extends SharpStream {
 
     @Override
     public void seek(long offset) throws IOException {
-        long total = out.length + aux.length;
-
-        if (offset == total) {
-            // do not ignore the seek offset if a underflow exists
-            long relativeOffset = out.getOffset() + aux.getOffset();
-            if (relativeOffset == total) {
-                return;
-            }
-        }
+        if (offset == position) return;
 
-        // flush everything, avoid any underflow
-        flush();
+        flushBuffer();
 
+        long total = outLength + spill.length;
         if (offset < 0 || offset > total) {
             throw new IOException("desired offset is outside of range=0-" + total + " offset=" + offset);
         }
 
-        if (offset > out.length) {
-            out.seek(out.length);
-            aux.seek(offset - out.length);
-        } else {
-            out.seek(offset);
-            aux.seek(0);
-        }
+        position = offset;
+    }
+
+    @Override
+    public long length() {
+        return Math.max(outLength + (spill == null ? 0 : spill.length), position);
     }
 
     @Override
@@ -368,119 +431,191 @@ public class CircularFileWriter extends SharpStream {
         boolean handle(Exception err);
     }
 
-    class BufferedFile {
-
-        final SharpStream target;
+    /**
+     * Ring buffer stored in a file, holds the bytes that follow the end of the output file
+     */
+    class Spill {
+        private final RandomAccessFile file;
+        private final FileChannel channel;
 
-        private long offset;
+        long capacity;
         long length;
 
-        private byte[] queue = new byte[QUEUE_BUFFER_SIZE];
-        private int queueSize;
-
-        BufferedFile(File file) throws FileNotFoundException {
-            this.target = new FileStream(file);
-        }
+        /**
+         * Position in the file of the first byte
+         */
+        private long head;
 
-        BufferedFile(SharpStream target) {
-            this.target = target;
+        Spill(File file) throws IOException {
+            this.file = new RandomAccessFile(file, "rw");
+            this.channel = this.file.getChannel();
         }
 
-        long getOffset() {
-            return offset + queueSize;// absolute offset in the file
-        }
+        /**
+         * Writes bytes in the spill, overwriting or appending
+         *
+         * @param data   the bytes, all are written
+         * @param offset offset relative to the head, at most {@link #length}
+         */
+        void write(ByteBuffer data, long offset) throws IOException {
+            int amount = data.remaining();
+            if (offset + amount > capacity) grow(offset + amount);
 
-        void close() {
-            queue = null;
-            target.close();
-        }
+            long physical = (head + offset) % capacity;
+            int limit = data.limit();
 
-        void write(byte[] b, int off, int len) throws IOException {
-            while (len > 0) {
-                // if the queue is full, the method available() will flush the queue
-                int read = Math.min(available(), len);
+            try {
+                while (data.hasRemaining()) {
+                    int count = (int) Math.min(data.remaining(), capacity - physical);
+                    data.limit(data.position() + count);
 
-                // enqueue incoming buffer
-                System.arraycopy(b, off, queue, queueSize, read);
-                queueSize += read;
+                    long position = physical;
+                    while (data.hasRemaining()) position += channel.write(data, position);
 
-                len -= read;
-                off += read;
+                    data.limit(limit);
+                    physical = (physical + count) % capacity;
+                }
+            } finally {
+                data.limit(limit);
             }
 
-            long total = offset + queueSize;
-            if (total > length) {
-                length = total;// save length
-            }
+            length = Math.max(length, offset + amount);
+            bytesWritten += amount;
         }
 
-        void flush() throws IOException {
-            writeProof(queue, queueSize);
-            offset += queueSize;
-            queueSize = 0;
-        }
+        /**
+         * Moves bytes from the head of the ring to the output file
+         *
+         * @param amount amount of bytes, at most {@link #length}
+         * @param offset offset in the output file
+         */
+        void moveTo(long amount, long offset) throws IOException {
+            while (amount > 0) {
+                long count = Math.min(amount, capacity - head);
+                copyToOut(head, count, offset);
+
+                head = (head + count) % capacity;
+                length -= count;
+                amount -= count;
+                offset += count;
+            }
 
-        protected void rewind() throws IOException {
-            offset = 0;
-            target.seek(0);
+            if (length < 1) head = 0;
         }
 
-        int available() throws IOException {
-            if (queueSize >= queue.length) {
-                flush();
-                return queue.length;
-            }
+        private void copyToOut(long physical, long count, long offset) throws IOException {
+            bytesWritten += count;
 
-            return queue.length - queueSize;
-        }
+            if (positional) {
+                seekProof(offset);
+                FileChannel target = out.getChannel();
 
-        void reset() throws IOException {
-            offset = 0;
-            length = 0;
-            target.seek(0);
-        }
+                while (count > 0) {
+                    long copied = transferProof(physical, count, target);
+                    if (copied < 1) throw new IOException("Cannot read the spilled bytes at " + physical);
 
-        void seek(long absoluteOffset) throws IOException {
-            if (absoluteOffset == offset) {
-                return;// nothing to do
+                    physical += copied;
+                    count -= copied;
+                }
+                return;
             }
-            offset = absoluteOffset;
-            target.seek(absoluteOffset);
-        }
 
-        void writeProof(byte[] buffer, int length) throws IOException {
-            if (onWriteError == null) {
-                target.write(buffer, 0, length);
-                return;
+            if (copyBuffer == null) copyBuffer = new byte[BUFFER_SIZE];
+            ByteBuffer wrap = ByteBuffer.wrap(copyBuffer);
+            seekProof(offset);
+
+            while (count > 0) {
+                wrap.clear();
+                wrap.limit((int) Math.min(count, copyBuffer.length));
+                read(wrap, physical);
+
+                writeProof(copyBuffer, 0, wrap.position());
+                physical += wrap.position();
+                count -= wrap.position();
             }
+        }
 
+        private long transferProof(long position, long count, FileChannel target) throws IOException {
             while (true) {
                 try {
-                    target.write(buffer, 0, length);
-                    return;
+                    return channel.transferTo(position, count, target);
                 } catch (Exception e) {
-                    if (!onWriteError.handle(e)) {
+                    if (onWriteError == null || !onWriteError.handle(e)) {
                         throw e;// give up
                     }
                 }
             }
         }
 
-        @NonNull
-        @Override
-        public String toString() {
-            String absLength;
+        /**
+         * Fills the buffer with the bytes at the given position of the file
+         */
+        private void read(ByteBuffer buffer, long physical) throws IOException {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, physical);
+                if (read < 1) throw new IOException("Cannot read the spilled bytes at " + physical);
+                physical += read;
+            }
+        }
+
+        /**
+         * Grows the ring, the bytes stored at the start of the file (after the wrap) or the ones
+         * stored at the end of the file, the smaller part, are moved to keep the order
+         *
+         * @param required minimum capacity
+         */
+        private void grow(long required) throws IOException {
+            long newCapacity = Math.max(capacity * 2, SPILL_INITIAL_CAPACITY);
+            while (newCapacity < required) newCapacity *= 2;
+
+            long wrapped = head + length - capacity;
+            if (wrapped > 0) {
+                long tail = capacity - head;
+                if (wrapped <= tail) {
+                    copyWithin(0, capacity, wrapped);
+                } else {
+                    copyWithin(head, newCapacity - tail, tail);
+                    head = newCapacity - tail;
+                }
+            }
+
+            capacity = newCapacity;
+        }
+
+        private void copyWithin(long from, long to, long count) throws IOException {
+            bytesWritten += count;
+
+            if (copyBuffer == null) copyBuffer = new byte[BUFFER_SIZE];
+            ByteBuffer wrap = ByteBuffer.wrap(copyBuffer);
 
+            // the regions do not overlap
+            while (count > 0) {
+                wrap.clear();
+                wrap.limit((int) Math.min(count, copyBuffer.length));
+                read(wrap, from);
+                wrap.flip();
+
+                long position = to;
+                while (wrap.hasRemaining()) position += channel.write(wrap, position);
+
+                from += wrap.limit();
+                to += wrap.limit();
+                count -= wrap.limit();
+            }
+        }
+
+        void close() {
             try {
-                absLength = Long.toString(target.length());
+                file.close();
             } catch (IOException e) {
-                absLength = "[" + e.getLocalizedMessage() + "]";
+                // nothing to do
             }
+        }
 
-            return String.format(
-                    "offset=%s  length=%s  queue=%s  absLength=%s",
-                    offset, length, queueSize, absLength
-            );
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format("capacity=%s  length=%s  head=%s", capacity, length, head);
         }
     }
 }
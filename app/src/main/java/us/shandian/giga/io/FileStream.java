@@ -1,5 +1,9 @@
 package us.shandian.giga.io;
 
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+
 import androidx.annotation.NonNull;
 
 import org.schabi.newpipe.streams.io.SharpStream;
@@ -8,6 +12,10 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * @author kapodamy
@@ -16,12 +24,19 @@ public class FileStream extends SharpStream {
 
     public RandomAccessFile source;
 
+    /**
+     * The channel of {@link #source}, shares the file pointer
+     */
+    private final FileChannel channel;
+
     public FileStream(@NonNull File target) throws FileNotFoundException {
         this.source = new RandomAccessFile(target, "rw");
+        this.channel = source.getChannel();
     }
 
     public FileStream(@NonNull String path) throws FileNotFoundException {
         this.source = new RandomAccessFile(path, "rw");
+        this.channel = source.getChannel();
     }
 
     @Override
@@ -99,6 +114,41 @@ public class FileStream extends SharpStream {
         return true;
     }
 
+    @Override
+    public boolean canAllocate() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    @Override
+    public boolean canPositionalIo() {
+        return true;
+    }
+
+    @Override
+    public int read(ByteBuffer buffer, long position) throws IOException {
+        return channel.read(buffer, position);
+    }
+
+    @Override
+    public int write(ByteBuffer buffer, long position) throws IOException {
+        return channel.write(buffer, position);
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        return channel.transferTo(position, count, target);
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel source, long position, long count) throws IOException {
+        return channel.transferFrom(source, position, count);
+    }
+
+    @Override
+    public FileChannel getChannel() {
+        return channel;
+    }
+
     @Override
     public void write(byte value) throws IOException {
         source.write(value);
@@ -119,6 +169,18 @@ public class FileStream extends SharpStream {
         source.setLength(length);
     }
 
+    @Override
+    public void allocate(long length) throws IOException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)
+            throw new IOException("Not implemented");
+
+        try {
+            Os.posix_fallocate(source.getFD(), 0, length);
+        } catch (ErrnoException e) {
+            throw e.rethrowAsIOException();
+        }
+    }
+
     @Override
     public void seek(long offset) throws IOException {
         source.seek(offset);
@@ -2,7 +2,10 @@ package us.shandian.giga.io;
 
 import android.content.ContentResolver;
 import android.net.Uri;
+import android.os.Build;
 import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -12,13 +15,17 @@ import org.schabi.newpipe.streams.io.SharpStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 public class FileStreamSAF extends SharpStream {
 
     private final FileInputStream in;
     private final FileOutputStream out;
     private final FileChannel channel;
+    private final FileChannel readChannel;
     private final ParcelFileDescriptor file;
 
     private boolean disposed;
@@ -38,6 +45,7 @@ public class FileStreamSAF extends SharpStream {
         in = new FileInputStream(file.getFileDescriptor());
         out = new FileOutputStream(file.getFileDescriptor());
         channel = out.getChannel();// or use in.getChannel()
+        readChannel = in.getChannel();// the channel of the output stream is write-only
     }
 
     @Override
@@ -83,6 +91,7 @@ public class FileStreamSAF extends SharpStream {
             in.close();
             out.close();
             channel.close();
+            readChannel.close();
         } catch (IOException e) {
             Log.e("FileStreamSAF", "close() error", e);
         }
@@ -118,6 +127,41 @@ public class FileStreamSAF extends SharpStream {
         return true;
     }
 
+    @Override
+    public boolean canAllocate() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    @Override
+    public boolean canPositionalIo() {
+        return true;
+    }
+
+    @Override
+    public int read(ByteBuffer buffer, long position) throws IOException {
+        return readChannel.read(buffer, position);
+    }
+
+    @Override
+    public int write(ByteBuffer buffer, long position) throws IOException {
+        return channel.write(buffer, position);
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        return readChannel.transferTo(position, count, target);
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel source, long position, long count) throws IOException {
+        return channel.transferFrom(source, position, count);
+    }
+
+    @Override
+    public FileChannel getChannel() {
+        return channel;
+    }
+
     @Override
     public void write(byte value) throws IOException {
         out.write(value);
@@ -135,7 +179,26 @@ public class FileStreamSAF extends SharpStream {
 
     @Override
     public void setLength(long length) throws IOException {
-        channel.truncate(length);
+        long size = channel.size();
+
+        if (length < size) {
+            channel.truncate(length);
+        } else if (length > size) {
+            // truncate() never extends the file, write the last byte instead (sparse file)
+            channel.write(ByteBuffer.allocate(1), length - 1);
+        }
+    }
+
+    @Override
+    public void allocate(long length) throws IOException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)
+            throw new IOException("Not implemented");
+
+        try {
+            Os.posix_fallocate(file.getFileDescriptor(), 0, length);
+        } catch (ErrnoException e) {
+            throw e.rethrowAsIOException();
+        }
     }
 
     @Override
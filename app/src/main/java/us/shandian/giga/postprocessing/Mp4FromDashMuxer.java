@@ -14,11 +14,19 @@ class Mp4FromDashMuxer extends Postprocessing {
         super(true, true, ALGORITHM_MP4_FROM_DASH_MUXER);
     }
 
+    @Override
+    public boolean canStream() {
+        return true;
+    }
+
     @Override
     int process(SharpStream out, SharpStream... sources) throws IOException {
         Mp4FromDashWriter muxer = new Mp4FromDashWriter(sources);
         muxer.parseSources();
         muxer.selectTracks(0, 0);
+
+        // the moov box is written once all samples are known, avoids reading the sources twice
+        muxer.setMoovAtEnd(isStreaming());
         muxer.build(out);
 
         return OK_RESULT;
@@ -3,6 +3,7 @@ package us.shandian.giga.postprocessing;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import org.schabi.newpipe.streams.io.SharpStream;
 
@@ -12,9 +13,12 @@ import java.io.Serializable;
 
 import us.shandian.giga.get.DownloadMission;
 import us.shandian.giga.io.ChunkFileInputStream;
+import us.shandian.giga.io.ChunkFileInputStream.Availability;
 import us.shandian.giga.io.CircularFileWriter;
 import us.shandian.giga.io.CircularFileWriter.OffsetChecker;
+import us.shandian.giga.io.FileStream;
 import us.shandian.giga.io.ProgressReport;
+import us.shandian.giga.service.MissionMetrics;
 
 import static us.shandian.giga.get.DownloadMission.ERROR_NOTHING;
 import static us.shandian.giga.get.DownloadMission.ERROR_POSTPROCESSING;
@@ -24,6 +28,10 @@ public abstract class Postprocessing implements Serializable {
 
     static transient final byte OK_RESULT = ERROR_NOTHING;
 
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private static final String STREAMING_PREFIX = "streaming_";
+
     public transient static final String ALGORITHM_TTML_CONVERTER = "ttml";
     public transient static final String ALGORITHM_WEBM_MUXER = "webm";
     public transient static final String ALGORITHM_MP4_FROM_DASH_MUXER = "mp4D-mp4";
@@ -81,6 +89,16 @@ public abstract class Postprocessing implements Serializable {
     private transient DownloadMission mission;
 
     private transient File tempFile;
+    private transient File tempDir;
+
+    private transient boolean streaming;
+
+    /**
+     * Output of the last streaming run, moved to the mission file by
+     * {@link #finishStreaming(DownloadMission)}
+     */
+    private transient File streamedOutput;
+    private transient long streamedLength;
 
     Postprocessing(boolean reserveSpace, boolean worksOnSameFile, String algorithmName) {
         this.reserveSpace = reserveSpace;
@@ -90,6 +108,7 @@ public abstract class Postprocessing implements Serializable {
 
     public void setTemporalDir(@NonNull File directory) {
         long rnd = (int) (Math.random() * 100000.0f);
+        tempDir = directory;
         tempFile = new File(directory, rnd + "_" + System.nanoTime() + ".tmp");
     }
 
@@ -102,36 +121,166 @@ public abstract class Postprocessing implements Serializable {
                 // nothing to do
             }
         }
+
+        File output = streamedOutput;
+        streamedOutput = null;
+        if (output != null) {
+            //noinspection ResultOfMethodCallIgnored
+            output.delete();
+        }
+    }
+
+    /**
+     * Deletes the outputs of the streaming runs of a mission, the runs cancelled or left in the
+     * temporal directory if the app was killed while the mission was downloading
+     *
+     * @param target the mission
+     */
+    public void cleanupStreamingOutputs(DownloadMission target) {
+        streamedOutput = null;
+        if (tempDir == null) return;
+
+        String prefix = STREAMING_PREFIX + target.timestamp + "_";
+        File[] files = tempDir.listFiles((dir, name) -> name.startsWith(prefix));
+        if (files == null) return;
+
+        for (File file : files) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+
+    /**
+     * Indicates if the algorithm can process the sources while the last one is still being
+     * downloaded, the sources must be read only once and sequentially
+     *
+     * @return {@code true} if {@link #run(DownloadMission, Availability)} can be used
+     */
+    public boolean canStream() {
+        return false;
+    }
+
+    /**
+     * Moves the output of a streaming run to the mission file, overwriting the sources. Like the
+     * regular post-processing, if interrupted the mission file is corrupted
+     *
+     * @param target the mission, the post-processing state must be already saved as running
+     * @throws IOException if an I/O error occurs
+     */
+    public void finishStreaming(DownloadMission target) throws IOException {
+        File output = streamedOutput;
+        if (output == null) return;// the post-processing was not required
+
+        long phaseStart = System.nanoTime();
+        this.mission = target;
+
+        try (SharpStream in = new FileStream(output); SharpStream out = target.storage.getStream()) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            long copied = 0;
+            int read;
+
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+                copied += read;
+                target.done = copied;
+            }
+
+            if (out.length() != copied) out.setLength(copied);
+        }
+
+        phase("postprocessing.finalize", phaseStart);
+        target.length = streamedLength;
+
+        streamedOutput = null;
+        this.mission = null;
+
+        //noinspection ResultOfMethodCallIgnored
+        output.delete();
     }
 
+    /**
+     * Resets the mission progress, from now on the progress counts the processed bytes
+     *
+     * @param target the mission
+     */
+    public void resetProgress(DownloadMission target) {
+        target.done = 0;
+
+        long length = target.storage.length() - target.offsets[0];
+        target.length = Math.max(length, target.nearLength);
+    }
 
     public void run(DownloadMission target) throws IOException {
+        run(target, null);
+    }
+
+    /**
+     * Runs the algorithm. While streaming, the output is written to a temporal file and the
+     * sources are not modified, see {@link #finishStreaming(DownloadMission)}
+     *
+     * @param target       the mission
+     * @param availability if the last resource is still being downloaded, blocks the reads until
+     *                     the bytes are downloaded, otherwise, {@code null}
+     * @throws IOException if an I/O error occurs
+     */
+    public void run(DownloadMission target, @Nullable Availability availability) throws IOException {
         this.mission = target;
+        this.streaming = availability != null;
 
         int result;
         long finalLength = -1;
+        long phaseStart = System.nanoTime();
 
-        mission.done = 0;
-
-        long length = mission.storage.length() - mission.offsets[0];
-        mission.length = Math.max(length, mission.nearLength);
+        // while streaming, the mission progress belongs to the download until it finishes
+        if (!streaming) resetProgress(mission);
 
         final ProgressReport readProgress = (long position) -> {
+            if (streaming && !mission.isPsRunning()) return;
+
             position -= mission.offsets[0];
             if (position > mission.done) mission.done = position;
         };
 
         if (worksOnSameFile) {
             ChunkFileInputStream[] sources = new ChunkFileInputStream[mission.urls.length];
+            File output = null;
             try {
                 for (int i = 0, j = 1; i < sources.length; i++, j++) {
                     SharpStream source = mission.storage.getStream();
-                    long end = j < sources.length ? mission.offsets[j] : source.length();
 
-                    sources[i] = new ChunkFileInputStream(source, mission.offsets[i], end, readProgress);
+                    if (j < sources.length) {
+                        sources[i] = new ChunkFileInputStream(source, mission.offsets[i], mission.offsets[j], readProgress);
+                    } else if (streaming) {
+                        // the last resource is being downloaded, the file is not fully written
+                        long end = mission.offsets[i] + mission.length;
+                        sources[i] = new ChunkFileInputStream(source, mission.offsets[i], end, readProgress, availability);
+                    } else {
+                        sources[i] = new ChunkFileInputStream(source, mission.offsets[i], source.length(), readProgress);
+                    }
                 }
 
-                if (test(sources)) {
+                boolean required = test(sources);
+                phaseStart = phase("postprocessing.prepare", phaseStart);
+
+                if (required && streaming) {
+                    for (SharpStream source : sources) source.rewind();
+
+                    output = new File(tempDir, STREAMING_PREFIX + mission.timestamp + "_" + System.nanoTime() + ".tmp");
+
+                    try (SharpStream out = new FileStream(output)) {
+                        result = process(out, sources);
+                        finalLength = out.length();
+                    }
+                    phase("postprocessing.process", phaseStart);
+
+                    if (result != OK_RESULT)
+                        throw new IOException("post-processing algorithm returned " + result);
+
+                    streamedOutput = output;
+                    streamedLength = finalLength;
+                    output = null;
+                } else if (required) {
                     for (SharpStream source : sources) source.rewind();
 
                     OffsetChecker checker = () -> {
@@ -172,9 +321,12 @@ public abstract class Postprocessing implements Serializable {
                         };
 
                         result = process(out, sources);
+                        phaseStart = phase("postprocessing.process", phaseStart);
 
-                        if (result == OK_RESULT)
+                        if (result == OK_RESULT) {
                             finalLength = out.finalizeFile();
+                            phase("postprocessing.finalize", phaseStart);
+                        }
                     }
                 } else {
                     result = OK_RESULT;
@@ -185,7 +337,12 @@ public abstract class Postprocessing implements Serializable {
                         source.close();
                     }
                 }
-                if (tempFile != null) {
+                if (output != null) {
+                    // the streaming was cancelled or failed, the sources are intact
+                    //noinspection ResultOfMethodCallIgnored
+                    output.delete();
+                }
+                if (tempFile != null && !streaming) {
                     //noinspection ResultOfMethodCallIgnored
                     tempFile.delete();
                     tempFile = null;
@@ -193,10 +350,12 @@ public abstract class Postprocessing implements Serializable {
             }
         } else {
             result = test() ? process(null) : OK_RESULT;
+            phase("postprocessing.process", phaseStart);
         }
 
         if (result == OK_RESULT) {
-            if (finalLength != -1) {
+            // while streaming, updated once the output is moved to the mission file
+            if (finalLength != -1 && !streaming) {
                 mission.length = finalLength;
             }
         } else {
@@ -204,9 +363,34 @@ public abstract class Postprocessing implements Serializable {
             mission.errObject = new RuntimeException("post-processing algorithm returned " + result);
         }
 
-        if (result != OK_RESULT && worksOnSameFile) mission.storage.delete();
+        if (result != OK_RESULT && worksOnSameFile && !streaming) mission.storage.delete();
 
         this.mission = null;
+        this.streaming = false;
+    }
+
+    /**
+     * Accounts the time spent in a phase of the algorithm, see {@link DownloadMission#metrics}.
+     * While streaming, the time includes waiting for the downloaded bytes
+     *
+     * @param name  name of the phase
+     * @param start time when the phase started
+     * @return the time when the next phase starts
+     */
+    private long phase(String name, long start) {
+        long now = System.nanoTime();
+        MissionMetrics metrics = mission.metrics;
+        if (metrics != null) metrics.onPhase(name, now - start);
+        return now;
+    }
+
+    /**
+     * Indicates if the algorithm is running while the last resource is being downloaded
+     *
+     * @return {@code true} if the sources are still being written
+     */
+    boolean isStreaming() {
+        return streaming;
     }
 
     /**
@@ -14,7 +14,7 @@ class TtmlConverter extends Postprocessing {
     private static final String TAG = "TtmlConverter";
 
     TtmlConverter() {
-        // due how XmlPullParser works, the xml is fully loaded on the ram
+        // the xml is parsed while is read, the memory used does not depend on the subtitle size
         super(false, true, ALGORITHM_TTML_CONVERTER);
     }
 
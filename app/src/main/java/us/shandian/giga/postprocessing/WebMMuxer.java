@@ -16,6 +16,11 @@ class WebMMuxer extends Postprocessing {
         super(true, true, ALGORITHM_WEBM_MUXER);
     }
 
+    @Override
+    public boolean canStream() {
+        return true;
+    }
+
     @Override
     int process(SharpStream out, SharpStream... sources) throws IOException {
         WebMWriter muxer = new WebMWriter(sources);
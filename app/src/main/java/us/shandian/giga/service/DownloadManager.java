@@ -6,17 +6,21 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.recyclerview.widget.DiffUtil;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import us.shandian.giga.get.DownloadMission;
+import us.shandian.giga.get.DownloadScheduler;
 import us.shandian.giga.get.FinishedMission;
+import us.shandian.giga.get.MissionJournal;
 import us.shandian.giga.get.Mission;
 import us.shandian.giga.get.sqlite.FinishedMissionStore;
 import org.schabi.newpipe.streams.io.StoredDirectoryHelper;
@@ -37,15 +41,41 @@ public class DownloadManager {
     public static final String TAG_AUDIO = "audio";
     public static final String TAG_VIDEO = "video";
     private static final String DOWNLOADS_METADATA_FOLDER = "pending_downloads";
+    private static final String METRICS_FILE = "download_metrics.json";
 
     private final FinishedMissionStore mFinishedMissionStore;
 
     private final ArrayList<DownloadMission> mMissionsPending = new ArrayList<>();
-    private final ArrayList<FinishedMission> mMissionsFinished;
+    private final FinishedMissionList mMissionsFinished;
+    private final HashSet<Long> mFinishedMissionsChecked = new HashSet<>();
 
     private final Handler mHandler;
     private final File mPendingMissionsDir;
 
+    /**
+     * Shares the connection budget and the bandwidth limit between all running missions
+     */
+    final DownloadScheduler mScheduler = new DownloadScheduler();
+
+    /**
+     * Metrics of the recent missions, dumped to {@link #mMetricsFile}
+     */
+    private final DownloadMetrics mMetrics = new DownloadMetrics();
+    private final File mMetricsFile;
+    private final AtomicBoolean mMetricsDumpPending = new AtomicBoolean(false);
+
+    /**
+     * Counts the changes of the mission lists, see {@link MissionIterator#hasChanges()}
+     */
+    private int mVersion = 0;
+
+    /**
+     * Interval of the {@link DownloadManagerService#MESSAGE_PROGRESS} events
+     */
+    private static final long PROGRESS_INTERVAL = 1000;// 1 second
+    private final Runnable rProgress = this::publishProgress;
+    private boolean mPublishingProgress = false;
+
     private NetworkState mLastNetworkStatus = NetworkState.Unavailable;
 
     int mPrefMaxRetry;
@@ -71,8 +101,10 @@ public class DownloadManager {
         mHandler = handler;
         mMainStorageAudio = storageAudio;
         mMainStorageVideo = storageVideo;
-        mMissionsFinished = loadFinishedMissions();
+        mMissionsFinished = new FinishedMissionList(mFinishedMissionStore.loadFinishedMissionIds(),
+                this::loadFinishedMissions);
         mPendingMissionsDir = getPendingDir(context);
+        mMetricsFile = new File(mPendingMissionsDir.getParentFile(), METRICS_FILE);
 
         loadPendingMissions(context);
     }
@@ -106,25 +138,53 @@ public class DownloadManager {
     }
 
     /**
-     * Loads finished missions from the data source and forgets finished missions whose file does
-     * not exist anymore.
+     * Loads a page of finished missions, the files of the page are checked in background
+     *
+     * @see FinishedMissionStore#loadFinishedMissions(long[], int, int)
      */
-    private ArrayList<FinishedMission> loadFinishedMissions() {
-        ArrayList<FinishedMission> finishedMissions = mFinishedMissionStore.loadFinishedMissions();
+    private List<FinishedMission> loadFinishedMissions(long[] ids, int from, int to) {
+        List<FinishedMission> page = mFinishedMissionStore.loadFinishedMissions(ids, from, to);
+        forgetRemovedFinishedMissions(page);
+        return page;
+    }
 
-        // check if the files exists, otherwise, forget the download
-        for (int i = finishedMissions.size() - 1; i >= 0; i--) {
-            FinishedMission mission = finishedMissions.get(i);
+    /**
+     * Forgets the finished missions whose file does not exist anymore. The files are checked in
+     * background when the page is loaded, at most once per mission while the service is alive,
+     * so the startup time does not grow with the download history
+     *
+     * @param page the missions just loaded
+     */
+    private void forgetRemovedFinishedMissions(List<FinishedMission> page) {
+        ArrayList<FinishedMission> missions = new ArrayList<>(page.size());
+        synchronized (mFinishedMissionsChecked) {
+            for (FinishedMission mission : page) {
+                if (mFinishedMissionsChecked.add(mission.id)) missions.add(mission);
+            }
+        }
+        if (missions.isEmpty()) return;
+
+        Thread thread = new Thread(() -> {
+            boolean changed = false;
+
+            for (FinishedMission mission : missions) {
+                if (mission.storage.existsAsFile()) continue;
 
-            if (!mission.storage.existsAsFile()) {
                 if (DEBUG) Log.d(TAG, "downloaded file removed: " + mission.storage.getName());
 
-                mFinishedMissionStore.deleteMission(mission);
-                finishedMissions.remove(i);
+                synchronized (DownloadManager.this) {
+                    mFinishedMissionStore.deleteMission(mission);
+                    mMissionsFinished.remove(mission);
+                    mVersion++;
+                }
+                changed = true;
             }
-        }
 
-        return finishedMissions;
+            if (changed) notifyChange(DownloadManagerService.MESSAGE_CHANGED, null);
+        }, "FinishedMissionsCheck");
+
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
     }
 
     private void loadPendingMissions(Context ctx) {
@@ -148,7 +208,14 @@ public class DownloadManager {
             if (!sub.isFile()) continue;
             if (sub.getName().equals(".tmp")) continue;
 
-            DownloadMission mis = Utility.readFromFile(sub);
+            if (sub.getName().endsWith(MissionJournal.TEMPORAL_SUFFIX)) {
+                // unfinished compaction, the previous journal is still valid
+                //noinspection ResultOfMethodCallIgnored
+                sub.delete();
+                continue;
+            }
+
+            DownloadMission mis = MissionJournal.read(sub);
             if (mis == null || mis.isFinished() || mis.hasInvalidStorage()) {
                 //noinspection ResultOfMethodCallIgnored
                 sub.delete();
@@ -190,11 +257,14 @@ public class DownloadManager {
             if (mis.psAlgorithm != null) {
                 mis.psAlgorithm.cleanupTemporalDir();
                 mis.psAlgorithm.setTemporalDir(tempDir);
+                mis.psAlgorithm.cleanupStreamingOutputs(mis);
             }
 
             mis.metadata = sub;
             mis.maxRetry = mPrefMaxRetry;
             mis.mHandler = mHandler;
+            mis.downloadScheduler = mScheduler;
+            mis.metrics = mMetrics.track(mis.storage.getName());
 
             mMissionsPending.add(mis);
         }
@@ -212,6 +282,8 @@ public class DownloadManager {
         synchronized (this) {
             mission.timestamp = System.currentTimeMillis();
             mission.mHandler = mHandler;
+            mission.downloadScheduler = mScheduler;
+            mission.metrics = mMetrics.track(mission.storage.getName());
             mission.maxRetry = mPrefMaxRetry;
 
             // create metadata file
@@ -231,9 +303,11 @@ public class DownloadManager {
 
             mSelfMissionsControl = true;
             mMissionsPending.add(mission);
+            mVersion++;
+            notifyChange(DownloadManagerService.MESSAGE_ADDED, mission);
 
             // Before continue, save the metadata in case the internet connection is not available
-            Utility.writeToFile(mission.metadata, mission);
+            mission.writeThisToFile();
 
             if (mission.storage == null) {
                 // noting to do here
@@ -243,9 +317,11 @@ public class DownloadManager {
                 return;
             }
 
-            boolean start = !mPrefQueueLimit || getRunningMissionsCount() < 1;
+            boolean start = mPrefQueueLimit ? getRunningMissionsCount() < 1 : mScheduler.hasFreeConnections();
 
             if (canDownloadInCurrentNetwork() && start) {
+                // the user is waiting for this one
+                mScheduler.setPriority(mission);
                 mission.start();
             }
         }
@@ -254,6 +330,7 @@ public class DownloadManager {
 
     public void resumeMission(DownloadMission mission) {
         if (!mission.running) {
+            mScheduler.setPriority(mission);
             mission.start();
         }
     }
@@ -270,10 +347,11 @@ public class DownloadManager {
             if (mission instanceof DownloadMission) {
                 mMissionsPending.remove(mission);
             } else if (mission instanceof FinishedMission) {
-                mMissionsFinished.remove(mission);
+                mMissionsFinished.remove((FinishedMission) mission);
                 mFinishedMissionStore.deleteMission(mission);
             }
 
+            mVersion++;
             mission.delete();
         }
     }
@@ -286,10 +364,12 @@ public class DownloadManager {
             if (mission instanceof DownloadMission) {
                 mMissionsPending.remove(mission);
             } else if (mission instanceof FinishedMission) {
-                mMissionsFinished.remove(mission);
+                mMissionsFinished.remove((FinishedMission) mission);
                 mFinishedMissionStore.deleteMission(mission);
+                notifyChange(DownloadManagerService.MESSAGE_CHANGED, null);
             }
 
+            mVersion++;
             mission.storage = null;
             mission.delete();
         }
@@ -332,34 +412,36 @@ public class DownloadManager {
     }
 
     /**
-     * Get the index into {@link #mMissionsFinished} of a finished mission by its path, return
-     * {@code -1} if there is no such mission. This function also checks if the matched mission's
-     * file exists, and, if it does not, the related mission is forgotten about (like in {@link
-     * #loadFinishedMissions()}) and {@code -1} is returned.
+     * Get a finished mission by its path, return {@code null} if there is no such mission. This
+     * function also checks if the matched mission's file exists, and, if it does not, the related
+     * mission is forgotten about (like in {@link #forgetRemovedFinishedMissions(List)}) and
+     * {@code null} is returned.
      *
      * @param storage where the file would be stored
-     * @return the mission index or -1 if no such mission exists
+     * @return the mission or {@code null} if no such mission exists
      */
-    private int getFinishedMissionIndex(StoredFileHelper storage) {
-        for (int i = 0; i < mMissionsFinished.size(); i++) {
-            if (mMissionsFinished.get(i).storage.equals(storage)) {
-                // If the file does not exist the mission is not valid anymore. Also checking if
-                // length == 0 since the file picker may create an empty file before yielding it,
-                // but that does not mean the file really belonged to a previous mission.
-                if (!storage.existsAsFile() || storage.length() == 0) {
-                    if (DEBUG) {
-                        Log.d(TAG, "matched downloaded file removed: " + storage.getName());
-                    }
+    @Nullable
+    private FinishedMission getFinishedMission(StoredFileHelper storage) {
+        FinishedMission mission = mFinishedMissionStore.findFinishedMission(storage);
+        if (mission == null) return null;
+
+        // If the file does not exist the mission is not valid anymore. Also checking if
+        // length == 0 since the file picker may create an empty file before yielding it,
+        // but that does not mean the file really belonged to a previous mission.
+        if (!storage.existsAsFile() || storage.length() == 0) {
+            if (DEBUG) {
+                Log.d(TAG, "matched downloaded file removed: " + storage.getName());
+            }
 
-                    mFinishedMissionStore.deleteMission(mMissionsFinished.get(i));
-                    mMissionsFinished.remove(i);
-                    return -1; // finished mission whose associated file was removed
-                }
-                return i;
+            mFinishedMissionStore.deleteMission(mission);
+            if (mMissionsFinished.remove(mission)) {
+                mVersion++;
+                notifyChange(DownloadManagerService.MESSAGE_CHANGED, null);
             }
+            return null; // finished mission whose associated file was removed
         }
 
-        return -1;
+        return mission;
     }
 
     private Mission getAnyMission(StoredFileHelper storage) {
@@ -367,8 +449,8 @@ public class DownloadManager {
             Mission mission = getPendingMission(storage);
             if (mission != null) return mission;
 
-            int idx = getFinishedMissionIndex(storage);
-            if (idx >= 0) return mMissionsFinished.get(idx);
+            FinishedMission finished = getFinishedMission(storage);
+            if (finished != null) return finished;
         }
 
         return null;
@@ -420,8 +502,16 @@ public class DownloadManager {
     void setFinished(DownloadMission mission) {
         synchronized (this) {
             mMissionsPending.remove(mission);
-            mMissionsFinished.add(0, new FinishedMission(mission));
-            mFinishedMissionStore.addFinishedMission(mission);
+
+            FinishedMission finished = new FinishedMission(mission);
+            finished.id = mFinishedMissionStore.addFinishedMission(mission);
+
+            if (finished.id < 0)
+                Log.e(TAG, "setFinished() cannot store the finished mission " + mission.storage.getName());
+            else
+                mMissionsFinished.add(finished);
+
+            mVersion++;
         }
     }
 
@@ -445,7 +535,10 @@ public class DownloadManager {
                 if (mission.running || !mission.enqueued || mission.isFinished())
                     continue;
 
-                resumeMission(mission);
+                // every running mission uses at least one connection
+                if (!mPrefQueueLimit && !mScheduler.hasFreeConnections()) return true;
+
+                mission.start();
                 if (mission.errCode != DownloadMission.ERROR_NOTHING) continue;
 
                 if (mPrefQueueLimit) return true;
@@ -461,15 +554,53 @@ public class DownloadManager {
         return new MissionIterator();
     }
 
+    /**
+     * Publishes a change of the mission lists to the observers of the service
+     *
+     * @param what    one of the {@code DownloadManagerService.MESSAGE_*} constants
+     * @param mission the mission or {@code null} if several missions changed
+     */
+    private void notifyChange(int what, @Nullable Mission mission) {
+        mHandler.obtainMessage(what, mission).sendToTarget();
+    }
+
+    /**
+     * Starts publishing {@link DownloadManagerService#MESSAGE_PROGRESS} for every running
+     * mission, until all missions are stopped. Must be called from the main thread
+     */
+    void startProgressUpdates() {
+        if (mPublishingProgress) return;
+
+        mPublishingProgress = true;
+        mHandler.postDelayed(rProgress, PROGRESS_INTERVAL);
+    }
+
+    private void publishProgress() {
+        boolean running = false;
+
+        synchronized (this) {
+            for (DownloadMission mission : mMissionsPending) {
+                if (!mission.running || mission.isFinished()) continue;
+
+                notifyChange(DownloadManagerService.MESSAGE_PROGRESS, mission);
+                running = true;
+            }
+        }
+
+        if (running)
+            mHandler.postDelayed(rProgress, PROGRESS_INTERVAL);
+        else
+            mPublishingProgress = false;
+    }
+
     /**
      * Forget all finished downloads, but, doesn't delete any file
      */
     public void forgetFinishedDownloads() {
         synchronized (this) {
-            for (FinishedMission mission : mMissionsFinished) {
-                mFinishedMissionStore.deleteMission(mission);
-            }
+            mFinishedMissionStore.deleteAllMissions();
             mMissionsFinished.clear();
+            mVersion++;
         }
     }
 
@@ -482,6 +613,7 @@ public class DownloadManager {
         if (currentStatus == mLastNetworkStatus) return;
 
         mLastNetworkStatus = currentStatus;
+        mScheduler.setMetered(currentStatus == NetworkState.MeteredOperating);
         if (currentStatus == NetworkState.Unavailable) return;
 
         if (!mSelfMissionsControl || updateOnly) {
@@ -497,6 +629,8 @@ public class DownloadManager {
                 if (mission.running && isMetered) {
                     mission.pause();
                 } else if (!mission.running && !isMetered && mission.enqueued) {
+                    if (!mPrefQueueLimit && !mScheduler.hasFreeConnections()) break;
+
                     mission.start();
                     if (mPrefQueueLimit) break;
                 }
@@ -504,6 +638,41 @@ public class DownloadManager {
         }
     }
 
+    /**
+     * Writes the metrics of the recent missions to a local JSON file (in the app directory of
+     * the external storage, if available)
+     *
+     * @return the file or {@code null} if cannot be written
+     */
+    @Nullable
+    File dumpMetrics() {
+        synchronized (mMetricsFile) {
+            try {
+                mMetrics.dump(mMetricsFile);
+                return mMetricsFile;
+            } catch (IOException e) {
+                Log.e(TAG, "dumpMetrics() failed", e);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #dumpMetrics()} but in background, the calls made while a dump is pending
+     * are merged into it
+     */
+    void dumpMetricsAsync() {
+        if (mMetricsDumpPending.getAndSet(true)) return;
+
+        Thread thread = new Thread(() -> {
+            mMetricsDumpPending.set(false);
+            dumpMetrics();
+        }, "MetricsDump");
+
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
     void updateMaximumAttempts() {
         synchronized (this) {
             for (DownloadMission mission : mMissionsPending) mission.maxRetry = mPrefMaxRetry;
@@ -515,7 +684,7 @@ public class DownloadManager {
             DownloadMission pending = getPendingMission(storage);
 
             if (pending == null) {
-                if (getFinishedMissionIndex(storage) >= 0) return MissionState.Finished;
+                if (getFinishedMission(storage) != null) return MissionState.Finished;
             } else {
                 if (pending.isFinished()) {
                     return MissionState.Finished;// this never should happen (race-condition)
@@ -560,55 +729,81 @@ public class DownloadManager {
         return null;// this never should happen
     }
 
-    public class MissionIterator extends DiffUtil.Callback {
+    public class MissionIterator {
         final Object FINISHED = new Object();
         final Object PENDING = new Object();
 
-        ArrayList<Object> snapshot;
-        ArrayList<Object> current;
+        MissionListDiff.Snapshot snapshot;
         ArrayList<Mission> hidden;
-
-        boolean hasFinished = false;
+        int hiddenVersion;
 
         private MissionIterator() {
             hidden = new ArrayList<>(2);
-            current = null;
             snapshot = getSpecialItems();
         }
 
-        private ArrayList<Object> getSpecialItems() {
+        private MissionListDiff.Snapshot getSpecialItems() {
             synchronized (DownloadManager.this) {
                 ArrayList<Mission> pending = new ArrayList<>(mMissionsPending);
-                ArrayList<Mission> finished = new ArrayList<>(mMissionsFinished);
-                List<Mission> remove = new ArrayList<>(hidden);
+                long[] finished = mMissionsFinished.getIds();
 
                 // hide missions (if required)
-                remove.removeIf(mission -> pending.remove(mission) || finished.remove(mission));
+                if (!hidden.isEmpty()) {
+                    pending.removeAll(hidden);
+                    finished = removeHidden(finished);
+                }
 
                 int fakeTotal = pending.size();
                 if (fakeTotal > 0) fakeTotal++;
-
-                fakeTotal += finished.size();
-                if (finished.size() > 0) fakeTotal++;
+                if (finished.length > 0) fakeTotal++;
 
                 ArrayList<Object> list = new ArrayList<>(fakeTotal);
                 if (pending.size() > 0) {
                     list.add(PENDING);
                     list.addAll(pending);
                 }
-                if (finished.size() > 0) {
+                if (finished.length > 0) {
                     list.add(FINISHED);
-                    list.addAll(finished);
                 }
 
-                hasFinished = finished.size() > 0;
+                return new MissionListDiff.Snapshot(list, finished, mVersion, hiddenVersion);
+            }
+        }
+
+        private long[] removeHidden(long[] ids) {
+            HashSet<Long> hiddenIds = new HashSet<>(hidden.size());
+            for (Mission mission : hidden) {
+                if (mission instanceof FinishedMission) hiddenIds.add(((FinishedMission) mission).id);
+            }
+
+            if (hiddenIds.isEmpty()) return ids;
 
-                return list;
+            long[] result = new long[ids.length];
+            int count = 0;
+            for (long id : ids) {
+                if (!hiddenIds.contains(id)) result[count++] = id;
             }
+
+            return Arrays.copyOf(result, count);
         }
 
         public MissionItem getItem(int position) {
-            Object object = snapshot.get(position);
+            int count = snapshot.items.size();
+
+            if (position >= count) {
+                FinishedMission mission = mMissionsFinished.get(snapshot.finished, position - count);
+
+                if (mission == null) {
+                    // removed from the store, the list is not updated yet
+                    mission = new FinishedMission();
+                    mission.storage = new StoredFileHelper(null, "", null, "");
+                    mission.deleted = true;
+                }
+
+                return new MissionItem(SPECIAL_NOTHING, mission);
+            }
+
+            Object object = snapshot.items.get(position);
 
             if (object == PENDING) return new MissionItem(SPECIAL_PENDING);
             if (object == FINISHED) return new MissionItem(SPECIAL_FINISHED);
@@ -617,7 +812,9 @@ public class DownloadManager {
         }
 
         public int getSpecialAtItem(int position) {
-            Object object = snapshot.get(position);
+            if (position >= snapshot.items.size()) return SPECIAL_NOTHING;
+
+            Object object = snapshot.items.get(position);
 
             if (object == PENDING) return SPECIAL_PENDING;
             if (object == FINISHED) return SPECIAL_FINISHED;
@@ -626,25 +823,55 @@ public class DownloadManager {
         }
 
 
-        public void start() {
-            current = getSpecialItems();
+        /**
+         * @return {@code true} if the missions changed since the shown snapshot was taken
+         */
+        public boolean hasChanges() {
+            synchronized (DownloadManager.this) {
+                return snapshot.version != mVersion || snapshot.hiddenVersion != hiddenVersion;
+            }
+        }
+
+        /**
+         * Takes a new snapshot of the missions, call {@link MissionListDiff#calculate()} in
+         * background and then {@link #applyChanges(MissionListDiff)}
+         *
+         * @return the changes since the shown snapshot
+         */
+        public MissionListDiff prepareChanges() {
+            return new MissionListDiff(snapshot, getSpecialItems());
+        }
+
+        /**
+         * Shows the new snapshot, the changes must be dispatched to the adapter right after
+         *
+         * @param changes the changes returned by {@link #prepareChanges()}
+         * @return {@code false} if the changes are outdated, the shown snapshot was replaced
+         */
+        public boolean applyChanges(MissionListDiff changes) {
+            if (changes.from != snapshot) return false;
+            snapshot = changes.getSnapshot();
+            return true;
         }
 
-        public void end() {
-            snapshot = current;
-            current = null;
+        /**
+         * Shows a new snapshot without calculating the changes, the whole list must be refreshed
+         */
+        public void reset() {
+            snapshot = getSpecialItems();
         }
 
         public void hide(Mission mission) {
             hidden.add(mission);
+            hiddenVersion++;
         }
 
         public void unHide(Mission mission) {
-            hidden.remove(mission);
+            if (hidden.remove(mission)) hiddenVersion++;
         }
 
         public boolean hasFinishedMissions() {
-            return hasFinished;
+            return snapshot.finished.length > 0;
         }
 
         /**
@@ -674,32 +901,12 @@ public class DownloadManager {
         }
 
 
-        @Override
-        public int getOldListSize() {
+        /**
+         * @return amount of items in the shown snapshot, including the headers
+         */
+        public int getCount() {
             return snapshot.size();
         }
-
-        @Override
-        public int getNewListSize() {
-            return current.size();
-        }
-
-        @Override
-        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
-            return snapshot.get(oldItemPosition) == current.get(newItemPosition);
-        }
-
-        @Override
-        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
-            Object x = snapshot.get(oldItemPosition);
-            Object y = current.get(newItemPosition);
-
-            if (x instanceof Mission && y instanceof Mission) {
-                return ((Mission) x).storage.equals(((Mission) y).storage);
-            }
-
-            return false;
-        }
     }
 
     public static class MissionItem {
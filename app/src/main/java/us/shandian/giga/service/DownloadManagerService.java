@@ -46,6 +46,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 
 import us.shandian.giga.get.DownloadMission;
+import us.shandian.giga.get.DownloadScheduler;
 import us.shandian.giga.get.MissionRecoveryInfo;
 import org.schabi.newpipe.streams.io.StoredDirectoryHelper;
 import org.schabi.newpipe.streams.io.StoredFileHelper;
@@ -66,11 +67,18 @@ public class DownloadManagerService extends Service {
     public static final int MESSAGE_FINISHED = 2;
     public static final int MESSAGE_ERROR = 3;
     public static final int MESSAGE_DELETED = 4;
+    public static final int MESSAGE_ADDED = 5;
+    public static final int MESSAGE_PROGRESS = 6;
+    /**
+     * The mission lists changed without a mission event, {@code Message.obj} is {@code null}
+     */
+    public static final int MESSAGE_CHANGED = 7;
 
     private static final int FOREGROUND_NOTIFICATION_ID = 1000;
     private static final int DOWNLOADS_NOTIFICATION_ID = 1001;
 
     private static final String EXTRA_URLS = "DownloadManagerService.extra.urls";
+    private static final String EXTRA_MIRRORS = "DownloadManagerService.extra.mirrors";
     private static final String EXTRA_KIND = "DownloadManagerService.extra.kind";
     private static final String EXTRA_THREADS = "DownloadManagerService.extra.threads";
     private static final String EXTRA_POSTPROCESSING_NAME = "DownloadManagerService.extra.postprocessingName";
@@ -194,6 +202,8 @@ public class DownloadManagerService extends Service {
         handlePreferenceChange(mPrefs, getString(R.string.downloads_cross_network));
         handlePreferenceChange(mPrefs, getString(R.string.downloads_maximum_retry));
         handlePreferenceChange(mPrefs, getString(R.string.downloads_queue_limit));
+        handlePreferenceChange(mPrefs, getString(R.string.downloads_maximum_connections));
+        handlePreferenceChange(mPrefs, getString(R.string.downloads_bandwidth_limit));
 
         mLock = new LockManager(this);
     }
@@ -284,6 +294,16 @@ public class DownloadManagerService extends Service {
     private boolean handleMessage(@NonNull Message msg) {
         if (mHandler == null) return true;
 
+        switch (msg.what) {
+            case MESSAGE_ADDED:
+            case MESSAGE_PROGRESS:
+            case MESSAGE_CHANGED:
+                // only for the observers
+                for (Callback observer : mEchoObservers)
+                    observer.handleMessage(msg);
+                return true;
+        }
+
         DownloadMission mission = (DownloadMission) msg.obj;
 
         switch (msg.what) {
@@ -291,14 +311,17 @@ public class DownloadManagerService extends Service {
                 notifyMediaScanner(mission.storage.getUri());
                 notifyFinishedDownload(mission.storage.getName());
                 mManager.setFinished(mission);
+                mManager.dumpMetricsAsync();
                 handleConnectivityState(false);
                 updateForegroundState(mManager.runMissions());
                 break;
             case MESSAGE_RUNNING:
                 updateForegroundState(true);
+                mManager.startProgressUpdates();
                 break;
             case MESSAGE_ERROR:
                 notifyFailedDownload(mission);
+                mManager.dumpMetricsAsync();
                 handleConnectivityState(false);
                 updateForegroundState(mManager.runMissions());
                 break;
@@ -352,6 +375,20 @@ public class DownloadManagerService extends Service {
             mManager.mPrefMeteredDownloads = prefs.getBoolean(key, false);
         } else if (key.equals(getString(R.string.downloads_queue_limit))) {
             mManager.mPrefQueueLimit = prefs.getBoolean(key, true);
+        } else if (key.equals(getString(R.string.downloads_maximum_connections))) {
+            try {
+                String value = prefs.getString(key, getString(R.string.downloads_maximum_connections_default));
+                mManager.mScheduler.setConnectionBudget(Integer.parseInt(value));
+            } catch (Exception e) {
+                mManager.mScheduler.setConnectionBudget(DownloadScheduler.DEFAULT_CONNECTIONS);
+            }
+        } else if (key.equals(getString(R.string.downloads_bandwidth_limit))) {
+            try {
+                String value = prefs.getString(key, getString(R.string.downloads_bandwidth_limit_default));
+                mManager.mScheduler.setBandwidthLimit(Long.parseLong(value) * 1024);
+            } catch (Exception e) {
+                mManager.mScheduler.setBandwidthLimit(0);
+            }
         } else if (key.equals(getString(R.string.download_path_video_key))) {
             mManager.mMainStorageVideo = loadMainVideoStorage();
         } else if (key.equals(getString(R.string.download_path_audio_key))) {
@@ -378,6 +415,7 @@ public class DownloadManagerService extends Service {
      *
      * @param context      the activity context
      * @param urls         array of urls to download
+     * @param mirrors      urls of other servers serving the same files, one array per url, can be {@code null}
      * @param storage      where the file is saved
      * @param kind         type of file (a: audio  v: video  s: subtitle ?: file-extension defined)
      * @param threads      the number of threads maximal used to download chunks of the file.
@@ -387,12 +425,13 @@ public class DownloadManagerService extends Service {
      * @param nearLength   the approximated final length of the file
      * @param recoveryInfo array of MissionRecoveryInfo, in case is required recover the download
      */
-    public static void startMission(Context context, String[] urls, StoredFileHelper storage,
+    public static void startMission(Context context, String[] urls, String[][] mirrors, StoredFileHelper storage,
                                     char kind, int threads, String source, String psName,
                                     String[] psArgs, long nearLength, MissionRecoveryInfo[] recoveryInfo) {
         Intent intent = new Intent(context, DownloadManagerService.class);
         intent.setAction(Intent.ACTION_RUN);
         intent.putExtra(EXTRA_URLS, urls);
+        intent.putExtra(EXTRA_MIRRORS, mirrors);
         intent.putExtra(EXTRA_KIND, kind);
         intent.putExtra(EXTRA_THREADS, threads);
         intent.putExtra(EXTRA_SOURCE, source);
@@ -410,6 +449,7 @@ public class DownloadManagerService extends Service {
 
     private void startMission(Intent intent) {
         String[] urls = intent.getStringArrayExtra(EXTRA_URLS);
+        String[][] mirrors = (String[][]) intent.getSerializableExtra(EXTRA_MIRRORS);
         Uri path = intent.getParcelableExtra(EXTRA_PATH);
         Uri parentPath = intent.getParcelableExtra(EXTRA_PARENT_PATH);
         int threads = intent.getIntExtra(EXTRA_THREADS, 1);
@@ -440,6 +480,7 @@ public class DownloadManagerService extends Service {
 
         final DownloadMission mission = new DownloadMission(urls, storage, kind, ps);
         mission.threadCount = threads;
+        mission.mirrors = mirrors;
         mission.source = source;
         mission.nearLength = nearLength;
         mission.recoveryInfo = recovery;
@@ -601,6 +642,16 @@ public class DownloadManagerService extends Service {
             );
         }
 
+        /**
+         * Writes the metrics of the recent missions to a local JSON file
+         *
+         * @return the file or {@code null} if cannot be written
+         */
+        @Nullable
+        public File dumpMetrics() {
+            return mManager.dumpMetrics();
+        }
+
         public void addMissionEventListener(Callback handler) {
             mEchoObservers.add(handler);
         }
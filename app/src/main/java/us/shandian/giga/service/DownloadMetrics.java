@@ -0,0 +1,81 @@
+package us.shandian.giga.service;
+
+import androidx.annotation.NonNull;
+
+import com.grack.nanojson.JsonAppendableWriter;
+import com.grack.nanojson.JsonWriter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+
+/**
+ * Keeps the {@link MissionMetrics} of the recent missions and dumps them to a local JSON file,
+ * to diagnose slow missions without attaching a debugger
+ */
+public class DownloadMetrics {
+    /**
+     * Amount of missions kept, the oldest ones are forgotten
+     */
+    static final int MAXIMUM_MISSIONS = 32;
+
+    private final ArrayDeque<MissionMetrics> missions = new ArrayDeque<>();
+
+    /**
+     * Starts recording the metrics of a mission
+     *
+     * @param name name of the mission
+     * @return the metrics of the mission
+     */
+    public synchronized MissionMetrics track(String name) {
+        MissionMetrics metrics = new MissionMetrics(name);
+
+        while (missions.size() >= MAXIMUM_MISSIONS) missions.removeFirst();
+        missions.addLast(metrics);
+
+        return metrics;
+    }
+
+    /**
+     * Writes the metrics of the recent missions as JSON
+     *
+     * @param out the destination
+     */
+    public void writeTo(@NonNull OutputStream out) {
+        MissionMetrics[] list;
+        synchronized (this) {
+            list = missions.toArray(new MissionMetrics[0]);
+        }
+
+        JsonAppendableWriter writer = JsonWriter.on(out);
+        writer.object();
+        writer.value("timestamp", System.currentTimeMillis());
+        writer.array("missions");
+        for (MissionMetrics metrics : list) metrics.writeTo(writer);
+        writer.end();
+        writer.end();
+        writer.done();
+    }
+
+    /**
+     * Replaces the file with the metrics of the recent missions
+     *
+     * @param file the destination
+     * @throws IOException if the file cannot be written
+     */
+    public void dump(@NonNull File file) throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+
+        try (OutputStream out = new FileOutputStream(temp)) {
+            writeTo(out);
+        }
+
+        if (!temp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw new IOException("cannot replace " + file);
+        }
+    }
+}
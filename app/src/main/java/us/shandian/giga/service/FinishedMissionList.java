@@ -0,0 +1,135 @@
+package us.shandian.giga.service;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import us.shandian.giga.get.FinishedMission;
+import us.shandian.giga.get.sqlite.FinishedMissionStore;
+
+/**
+ * The finished missions, newest first. Only the ids are kept in memory, the missions are loaded
+ * by pages from the {@link FinishedMissionStore} when required and a limited amount of them is
+ * cached, so the memory used and the startup time do not grow with the download history.
+ * <p>
+ * The ids are never modified, every change creates a new array, so a list of ids can be used as
+ * an snapshot of the finished missions
+ */
+class FinishedMissionList {
+    static final int PAGE_SIZE = 50;
+    static final int CACHE_SIZE = 4 * PAGE_SIZE;
+
+    interface Loader {
+        /**
+         * @see FinishedMissionStore#loadFinishedMissions(long[], int, int)
+         */
+        List<FinishedMission> load(long[] ids, int from, int to);
+    }
+
+    private final Loader loader;
+    private final Map<Long, FinishedMission> cache =
+            new LinkedHashMap<Long, FinishedMission>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, FinishedMission> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private long[] ids;
+    private int pagesLoaded;
+
+    /**
+     * @param ids    ids of the finished missions, see {@link FinishedMissionStore#loadFinishedMissionIds()}
+     * @param loader loads a page of missions
+     */
+    FinishedMissionList(@NonNull long[] ids, @NonNull Loader loader) {
+        this.ids = ids;
+        this.loader = loader;
+    }
+
+    /**
+     * @return the ids of the finished missions, must not be modified
+     */
+    synchronized long[] getIds() {
+        return ids;
+    }
+
+    synchronized int size() {
+        return ids.length;
+    }
+
+    /**
+     * Gets a mission, the page of the mission is loaded if not cached
+     *
+     * @param ids   the ids of the finished missions, returned by {@link #getIds()}
+     * @param index the index of the mission in the ids
+     * @return the mission or {@code null} if was removed from the store
+     */
+    @Nullable
+    synchronized FinishedMission get(long[] ids, int index) {
+        FinishedMission mission = cache.get(ids[index]);
+        if (mission != null) return mission;
+
+        int from = index - index % PAGE_SIZE;
+        int to = Math.min(from + PAGE_SIZE, ids.length);
+
+        for (FinishedMission loaded : loader.load(ids, from, to)) {
+            if (!cache.containsKey(loaded.id)) cache.put(loaded.id, loaded);
+        }
+        pagesLoaded++;
+
+        return cache.get(ids[index]);
+    }
+
+    /**
+     * @return amount of pages loaded from the store
+     */
+    synchronized int getPagesLoaded() {
+        return pagesLoaded;
+    }
+
+    /**
+     * Adds a mission just stored, as the newest one
+     *
+     * @param mission the mission
+     */
+    synchronized void add(@NonNull FinishedMission mission) {
+        if (mission.id < 0) throw new IllegalArgumentException("the mission is not stored");
+
+        long[] list = new long[ids.length + 1];
+        list[0] = mission.id;
+        System.arraycopy(ids, 0, list, 1, ids.length);
+
+        ids = list;
+        cache.put(mission.id, mission);
+    }
+
+    /**
+     * Removes a mission, it is still returned by {@link #get(long[], int)} while cached
+     *
+     * @param mission the mission
+     * @return {@code true} if the mission was removed
+     */
+    synchronized boolean remove(@NonNull FinishedMission mission) {
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] != mission.id) continue;
+
+            long[] list = new long[ids.length - 1];
+            System.arraycopy(ids, 0, list, 0, i);
+            System.arraycopy(ids, i + 1, list, i, list.length - i);
+
+            ids = list;
+            return true;
+        }
+
+        return false;
+    }
+
+    synchronized void clear() {
+        ids = new long[0];
+        cache.clear();
+    }
+}
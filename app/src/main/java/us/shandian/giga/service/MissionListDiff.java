@@ -0,0 +1,213 @@
+package us.shandian.giga.service;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+
+import us.shandian.giga.get.Mission;
+
+/**
+ * The changes between two snapshots of the mission list. The snapshots are immutable, so the
+ * changes can be calculated in any thread while the adapter keeps showing the old snapshot.
+ * <p>
+ * Usually only a few items change (a mission added, finished or deleted), the common head and
+ * tail of both snapshots are skipped by comparing the items once, only the remaining window is
+ * given to {@link DiffUtil}
+ */
+public class MissionListDiff extends DiffUtil.Callback {
+
+    /**
+     * The items of the list: the headers and the pending missions, followed by the ids of the
+     * finished missions, which are loaded only when shown
+     */
+    public static class Snapshot {
+        final ArrayList<Object> items;
+        final long[] finished;
+
+        /**
+         * Changes counted by the {@link DownloadManager} and by the iterator (hidden missions)
+         * when the snapshot was taken
+         */
+        final int version;
+        final int hiddenVersion;
+
+        Snapshot(ArrayList<Object> items, long[] finished, int version, int hiddenVersion) {
+            this.items = items;
+            this.finished = finished;
+            this.version = version;
+            this.hiddenVersion = hiddenVersion;
+        }
+
+        int size() {
+            return items.size() + finished.length;
+        }
+
+        boolean isSameItem(int position, Snapshot other, int otherPosition) {
+            int count = items.size();
+            int otherCount = other.items.size();
+
+            if (position >= count && otherPosition >= otherCount) {
+                // the finished missions are compared by id, without loading them
+                return finished[position - count] == other.finished[otherPosition - otherCount];
+            }
+
+            if (position >= count || otherPosition >= otherCount) return false;
+
+            return items.get(position) == other.items.get(otherPosition);
+        }
+
+        boolean isSameContent(int position, Snapshot other, int otherPosition) {
+            if (position >= items.size() && otherPosition >= other.items.size()) {
+                // finished missions never change
+                return isSameItem(position, other, otherPosition);
+            }
+
+            if (position >= items.size() || otherPosition >= other.items.size()) return false;
+
+            Object x = items.get(position);
+            Object y = other.items.get(otherPosition);
+
+            if (x instanceof Mission && y instanceof Mission) {
+                return ((Mission) x).storage.equals(((Mission) y).storage);
+            }
+
+            // headers
+            return x == y;
+        }
+    }
+
+    final Snapshot from;
+    final Snapshot to;
+
+    /**
+     * Start of the window, amount of common items at the head of both snapshots
+     */
+    int start;
+
+    /**
+     * Size of the window in each snapshot
+     */
+    int oldCount;
+    int newCount;
+
+    private boolean calculated = false;
+
+    @Nullable
+    private DiffUtil.DiffResult result;
+
+    MissionListDiff(@NonNull Snapshot from, @NonNull Snapshot to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    public Snapshot getSnapshot() {
+        return to;
+    }
+
+    /**
+     * Skips the common head and tail of both snapshots
+     */
+    private void findWindow() {
+        int oldSize = from.size();
+        int newSize = to.size();
+        int common = Math.min(oldSize, newSize);
+
+        int head = 0;
+        while (head < common && from.isSameItem(head, to, head) && from.isSameContent(head, to, head))
+            head++;
+
+        int tail = 0;
+        while (tail < common - head) {
+            int oldPosition = oldSize - 1 - tail;
+            int newPosition = newSize - 1 - tail;
+
+            if (!from.isSameItem(oldPosition, to, newPosition) || !from.isSameContent(oldPosition, to, newPosition))
+                break;
+
+            tail++;
+        }
+
+        start = head;
+        oldCount = oldSize - head - tail;
+        newCount = newSize - head - tail;
+    }
+
+    /**
+     * Calculates the changes, can be slow, call it in background
+     *
+     * @return this object
+     */
+    public MissionListDiff calculate() {
+        if (calculated) return this;
+
+        findWindow();
+        if (!isEmpty()) result = DiffUtil.calculateDiff(this, true);
+
+        calculated = true;
+        return this;
+    }
+
+    /**
+     * @return {@code true} if there are no changes between the snapshots, {@link #calculate()}
+     * must be called before
+     */
+    public boolean isEmpty() {
+        return oldCount == 0 && newCount == 0;
+    }
+
+    /**
+     * Notifies the changes to the adapter, {@link #calculate()} must be called before
+     *
+     * @param adapter the adapter showing the old snapshot
+     */
+    public void dispatchUpdatesTo(@NonNull RecyclerView.Adapter<?> adapter) {
+        if (!calculated) throw new IllegalStateException("changes not calculated");
+        if (result == null) return;
+
+        result.dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                adapter.notifyItemRangeInserted(start + position, count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                adapter.notifyItemRangeRemoved(start + position, count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                adapter.notifyItemMoved(start + fromPosition, start + toPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count, @Nullable Object payload) {
+                adapter.notifyItemRangeChanged(start + position, count, payload);
+            }
+        });
+    }
+
+    @Override
+    public int getOldListSize() {
+        return oldCount;
+    }
+
+    @Override
+    public int getNewListSize() {
+        return newCount;
+    }
+
+    @Override
+    public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+        return from.isSameItem(start + oldItemPosition, to, start + newItemPosition);
+    }
+
+    @Override
+    public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+        return from.isSameContent(start + oldItemPosition, to, start + newItemPosition);
+    }
+}
@@ -0,0 +1,245 @@
+package us.shandian.giga.service;
+
+import com.grack.nanojson.JsonAppendableWriter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records why a mission is slow: the connection setup time and the time to first byte of every
+ * request, the throughput of every downloaded block, the retries and the time spent in every
+ * phase of the mission (initialization, post-processing).
+ * <p>
+ * The download threads report once per request or per block, never per read, so the cost of
+ * recording is negligible
+ */
+public class MissionMetrics {
+    /**
+     * Upper bounds of the buckets of the block throughput histogram, in KiB/s, the last bucket
+     * (not listed) has no upper bound
+     */
+    static final int[] THROUGHPUT_BUCKETS = {32, 64, 128, 256, 512, 1024, 2048, 4096, 8192, 16384};
+
+    private final String name;
+    private final long created = System.currentTimeMillis();
+
+    private final Timing connectionSetup = new Timing();
+    private final Timing firstByte = new Timing();
+    private final long[] histogram = new long[THROUGHPUT_BUCKETS.length + 1];
+    private final Map<Integer, Worker> workers = new TreeMap<>();
+    private final Map<String, Timing> phases = new LinkedHashMap<>();
+
+    private long blocks;
+    private long blockBytes;
+    private long blockTime;
+    private int retries;
+    private int recoveries;
+
+    static class Timing {
+        int count;
+        long total;
+        long min = Long.MAX_VALUE;
+        long max;
+
+        void add(long nanos) {
+            count++;
+            total += nanos;
+            min = Math.min(min, nanos);
+            max = Math.max(max, nanos);
+        }
+
+        void writeTo(JsonAppendableWriter writer, String key) {
+            writer.object(key);
+            writer.value("count", count);
+            if (count > 0) {
+                writer.value("total_ms", toMillis(total));
+                writer.value("min_ms", toMillis(min));
+                writer.value("avg_ms", toMillis(total / count));
+                writer.value("max_ms", toMillis(max));
+            }
+            writer.end();
+        }
+    }
+
+    private static class Worker {
+        final Timing connectionSetup = new Timing();
+        final Timing firstByte = new Timing();
+        long blocks;
+        long bytes;
+        long time;
+        int retries;
+        int recoveries;
+    }
+
+    /**
+     * @param name the name of the mission, usually the file name
+     */
+    public MissionMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    private Worker getWorker(int worker) {
+        Worker stats = workers.get(worker);
+        if (stats == null) {
+            stats = new Worker();
+            workers.put(worker, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * @param worker index of the download thread
+     * @param nanos  time since the request was made until the response headers were received,
+     *               includes the DNS lookup, TCP and TLS handshakes if the connection is new
+     */
+    public synchronized void onConnectionEstablished(int worker, long nanos) {
+        connectionSetup.add(nanos);
+        getWorker(worker).connectionSetup.add(nanos);
+    }
+
+    /**
+     * @param worker index of the download thread
+     * @param nanos  time since the request was made until the first byte of the body was read
+     */
+    public synchronized void onFirstByte(int worker, long nanos) {
+        firstByte.add(nanos);
+        getWorker(worker).firstByte.add(nanos);
+    }
+
+    /**
+     * @param worker index of the download thread
+     * @param bytes  amount of bytes downloaded in the block by the thread
+     * @param nanos  time since the block was acquired until completed, includes the requests and
+     *               retries
+     */
+    public synchronized void onBlockCompleted(int worker, long bytes, long nanos) {
+        if (bytes < 1 || nanos < 1) return;
+
+        histogram[getBucket(bytes, nanos)]++;
+        blocks++;
+        blockBytes += bytes;
+        blockTime += nanos;
+
+        Worker stats = getWorker(worker);
+        stats.blocks++;
+        stats.bytes += bytes;
+        stats.time += nanos;
+    }
+
+    /**
+     * @param worker index of the download thread which retries a request after an error
+     */
+    public synchronized void onRetry(int worker) {
+        retries++;
+        getWorker(worker).retries++;
+    }
+
+    /**
+     * @param worker index of the download thread which waits for the expired url to be resolved
+     */
+    public synchronized void onRecovery(int worker) {
+        recoveries++;
+        getWorker(worker).recoveries++;
+    }
+
+    /**
+     * Accounts the time spent in a phase of the mission, a phase can happen several times
+     *
+     * @param phase name of the phase
+     * @param nanos time spent
+     */
+    public synchronized void onPhase(String phase, long nanos) {
+        Timing timing = phases.get(phase);
+        if (timing == null) {
+            timing = new Timing();
+            phases.put(phase, timing);
+        }
+        timing.add(nanos);
+    }
+
+    /**
+     * @param bytes amount of bytes
+     * @param nanos time spent downloading them
+     * @return the index of the bucket in the throughput histogram
+     */
+    static int getBucket(long bytes, long nanos) {
+        double kibPerSecond = bytes / 1024.0 / (nanos / 1e9);
+
+        for (int i = 0; i < THROUGHPUT_BUCKETS.length; i++) {
+            if (kibPerSecond < THROUGHPUT_BUCKETS[i]) return i;
+        }
+
+        return THROUGHPUT_BUCKETS.length;
+    }
+
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 1e4) / 100.0;
+    }
+
+    private static long toKiBPerSecond(long bytes, long nanos) {
+        return nanos < 1 ? 0 : (long) (bytes / 1024.0 / (nanos / 1e9));
+    }
+
+    /**
+     * Writes the metrics as a JSON object
+     *
+     * @param writer the destination
+     */
+    public synchronized void writeTo(JsonAppendableWriter writer) {
+        writer.object();
+        writer.value("name", name);
+        writer.value("created", created);
+
+        connectionSetup.writeTo(writer, "connection_setup");
+        firstByte.writeTo(writer, "time_to_first_byte");
+
+        writer.object("blocks");
+        writer.value("count", blocks);
+        writer.value("bytes", blockBytes);
+        writer.value("average_kib_per_second", toKiBPerSecond(blockBytes, blockTime));
+        writer.array("throughput_histogram");
+        for (int i = 0; i < histogram.length; i++) {
+            writer.object();
+            if (i < THROUGHPUT_BUCKETS.length)
+                writer.value("below_kib_per_second", THROUGHPUT_BUCKETS[i]);
+            else
+                writer.nul("below_kib_per_second");
+            writer.value("count", histogram[i]);
+            writer.end();
+        }
+        writer.end();
+        writer.end();
+
+        writer.value("retries", retries);
+        writer.value("recoveries", recoveries);
+
+        writer.array("workers");
+        for (Map.Entry<Integer, Worker> entry : workers.entrySet()) {
+            Worker stats = entry.getValue();
+            writer.object();
+            writer.value("id", entry.getKey());
+            stats.connectionSetup.writeTo(writer, "connection_setup");
+            stats.firstByte.writeTo(writer, "time_to_first_byte");
+            writer.value("blocks", stats.blocks);
+            writer.value("bytes", stats.bytes);
+            writer.value("average_kib_per_second", toKiBPerSecond(stats.bytes, stats.time));
+            writer.value("retries", stats.retries);
+            writer.value("recoveries", stats.recoveries);
+            writer.end();
+        }
+        writer.end();
+
+        writer.object("phases");
+        for (Map.Entry<String, Timing> entry : phases.entrySet()) {
+            entry.getValue().writeTo(writer, entry.getKey());
+        }
+        writer.end();
+
+        writer.end();
+    }
+}
@@ -30,7 +30,6 @@ import androidx.core.app.NotificationCompat;
 import androidx.core.content.ContextCompat;
 import androidx.core.content.FileProvider;
 import androidx.core.view.ViewCompat;
-import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.recyclerview.widget.RecyclerView.Adapter;
 import androidx.recyclerview.widget.RecyclerView.ViewHolder;
@@ -55,7 +54,9 @@ import java.util.Iterator;
 
 import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers;
 import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Single;
 import io.reactivex.rxjava3.disposables.CompositeDisposable;
+import io.reactivex.rxjava3.disposables.Disposable;
 import io.reactivex.rxjava3.schedulers.Schedulers;
 import us.shandian.giga.get.DownloadMission;
 import us.shandian.giga.get.FinishedMission;
@@ -64,6 +65,7 @@ import us.shandian.giga.get.MissionRecoveryInfo;
 import org.schabi.newpipe.streams.io.StoredFileHelper;
 import us.shandian.giga.service.DownloadManager;
 import us.shandian.giga.service.DownloadManagerService;
+import us.shandian.giga.service.MissionListDiff;
 import us.shandian.giga.ui.common.Deleter;
 import us.shandian.giga.ui.common.ProgressDrawable;
 import us.shandian.giga.util.Utility;
@@ -100,6 +102,7 @@ public class MissionAdapter extends Adapter<ViewHolder> implements Handler.Callb
     static {
         ALGORITHMS.put(R.id.md5, "MD5");
         ALGORITHMS.put(R.id.sha1, "SHA1");
+        ALGORITHMS.put(R.id.crc32, "CRC32");
     }
 
     private final Context mContext;
@@ -119,11 +122,16 @@ public class MissionAdapter extends Adapter<ViewHolder> implements Handler.Callb
     private final ArrayList<Mission> mHidden;
     private Snackbar mSnackbar;
 
-    private final Runnable rUpdater = this::updater;
     private final Runnable rDelete = this::deleteFinishedDownloads;
 
     private final CompositeDisposable compositeDisposable = new CompositeDisposable();
 
+    /**
+     * The changes of the list being calculated, {@code null} if none
+     */
+    private Disposable mChanges;
+    private boolean mChangesPending = false;
+
     public MissionAdapter(Context context, @NonNull DownloadManager downloadManager, View emptyMessage, View root) {
         mContext = context;
         mDownloadManager = downloadManager;
@@ -226,7 +234,7 @@ public class MissionAdapter extends Adapter<ViewHolder> implements Handler.Callb
 
     @Override
     public int getItemCount() {
-        return mIterator.getOldListSize();
+        return mIterator.getCount();
     }
 
     @Override
@@ -239,7 +247,7 @@ public class MissionAdapter extends Adapter<ViewHolder> implements Handler.Callb
         if (h == null || h.item == null || h.item.mission instanceof FinishedMission) return;
 
         DownloadMission mission = (DownloadMission) h.item.mission;
-        double done = mission.done;
+        double done = mission.getDone();
         long length = mission.getLength();
         long now = System.currentTimeMillis();
         boolean hasError = mission.errCode != ERROR_NOTHING;
@@ -438,31 +446,30 @@ public class MissionAdapter extends Adapter<ViewHolder> implements Handler.Callb
 
     @Override
     public boolean handleMessage(@NonNull Message msg) {
-        if (mStartButton != null && mPauseButton != null) {
+        if (mStartButton != null && mPauseButton != null && msg.what != DownloadManagerService.MESSAGE_PROGRESS) {
             checkMasterButtonsVisibility();
         }
 
         switch (msg.what) {
-            case DownloadManagerService.MESSAGE_ERROR:
+            case DownloadManagerService.MESSAGE_ADDED:
+            case DownloadManagerService.MESSAGE_CHANGED:
             case DownloadManagerService.MESSAGE_FINISHED:
             case DownloadManagerService.MESSAGE_DELETED:
+                // DownloadManager already updated the mission lists
+                applyChanges();
+                return true;
+            case DownloadManagerService.MESSAGE_PROGRESS:
+            case DownloadManagerService.MESSAGE_ERROR:
             case DownloadManagerService.MESSAGE_PAUSED:
                 break;
             default:
                 return false;
         }
 
+        // only the shown missions are updated
         ViewHolderItem h = getViewHolder(msg.obj);
         if (h == null) return false;
 
-        switch (msg.what) {
-            case DownloadManagerService.MESSAGE_FINISHED:
-            case DownloadManagerService.MESSAGE_DELETED:
-                // DownloadManager should mark the download as finished
-                applyChanges();
-                return true;
-        }
-
         updateProgress(h);
         return true;
     }
@@ -588,7 +595,7 @@ public class MissionAdapter extends Adapter<ViewHolder> implements Handler.Callb
 
     public void clearFinishedDownloads(boolean delete) {
         if (delete && mIterator.hasFinishedMissions() && mHidden.isEmpty()) {
-            for (int i = 0; i < mIterator.getOldListSize(); i++) {
+            for (int i = 0; i < mIterator.getCount(); i++) {
                 FinishedMission mission = mIterator.getItem(i).mission instanceof FinishedMission ? (FinishedMission) mIterator.getItem(i).mission : null;
                 if (mission != null) {
                     mIterator.hide(mission);
@@ -682,6 +689,13 @@ public class MissionAdapter extends Adapter<ViewHolder> implements Handler.Callb
                 applyChanges();
                 checkMasterButtonsVisibility();
                 return true;
+            case R.id.crc32:
+                if (h.item.mission instanceof FinishedMission && ((FinishedMission) h.item.mission).crc32 >= 0) {
+                    // computed while downloading, no need to read the file
+                    Utility.copyToClipboard(mContext, Utility.formatCrc32(((FinishedMission) h.item.mission).crc32));
+                    return true;
+                }
+                // unknown, read the file like the other algorithms
             case R.id.md5:
             case R.id.sha1:
                 final NotificationManager notificationManager
@@ -725,18 +739,62 @@ public class MissionAdapter extends Adapter<ViewHolder> implements Handler.Callb
         }
     }
 
+    /**
+     * Shows the changes of the mission lists. The changes are calculated in background and
+     * dispatched later, the calls made meanwhile are merged in a single update
+     */
     public void applyChanges() {
-        mIterator.start();
-        DiffUtil.calculateDiff(mIterator, true).dispatchUpdatesTo(this);
-        mIterator.end();
+        if (mChanges != null) {
+            mChangesPending = true;
+            return;
+        }
 
+        if (!mIterator.hasChanges()) {
+            onChangesApplied();
+            return;
+        }
+
+        MissionListDiff changes = mIterator.prepareChanges();
+
+        mChanges = Single.fromCallable(changes::calculate)
+                .subscribeOn(Schedulers.computation())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(this::dispatchChanges, throwable -> {
+                    Log.e(TAG, "applyChanges() cannot calculate the changes", throwable);
+                    mChanges = null;
+                    forceUpdate();
+                });
+    }
+
+    private void dispatchChanges(MissionListDiff changes) {
+        mChanges = null;
+
+        if (mIterator.applyChanges(changes))
+            changes.dispatchUpdatesTo(this);
+        else
+            mChangesPending = true;// outdated, calculate again
+
+        if (mChangesPending) {
+            mChangesPending = false;
+            applyChanges();
+        } else {
+            onChangesApplied();
+        }
+    }
+
+    private void onChangesApplied() {
         checkEmptyMessageVisibility();
         if (mClear != null) mClear.setVisible(mIterator.hasFinishedMissions());
     }
 
     public void forceUpdate() {
-        mIterator.start();
-        mIterator.end();
+        if (mChanges != null) {
+            mChanges.dispose();
+            mChanges = null;
+        }
+        mChangesPending = false;
+
+        mIterator.reset();
 
         for (ViewHolderItem item : mPendingDownloadsItems) {
             item.resetSpeedMeasure();
@@ -766,7 +824,7 @@ public class MissionAdapter extends Adapter<ViewHolder> implements Handler.Callb
     }
 
     private void checkEmptyMessageVisibility() {
-        int flag = mIterator.getOldListSize() > 0 ? View.GONE : View.VISIBLE;
+        int flag = mIterator.getCount() > 0 ? View.GONE : View.VISIBLE;
         if (mEmptyMessage.getVisibility() != flag) mEmptyMessage.setVisibility(flag);
     }
 
@@ -791,18 +849,17 @@ public class MissionAdapter extends Adapter<ViewHolder> implements Handler.Callb
     }
 
     public void onDestroy() {
+        if (mChanges != null) mChanges.dispose();
         compositeDisposable.dispose();
         mDeleter.dispose();
     }
 
     public void onResume() {
         mDeleter.resume();
-        mHandler.post(rUpdater);
     }
 
     public void onPaused() {
         mDeleter.pause();
-        mHandler.removeCallbacks(rUpdater);
     }
 
 
@@ -820,17 +877,6 @@ public class MissionAdapter extends Adapter<ViewHolder> implements Handler.Callb
         mDownloadManager.resumeMission(mission);
     }
 
-    private void updater() {
-        for (ViewHolderItem h : mPendingDownloadsItems) {
-            // check if the mission is running first
-            if (!((DownloadMission) h.item.mission).running) continue;
-
-            updateProgress(h);
-        }
-
-        mHandler.postDelayed(rUpdater, 1000);
-    }
-
     private boolean isNotFinite(double value) {
         return Double.isNaN(value) || Double.isInfinite(value);
     }
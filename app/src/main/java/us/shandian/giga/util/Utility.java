@@ -28,6 +28,7 @@ import java.net.HttpURLConnection;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Locale;
+import java.util.zip.CRC32;
 
 import org.schabi.newpipe.streams.io.StoredFileHelper;
 
@@ -203,13 +204,25 @@ public class Utility {
         Toast.makeText(context, R.string.msg_copied, Toast.LENGTH_SHORT).show();
     }
 
+    /**
+     * Computes the checksum of a file
+     *
+     * @param source    the file
+     * @param algorithm {@code CRC32} or any {@link MessageDigest} algorithm
+     * @return the checksum in hexadecimal
+     */
     public static String checksum(StoredFileHelper source, String algorithm) {
-        MessageDigest md;
+        MessageDigest md = null;
+        CRC32 crc = null;
 
-        try {
-            md = MessageDigest.getInstance(algorithm);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
+        if (algorithm.equals("CRC32")) {
+            crc = new CRC32();
+        } else {
+            try {
+                md = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
         }
 
         SharpStream i;
@@ -220,17 +233,22 @@ public class Utility {
             throw new RuntimeException(e);
         }
 
-        byte[] buf = new byte[1024];
+        byte[] buf = new byte[64 * 1024];
         int len;
 
-        try {
-            while ((len = i.read(buf)) != -1) {
-                md.update(buf, 0, len);
+        try (SharpStream stream = i) {
+            while ((len = stream.read(buf)) != -1) {
+                if (crc == null)
+                    md.update(buf, 0, len);
+                else
+                    crc.update(buf, 0, len);
             }
         } catch (IOException e) {
             // nothing to do
         }
 
+        if (crc != null) return formatCrc32(crc.getValue());
+
         byte[] digest = md.digest();
 
         // HEX
@@ -243,6 +261,14 @@ public class Utility {
 
     }
 
+    /**
+     * @param crc32 the CRC32 value
+     * @return the value in hexadecimal, always 8 digits
+     */
+    public static String formatCrc32(long crc32) {
+        return Long.toString((crc32 & 0xFFFFFFFFL) + 0x100000000L, 16).substring(1);
+    }
+
     @SuppressWarnings("ResultOfMethodCallIgnored")
     public static boolean mkdir(File p, boolean allDirs) {
         if (p.exists()) return true;
@@ -269,6 +295,24 @@ public class Utility {
         return -1;
     }
 
+    /**
+     * Gets the total length of the resource of a partial response
+     *
+     * @param connection the connection
+     * @return the length from the {@code Content-Range} header, or -1 if unknown
+     */
+    public static long getTotalLength(HttpURLConnection connection) {
+        String range = connection.getHeaderField("Content-Range");
+        if (range == null) return -1;
+
+        try {
+            // bytes <start>-<end>/<total or *>
+            return Long.parseLong(range.substring(range.lastIndexOf('/') + 1).trim());
+        } catch (NumberFormatException err) {
+            return -1;
+        }
+    }
+
     private static String pad(int number) {
         return number < 10 ? ("0" + number) : String.valueOf(number);
     }
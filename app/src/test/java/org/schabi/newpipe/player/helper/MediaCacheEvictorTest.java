@@ -0,0 +1,124 @@
+package org.schabi.newpipe.player.helper;
+
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheSpan;
+import com.google.android.exoplayer2.upstream.cache.ContentMetadataMutations;
+import com.google.android.exoplayer2.upstream.cache.DefaultContentMetadata;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MediaCacheEvictorTest {
+    private static final String FIRST = "0:https://example.com/watch?v=1";
+    private static final String SECOND = "0:https://example.com/watch?v=2";
+    private static final long MAX_BYTES = 100;
+
+    private Cache cache;
+    private MediaCacheEvictor evictor;
+    private long now;
+
+    @Before
+    public void setUp() {
+        cache = mock(Cache.class);
+        when(cache.getContentMetadata(anyString())).thenReturn(DefaultContentMetadata.EMPTY);
+        evictor = new MediaCacheEvictor(MAX_BYTES);
+        now = System.currentTimeMillis();
+    }
+
+    private void setContentLength(final String key, final long length) {
+        final ContentMetadataMutations mutations = new ContentMetadataMutations();
+        ContentMetadataMutations.setContentLength(mutations, length);
+        when(cache.getContentMetadata(key))
+                .thenReturn(DefaultContentMetadata.EMPTY.copyWithMutationsApplied(mutations));
+    }
+
+    private CacheSpan span(final String key, final long position, final long length,
+                           final long age) {
+        return new CacheSpan(key, position, length, now - age, null);
+    }
+
+    @Test
+    public void weightOrdering() {
+        // older is evicted first
+        assertTrue(MediaCacheEvictor.getWeight(2000, 1, false)
+                > MediaCacheEvictor.getWeight(1000, 1, false));
+        // partially cached is evicted before fully cached
+        assertTrue(MediaCacheEvictor.getWeight(1000, 0.5f, false)
+                > MediaCacheEvictor.getWeight(1000, 1, false));
+        // likely to be played again is evicted last
+        assertTrue(MediaCacheEvictor.getWeight(1000, 1, false)
+                > MediaCacheEvictor.getWeight(1000, 1, true));
+        assertTrue(MediaCacheEvictor.getWeight(1000, 1, false)
+                > MediaCacheEvictor.getWeight(MediaCacheEvictor.REPLAY_FACTOR * 1000 / 2, 1,
+                true));
+    }
+
+    @Test
+    public void streamKeyOfCacheKey() {
+        assertEquals(FIRST, MediaCache.getStreamKey(FIRST + "#video 720p MPEG-4"));
+        assertEquals(FIRST, MediaCache.getStreamKey(FIRST + "#audio 128 m4a"));
+        assertEquals(FIRST, MediaCache.getStreamKey(FIRST));
+        assertEquals("0:https://example.com/#top",
+                MediaCache.getStreamKey("0:https://example.com/#top#audio 128 m4a"));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsed() {
+        final CacheSpan older = span(FIRST + "#audio", 0, 60, 2000);
+        final CacheSpan newer = span(SECOND + "#audio", 0, 60, 1000);
+
+        evictor.onSpanAdded(cache, older);
+        evictor.onSpanAdded(cache, newer);
+
+        verify(cache).removeSpan(older);
+        verify(cache, never()).removeSpan(newer);
+    }
+
+    @Test
+    public void evictsPartiallyCachedStreamsFirst() {
+        setContentLength(FIRST + "#audio", 50);
+        setContentLength(SECOND + "#audio", 1000);
+        final CacheSpan complete = span(FIRST + "#audio", 0, 50, 2000);
+        final CacheSpan partial = span(SECOND + "#audio", 0, 60, 1500);
+
+        evictor.onSpanAdded(cache, complete);
+        evictor.onSpanAdded(cache, partial);
+
+        verify(cache).removeSpan(partial);
+        verify(cache, never()).removeSpan(complete);
+    }
+
+    @Test
+    public void keepsStreamsLikelyToBePlayedAgain() {
+        evictor.setReplayKeys(Collections.singleton(FIRST));
+        final CacheSpan replay = span(FIRST + "#audio", 0, 60, 2000);
+        final CacheSpan other = span(SECOND + "#audio", 0, 60, 1000);
+
+        evictor.onSpanAdded(cache, replay);
+        evictor.onSpanAdded(cache, other);
+
+        verify(cache).removeSpan(other);
+        verify(cache, never()).removeSpan(replay);
+    }
+
+    @Test
+    public void makesRoomForNewFiles() {
+        evictor.onSpanAdded(cache, span(FIRST + "#audio", 0, 60, 1000));
+        evictor.onStartFile(cache, SECOND + "#audio", 0, 30);
+        verify(cache, never()).removeSpan(any());
+
+        evictor.onStartFile(cache, SECOND + "#audio", 0, 50);
+        verify(cache).removeSpan(any());
+    }
+}
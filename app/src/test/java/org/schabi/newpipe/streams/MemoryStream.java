@@ -0,0 +1,138 @@
+package org.schabi.newpipe.streams;
+
+import org.schabi.newpipe.streams.io.SharpStream;
+
+import java.util.Arrays;
+
+/**
+ * Seekable in-memory stream, keeps the disk out of the measurements.
+ */
+final class MemoryStream extends SharpStream {
+    private byte[] data;
+    private int length;
+    private int position;
+    private boolean closed;
+
+    MemoryStream(final byte[] data) {
+        this.data = data;
+        this.length = data.length;
+    }
+
+    MemoryStream(final int capacity) {
+        this.data = new byte[capacity];
+    }
+
+    /**
+     * Drops the contents but keeps the buffer, so the stream can be reused without allocations.
+     */
+    void clear() {
+        length = 0;
+        position = 0;
+        closed = false;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(data, length);
+    }
+
+    @Override
+    public int read() {
+        return position < length ? data[position++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(final byte[] buffer) {
+        return read(buffer, 0, buffer.length);
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int count) {
+        if (position >= length) {
+            return -1;
+        }
+
+        final int amount = Math.min(count, length - position);
+        System.arraycopy(data, position, buffer, offset, amount);
+        position += amount;
+        return amount;
+    }
+
+    @Override
+    public long skip(final long amount) {
+        final int skipped = (int) Math.min(amount, length - position);
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public long available() {
+        return length - position;
+    }
+
+    @Override
+    public void rewind() {
+        position = 0;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public boolean canRewind() {
+        return true;
+    }
+
+    @Override
+    public boolean canRead() {
+        return true;
+    }
+
+    @Override
+    public boolean canWrite() {
+        return true;
+    }
+
+    @Override
+    public boolean canSeek() {
+        return true;
+    }
+
+    @Override
+    public void seek(final long offset) {
+        position = (int) offset;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public void write(final byte value) {
+        write(new byte[]{value}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] buffer) {
+        write(buffer, 0, buffer.length);
+    }
+
+    @Override
+    public void write(final byte[] buffer, final int offset, final int count) {
+        final int end = position + count;
+        if (end > data.length) {
+            data = Arrays.copyOf(data, Math.max(end, data.length * 2));
+        }
+
+        System.arraycopy(buffer, offset, data, position, count);
+        position = end;
+        length = Math.max(length, end);
+    }
+}
@@ -0,0 +1,213 @@
+package org.schabi.newpipe.streams;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Generates synthetic fragmented MP4 (DASH) files, every fragment holds a single track run. The
+ * samples are random bytes, only the boxes read by {@link Mp4DashReader} are meaningful.
+ */
+final class Mp4DashFixture {
+    static final int VIDEO_TIMESCALE = 15360;
+    static final int AUDIO_TIMESCALE = 44100;
+    static final int VIDEO_SAMPLE_DURATION = 512; // 30 fps
+    static final int AUDIO_SAMPLE_DURATION = 1024;
+    static final int KEYFRAME_INTERVAL = 30;
+
+    private Mp4DashFixture() {
+    }
+
+    /**
+     * Makes a video track with variable sample sizes, keyframes and composition offsets.
+     *
+     * @param fragments amount of moof/mdat pairs
+     * @param samples   samples per fragment
+     * @param seed      seed of the sample contents
+     * @return the file contents
+     */
+    static byte[] video(final int fragments, final int samples, final long seed)
+            throws IOException {
+        return make(true, fragments, samples, new Random(seed));
+    }
+
+    /**
+     * Makes an audio track, all samples are keyframes.
+     *
+     * @param fragments amount of moof/mdat pairs
+     * @param samples   samples per fragment
+     * @param seed      seed of the sample contents
+     * @return the file contents
+     */
+    static byte[] audio(final int fragments, final int samples, final long seed)
+            throws IOException {
+        return make(false, fragments, samples, new Random(seed));
+    }
+
+    private static byte[] make(final boolean video, final int fragments, final int samples,
+                               final Random random) throws IOException {
+        final ByteArrayOutputStream file = new ByteArrayOutputStream();
+        final int timescale = video ? VIDEO_TIMESCALE : AUDIO_TIMESCALE;
+        final int sampleDuration = video ? VIDEO_SAMPLE_DURATION : AUDIO_SAMPLE_DURATION;
+        final long duration = (long) fragments * samples * sampleDuration;
+
+        file.write(box("ftyp", ints(0x64617368, 0, 0x69736F36, 0x6D703431))); // dash iso6 mp41
+        file.write(box("moov", concat(
+                mvhd(timescale, duration),
+                box("trak", concat(
+                        tkhd(duration, video),
+                        box("mdia", concat(
+                                mdhd(timescale, duration),
+                                hdlr(video),
+                                box("minf", concat(
+                                        video ? box("vmhd", ints(1, 0, 0))
+                                                : box("smhd", ints(0, 0)),
+                                        box("dinf", box("dref", ints(0, 0))),
+                                        box("stbl", box("stsd", ints(0, 0)))
+                                ))
+                        ))
+                )),
+                box("mvex", box("trex", ints(0, 1, 1, 0, 0, 0)))
+        )));
+
+        int sequence = 1;
+        int sampleIndex = 0;
+        for (int i = 0; i < fragments; i++) {
+            final int[] sizes = new int[samples];
+            final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+            for (int j = 0; j < samples; j++) {
+                final boolean keyframe = sampleIndex % KEYFRAME_INTERVAL == 0;
+                if (video && keyframe) {
+                    sizes[j] = 20000 + random.nextInt(10000);
+                } else if (video) {
+                    sizes[j] = 500 + random.nextInt(4000);
+                } else {
+                    sizes[j] = 300 + random.nextInt(150);
+                }
+
+                final byte[] sample = new byte[sizes[j]];
+                random.nextBytes(sample);
+                data.write(sample);
+                sampleIndex++;
+            }
+
+            file.write(moof(sequence++, sizes, sampleDuration, video, i * samples));
+            file.write(box("mdat", data.toByteArray()));
+        }
+
+        return file.toByteArray();
+    }
+
+    private static byte[] moof(final int sequence, final int[] sizes, final int sampleDuration,
+                               final boolean video, final int firstSample) throws IOException {
+        // flags: data-offset, sample-duration, sample-size, sample-flags and composition offsets
+        final int flags = video ? 0x000F01 : 0x000301;
+        final int rowSize = video ? 16 : 8;
+
+        final ByteArrayOutputStream trun = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(trun);
+        output.writeInt(flags);
+        output.writeInt(sizes.length);
+        output.writeInt(0); // data offset, patched below
+
+        for (int i = 0; i < sizes.length; i++) {
+            output.writeInt(sampleDuration);
+            output.writeInt(sizes[i]);
+            if (video) {
+                final boolean keyframe = (firstSample + i) % KEYFRAME_INTERVAL == 0;
+                output.writeInt(keyframe ? 0x02000000 : 0x01010000);
+                output.writeInt(keyframe ? 0 : sampleDuration * ((firstSample + i) % 3));
+            }
+        }
+
+        final byte[] moof = box("moof", concat(
+                box("mfhd", ints(0, sequence)),
+                box("traf", concat(
+                        box("tfhd", ints(0, 1)),
+                        box("tfdt", ints(0, firstSample * sampleDuration)),
+                        box("trun", trun.toByteArray())
+                ))
+        ));
+
+        // the samples start right after the mdat header
+        final int dataOffset = moof.length + 8;
+        final int trunOffset = moof.length - (sizes.length * rowSize) - 12 - 8;
+        writeInt(moof, trunOffset + 16, dataOffset);
+
+        return moof;
+    }
+
+    private static byte[] mvhd(final int timescale, final long duration) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(buffer);
+        output.write(ints(0, 0, 0, timescale, (int) duration));
+        output.write(ints(0x00010000, 0x01000000, 0, 0));
+        output.write(matrix());
+        output.write(new byte[24]); // predefined
+        output.writeInt(2); // next track id
+        return box("mvhd", buffer.toByteArray());
+    }
+
+    private static byte[] tkhd(final long duration, final boolean video) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(buffer);
+        output.write(ints(0x00000003, 0, 0, 1, 0, (int) duration, 0, 0));
+        output.writeShort(0); // layer
+        output.writeShort(0); // alternate group
+        output.writeShort(video ? 0 : 0x0100); // volume
+        output.writeShort(0);
+        output.write(matrix());
+        output.write(video ? ints(1920 << 16, 1080 << 16) : ints(0, 0));
+        return box("tkhd", buffer.toByteArray());
+    }
+
+    private static byte[] mdhd(final int timescale, final long duration) {
+        return box("mdhd", ints(0, 0, 0, timescale, (int) duration, 0x55C40000));
+    }
+
+    private static byte[] hdlr(final boolean video) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        buffer.write(ints(0, 0, video ? 0x76696465 : 0x736F756E, 0, 0, 0)); // vide soun
+        buffer.write(0); // empty name
+        return box("hdlr", buffer.toByteArray());
+    }
+
+    private static byte[] matrix() {
+        return ints(0x00010000, 0, 0, 0, 0x00010000, 0, 0, 0, 0x40000000);
+    }
+
+    private static byte[] box(final String type, final byte[] payload) {
+        final byte[] box = new byte[payload.length + 8];
+        writeInt(box, 0, box.length);
+        for (int i = 0; i < 4; i++) {
+            box[4 + i] = (byte) type.charAt(i);
+        }
+        System.arraycopy(payload, 0, box, 8, payload.length);
+        return box;
+    }
+
+    private static byte[] concat(final byte[]... parts) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        for (final byte[] part : parts) {
+            buffer.write(part);
+        }
+        return buffer.toByteArray();
+    }
+
+    private static byte[] ints(final int... values) {
+        final byte[] buffer = new byte[values.length * 4];
+        for (int i = 0; i < values.length; i++) {
+            writeInt(buffer, i * 4, values[i]);
+        }
+        return buffer;
+    }
+
+    private static void writeInt(final byte[] buffer, final int offset, final int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
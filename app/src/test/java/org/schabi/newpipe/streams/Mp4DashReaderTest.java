@@ -0,0 +1,84 @@
+package org.schabi.newpipe.streams;
+
+import org.junit.Test;
+import org.schabi.newpipe.streams.Mp4DashReader.Mp4DashChunk;
+import org.schabi.newpipe.streams.Mp4DashReader.Mp4DashSample;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class Mp4DashReaderTest {
+
+    private static Mp4DashReader open(final byte[] file) throws IOException {
+        final Mp4DashReader reader = new Mp4DashReader(new MemoryStream(file));
+        reader.parse();
+        reader.selectTrack(0);
+        return reader;
+    }
+
+    @Test
+    public void reusedSamplesAreTheSame() throws IOException {
+        final byte[] file = Mp4DashFixture.video(10, 45, 1);
+        final Mp4DashReader allocating = open(file);
+        final Mp4DashReader reusing = open(file);
+
+        final Mp4DashSample reused = new Mp4DashSample();
+        byte[] buffer = null;
+        int samples = 0;
+        int grows = 0;
+
+        Mp4DashChunk expectedChunk;
+        while ((expectedChunk = allocating.getNextChunk(false)) != null) {
+            final Mp4DashChunk chunk = reusing.getNextChunk(false);
+
+            Mp4DashSample expected;
+            while ((expected = expectedChunk.getNextSample()) != null) {
+                assertTrue(chunk.getNextSample(reused));
+
+                assertEquals(expected.info.sampleSize, reused.info.sampleSize);
+                assertEquals(expected.info.sampleDuration, reused.info.sampleDuration);
+                assertEquals(expected.info.isKeyframe, reused.info.isKeyframe);
+                assertEquals(expected.info.sampleCompositionTimeOffset,
+                        reused.info.sampleCompositionTimeOffset);
+                assertArrayEquals(expected.data,
+                        Arrays.copyOf(reused.data, reused.info.sampleSize));
+
+                if (reused.data != buffer) {
+                    buffer = reused.data;
+                    grows++;
+                }
+                samples++;
+            }
+            assertFalse(chunk.getNextSample(reused));
+        }
+
+        assertNull(reusing.getNextChunk(false));
+        assertEquals(10 * 45, samples);
+        // only grows when a larger keyframe is found
+        assertTrue(grows < 10);
+    }
+
+    @Test
+    public void reusedSampleInfo() throws IOException {
+        final Mp4DashReader reader = open(Mp4DashFixture.audio(2, 43, 2));
+        final Mp4DashReader.TrunEntry info = new Mp4DashReader.TrunEntry();
+
+        final Mp4DashChunk chunk = reader.getNextChunk(true);
+        int total = 0;
+        for (int i = 0; i < 43; i++) {
+            assertSame(info, chunk.getNextSampleInfo(info));
+            assertEquals(Mp4DashFixture.AUDIO_SAMPLE_DURATION, info.sampleDuration);
+            assertTrue(info.isKeyframe);
+            total += info.sampleSize;
+        }
+        assertNull(chunk.getNextSampleInfo(info));
+        assertEquals(chunk.moof.traf.trun.chunkSize, total);
+    }
+}
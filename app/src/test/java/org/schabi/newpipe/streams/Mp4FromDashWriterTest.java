@@ -0,0 +1,267 @@
+package org.schabi.newpipe.streams;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.schabi.newpipe.streams.io.SharpStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import us.shandian.giga.io.ChunkFileInputStream;
+import us.shandian.giga.io.FileStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class Mp4FromDashWriterTest {
+    private static final String[] TABLES = {"stts", "stss", "ctts", "stsc", "stsz", "sbgp"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File write(final String name, final byte[] data) throws IOException {
+        final File file = folder.newFile(name);
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    private byte[] mux(final boolean moovAtEnd, final SharpStream... sources) throws IOException {
+        final File output = folder.newFile();
+        final Mp4FromDashWriter writer = new Mp4FromDashWriter(sources);
+
+        try (SharpStream out = new FileStream(output)) {
+            writer.parseSources();
+            final int[] tracks = new int[sources.length];
+            writer.selectTracks(tracks);
+            writer.setMoovAtEnd(moovAtEnd);
+            writer.build(out);
+        } finally {
+            writer.close();
+        }
+
+        return Files.readAllBytes(output.toPath());
+    }
+
+    private SharpStream[] open(final File... files) throws IOException {
+        final SharpStream[] streams = new SharpStream[files.length];
+        for (int i = 0; i < files.length; i++) {
+            streams[i] = new FileStream(files[i]);
+        }
+        return streams;
+    }
+
+    @Test
+    public void moovAtEndHasSameSamplesAndTables() throws IOException {
+        final File video = write("video.mp4", Mp4DashFixture.video(40, 15, 1));
+        final File audio = write("audio.mp4", Mp4DashFixture.audio(30, 43, 2));
+
+        final Mp4File regular = new Mp4File(mux(false, open(video, audio)));
+        final Mp4File atEnd = new Mp4File(mux(true, open(video, audio)));
+
+        assertTrue(regular.find("moov") < regular.find("mdat"));
+        assertTrue(atEnd.find("mdat") < atEnd.find("moov"));
+
+        // the samples are interleaved in the same order
+        assertArrayEquals(regular.payload("mdat"), atEnd.payload("mdat"));
+
+        final long shift = atEnd.payloadOffset("mdat") - regular.payloadOffset("mdat");
+        for (int track = 0; track < 2; track++) {
+            for (final String table : TABLES) {
+                assertArrayEquals(table, regular.table(track, table), atEnd.table(track, table));
+            }
+
+            final long[] regularChunks = regular.chunkOffsets(track);
+            final long[] atEndChunks = atEnd.chunkOffsets(track);
+            assertEquals(regularChunks.length, atEndChunks.length);
+            for (int i = 0; i < regularChunks.length; i++) {
+                assertEquals(regularChunks[i] + shift, atEndChunks[i]);
+            }
+        }
+    }
+
+    @Test
+    public void moovAtEndSingleAudioTrack() throws IOException {
+        final File audio = write("audio.mp4", Mp4DashFixture.audio(20, 43, 3));
+
+        final Mp4File regular = new Mp4File(mux(false, open(audio)));
+        final Mp4File atEnd = new Mp4File(mux(true, open(audio)));
+
+        assertArrayEquals(regular.payload("mdat"), atEnd.payload("mdat"));
+        for (final String table : TABLES) {
+            assertArrayEquals(table, regular.table(0, table), atEnd.table(0, table));
+        }
+    }
+
+    /**
+     * The last source is written while the muxer reads it, the reads wait for the writer.
+     */
+    @Test
+    public void muxesWhileTheSourceIsWritten() throws Exception {
+        final byte[] videoData = Mp4DashFixture.video(40, 15, 4);
+        final byte[] audioData = Mp4DashFixture.audio(30, 43, 5);
+        final File video = write("video.mp4", videoData);
+        final File audio = folder.newFile("audio.mp4");
+
+        final Gate gate = new Gate();
+        final Thread downloader = new Thread(() -> {
+            try (RandomAccessFile file = new RandomAccessFile(audio, "rw")) {
+                for (int offset = 0; offset < audioData.length; offset += 4096) {
+                    final int count = Math.min(4096, audioData.length - offset);
+                    file.seek(offset);
+                    file.write(audioData, offset, count);
+                    gate.update(offset + count);
+                    Thread.yield();
+                }
+            } catch (final IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        downloader.start();
+
+        final SharpStream gated = new ChunkFileInputStream(new FileStream(audio), 0,
+                audioData.length, null, gate);
+        final byte[] streamed = mux(true, new FileStream(video), gated);
+        downloader.join();
+
+        final Mp4File expected = new Mp4File(
+                mux(true, open(video, write("copy.mp4", audioData))));
+        final Mp4File actual = new Mp4File(streamed);
+
+        assertArrayEquals(expected.payload("mdat"), actual.payload("mdat"));
+        for (int track = 0; track < 2; track++) {
+            for (final String table : TABLES) {
+                assertArrayEquals(table, expected.table(track, table), actual.table(track, table));
+            }
+            assertArrayEquals(expected.chunkOffsets(track), actual.chunkOffsets(track));
+        }
+        assertTrue(gate.waits > 0);
+    }
+
+    private static final class Gate implements ChunkFileInputStream.Availability {
+        private long available;
+        int waits;
+
+        synchronized void update(final long value) {
+            available = value;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void await(final long end) throws IOException {
+            while (end > available) {
+                waits++;
+                try {
+                    wait();
+                } catch (final InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    /**
+     * Minimal box walker for the muxer output.
+     */
+    private static final class Mp4File {
+        private static final List<String> CONTAINERS =
+                Arrays.asList("moov", "trak", "mdia", "minf", "stbl");
+
+        private final byte[] data;
+        private final List<String> types = new ArrayList<>();
+        private final List<long[]> boxes = new ArrayList<>(); // offset, size, header size
+
+        Mp4File(final byte[] data) {
+            this.data = data;
+            walk(0, data.length);
+        }
+
+        private void walk(final long start, final long end) {
+            long offset = start;
+            while (offset < end) {
+                final ByteBuffer buffer = ByteBuffer.wrap(data, (int) offset, 16);
+                long size = buffer.getInt() & 0xFFFFFFFFL;
+                final String type = new String(data, (int) offset + 4, 4);
+                int header = 8;
+                if (size == 1) {
+                    size = buffer.getLong(buffer.position() + 4);
+                    header = 16;
+                }
+
+                types.add(type);
+                boxes.add(new long[]{offset, size, header});
+
+                if (CONTAINERS.contains(type)) {
+                    walk(offset + header, offset + size);
+                }
+                offset += size;
+            }
+        }
+
+        private int index(final String type, final int occurrence) {
+            int found = 0;
+            for (int i = 0; i < types.size(); i++) {
+                if (types.get(i).equals(type) && found++ == occurrence) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        long find(final String type) {
+            return boxes.get(index(type, 0))[0];
+        }
+
+        long payloadOffset(final String type) {
+            final long[] box = boxes.get(index(type, 0));
+            return box[0] + box[2];
+        }
+
+        byte[] payload(final String type) {
+            return payload(index(type, 0));
+        }
+
+        private byte[] payload(final int index) {
+            final long[] box = boxes.get(index);
+            final int start = (int) (box[0] + box[2]);
+            return Arrays.copyOfRange(data, start, (int) (box[0] + box[1]));
+        }
+
+        byte[] table(final int track, final String type) {
+            final int trak = index("trak", track);
+            final int next = index("trak", track + 1);
+            for (int i = trak; i < (next < 0 ? types.size() : next); i++) {
+                if (types.get(i).equals(type)) {
+                    return payload(i);
+                }
+            }
+            return null;
+        }
+
+        long[] chunkOffsets(final int track) {
+            byte[] table = table(track, "stco");
+            final boolean is64 = table == null;
+            if (is64) {
+                table = table(track, "co64");
+            }
+            assertNotNull(table);
+
+            final ByteBuffer buffer = ByteBuffer.wrap(table);
+            buffer.getInt(); // version and flags
+            final long[] offsets = new long[buffer.getInt()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = is64 ? buffer.getLong() : buffer.getInt() & 0xFFFFFFFFL;
+            }
+            return offsets;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.schabi.newpipe.streams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OggFromWebMWriterTest {
+    private static final byte[] OPUS_TAGS = {
+            0x4F, 0x70, 0x75, 0x73, 0x54, 0x61, 0x67, 0x73, 0, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    private static byte[] convert(final byte[] webm) throws IOException {
+        final MemoryStream out = new MemoryStream(1024 * 1024);
+        try (OggFromWebMWriter writer = new OggFromWebMWriter(new MemoryStream(webm), out)) {
+            writer.parseSource();
+            writer.selectTrack(0);
+            writer.build();
+        }
+        return out.toByteArray();
+    }
+
+    private static int crc32(final byte[] data, final int offset, final int length) {
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            crc ^= (data[i] & 0xFF) << 24;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04C11DB7 : crc << 1;
+            }
+        }
+        return crc;
+    }
+
+    @Test
+    public void pagesAreValidAndHoldEveryFrame() throws IOException {
+        final byte[] webm = WebMFixture.audio(20, 50, 1);
+        final byte[] ogg = convert(webm);
+
+        final ByteArrayOutputStream packets = new ByteArrayOutputStream();
+        final ByteBuffer buffer = ByteBuffer.wrap(ogg).order(ByteOrder.LITTLE_ENDIAN);
+        int sequence = 0;
+        int streamId = 0;
+        long granule = 0;
+        byte lastFlags = 0;
+
+        while (buffer.hasRemaining()) {
+            final int start = buffer.position();
+            assertEquals("OggS", new String(ogg, start, 4, "US-ASCII"));
+            assertEquals(0, ogg[start + 4]); // version
+            lastFlags = ogg[start + 5];
+
+            final long position = buffer.getLong(start + 6);
+            assertTrue(position >= granule);
+            granule = position;
+
+            if (sequence == 0) {
+                streamId = buffer.getInt(start + 14);
+            }
+            assertEquals(streamId, buffer.getInt(start + 14));
+            assertEquals(sequence++, buffer.getInt(start + 18));
+
+            final int segments = ogg[start + 26] & 0xFF;
+            int size = 0;
+            for (int i = 0; i < segments; i++) {
+                size += ogg[start + 27 + i] & 0xFF;
+            }
+            final int headerSize = 27 + segments;
+            final int checksum = buffer.getInt(start + 22);
+
+            final byte[] page = Arrays.copyOfRange(ogg, start, start + headerSize + size);
+            Arrays.fill(page, 22, 26, (byte) 0);
+            assertEquals("page " + sequence, checksum, crc32(page, 0, page.length));
+
+            packets.write(ogg, start + headerSize, size);
+            buffer.position(start + headerSize + size);
+        }
+
+        assertEquals(0x04, lastFlags); // end of stream
+        assertTrue(granule > 0);
+
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        final WebMReader reader = new WebMReader(new MemoryStream(webm));
+        reader.parse();
+        expected.write(reader.getAvailableTracks()[0].codecPrivate);
+        expected.write(OPUS_TAGS);
+
+        final List<byte[]> frames = WebMWriterTest.frames(webm, 0);
+        for (final byte[] frame : frames) {
+            expected.write(frame, 8, frame.length - 8);
+        }
+
+        assertArrayEquals(expected.toByteArray(), packets.toByteArray());
+    }
+}
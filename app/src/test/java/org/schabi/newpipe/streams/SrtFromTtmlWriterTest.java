@@ -0,0 +1,126 @@
+package org.schabi.newpipe.streams;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SrtFromTtmlWriterTest {
+    private static final String TTML = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n"
+            + "<tt xml:lang=\"en\" xmlns=\"http://www.w3.org/ns/ttml\">\n"
+            + "<head><styling><style xml:id=\"s1\"/></styling></head>\n"
+            + "<body><div>\n"
+            + "<p begin=\"00:00:01.000\" end=\"00:00:02.500\">Hello</p>\n"
+            + "<p begin=\"00:00:02.500\" end=\"00:00:04.000\">first line<br/>second line</p>\n"
+            + "<p begin=\"00:00:04.000\" end=\"00:00:05.000\"></p>\n"
+            + "<p begin=\"00:00:05.000\" end=\"00:00:06.000\">caf&#233; &amp; tea</p>\n"
+            + "</div></body>\n"
+            + "</tt>\n";
+
+    // whitespace, entities, nested elements and markup Jsoup is lenient with
+    static final String TRICKY_TTML = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n"
+            + "<!-- generated -->\n"
+            + "<tt xmlns=\"http://www.w3.org/ns/ttml\""
+            + " xmlns:tts=\"http://www.w3.org/ns/ttml#styling\">"
+            + "<head><p begin=\"0\" end=\"1\">not in the body</p></head>\n"
+            + "<body><div>\n"
+            + "<p begin='00:00:00.100' end='00:00:00.900'>  spaced\n\t text  </p>\n"
+            + "<p begin=\"00:00:01.000\" end=\"00:00:02.000\">a <span tts:color=\"red\">red</span>"
+            + " b<br />c<BR/>d</p>\n"
+            + "<p begin=\"00:00:02.000\" end=\"00:00:03.000\">&lt;&gt;&amp;&quot;&apos;&#233;"
+            + "&#x1F600;&nbsp;&unknown; 5 &lt 6</p>\n"
+            + "<p begin=\"00:00:03.000\" end=\"00:00:04.000\"><![CDATA[<raw> & text]]></p>\n"
+            + "<p begin=\"00:00:04.000\" end=\"00:00:05.000\">日本語 ✓ ñ<!-- note --> after</p>\n"
+            + "<p begin=\"00:00:05.000\">no end</p>\n"
+            + "<p begin=\"00:00:06.000\" end=\"00:00:07.000\"> </p>\n"
+            + "<div><p begin=\"00:00:08.000\" end=\"00:00:09.000\">nested div</p></div>\n"
+            + "</div></body>\n"
+            + "</tt>\n";
+
+    /**
+     * Generates a TTML document.
+     *
+     * @param cues amount of paragraphs
+     * @return the document
+     */
+    static byte[] ttml(final int cues) {
+        final StringBuilder builder = new StringBuilder(cues * 100);
+        builder.append("<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n")
+                .append("<tt xml:lang=\"en\" xmlns=\"http://www.w3.org/ns/ttml\">\n")
+                .append("<body><div>\n");
+
+        for (int i = 0; i < cues; i++) {
+            builder.append("<p begin=\"").append(timestamp(i * 2000L))
+                    .append("\" end=\"").append(timestamp(i * 2000L + 1500))
+                    .append("\">subtitle line number ").append(i)
+                    .append("<br/>and its second line</p>\n");
+        }
+
+        return builder.append("</div></body>\n</tt>\n").toString()
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String timestamp(final long ms) {
+        return String.format("%02d:%02d:%02d.%03d",
+                ms / 3600000, ms / 60000 % 60, ms / 1000 % 60, ms % 1000);
+    }
+
+    private static String convert(final byte[] ttml, final boolean ignoreEmptyFrames)
+            throws IOException {
+        final MemoryStream out = new MemoryStream(4096);
+        new SrtFromTtmlWriter(out, ignoreEmptyFrames).build(new MemoryStream(ttml));
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String convertWithDom(final byte[] ttml, final boolean ignoreEmptyFrames)
+            throws IOException {
+        final MemoryStream out = new MemoryStream(4096);
+        new DomSrtFromTtmlWriter(out, ignoreEmptyFrames).build(new MemoryStream(ttml));
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void convertsParagraphs() throws IOException {
+        assertEquals("0\r\n00:00:01,000 --> 00:00:02,500\r\nHello\r\n\r\n"
+                        + "1\r\n00:00:02,500 --> 00:00:04,000\r\nfirst line\r\nsecond line\r\n\r\n"
+                        + "2\r\n00:00:05,000 --> 00:00:06,000\r\ncafé & tea\r\n\r\n",
+                convert(TTML.getBytes(StandardCharsets.UTF_8), true));
+    }
+
+    @Test
+    public void keepsEmptyFrames() throws IOException {
+        final String srt = convert(TTML.getBytes(StandardCharsets.UTF_8), false);
+        assertEquals(4, srt.split("\r\n\r\n").length);
+        assertTrue(srt.contains("2\r\n00:00:04,000 --> 00:00:05,000\r\n\r\n\r\n"));
+    }
+
+    @Test
+    public void convertsLargeDocuments() throws IOException {
+        final String srt = convert(ttml(5000), true);
+        assertEquals(5000, srt.split("\r\n\r\n").length);
+        assertTrue(srt.endsWith("4999\r\n02:46:38,000 --> 02:46:39,500\r\n"
+                + "subtitle line number 4999\r\nand its second line\r\n\r\n"));
+    }
+
+    @Test
+    public void sameOutputAsTheDomParser() throws IOException {
+        final byte[] ttml = TRICKY_TTML.getBytes(StandardCharsets.UTF_8);
+        assertEquals(convertWithDom(ttml, true), convert(ttml, true));
+        assertEquals(convertWithDom(ttml, false), convert(ttml, false));
+
+        final byte[] large = ttml(2000);
+        assertEquals(convertWithDom(large, true), convert(large, true));
+    }
+
+    @Test
+    public void convertsTruncatedDocuments() throws IOException {
+        final String ttml = "<tt><body><div><p begin=\"00:00:01.000\" end=\"00:00:02.000\">one</p>"
+                + "<p begin=\"00:00:03.000\" end=\"00:00:04.000\">tw";
+        assertEquals("0\r\n00:00:01,000 --> 00:00:02,000\r\none\r\n\r\n"
+                        + "1\r\n00:00:03,000 --> 00:00:04,000\r\ntw\r\n\r\n",
+                convert(ttml.getBytes(StandardCharsets.UTF_8), true));
+    }
+}
@@ -0,0 +1,195 @@
+package org.schabi.newpipe.streams;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Generates synthetic WebM files holding a single track, the frames are stored in SimpleBlock
+ * elements. The frames are random bytes, only the elements read by {@link WebMReader} are
+ * meaningful.
+ */
+final class WebMFixture {
+    static final int VIDEO_FRAME_DURATION = 33; // milliseconds
+    static final int AUDIO_FRAME_DURATION = 20; // milliseconds, Opus default
+    static final int AUDIO_SAMPLE_RATE = 48000;
+    static final int KEYFRAME_INTERVAL = 30;
+
+    private WebMFixture() {
+    }
+
+    /**
+     * Makes a VP9 track, the keyframes are larger than the other frames.
+     *
+     * @param clusters amount of clusters
+     * @param frames   frames per cluster
+     * @param seed     seed of the frame contents
+     * @return the file contents
+     */
+    static byte[] video(final int clusters, final int frames, final long seed)
+            throws IOException {
+        final byte[] track = element(0xAE, concat(
+                element(0xD7, number(1)),
+                element(0x83, number(1)),
+                element(0x86, "V_VP9".getBytes("US-ASCII")),
+                element(0x9C, number(0)),
+                element(0x23E383, number(VIDEO_FRAME_DURATION * 1000000L)),
+                element(0xE0, concat(
+                        element(0xB0, number(1920)),
+                        element(0xBA, number(1080))
+                ))
+        ));
+
+        return make(track, VIDEO_FRAME_DURATION, true, clusters, frames, new Random(seed));
+    }
+
+    /**
+     * Makes an Opus track, every frame is a keyframe.
+     *
+     * @param clusters amount of clusters
+     * @param frames   frames per cluster
+     * @param seed     seed of the frame contents
+     * @return the file contents
+     */
+    static byte[] audio(final int clusters, final int frames, final long seed)
+            throws IOException {
+        final byte[] opusHead = {
+                0x4F, 0x70, 0x75, 0x73, 0x48, 0x65, 0x61, 0x64, // "OpusHead"
+                0x01, 0x02, 0x38, 0x01, (byte) 0x80, (byte) 0xBB, 0x00, 0x00, 0x00, 0x00, 0x00
+        };
+        final byte[] track = element(0xAE, concat(
+                element(0xD7, number(1)),
+                element(0x83, number(2)),
+                element(0x86, "A_OPUS".getBytes("US-ASCII")),
+                element(0x9C, number(0)),
+                element(0x56AA, number(6500000)),
+                element(0x56BB, number(80000000)),
+                element(0x63A2, opusHead),
+                // the sampling frequency must be first, OggFromWebMWriter looks for it by hand
+                element(0xE1, concat(
+                        element(0xB5, float32(AUDIO_SAMPLE_RATE)),
+                        element(0x9F, number(2))
+                ))
+        ));
+
+        return make(track, AUDIO_FRAME_DURATION, false, clusters, frames, new Random(seed));
+    }
+
+    private static byte[] make(final byte[] track, final int frameDuration, final boolean video,
+                               final int clusters, final int frames, final Random random)
+            throws IOException {
+        final ByteArrayOutputStream file = new ByteArrayOutputStream();
+        final long duration = (long) clusters * frames * frameDuration;
+
+        file.write(element(0x1A45DFA3, concat(
+                element(0x4286, number(1)),
+                element(0x42F7, number(1)),
+                element(0x42F2, number(4)),
+                element(0x42F3, number(8)),
+                element(0x4282, "webm".getBytes("US-ASCII")),
+                element(0x4287, number(4)),
+                element(0x4285, number(2))
+        )));
+
+        final ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        segment.write(element(0x1549A966, concat(
+                element(0x2AD7B1, number(1000000)),
+                element(0x4489, float32(duration))
+        )));
+        segment.write(element(0x1654AE6B, track));
+
+        int frameIndex = 0;
+        for (int i = 0; i < clusters; i++) {
+            final long timecode = (long) i * frames * frameDuration;
+            final ByteArrayOutputStream cluster = new ByteArrayOutputStream();
+            cluster.write(element(0xE7, number(timecode)));
+
+            for (int j = 0; j < frames; j++) {
+                final boolean keyframe = !video || frameIndex % KEYFRAME_INTERVAL == 0;
+                final int size;
+                if (video && keyframe) {
+                    size = 20000 + random.nextInt(10000);
+                } else if (video) {
+                    size = 500 + random.nextInt(4000);
+                } else {
+                    size = 100 + random.nextInt(200);
+                }
+
+                final byte[] block = new byte[4 + size];
+                block[0] = (byte) 0x81; // track number 1
+                block[1] = (byte) ((j * frameDuration) >> 8);
+                block[2] = (byte) (j * frameDuration);
+                block[3] = (byte) (keyframe ? 0x80 : 0x00);
+                final byte[] frame = new byte[size];
+                random.nextBytes(frame);
+                System.arraycopy(frame, 0, block, 4, size);
+
+                cluster.write(element(0xA3, block));
+                frameIndex++;
+            }
+
+            segment.write(element(0x1F43B675, cluster.toByteArray()));
+        }
+
+        file.write(element(0x18538067, segment.toByteArray()));
+        return file.toByteArray();
+    }
+
+    /**
+     * @param id      the element id, with its length marker
+     * @param payload the element content
+     * @return the element
+     */
+    private static byte[] element(final int id, final byte[] payload) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(payload.length + 12);
+
+        int idLength = 4;
+        while (idLength > 1 && (id >>> ((idLength - 1) * 8)) == 0) {
+            idLength--;
+        }
+        for (int i = idLength - 1; i >= 0; i--) {
+            buffer.write(id >>> (i * 8));
+        }
+
+        // shortest encoded size, OggFromWebMWriter expects it in the Audio element
+        int sizeLength = 1;
+        while (payload.length >= (1 << (7 * sizeLength)) - 1) {
+            sizeLength++;
+        }
+        final long size = payload.length | (1L << (7 * sizeLength));
+        for (int i = sizeLength - 1; i >= 0; i--) {
+            buffer.write((int) (size >>> (i * 8)));
+        }
+
+        buffer.write(payload);
+        return buffer.toByteArray();
+    }
+
+    private static byte[] number(final long value) {
+        int length = 1;
+        while (length < 8 && (value >>> (length * 8)) != 0) {
+            length++;
+        }
+
+        final byte[] buffer = new byte[length];
+        for (int i = 0; i < length; i++) {
+            buffer[i] = (byte) (value >>> ((length - 1 - i) * 8));
+        }
+        return buffer;
+    }
+
+    private static byte[] float32(final float value) {
+        final int bits = Float.floatToIntBits(value);
+        return new byte[]{
+                (byte) (bits >>> 24), (byte) (bits >>> 16), (byte) (bits >>> 8), (byte) bits
+        };
+    }
+
+    private static byte[] concat(final byte[]... parts) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        for (final byte[] part : parts) {
+            buffer.write(part);
+        }
+        return buffer.toByteArray();
+    }
+}
@@ -0,0 +1,136 @@
+package org.schabi.newpipe.streams;
+
+import org.junit.Test;
+import org.schabi.newpipe.streams.WebMReader.Cluster;
+import org.schabi.newpipe.streams.WebMReader.Segment;
+import org.schabi.newpipe.streams.WebMReader.SimpleBlock;
+import org.schabi.newpipe.streams.WebMReader.WebMTrack;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+public class WebMWriterTest {
+
+    /**
+     * Reads every frame of a track.
+     *
+     * @param file  the WebM file
+     * @param track the track index
+     * @return the frames, the first 8 bytes of every frame are its timestamp in nanoseconds
+     */
+    static List<byte[]> frames(final byte[] file, final int track) throws IOException {
+        final WebMReader reader = new WebMReader(new MemoryStream(file));
+        reader.parse();
+        reader.selectTrack(track);
+
+        final List<byte[]> frames = new ArrayList<>();
+        Segment segment;
+        while ((segment = reader.getNextSegment()) != null) {
+            Cluster cluster;
+            while ((cluster = segment.getNextCluster()) != null) {
+                SimpleBlock block;
+                while ((block = cluster.getNextSimpleBlock()) != null) {
+                    final byte[] frame = new byte[8 + block.dataSize];
+                    for (int i = 0; i < 8; i++) {
+                        frame[i] = (byte) (block.absoluteTimeCodeNs >>> (56 - i * 8));
+                    }
+                    assertEquals(block.dataSize, block.data.read(frame, 8, block.dataSize));
+                    frames.add(frame);
+                }
+            }
+        }
+        return frames;
+    }
+
+    private static byte[] mux(final byte[]... sources) throws IOException {
+        return mux(true, sources);
+    }
+
+    private static byte[] mux(final boolean prefetch, final byte[]... sources)
+            throws IOException {
+        final MemoryStream[] streams = new MemoryStream[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            streams[i] = new MemoryStream(sources[i]);
+        }
+
+        final MemoryStream out = new MemoryStream(1024 * 1024);
+        try (WebMWriter writer = new WebMWriter(streams)) {
+            writer.parseSources();
+            writer.selectTracks(new int[sources.length]);
+            writer.setPrefetch(prefetch);
+            writer.build(out);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void muxedFramesAreTheSame() throws IOException {
+        final byte[] video = WebMFixture.video(12, 45, 1);
+        final byte[] audio = WebMFixture.audio(20, 50, 2);
+
+        final byte[] muxed = mux(video, audio);
+
+        final WebMReader reader = new WebMReader(new MemoryStream(muxed));
+        reader.parse();
+        final WebMTrack[] tracks = reader.getAvailableTracks();
+        assertEquals(2, tracks.length);
+        assertEquals("V_VP9", tracks[0].codecId);
+        assertEquals("A_OPUS", tracks[1].codecId);
+
+        final List<byte[]> videoFrames = frames(video, 0);
+        final List<byte[]> audioFrames = frames(audio, 0);
+        assertEquals(12 * 45, videoFrames.size());
+        assertEquals(20 * 50, audioFrames.size());
+
+        assertFramesEquals(videoFrames, frames(muxed, 0));
+        assertFramesEquals(audioFrames, frames(muxed, 1));
+    }
+
+    @Test
+    public void keepsTheCodecData() throws IOException {
+        final byte[] audio = WebMFixture.audio(2, 50, 3);
+
+        final WebMReader source = new WebMReader(new MemoryStream(audio));
+        source.parse();
+        final WebMReader muxed = new WebMReader(new MemoryStream(mux(audio)));
+        muxed.parse();
+
+        final WebMTrack expected = source.getAvailableTracks()[0];
+        final WebMTrack actual = muxed.getAvailableTracks()[0];
+        assertArrayEquals(expected.codecPrivate, actual.codecPrivate);
+        assertArrayEquals(expected.bMetadata, actual.bMetadata);
+        assertEquals(expected.codecDelay, actual.codecDelay);
+        assertEquals(expected.seekPreRoll, actual.seekPreRoll);
+    }
+
+    @Test
+    public void prefetchDoesNotChangeTheOutput() throws IOException {
+        final byte[] video = WebMFixture.video(30, 60, 4);
+        final byte[] audio = WebMFixture.audio(45, 100, 5);
+
+        assertArrayEquals(mux(false, video, audio), mux(true, video, audio));
+    }
+
+    @Test
+    public void prefetchReportsTruncatedSources() throws IOException {
+        final byte[] video = WebMFixture.video(10, 30, 6);
+        final byte[] truncated = Arrays.copyOf(video, video.length - 1000);
+
+        assertThrows(IOException.class,
+                () -> mux(true, truncated, WebMFixture.audio(20, 50, 7)));
+    }
+
+    private static void assertFramesEquals(final List<byte[]> expected,
+                                           final List<byte[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals("frame " + i, expected.get(i), actual.get(i));
+        }
+    }
+}
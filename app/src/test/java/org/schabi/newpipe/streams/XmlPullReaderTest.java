@@ -0,0 +1,72 @@
+package org.schabi.newpipe.streams;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class XmlPullReaderTest {
+
+    private static List<String> events(final String xml, final int bufferSize)
+            throws IOException {
+        final XmlPullReader reader = new XmlPullReader(
+                new MemoryStream(xml.getBytes(StandardCharsets.UTF_8)), bufferSize);
+        final List<String> events = new ArrayList<>();
+
+        int event;
+        while ((event = reader.next()) != XmlPullReader.END_DOCUMENT) {
+            switch (event) {
+                case XmlPullReader.START_TAG:
+                    events.add("<" + reader.getName() + " id=" + reader.getAttribute("id"));
+                    break;
+                case XmlPullReader.END_TAG:
+                    events.add("</" + reader.getName());
+                    break;
+                default:
+                    events.add(reader.getText());
+                    break;
+            }
+        }
+        return events;
+    }
+
+    @Test
+    public void readsEvents() throws IOException {
+        final List<String> events = events("<?xml version=\"1.0\"?><!DOCTYPE tt>"
+                + "<a id='1'>x &amp; y<b id=\"&quot;2&quot;\"/><!-- c --><![CDATA[<z>]]></a>", 64);
+
+        final List<String> expected = new ArrayList<>();
+        expected.add("<a id=1");
+        expected.add("x & y");
+        expected.add("<b id=\"2\"");
+        expected.add("</b");
+        expected.add("<z>");
+        expected.add("</a");
+        assertEquals(expected, events);
+    }
+
+    @Test
+    public void sameEventsWithAnyBufferSize() throws IOException {
+        final List<String> expected = events(SrtFromTtmlWriterTest.TRICKY_TTML, 16 * 1024);
+        for (int size = 1; size < 8; size++) {
+            assertEquals("buffer size " + size, expected,
+                    events(SrtFromTtmlWriterTest.TRICKY_TTML, size));
+        }
+    }
+
+    @Test
+    public void missingAttribute() throws IOException {
+        final XmlPullReader reader = new XmlPullReader(
+                new MemoryStream("<p begin=1 end>".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(XmlPullReader.START_TAG, reader.next());
+        assertEquals("1", reader.getAttribute("begin"));
+        assertEquals("", reader.getAttribute("end"));
+        assertNull(reader.getAttribute("style"));
+        assertEquals(XmlPullReader.END_DOCUMENT, reader.next());
+    }
+}
@@ -0,0 +1,71 @@
+package us.shandian.giga.get;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+
+public class BlockChecksumsTest {
+    private static final int BLOCK_SIZE = 1000;
+
+    private static byte[] data(final int length) {
+        final byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static int crc32(final byte[] data, final int offset, final int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+
+    @Test
+    public void combinesLikeCrc32() {
+        final byte[] data = data(5000);
+        for (final int split : new int[]{0, 1, 7, 1000, 2500, 4999, 5000}) {
+            final int combined = BlockChecksums.combine(crc32(data, 0, split),
+                    crc32(data, split, data.length - split), data.length - split);
+            assertEquals("split at " + split, crc32(data, 0, data.length), combined);
+        }
+    }
+
+    @Test
+    public void checksumOfRanges() {
+        final int count = 13;
+        final byte[] data = data(count * BLOCK_SIZE - 123); // the last block is shorter
+        final BlockChecksums checksums = new BlockChecksums(count, data.length, BLOCK_SIZE);
+
+        for (int i = 0; i < count; i++) {
+            checksums.set(i, crc32(data, i * BLOCK_SIZE, checksums.getBlockLength(i)));
+        }
+        assertEquals(BLOCK_SIZE - 123, checksums.getBlockLength(count - 1));
+
+        for (int from = 0; from <= count; from++) {
+            for (int to = from; to <= count; to++) {
+                final int start = Math.min(from * BLOCK_SIZE, data.length);
+                final int end = Math.min(to * BLOCK_SIZE, data.length);
+                assertEquals(from + "-" + to, crc32(data, start, end - start),
+                        checksums.getChecksum(from, to));
+            }
+        }
+
+        // the tree is updated after it was built
+        data[5 * BLOCK_SIZE + 10]++;
+        checksums.set(5, crc32(data, 5 * BLOCK_SIZE, BLOCK_SIZE));
+        assertEquals(crc32(data, 0, data.length), checksums.getChecksum(0, count));
+        assertEquals(crc32(data, 4 * BLOCK_SIZE, 3 * BLOCK_SIZE), checksums.getChecksum(4, 7));
+    }
+
+    @Test
+    public void singleBlock() {
+        final byte[] data = data(10);
+        final BlockChecksums checksums = new BlockChecksums(1, data.length, BLOCK_SIZE);
+        checksums.set(0, crc32(data, 0, data.length));
+
+        assertEquals(crc32(data, 0, data.length), checksums.getChecksum(0, 1));
+        assertEquals(0, checksums.getChecksum(1, 1));
+    }
+}
@@ -0,0 +1,383 @@
+package us.shandian.giga.get;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import us.shandian.giga.get.BlockScheduler.Block;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BlockSchedulerTest {
+    private static final int BLOCK_SIZE = DownloadMission.BLOCK_SIZE;
+
+    private static int[] newBlocks(final int count) {
+        return new int[count];
+    }
+
+    private static void download(final Block block) {
+        final int count = block.claim(block.end - block.done);
+        block.done += count;
+    }
+
+    // content of the resource, not random so it can be generated by pieces
+    private static byte[] content(final long offset, final int length) {
+        final byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            final long value = offset + i;
+            content[i] = (byte) (value * 31 + (value >>> 11));
+        }
+        return content;
+    }
+
+    private static void download(final Block block, final int amount) {
+        final int count = block.claim(amount);
+        if (count < 1) {
+            return;
+        }
+        block.digest.update(content((long) block.position * BLOCK_SIZE + block.done, count));
+        block.done += count;
+    }
+
+    private static int crc32(final long offset, final int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(content(offset, length));
+        return (int) crc.getValue();
+    }
+
+    @Test
+    public void everyBlockIsAcquiredOnce() {
+        final int[] blocks = newBlocks(64);
+        final BlockScheduler scheduler = new BlockScheduler(blocks, 64L * BLOCK_SIZE,
+                BLOCK_SIZE, 4);
+        final Set<Integer> acquired = new HashSet<>();
+
+        Block block;
+        while ((block = scheduler.acquire(0)) != null) {
+            assertTrue(acquired.add(block.position));
+            download(block);
+            assertEquals(0, scheduler.release(0, block));
+        }
+
+        // the first worker stole every range, nothing to split because nothing is in-flight
+        assertEquals(64, acquired.size());
+        for (final int value : blocks) {
+            assertEquals(-1, value);
+        }
+    }
+
+    @Test
+    public void completedBlocksAreSkipped() {
+        final int[] blocks = newBlocks(8);
+        Arrays.fill(blocks, -1);
+        blocks[5] = 1024;
+
+        final BlockScheduler scheduler = new BlockScheduler(blocks, 8L * BLOCK_SIZE,
+                BLOCK_SIZE, 2);
+
+        final Block block = scheduler.acquire(0);
+        assertNotNull(block);
+        assertEquals(5, block.position);
+        assertEquals(1024, block.done);
+        assertEquals(BLOCK_SIZE, block.end);
+
+        download(block);
+        scheduler.release(0, block);
+        assertNull(scheduler.acquire(1));
+        assertEquals(-1, blocks[5]);
+    }
+
+    @Test
+    public void lastBlockIsShorter() {
+        final int[] blocks = newBlocks(2);
+        final BlockScheduler scheduler = new BlockScheduler(blocks, BLOCK_SIZE + 100,
+                BLOCK_SIZE, 1);
+
+        assertEquals(BLOCK_SIZE, scheduler.acquire(0).end);
+        assertEquals(100, scheduler.acquire(0).end);
+    }
+
+    @Test
+    public void idleWorkerStealsHalfOfTheSlowestRange() {
+        final int[] blocks = newBlocks(16);
+        final BlockScheduler scheduler = new BlockScheduler(blocks, 16L * BLOCK_SIZE,
+                BLOCK_SIZE, 2);
+
+        // worker 1 owns the blocks 8..15, drain them
+        final List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final Block block = scheduler.acquire(1);
+            positions.add(block.position);
+            download(block);
+            scheduler.release(1, block);
+        }
+        assertEquals(8, (int) positions.get(0));
+
+        // worker 0 only took one block, worker 1 must steal the upper half of the rest
+        final Block slow = scheduler.acquire(0);
+        assertEquals(0, slow.position);
+
+        final Block stolen = scheduler.acquire(1);
+        assertEquals(4, stolen.position);
+    }
+
+    @Test
+    public void tailBlockIsSplit() {
+        final int[] blocks = newBlocks(1);
+        final BlockScheduler scheduler = new BlockScheduler(blocks, BLOCK_SIZE, BLOCK_SIZE, 2);
+
+        final Block owner = scheduler.acquire(0);
+        assertEquals(BLOCK_SIZE / 4, owner.claim(BLOCK_SIZE / 4));
+        owner.done += BLOCK_SIZE / 4;
+
+        final Block thief = scheduler.acquire(1);
+        assertNotNull(thief);
+        assertEquals(owner.position, thief.position);
+        assertEquals(owner.end, thief.start);
+        assertEquals(BLOCK_SIZE, thief.end);
+
+        // the owner can not write past the split point
+        assertEquals(owner.end - owner.done, owner.claim(BLOCK_SIZE));
+        owner.done = owner.end;
+
+        download(thief);
+        assertEquals(0, scheduler.release(1, thief));
+        assertEquals(0, blocks[0]); // the owner part is not released yet
+
+        assertEquals(0, scheduler.release(0, owner));
+        assertEquals(-1, blocks[0]);
+    }
+
+    @Test
+    public void progressOfSplitBlockIsKeptWhenContiguous() {
+        final int[] blocks = newBlocks(1);
+        final BlockScheduler scheduler = new BlockScheduler(blocks, BLOCK_SIZE, BLOCK_SIZE, 2);
+
+        final Block owner = scheduler.acquire(0);
+        final Block thief = scheduler.acquire(1);
+        assertNotNull(thief);
+
+        download(owner);
+        thief.done += thief.claim(1000);
+
+        scheduler.release(0, owner);
+        assertEquals(0, scheduler.release(1, thief));
+        assertEquals(thief.start + 1000, blocks[0]);
+    }
+
+    @Test
+    public void progressOfSplitBlockIsDiscardedOnGap() {
+        final int[] blocks = newBlocks(1);
+        final BlockScheduler scheduler = new BlockScheduler(blocks, BLOCK_SIZE, BLOCK_SIZE, 2);
+
+        final Block owner = scheduler.acquire(0);
+        final Block thief = scheduler.acquire(1);
+        assertNotNull(thief);
+
+        owner.done += owner.claim(500);
+        thief.done += thief.claim(1000);
+
+        assertEquals(0, scheduler.release(1, thief));
+        assertEquals(1000, scheduler.release(0, owner));
+        assertEquals(500, blocks[0]);
+    }
+
+    @Test
+    public void requeuedBlocksAreAcquiredFirst() {
+        final int[] blocks = newBlocks(8);
+        final BlockScheduler scheduler = new BlockScheduler(blocks, 8L * BLOCK_SIZE,
+                BLOCK_SIZE, 1);
+
+        final Block first = scheduler.acquire(0);
+        download(first);
+        scheduler.release(0, first);
+
+        final Block second = scheduler.acquire(0);
+        second.done += second.claim(1000);
+        scheduler.release(0, second);
+
+        assertEquals(BLOCK_SIZE, scheduler.requeue(first));
+        assertEquals(1000, scheduler.requeue(second));
+        assertEquals(0, scheduler.requeue(first)); // only once
+        assertEquals(0, blocks[0]);
+        assertEquals(0, blocks[1]);
+        assertEquals(8, scheduler.getPendingBlocks());
+
+        final Block again = scheduler.acquire(0);
+        assertEquals(0, again.position);
+        assertEquals(0, again.done);
+        assertEquals(1, scheduler.acquire(0).position);
+        assertEquals(2, scheduler.acquire(0).position);
+    }
+
+    @Test
+    public void splitBlockIsRequeuedOnceBothPartsAreReleased() {
+        final int[] blocks = newBlocks(1);
+        final BlockScheduler scheduler = new BlockScheduler(blocks, BLOCK_SIZE, BLOCK_SIZE, 2);
+
+        final Block owner = scheduler.acquire(0);
+        final Block thief = scheduler.acquire(1);
+        assertNotNull(thief);
+
+        download(owner);
+        scheduler.release(0, owner);
+        assertEquals(0, scheduler.requeue(owner));
+
+        download(thief);
+        assertEquals(BLOCK_SIZE, scheduler.release(1, thief));
+        assertEquals(0, blocks[0]);
+
+        final Block again = scheduler.acquire(1);
+        assertEquals(0, again.position);
+        assertEquals(0, again.start);
+        assertEquals(BLOCK_SIZE, again.end);
+    }
+
+    @Test
+    public void smallTailIsNotSplit() {
+        final int[] blocks = newBlocks(1);
+        final BlockScheduler scheduler = new BlockScheduler(blocks,
+                BlockScheduler.MIN_SPLIT_LENGTH - 1, BLOCK_SIZE, 2);
+
+        assertNotNull(scheduler.acquire(0));
+        assertNull(scheduler.acquire(1));
+    }
+
+    @Test
+    public void concurrentWorkersDownloadEverything() throws InterruptedException {
+        final int count = 300;
+        final long length = (long) count * BLOCK_SIZE - 12345;
+        final int[] blocks = newBlocks(count);
+        final int workers = 8;
+        final BlockScheduler scheduler = new BlockScheduler(blocks, length, BLOCK_SIZE, workers);
+        final AtomicLong downloaded = new AtomicLong();
+        final Thread[] threads = new Thread[workers];
+
+        for (int i = 0; i < workers; i++) {
+            final int worker = i;
+            threads[i] = new Thread(() -> {
+                Block block;
+                while ((block = scheduler.acquire(worker)) != null) {
+                    int claimed;
+                    while ((claimed = block.claim(DownloadMission.BUFFER_SIZE / 4)) > 0) {
+                        block.done += claimed;
+                        downloaded.addAndGet(claimed);
+                    }
+                    downloaded.addAndGet(-scheduler.release(worker, block));
+                }
+            });
+            threads[i].start();
+        }
+
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(length, downloaded.get());
+        for (final int value : blocks) {
+            assertEquals(-1, value);
+        }
+    }
+
+    @Test
+    public void checksumsOfSplitBlocks() {
+        final int[] blocks = newBlocks(2);
+        final BlockChecksums checksums = new BlockChecksums(2, 2L * BLOCK_SIZE, BLOCK_SIZE);
+        // the first block is paused and resumed later, with a new scheduler
+        final BlockScheduler paused = new BlockScheduler(blocks, checksums, 2L * BLOCK_SIZE,
+                BLOCK_SIZE, 1, 1);
+        Block block = paused.acquire(0);
+        download(block, 1000);
+        paused.release(0, block);
+        assertEquals(1000, blocks[0]);
+        assertEquals(crc32(0, 1000), checksums.get(0));
+
+        final BlockScheduler scheduler = new BlockScheduler(blocks, checksums, 2L * BLOCK_SIZE,
+                BLOCK_SIZE, 1, 2);
+        block = scheduler.acquire(0);
+        assertEquals(1000, block.done);
+        download(block, BLOCK_SIZE);
+        scheduler.release(0, block);
+        assertEquals(crc32(0, BLOCK_SIZE), checksums.get(0));
+
+        // the second block is split between both workers
+        final Block owner = scheduler.acquire(0);
+        download(owner, 5000);
+        final Block thief = scheduler.acquire(1);
+        assertNotNull(thief);
+
+        download(thief, BLOCK_SIZE);
+        download(owner, BLOCK_SIZE);
+        assertEquals(0, scheduler.release(1, thief));
+        assertEquals(0, scheduler.release(0, owner));
+
+        assertEquals(-1, blocks[1]);
+        assertEquals(crc32(BLOCK_SIZE, BLOCK_SIZE), checksums.get(1));
+        assertEquals(crc32(0, 2 * BLOCK_SIZE), checksums.getChecksum(0, 2));
+    }
+
+    @Test
+    public void checksumOfSplitBlockWithGap() {
+        final int[] blocks = newBlocks(1);
+        final BlockChecksums checksums = new BlockChecksums(1, BLOCK_SIZE, BLOCK_SIZE);
+        final BlockScheduler scheduler = new BlockScheduler(blocks, checksums, BLOCK_SIZE,
+                BLOCK_SIZE, 2, 2);
+
+        final Block owner = scheduler.acquire(0);
+        final Block thief = scheduler.acquire(1);
+        assertNotNull(thief);
+
+        download(owner, 500);
+        download(thief, 1000);
+        scheduler.release(1, thief);
+        scheduler.release(0, owner);
+
+        // only the progress of the first part is kept
+        assertEquals(500, blocks[0]);
+        assertEquals(crc32(0, 500), checksums.get(0));
+    }
+
+    @Test
+    public void concurrentWorkersChecksumEverything() throws InterruptedException {
+        final int count = 40;
+        final long length = (long) count * BLOCK_SIZE - 4321;
+        final int[] blocks = newBlocks(count);
+        final BlockChecksums checksums = new BlockChecksums(count, length, BLOCK_SIZE);
+        final int workers = 6;
+        final BlockScheduler scheduler = new BlockScheduler(blocks, checksums, length,
+                BLOCK_SIZE, workers, workers);
+        final Thread[] threads = new Thread[workers];
+
+        for (int i = 0; i < workers; i++) {
+            final int worker = i;
+            threads[i] = new Thread(() -> {
+                Block block;
+                while ((block = scheduler.acquire(worker)) != null) {
+                    while (!block.isCompleted()) {
+                        download(block, DownloadMission.BUFFER_SIZE / 2);
+                    }
+                    scheduler.release(worker, block);
+                }
+            });
+            threads[i].start();
+        }
+
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        for (final int value : blocks) {
+            assertEquals(-1, value);
+        }
+        assertEquals(crc32(0, (int) length), checksums.getChecksum(0, count));
+    }
+}
@@ -0,0 +1,113 @@
+package us.shandian.giga.get;
+
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadSchedulerTest {
+    private final Object first = new Object();
+    private final Object second = new Object();
+    private final Object third = new Object();
+
+    @Test
+    public void sharesConnectionsByWeight() {
+        final DownloadScheduler scheduler = new DownloadScheduler();
+        scheduler.setConnectionBudget(16);
+
+        assertEquals(16, scheduler.register(first));
+        assertEquals(8, scheduler.register(second));
+        assertEquals(8, scheduler.getConnections(first));
+
+        // the mission started by the user gets twice the share of the others
+        scheduler.setPriority(second);
+        assertEquals(5, scheduler.getConnections(first));
+        assertEquals(10, scheduler.getConnections(second));
+
+        scheduler.register(third);
+        assertTrue(scheduler.getConnections(first) + scheduler.getConnections(second)
+                + scheduler.getConnections(third) <= 16);
+        assertEquals(8, scheduler.getConnections(second));
+    }
+
+    @Test
+    public void unregisterGivesTheShareToTheOthers() {
+        final DownloadScheduler scheduler = new DownloadScheduler();
+        scheduler.setConnectionBudget(12);
+        scheduler.register(first);
+        scheduler.register(second);
+        scheduler.register(third);
+        assertEquals(4, scheduler.getConnections(first));
+
+        scheduler.unregister(second);
+        scheduler.unregister(third);
+
+        assertEquals(12, scheduler.getConnections(first));
+        assertEquals(-1, scheduler.getConnections(second));
+    }
+
+    @Test
+    public void meteredHalvesTheBudget() {
+        final DownloadScheduler scheduler = new DownloadScheduler();
+        scheduler.setConnectionBudget(16);
+        scheduler.register(first);
+        scheduler.register(second);
+        scheduler.setPriority(first);
+
+        scheduler.setMetered(true);
+        assertEquals(6, scheduler.getConnections(first));
+        assertEquals(1, scheduler.getConnections(second));
+
+        scheduler.setMetered(false);
+        assertEquals(10, scheduler.getConnections(first));
+        assertEquals(5, scheduler.getConnections(second));
+    }
+
+    @Test
+    public void admissionControl() {
+        final DownloadScheduler scheduler = new DownloadScheduler();
+        scheduler.setConnectionBudget(2);
+        assertTrue(scheduler.hasFreeConnections());
+
+        scheduler.register(first);
+        scheduler.register(second);
+        assertFalse(scheduler.hasFreeConnections());
+
+        scheduler.unregister(first);
+        assertTrue(scheduler.hasFreeConnections());
+    }
+
+    @Test
+    public void sharesTheBandwidth() {
+        final DownloadScheduler scheduler = new DownloadScheduler();
+        scheduler.setBandwidthLimit(600_000);
+        scheduler.register(first);
+        scheduler.register(second);
+        scheduler.setPriority(first);
+
+        assertEquals(400_000, scheduler.getRate(first));
+        assertEquals(200_000, scheduler.getRate(second));
+
+        scheduler.setBandwidthLimit(0);
+        assertEquals(0, scheduler.getRate(first));
+    }
+
+    @Test
+    public void throttleHonorsTheRate() throws InterruptedIOException {
+        final DownloadScheduler scheduler = new DownloadScheduler();
+        scheduler.setBandwidthLimit(1024 * 1024);
+        scheduler.register(first);
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < 32; i++) {
+            scheduler.throttle(first, 16 * 1024);
+        }
+        final long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+        // 512 KiB at 1 MiB/s, the bucket starts empty
+        assertTrue("elapsed " + elapsed, elapsed >= 400 && elapsed < 1000);
+    }
+}
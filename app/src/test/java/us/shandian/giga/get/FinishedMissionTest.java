@@ -0,0 +1,65 @@
+package us.shandian.giga.get;
+
+import org.junit.Test;
+import org.schabi.newpipe.extractor.MediaFormat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FinishedMissionTest {
+
+    private static DownloadMission mission(final char kind, final MissionRecoveryInfo... info) {
+        // one url, several urls need a post-processing algorithm
+        final DownloadMission mission =
+                new DownloadMission(new String[]{"https://example.com/media"}, null, kind, null);
+        mission.source = "https://example.com/watch?v=1";
+        mission.recoveryInfo = info.length > 0 ? info : null;
+        return mission;
+    }
+
+    private static MissionRecoveryInfo video(final String resolution, final boolean videoOnly) {
+        return new MissionRecoveryInfo(MediaFormat.MPEG_4, resolution, videoOnly, 0, 'v', null);
+    }
+
+    private static MissionRecoveryInfo audio(final int bitrate) {
+        return new MissionRecoveryInfo(MediaFormat.M4A, null, false, bitrate, 'a', null);
+    }
+
+    @Test
+    public void videoWithAudio() {
+        final FinishedMission finished = new FinishedMission(mission('v', video("720p", false)));
+        assertEquals("720p", finished.quality);
+        assertFalse(finished.videoOnly);
+    }
+
+    @Test
+    public void videoOnlyMuxedWithAudio() {
+        final FinishedMission finished =
+                new FinishedMission(mission('v', video("1080p", true), audio(128)));
+        assertEquals("1080p", finished.quality);
+        assertFalse(finished.videoOnly);
+    }
+
+    @Test
+    public void videoOnly() {
+        final FinishedMission finished = new FinishedMission(mission('v', video("1080p", true)));
+        assertEquals("1080p", finished.quality);
+        assertTrue(finished.videoOnly);
+    }
+
+    @Test
+    public void audio() {
+        final FinishedMission finished = new FinishedMission(mission('a', audio(128)));
+        assertEquals("128", finished.quality);
+        assertFalse(finished.videoOnly);
+    }
+
+    @Test
+    public void unknownQuality() {
+        final FinishedMission finished = new FinishedMission(mission('v'));
+        assertNull(finished.quality);
+        assertFalse(finished.videoOnly);
+    }
+}
@@ -0,0 +1,179 @@
+package us.shandian.giga.get;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import us.shandian.giga.get.BlockScheduler.Block;
+import us.shandian.giga.get.MirrorSelector.Mirror;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MirrorSelectorTest {
+    private static final long LENGTH = 64L * 1024 * 1024;
+    private static final long SAMPLE = 4 * MirrorSelector.MINIMUM_SAMPLE;
+    private static final long SECOND = 1_000_000_000L;
+    private static final String ETAG = "\"etag\"";
+
+    private static MirrorSelector selector(final String... mirrors) {
+        return new MirrorSelector(mirrors, LENGTH, ETAG);
+    }
+
+    // rates a mirror with a response of SAMPLE bytes
+    private static void rate(final MirrorSelector selector, final Mirror mirror,
+                             final long bytesPerSecond, final long now) {
+        selector.release(mirror, SAMPLE, SAMPLE * SECOND / bytesPerSecond, now);
+    }
+
+    @Test
+    public void withoutMirrors() {
+        final MirrorSelector selector = new MirrorSelector(null, LENGTH, null);
+        final Mirror mirror = selector.acquire(0);
+
+        assertTrue(mirror.isPrimary());
+        assertNull(mirror.url);
+        assertFalse(selector.fail(mirror, 0));
+        assertSame(mirror, selector.acquire(0));
+    }
+
+    @Test
+    public void probesEveryMirrorThenSpreadsTheRequests() {
+        final MirrorSelector selector = selector("a", "b");
+
+        final Mirror primary = selector.acquire(0);
+        final Mirror a = selector.acquire(0);
+        final Mirror b = selector.acquire(0);
+        assertTrue(primary.isPrimary());
+        assertEquals("a", a.url);
+        assertEquals("b", b.url);
+
+        rate(selector, primary, 1_000_000, 0);
+        rate(selector, a, 2_000_000, 0);
+        rate(selector, b, 1_000_000, 0);
+
+        // the fastest first, then by throughput per request in flight
+        assertSame(a, selector.acquire(0));
+        assertSame(primary, selector.acquire(0));
+        assertSame(a, selector.acquire(0));
+        assertSame(b, selector.acquire(0));
+        assertEquals(2, a.active);
+    }
+
+    @Test
+    public void slowMirrorsAreDemoted() {
+        final MirrorSelector selector = selector("slow");
+        final Mirror primary = selector.acquire(0);
+        final Mirror slow = selector.acquire(0);
+
+        rate(selector, primary, 8_000_000, 0);
+        rate(selector, slow, 1_000_000, 0);
+
+        assertEquals(MirrorSelector.DEMOTION_TIME, slow.demotedUntil);
+        assertSame(primary, selector.acquire(1));
+        assertSame(primary, selector.acquire(1));
+
+        // probed again once the demotion expires, still slow
+        final long now = MirrorSelector.DEMOTION_TIME;
+        final Mirror probe = selector.acquire(now);
+        assertSame(slow, probe);
+        rate(selector, probe, 1_000_000, now);
+        assertEquals(now + 2 * MirrorSelector.DEMOTION_TIME, slow.demotedUntil);
+
+        // a short response is not rated
+        selector.release(selector.acquire(now), 1024, SECOND, now);
+        assertEquals(8_000_000, primary.throughput, 100);
+    }
+
+    @Test
+    public void failingMirrorsAreDemoted() {
+        final MirrorSelector selector = selector("a");
+        final Mirror primary = selector.acquire(0);
+        final Mirror a = selector.acquire(0);
+
+        assertTrue(selector.fail(a, 0));
+        assertFalse(a.demotedUntil <= 0);
+
+        // the only usable mirror is never demoted
+        selector.release(primary, 0, 0, 0);
+        assertSame(primary, selector.acquire(0));
+        assertFalse(selector.fail(primary, 0));
+
+        // probed again once the demotion expires, like the unrated url of the resource
+        assertSame(primary, selector.acquire(MirrorSelector.DEMOTION_TIME));
+        assertSame(a, selector.acquire(MirrorSelector.DEMOTION_TIME));
+        assertEquals(2, selector.getCount());
+    }
+
+    @Test
+    public void mirrorsAreNotUsedWithoutValidator() {
+        final MirrorSelector selector = new MirrorSelector(new String[]{"a", "b"}, LENGTH, null);
+
+        assertEquals(1, selector.getCount());
+        assertTrue(selector.acquire(0).isPrimary());
+        assertTrue(selector.acquire(0).isPrimary());
+    }
+
+    @Test
+    public void mirrorsServingAnotherFileAreRejected() {
+        final MirrorSelector selector = selector("a", "b", "c");
+        final Mirror primary = selector.acquire(0);
+        final Mirror a = selector.acquire(0);
+        final Mirror b = selector.acquire(0);
+        final Mirror c = selector.acquire(0);
+
+        assertTrue(selector.verify(primary, -1, null, null));
+        assertTrue(selector.verify(a, LENGTH, ETAG, null));
+        assertFalse(selector.verify(a, LENGTH + 1, ETAG, null));
+        assertFalse(selector.verify(b, LENGTH, "\"etag-b\"", null));
+        // cannot be matched
+        assertFalse(selector.verify(c, LENGTH, null, null));
+
+        selector.reject(c);
+        selector.drop(primary);
+        assertTrue(c.dropped);
+        assertFalse(primary.dropped);
+        assertEquals(3, selector.getCount());
+
+        for (int i = 0; i < 10; i++) {
+            final Mirror mirror = selector.acquire(0);
+            assertTrue(mirror != c);
+        }
+    }
+
+    @Test
+    public void mirrorsAreMatchedByLastModified() {
+        final String date = "Wed, 21 Oct 2015 07:28:00 GMT";
+        final MirrorSelector selector = new MirrorSelector(new String[]{"a"}, LENGTH, date);
+        selector.acquire(0);
+        final Mirror a = selector.acquire(0);
+
+        assertEquals("a", a.url);
+        assertTrue(selector.verify(a, LENGTH, "\"etag-a\"", date));
+        assertFalse(selector.verify(a, LENGTH, null, "Thu, 22 Oct 2015 07:28:00 GMT"));
+    }
+
+    @Test
+    public void blocksWrittenByRejectedMirrorsAreReturned() {
+        final MirrorSelector selector = selector("a", "b");
+        selector.acquire(0);
+        final Mirror a = selector.acquire(0);
+        final Mirror b = selector.acquire(0);
+
+        final Block first = new Block();
+        final Block second = new Block();
+        assertTrue(selector.record(Collections.singletonList(a), first));
+        assertTrue(selector.record(Arrays.asList(a, b), second));
+
+        assertEquals(Arrays.asList(first, second), selector.reject(a));
+        assertEquals(Collections.singletonList(second), b.written);
+
+        // released after the mirror was rejected
+        assertFalse(selector.record(Collections.singletonList(a), new Block()));
+        assertTrue(selector.reject(a).isEmpty());
+    }
+}
@@ -0,0 +1,206 @@
+package us.shandian.giga.get;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MissionJournalTest {
+    private static final int BLOCKS = 200;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private DownloadMission mission;
+
+    @Before
+    public void setUp() throws IOException {
+        file = folder.newFile("1600000000000");
+        mission = new DownloadMission(new String[]{"https://example.com/video"}, null, 'v', null);
+        mission.length = (long) BLOCKS * DownloadMission.BLOCK_SIZE;
+        mission.nearLength = mission.length;
+        mission.blocks = new int[BLOCKS];
+    }
+
+    private void download(final int block) {
+        mission.blocks[block] = -1;
+        mission.done += DownloadMission.BLOCK_SIZE;
+    }
+
+    @Test
+    public void snapshotAndProgressRecords() throws IOException {
+        final MissionJournal journal = new MissionJournal(file);
+        journal.write(mission, false);
+        final long snapshotSize = file.length();
+
+        download(0);
+        download(1);
+        mission.blocks[2] = 1234;
+        mission.done += 1234;
+        journal.write(mission, true);
+
+        // only the changed blocks are appended
+        final long recordSize = file.length() - snapshotSize;
+        assertTrue(recordSize < 100);
+
+        download(3);
+        journal.write(mission, true);
+
+        final DownloadMission read = MissionJournal.read(file);
+        assertNotNull(read);
+        assertArrayEquals(mission.blocks, read.blocks);
+        assertEquals(mission.done, read.done);
+        assertEquals(mission.length, read.length);
+        assertEquals(mission.urls[0], read.urls[0]);
+    }
+
+    @Test
+    public void compactsWhenProgressOutgrowsSnapshot() throws IOException {
+        final MissionJournal journal = new MissionJournal(file);
+        journal.write(mission, false);
+        final long snapshotSize = file.length();
+
+        long maximumSize = 0;
+        for (int i = 0; i < BLOCKS; i++) {
+            download(i);
+            journal.write(mission, true);
+            maximumSize = Math.max(maximumSize, file.length());
+        }
+
+        assertTrue(maximumSize < snapshotSize + Math.max(snapshotSize, 16 * 1024) + 200);
+
+        final DownloadMission read = MissionJournal.read(file);
+        assertNotNull(read);
+        assertArrayEquals(mission.blocks, read.blocks);
+        assertEquals(mission.done, read.done);
+    }
+
+    @Test
+    public void ignoresTruncatedRecord() throws IOException {
+        final MissionJournal journal = new MissionJournal(file);
+        journal.write(mission, false);
+
+        download(0);
+        journal.write(mission, true);
+        final long validSize = file.length();
+        final long validDone = mission.done;
+
+        download(1);
+        journal.write(mission, true);
+
+        // the app was killed while appending the last record
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(file.length() - 3);
+        }
+        assertTrue(file.length() > validSize);
+
+        final DownloadMission read = MissionJournal.read(file);
+        assertNotNull(read);
+        assertEquals(validDone, read.done);
+        assertEquals(-1, read.blocks[0]);
+        assertEquals(0, read.blocks[1]);
+    }
+
+    @Test
+    public void ignoresCorruptRecord() throws IOException {
+        final MissionJournal journal = new MissionJournal(file);
+        journal.write(mission, false);
+        final long snapshotSize = file.length();
+
+        download(0);
+        journal.write(mission, true);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(snapshotSize + 10);
+            raf.write(0xFF);
+        }
+
+        final DownloadMission read = MissionJournal.read(file);
+        assertNotNull(read);
+        assertEquals(0, read.done);
+        assertEquals(0, read.blocks[0]);
+    }
+
+    @Test
+    public void savesChecksums() throws IOException {
+        mission.checksums = new BlockChecksums(BLOCKS, mission.length, DownloadMission.BLOCK_SIZE);
+        mission.checksums.set(0, 0x12345678);
+
+        final MissionJournal journal = new MissionJournal(file);
+        journal.write(mission, false);
+
+        DownloadMission read = MissionJournal.read(file);
+        assertNotNull(read);
+        assertEquals(0x12345678, read.checksums.get(0));
+        assertFalse(read.verifyPending);
+
+        download(1);
+        mission.checksums.set(1, 0xCAFEBABE);
+        mission.blocks[2] = 1234;
+        mission.checksums.set(2, 42);
+        // the checksum can change alone, if the block was downloaded again
+        mission.checksums.set(0, 0x87654321);
+        mission.fallbackChecksum = 7;
+        journal.write(mission, true);
+
+        read = MissionJournal.read(file);
+        assertNotNull(read);
+        for (int i = 0; i < BLOCKS; i++) {
+            assertEquals(mission.checksums.get(i), read.checksums.get(i));
+        }
+        assertEquals(7, read.fallbackChecksum);
+        // the app was killed while downloading
+        assertTrue(read.verifyPending);
+
+        // the mission was paused
+        journal.write(mission, false);
+        read = MissionJournal.read(file);
+        assertNotNull(read);
+        assertFalse(read.verifyPending);
+        assertEquals(0xCAFEBABE, read.checksums.get(1));
+    }
+
+    @Test
+    public void readsLegacyFile() throws IOException {
+        download(5);
+
+        try (ObjectOutputStream output = new ObjectOutputStream(new FileOutputStream(file))) {
+            output.writeObject(mission);
+        }
+
+        final DownloadMission read = MissionJournal.read(file);
+        assertNotNull(read);
+        assertArrayEquals(mission.blocks, read.blocks);
+        assertEquals(mission.done, read.done);
+
+        // the first save after reading a legacy file rewrites it in the new format
+        final MissionJournal journal = new MissionJournal(file);
+        journal.write(read, true);
+        assertNotNull(MissionJournal.read(file));
+        assertFalse(new File(file.getPath() + MissionJournal.TEMPORAL_SUFFIX).exists());
+    }
+
+    @Test
+    public void rejectsNewerVersion() throws IOException {
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            final byte version = (byte) (MissionJournal.VERSION + 1);
+            output.write(new byte[]{'N', 'P', 'J', 'L', 0, 0, 0, version});
+        }
+
+        assertNull(MissionJournal.read(file));
+    }
+}
@@ -0,0 +1,196 @@
+package us.shandian.giga.get;
+
+import org.junit.Test;
+
+import us.shandian.giga.get.ThroughputController.Decision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ThroughputControllerTest {
+    private static final int CAPACITY = ThroughputController.MAXIMUM_WORKERS;
+
+    /**
+     * Stand-in of an HTTP server serving range requests, every connection is limited to
+     * {@code connectionCap} bytes per second and all connections share a link limited to
+     * {@code linkCap} bytes per second.
+     */
+    private static final class RangeServer {
+        private final ThroughputController controller;
+        private final boolean[] connected = new boolean[CAPACITY];
+        private long connectionCap;
+        private long linkCap;
+        private long now = 1;
+
+        RangeServer(final int maximum, final int workers,
+                    final long connectionCap, final long linkCap) {
+            this.controller = new ThroughputController(CAPACITY, maximum);
+            this.connectionCap = connectionCap;
+            this.linkCap = linkCap;
+
+            for (int i = 0; i < workers; i++) {
+                connect();
+            }
+        }
+
+        private void connect() {
+            for (int i = 0; i < CAPACITY; i++) {
+                if (!connected[i]) {
+                    connected[i] = true;
+                    controller.onWorkerStarted(i, now);
+                    return;
+                }
+            }
+        }
+
+        private int connections() {
+            int count = 0;
+            for (final boolean value : connected) {
+                if (value) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        Decision tick(final int pendingBlocks) {
+            final long elapsed = ThroughputController.SAMPLE_INTERVAL;
+            final long share = Math.min(connectionCap, linkCap / connections());
+
+            for (int i = 0; i < CAPACITY; i++) {
+                if (connected[i]) {
+                    controller.record(i, share * elapsed / 1000);
+                }
+            }
+
+            now += elapsed;
+            final Decision decision = controller.sample(now, pendingBlocks);
+
+            switch (decision) {
+                case ADD:
+                    connect();
+                    break;
+                case RETIRE:
+                    for (int i = 0; i < CAPACITY; i++) {
+                        if (controller.isRetiring(i)) {
+                            connected[i] = false;
+                            controller.onWorkerExited(i);
+                        }
+                    }
+                    break;
+            }
+
+            return decision;
+        }
+
+        void run(final int samples, final int pendingBlocks) {
+            for (int i = 0; i < samples; i++) {
+                tick(pendingBlocks);
+            }
+        }
+    }
+
+    @Test
+    public void growsUntilThroughputPlateaus() {
+        final RangeServer server = new RangeServer(CAPACITY, 3, 100_000, 1_000_000);
+        final ThroughputController controller = server.controller;
+
+        server.run(20, 1000);
+
+        assertTrue(controller.isAtPlateau());
+        assertEquals(10, controller.getActiveWorkers());
+        assertEquals(10, server.connections());
+        assertEquals(1_000_000, controller.getLastThroughput());
+        assertEquals(1_000_000, controller.getPeakThroughput());
+        assertEquals(8, controller.getAddedWorkers());
+        assertEquals(1, controller.getRetiredWorkers());
+    }
+
+    @Test
+    public void retiresWhenLinkIsSaturated() {
+        final RangeServer server = new RangeServer(CAPACITY, 6, 1_000_000, 2_000_000);
+        final ThroughputController controller = server.controller;
+
+        server.run(10, 1000);
+
+        // the link was already saturated, only one thread was added and then retired
+        assertTrue(controller.isAtPlateau());
+        assertEquals(6, controller.getActiveWorkers());
+        assertEquals(1, controller.getAddedWorkers());
+        assertEquals(1, controller.getRetiredWorkers());
+    }
+
+    @Test
+    public void probesAfterPlateau() {
+        final RangeServer server = new RangeServer(CAPACITY, 3, 100_000, 500_000);
+        final ThroughputController controller = server.controller;
+
+        server.run(10, 1000);
+        assertTrue(controller.isAtPlateau());
+        assertEquals(5, server.connections());
+
+        // the link is faster now, the next probe must discover it
+        server.linkCap = 800_000;
+        server.run(ThroughputController.PROBE_INTERVAL + 10, 1000);
+
+        assertEquals(8, server.connections());
+    }
+
+    @Test
+    public void exploresAgainWhenConnectionsSlowDown() {
+        final RangeServer server = new RangeServer(CAPACITY, 2, 200_000, 800_000);
+        final ThroughputController controller = server.controller;
+
+        server.run(10, 1000);
+        assertEquals(4, server.connections());
+
+        // the server starts throttling every connection
+        server.connectionCap = 100_000;
+        server.run(12, 1000);
+
+        assertEquals(8, server.connections());
+        assertEquals(800_000, controller.getLastThroughput());
+    }
+
+    @Test
+    public void boundedByPendingBlocks() {
+        final RangeServer server = new RangeServer(CAPACITY, 2, 100_000, 10_000_000);
+        final ThroughputController controller = server.controller;
+
+        server.run(20, 5);
+        assertEquals(5, server.connections());
+
+        // near the end of the download there are less blocks than threads
+        server.run(3, 3);
+        assertEquals(3, server.connections());
+    }
+
+    @Test
+    public void boundedByMaximum() {
+        final RangeServer server = new RangeServer(12, 3, 100_000, 10_000_000);
+        final ThroughputController controller = server.controller;
+
+        server.run(30, 1000);
+
+        assertFalse(controller.isAtPlateau());
+        assertEquals(12, server.connections());
+        assertEquals(12, controller.getPeakWorkers());
+    }
+
+    @Test
+    public void retiresWhenTheMaximumIsLowered() {
+        final RangeServer server = new RangeServer(12, 3, 100_000, 10_000_000);
+        final ThroughputController controller = server.controller;
+
+        server.run(30, 1000);
+        assertEquals(12, server.connections());
+
+        // another mission started, the share of this one is smaller now
+        controller.setMaximum(4);
+        server.run(10, 1000);
+
+        assertEquals(4, server.connections());
+        assertEquals(4, controller.getActiveWorkers());
+    }
+}
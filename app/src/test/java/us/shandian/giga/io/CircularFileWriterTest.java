@@ -0,0 +1,303 @@
+package us.shandian.giga.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.schabi.newpipe.streams.io.SharpStream;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CircularFileWriterTest {
+    private static final int RESERVED = 4 * 1024;
+    private static final int VIDEO_LENGTH = 12 * 1024 * 1024;
+    private static final int AUDIO_LENGTH = 1536 * 1024 + 123;
+
+    private File file;
+    private File temp;
+    private byte[] input;
+
+    /**
+     * Muxes the sources stored after a reserved space of the output file, like the
+     * post-processing algorithms that work on the same file. The output starts with a header
+     * bigger than the reserved space, the samples of both sources are interleaved and the sizes
+     * in the header are patched meanwhile, at the end a trailer is appended and the header is
+     * written again. The overhead of every sample is dropped, so the output is shorter than the
+     * sources.
+     */
+    static final class InPlaceMuxer implements CircularFileWriter.OffsetChecker {
+        static final int HEADER_LENGTH = 256 * 1024;
+        static final int TRAILER_LENGTH = 64 * 1024;
+        static final int SAMPLE_OVERHEAD = 256;
+        private static final int[] SAMPLE_LENGTHS = {32 * 1024, 8 * 1024};
+        private static final int PATCH_INTERVAL = 16;
+
+        private final long[] pointers;
+        private final long[] ends;
+        private final FileChannel channel;
+        private final byte[] original;
+        private final byte[] sample = new byte[SAMPLE_LENGTHS[0]];
+        private final byte[] header = new byte[HEADER_LENGTH];
+        private final ByteArray expected;
+
+        /**
+         * @param reserved space before the sources
+         * @param lengths  length of every source
+         * @param channel  the file, to read and verify the sources, or {@code null} to skip
+         *                 reading them
+         * @param original the content of the file before muxing
+         */
+        InPlaceMuxer(final long reserved, final long[] lengths, final FileChannel channel,
+                     final byte[] original) {
+            this.pointers = new long[lengths.length];
+            this.ends = new long[lengths.length];
+            this.channel = channel;
+            this.original = original;
+            this.expected = original == null ? null : new ByteArray();
+
+            long offset = reserved;
+            for (int i = 0; i < lengths.length; i++) {
+                pointers[i] = offset;
+                offset += lengths[i];
+                ends[i] = offset;
+            }
+            Arrays.fill(header, (byte) 'h');
+        }
+
+        @Override
+        public long check() {
+            // like ChunkFileInputStream, reports the position of the last byte read
+            for (int i = 0; i < pointers.length; i++) {
+                if (pointers[i] < ends[i]) {
+                    return pointers[i] - 1;
+                }
+            }
+            return -1;
+        }
+
+        byte[] getExpected() {
+            return expected.toArray();
+        }
+
+        /**
+         * @param out the writer
+         * @return the length of the output
+         * @throws IOException if an I/O error occurs
+         */
+        long run(final SharpStream out) throws IOException {
+            put(out, header, HEADER_LENGTH);
+            long end = HEADER_LENGTH;
+            final long[] starts = pointers.clone();
+
+            for (int count = 1;; count++) {
+                // the source with less progress goes first
+                int source = -1;
+                double progress = 1;
+                for (int i = 0; i < pointers.length; i++) {
+                    final double current =
+                            (pointers[i] - starts[i]) / (double) (ends[i] - starts[i]);
+                    if (current < progress) {
+                        progress = current;
+                        source = i;
+                    }
+                }
+                if (source == -1) {
+                    break;
+                }
+
+                final int length = (int) Math.min(SAMPLE_LENGTHS[source % 2],
+                        ends[source] - pointers[source]);
+                read(pointers[source], length);
+                pointers[source] += length;
+
+                final int payload = Math.max(0, length - SAMPLE_OVERHEAD);
+                sample[SAMPLE_OVERHEAD - 1] = (byte) source;
+                put(out, sample, SAMPLE_OVERHEAD - 1, payload + 1);
+                end += payload + 1;
+
+                if (count % PATCH_INTERVAL == 0) {
+                    seek(out, (count / PATCH_INTERVAL * 8L) % HEADER_LENGTH);
+                    header[0] = (byte) count;
+                    put(out, header, 8);
+                    seek(out, end);
+                }
+            }
+
+            Arrays.fill(sample, (byte) 't');
+            for (int i = 0; i < TRAILER_LENGTH; i += sample.length) {
+                put(out, sample, Math.min(sample.length, TRAILER_LENGTH - i));
+            }
+            end += TRAILER_LENGTH;
+
+            out.rewind();
+            if (expected != null) {
+                expected.seek(0);
+            }
+            header[0] = 'H';
+            put(out, header, HEADER_LENGTH);
+
+            return end;
+        }
+
+        private void read(final long position, final int length) throws IOException {
+            if (channel == null) {
+                return;
+            }
+
+            final ByteBuffer buffer = ByteBuffer.wrap(sample, 0, length);
+            while (buffer.hasRemaining()) {
+                assertTrue(channel.read(buffer, position + buffer.position()) > 0);
+            }
+
+            for (int i = 0; i < length; i++) {
+                if (sample[i] != original[(int) position + i]) {
+                    throw new AssertionError("unread byte overwritten at " + (position + i));
+                }
+            }
+        }
+
+        private void seek(final SharpStream out, final long offset) throws IOException {
+            out.seek(offset);
+            if (expected != null) {
+                expected.seek((int) offset);
+            }
+        }
+
+        private void put(final SharpStream out, final byte[] data, final int length)
+                throws IOException {
+            put(out, data, 0, length);
+        }
+
+        private void put(final SharpStream out, final byte[] data, final int offset,
+                         final int length) throws IOException {
+            out.write(data, offset, length);
+            if (expected != null) {
+                expected.write(data, offset, length);
+            }
+        }
+    }
+
+    /**
+     * Growable array with a write position.
+     */
+    private static final class ByteArray {
+        private byte[] data = new byte[1024];
+        private int length;
+        private int position;
+
+        void seek(final int offset) {
+            position = offset;
+        }
+
+        void write(final byte[] b, final int offset, final int count) {
+            if (position + count > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, position + count));
+            }
+            System.arraycopy(b, offset, data, position, count);
+            position += count;
+            length = Math.max(length, position);
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(data, length);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("mission", null);
+        temp = File.createTempFile("mission", ".tmp");
+
+        input = new byte[RESERVED + VIDEO_LENGTH + AUDIO_LENGTH];
+        new Random(42).nextBytes(input);
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.write(input);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        temp.delete();
+    }
+
+    private void mux(final SharpStream target) throws IOException {
+        try (RandomAccessFile reader = new RandomAccessFile(file, "r")) {
+            final InPlaceMuxer muxer = new InPlaceMuxer(RESERVED,
+                    new long[]{VIDEO_LENGTH, AUDIO_LENGTH}, reader.getChannel(), input);
+
+            final CircularFileWriter out =
+                    new CircularFileWriter(target, temp, muxer);
+            final long length = muxer.run(out);
+            final long spill = out.getSpillCapacity();
+
+            assertEquals(length, out.finalizeFile());
+            assertArrayEquals(muxer.getExpected(), readFile());
+
+            // the spill holds the bytes ahead of the sources, not the whole output
+            assertTrue("spill capacity " + spill, spill < length / 2);
+        }
+    }
+
+    private byte[] readFile() throws IOException {
+        try (RandomAccessFile reader = new RandomAccessFile(file, "r")) {
+            final byte[] data = new byte[(int) reader.length()];
+            reader.readFully(data);
+            return data;
+        }
+    }
+
+    @Test
+    public void positionalIo() throws IOException {
+        mux(new FileStream(file));
+    }
+
+    @Test
+    public void withoutPositionalIo() throws IOException {
+        mux(new SequentialFileStream(file));
+    }
+
+    @Test
+    public void outputBehindTheSources() throws IOException {
+        // the sources are read before writing, the spill is never used
+        final CircularFileWriter out = new CircularFileWriter(new FileStream(file), temp, () -> -1);
+        final byte[] data = new byte[100_000];
+        new Random(7).nextBytes(data);
+
+        out.write(data);
+        out.seek(10);
+        out.write((byte) 1);
+        out.skip(5);
+        out.write(data, 0, 10);
+
+        data[10] = 1;
+        System.arraycopy(data, 0, data, 16, 10);
+
+        assertEquals(data.length, out.finalizeFile());
+        assertArrayEquals(data, readFile());
+    }
+
+    /**
+     * Only sequential I/O, like the files of the Storage Access Framework on old devices.
+     */
+    private static final class SequentialFileStream extends FileStream {
+        SequentialFileStream(final File target) throws FileNotFoundException {
+            super(target);
+        }
+
+        @Override
+        public boolean canPositionalIo() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package us.shandian.giga.service;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import us.shandian.giga.get.FinishedMission;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FinishedMissionListTest {
+    private static final int PAGE_SIZE = FinishedMissionList.PAGE_SIZE;
+    private static final int COUNT = FinishedMissionList.CACHE_SIZE + PAGE_SIZE + 10;
+
+    /**
+     * Stand-in of the store, the ids are the row ids, newest first.
+     */
+    private final Map<Long, FinishedMission> store = new HashMap<>();
+    private FinishedMissionList list;
+
+    private static FinishedMission mission(final long id) {
+        final FinishedMission mission = new FinishedMission();
+        mission.id = id;
+        mission.timestamp = id;
+        return mission;
+    }
+
+    private List<FinishedMission> load(final long[] ids, final int from, final int to) {
+        final List<FinishedMission> page = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            final FinishedMission stored = store.get(ids[i]);
+            if (stored != null) {
+                // every load creates new instances, like the store
+                page.add(mission(stored.id));
+            }
+        }
+        return page;
+    }
+
+    @Before
+    public void setUp() {
+        final long[] ids = new long[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            ids[i] = COUNT - i;
+            store.put(ids[i], mission(ids[i]));
+        }
+        list = new FinishedMissionList(ids, this::load);
+    }
+
+    @Test
+    public void loadsOnlyTheRequiredPages() {
+        final long[] ids = list.getIds();
+
+        assertEquals(COUNT, list.size());
+        assertEquals(0, list.getPagesLoaded());
+
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            assertEquals(ids[i], list.get(ids, i).id);
+        }
+        assertEquals(1, list.getPagesLoaded());
+
+        assertEquals(ids[COUNT - 1], list.get(ids, COUNT - 1).id);
+        assertEquals(2, list.getPagesLoaded());
+    }
+
+    @Test
+    public void keepsTheCachedInstances() {
+        final long[] ids = list.getIds();
+        final FinishedMission first = list.get(ids, 0);
+
+        assertSame(first, list.get(ids, 0));
+        assertEquals(1, list.getPagesLoaded());
+
+        // walk the whole list, the first page is evicted from the cache and loaded again
+        for (int i = 0; i < COUNT; i++) {
+            list.get(ids, i);
+        }
+        final FinishedMission reloaded = list.get(ids, 0);
+
+        assertEquals(first, reloaded);
+        assertEquals(first.hashCode(), reloaded.hashCode());
+        assertEquals((COUNT + PAGE_SIZE - 1) / PAGE_SIZE + 1, list.getPagesLoaded());
+    }
+
+    @Test
+    public void changesDoNotAffectTheSnapshots() {
+        final long[] snapshot = list.getIds();
+        final FinishedMission removed = list.get(snapshot, 1);
+        final FinishedMission added = mission(COUNT + 1);
+        store.put(added.id, added);
+
+        assertTrue(list.remove(removed));
+        assertFalse(list.remove(removed));
+        list.add(added);
+
+        final long[] ids = list.getIds();
+        assertEquals(COUNT, ids.length);
+        assertEquals(added.id, ids[0]);
+        assertEquals(snapshot[0], ids[1]);
+        assertEquals(snapshot[2], ids[2]);
+        assertSame(added, list.get(ids, 0));
+
+        assertEquals(COUNT, snapshot.length);
+        assertSame(removed, list.get(snapshot, 1));
+    }
+
+    @Test
+    public void missionsRemovedFromTheStore() {
+        final long[] ids = list.getIds();
+        store.remove(ids[3]);
+
+        assertNull(list.get(ids, 3));
+        assertEquals(ids[4], list.get(ids, 4).id);
+    }
+
+    @Test
+    public void clear() {
+        final long[] snapshot = list.getIds();
+        list.get(snapshot, 0);
+        list.clear();
+
+        assertEquals(0, list.size());
+        assertArrayEquals(new long[0], list.getIds());
+    }
+}
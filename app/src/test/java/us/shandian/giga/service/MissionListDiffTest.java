@@ -0,0 +1,106 @@
+package us.shandian.giga.service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MissionListDiffTest {
+    private static final Object PENDING = new Object();
+    private static final Object FINISHED = new Object();
+
+    private static MissionListDiff.Snapshot snapshot(final Object[] pending,
+                                                     final long... finished) {
+        final ArrayList<Object> items = new ArrayList<>();
+        if (pending.length > 0) {
+            items.add(PENDING);
+            items.addAll(Arrays.asList(pending));
+        }
+        if (finished.length > 0) {
+            items.add(FINISHED);
+        }
+        return new MissionListDiff.Snapshot(items, finished, 0, 0);
+    }
+
+    private static long[] range(final long from, final long to) {
+        final long[] ids = new long[(int) (from - to)];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = from - i;
+        }
+        return ids;
+    }
+
+    @Test
+    public void noChanges() {
+        final Object[] pending = {new Object(), new Object()};
+        final MissionListDiff diff = new MissionListDiff(snapshot(pending, range(500, 0)),
+                snapshot(pending.clone(), range(500, 0))).calculate();
+
+        assertTrue(diff.isEmpty());
+        assertEquals(0, diff.getOldListSize());
+        assertEquals(0, diff.getNewListSize());
+    }
+
+    @Test
+    public void missionFinished() {
+        final Object first = new Object();
+        final Object second = new Object();
+
+        // the first mission is finished and stored with the id 501
+        final MissionListDiff diff = new MissionListDiff(
+                snapshot(new Object[]{first, second}, range(500, 0)),
+                snapshot(new Object[]{second}, range(501, 0))).calculate();
+
+        assertFalse(diff.isEmpty());
+        assertEquals(1, diff.start);
+        // [first, second, FINISHED] and [second, FINISHED, 501]
+        assertEquals(3, diff.getOldListSize());
+        assertEquals(3, diff.getNewListSize());
+
+        assertTrue(diff.areItemsTheSame(1, 0));
+        assertTrue(diff.areItemsTheSame(2, 1));
+        assertFalse(diff.areItemsTheSame(0, 2));
+    }
+
+    @Test
+    public void finishedMissionDeleted() {
+        final long[] ids = range(500, 0);
+        final long[] remaining = new long[ids.length - 1];
+        System.arraycopy(ids, 0, remaining, 0, 200);
+        System.arraycopy(ids, 201, remaining, 200, remaining.length - 200);
+
+        final MissionListDiff diff = new MissionListDiff(snapshot(new Object[0], ids),
+                snapshot(new Object[0], remaining)).calculate();
+
+        // the header is followed by the finished missions
+        assertEquals(1 + 200, diff.start);
+        assertEquals(1, diff.getOldListSize());
+        assertEquals(0, diff.getNewListSize());
+    }
+
+    @Test
+    public void firstMissionAdded() {
+        final MissionListDiff diff = new MissionListDiff(snapshot(new Object[0], range(500, 0)),
+                snapshot(new Object[]{new Object()}, range(500, 0))).calculate();
+
+        // the pending header and the mission are inserted before the finished missions
+        assertEquals(0, diff.start);
+        assertEquals(0, diff.getOldListSize());
+        assertEquals(2, diff.getNewListSize());
+    }
+
+    @Test
+    public void allMissionsRemoved() {
+        final MissionListDiff diff = new MissionListDiff(
+                snapshot(new Object[]{new Object()}, range(10, 0)),
+                snapshot(new Object[0])).calculate();
+
+        assertEquals(0, diff.start);
+        assertEquals(2 + 1 + 10, diff.getOldListSize());
+        assertEquals(0, diff.getNewListSize());
+    }
+}
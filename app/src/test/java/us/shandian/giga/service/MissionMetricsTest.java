@@ -0,0 +1,102 @@
+package us.shandian.giga.service;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MissionMetricsTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static String toJson(final DownloadMetrics metrics) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        metrics.writeTo(out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void throughputBuckets() {
+        assertEquals(0, MissionMetrics.getBucket(10 * 1024, SECOND));
+        assertEquals(6, MissionMetrics.getBucket(1024 * 1024, SECOND));
+        assertEquals(6, MissionMetrics.getBucket(512 * 1024, SECOND / 2));
+        assertEquals(MissionMetrics.THROUGHPUT_BUCKETS.length,
+                MissionMetrics.getBucket(100L * 1024 * 1024, SECOND));
+    }
+
+    @Test
+    public void recordsWorkersAndPhases() {
+        final DownloadMetrics downloads = new DownloadMetrics();
+        final MissionMetrics metrics = downloads.track("video.mp4");
+
+        metrics.onConnectionEstablished(0, 80_000_000);
+        metrics.onConnectionEstablished(1, 120_000_000);
+        metrics.onFirstByte(0, 100_000_000);
+        metrics.onBlockCompleted(0, 512 * 1024, SECOND);
+        metrics.onBlockCompleted(1, 512 * 1024, SECOND / 4);
+        metrics.onBlockCompleted(1, 0, SECOND);
+        metrics.onRetry(1);
+        metrics.onRetry(1);
+        metrics.onRecovery(0);
+        metrics.onPhase("initialization", 300_000_000);
+        metrics.onPhase("postprocessing.process", 2 * SECOND);
+
+        final String json = toJson(downloads);
+
+        assertTrue(json.contains("\"name\":\"video.mp4\""));
+        assertTrue(json.contains("\"connection_setup\":{\"count\":2,\"total_ms\":200.0,"
+                + "\"min_ms\":80.0,\"avg_ms\":100.0,\"max_ms\":120.0}"));
+        assertTrue(json.contains("\"blocks\":{\"count\":2,\"bytes\":1048576,"
+                + "\"average_kib_per_second\":819,"));
+        assertTrue(json.contains("{\"below_kib_per_second\":1024,\"count\":1}"));
+        assertTrue(json.contains("{\"below_kib_per_second\":4096,\"count\":1}"));
+        assertTrue(json.contains("\"retries\":2,\"recoveries\":1"));
+        assertTrue(json.contains("{\"id\":1,"));
+        assertTrue(json.contains("\"retries\":2,\"recoveries\":0}"));
+        assertTrue(json.contains("\"initialization\":{\"count\":1,\"total_ms\":300.0,"));
+        assertTrue(json.contains("\"postprocessing.process\":{\"count\":1,"));
+    }
+
+    @Test
+    public void keepsTheRecentMissions() {
+        final DownloadMetrics downloads = new DownloadMetrics();
+        final int count = DownloadMetrics.MAXIMUM_MISSIONS + 8;
+
+        for (int i = 0; i < count; i++) {
+            downloads.track("mission-" + i);
+        }
+
+        final String json = toJson(downloads);
+
+        assertFalse(json.contains("\"mission-7\""));
+        assertTrue(json.contains("\"mission-8\""));
+        assertTrue(json.contains("\"mission-" + (count - 1) + "\""));
+    }
+
+    @Test
+    public void dumpReplacesTheFile() throws IOException {
+        final DownloadMetrics downloads = new DownloadMetrics();
+        final File file = new File(folder.getRoot(), "download_metrics.json");
+
+        downloads.track("first");
+        downloads.dump(file);
+        downloads.track("second");
+        downloads.dump(file);
+
+        final String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        assertTrue(json.contains("\"second\""));
+        assertTrue(json.endsWith("]}"));
+        assertEquals(1, folder.getRoot().list().length);
+    }
+}